@@ -0,0 +1,287 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmWithRating;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.repository.FilmStatsStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+
+/**
+ * Reading films in one query that joins genres, directors and ratings against the two-phase
+ * read of DbFilmStorage, for the whole catalogue and for a page of films by id.
+ *
+ * <p>The joined queries are the single-query read films had before: once averaging the ratings
+ * table, which multiplies the genre x director rows by the ratings, and once reading film_stats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FilmHydrationBenchmark {
+
+    private static final long SEED = 7;
+    private static final int DIRECTORS = 30;
+    private static final double RATED_SHARE = 0.3;
+    private static final int PAGE_SIZE = 50;
+
+    private static final String JOINED_RATINGS_QUERY = """
+            SELECT
+                f.film_id,
+                f.name AS film_name,
+                f.description,
+                f.release_date,
+                f.duration,
+                m.mpa_id,
+                m.name AS mpa_name,
+                g.genre_id,
+                g.name AS genre_name,
+                d.director_id,
+                d.name AS director_name,
+                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
+            FROM films AS f
+            LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
+            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
+            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
+            LEFT JOIN film_directors AS fd ON f.film_id = fd.film_id
+            LEFT JOIN directors AS d ON fd.director_id = d.director_id
+            LEFT JOIN ratings AS r ON f.film_id = r.film_id
+            WHERE f.film_id IN (%s)
+            GROUP BY
+                f.film_id,
+                f.name,
+                f.description,
+                f.release_date,
+                f.duration,
+                m.mpa_id,
+                m.name,
+                g.genre_id,
+                g.name,
+                d.director_id,
+                d.name
+            ORDER BY
+                f.film_id,
+                g.genre_id
+            """;
+
+    private static final String JOINED_STATS_QUERY = """
+            SELECT
+                f.film_id,
+                f.name AS film_name,
+                f.description,
+                f.release_date,
+                f.duration,
+                m.mpa_id,
+                m.name AS mpa_name,
+                g.genre_id,
+                g.name AS genre_name,
+                d.director_id,
+                d.name AS director_name,
+                COALESCE(s.avg_rating, 0.0) AS avg_rating
+            FROM films AS f
+            LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
+            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
+            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
+            LEFT JOIN film_directors AS fd ON f.film_id = fd.film_id
+            LEFT JOIN directors AS d ON fd.director_id = d.director_id
+            LEFT JOIN film_stats AS s ON f.film_id = s.film_id
+            WHERE f.film_id IN (%s)
+            ORDER BY
+                f.film_id,
+                g.genre_id
+            """;
+
+    @Param("600")
+    public int films;
+    @Param("1000")
+    public int users;
+    // All reads the whole catalogue, page reads PAGE_SIZE films by id in random order
+    @Param({"all", "page"})
+    public String read;
+
+    private ConfigurableApplicationContext context;
+    private JdbcTemplate jdbc;
+    private FilmStorage filmStorage;
+    private List<Long> filmIds;
+    private String joinedRatingsSql;
+    private String joinedStatsSql;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(FilmorateApplication.class).run(
+            "--spring.main.web-application-type=none",
+            "--spring.main.banner-mode=off",
+            "--spring.datasource.url=jdbc:h2:mem:hydration;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1",
+            "--spring.sql.init.mode=always",
+            "--spring.sql.init.schema-locations=classpath:schema.sql",
+            "--logging.level.root=WARN",
+            "--logging.level.ru.yandex.practicum.filmorate=WARN",
+            "--filmorate.recommendations.snapshot.enabled=false",
+            "--filmorate.recommendations.startup.async=false");
+        jdbc = context.getBean(JdbcTemplate.class);
+        filmStorage = context.getBean(FilmStorage.class);
+        // H2 would otherwise hand a repeated query its previous result
+        jdbc.execute("SET OPTIMIZE_REUSE_RESULTS 0");
+
+        List<Long> allIds = seed(new Random(SEED));
+        context.getBean(FilmStatsStorage.class).rebuild();
+        if ("page".equals(read)) {
+            filmIds = new ArrayList<>(allIds);
+            Collections.shuffle(filmIds, new Random(1));
+            filmIds = List.copyOf(filmIds.subList(0, PAGE_SIZE));
+        } else {
+            filmIds = allIds;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(filmIds.size(), "?"));
+        joinedRatingsSql = String.format(JOINED_RATINGS_QUERY, placeholders);
+        joinedStatsSql = String.format(JOINED_STATS_QUERY, placeholders);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<FilmWithRating> joinRatings() {
+        return jdbc.query(joinedRatingsSql, new JoinedFilmsExtractor(), filmIds.toArray());
+    }
+
+    @Benchmark
+    public List<FilmWithRating> joinFilmStats() {
+        return jdbc.query(joinedStatsSql, new JoinedFilmsExtractor(), filmIds.toArray());
+    }
+
+    @Benchmark
+    public List<FilmWithRating> twoPhase() {
+        return "page".equals(read) ? filmStorage.getFilmsByIds(filmIds)
+            : filmStorage.getAllFilms();
+    }
+
+    // 3 to 5 genres and 1 to 3 directors per film, RATED_SHARE of all user x film ratings
+    private List<Long> seed(Random random) {
+        for (int i = 0; i < DIRECTORS; i++) {
+            jdbc.update("INSERT INTO directors (name) VALUES (?)", "Director " + i);
+        }
+        List<Long> directorIds = jdbc.queryForList("SELECT director_id FROM directors",
+            Long.class);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < films; i++) {
+            Film film = new Film();
+            film.setName("Film " + i);
+            film.setDescription("Description " + i);
+            film.setReleaseDate(LocalDate.of(1960 + random.nextInt(60), 1, 1));
+            film.setDuration(90 + random.nextInt(60));
+            MpaRating mpa = new MpaRating();
+            mpa.setId(1 + random.nextInt(5));
+            film.setMpa(mpa);
+            Set<Genre> genres = new HashSet<>();
+            int genreCount = 3 + random.nextInt(3);
+            while (genres.size() < genreCount) {
+                genres.add(new Genre(1 + random.nextInt(6), null));
+            }
+            film.setGenres(genres);
+            Set<Director> directors = new HashSet<>();
+            int directorCount = 1 + random.nextInt(3);
+            while (directors.size() < directorCount) {
+                Director director = new Director();
+                director.setId(directorIds.get(random.nextInt(directorIds.size())));
+                directors.add(director);
+            }
+            film.setDirectors(directors);
+            ids.add(filmStorage.addFilm(film));
+        }
+        for (int user = 0; user < users; user++) {
+            jdbc.update("INSERT INTO users (email, login, name) VALUES (?, ?, ?)",
+                "user" + user + "@example.com", "user" + user, "User " + user);
+        }
+        List<Object[]> ratings = new ArrayList<>();
+        for (long userId : jdbc.queryForList("SELECT user_id FROM users", Long.class)) {
+            for (long filmId : ids) {
+                if (random.nextDouble() < RATED_SHARE) {
+                    ratings.add(new Object[]{userId, filmId, 1 + random.nextInt(10)});
+                }
+            }
+        }
+        jdbc.batchUpdate("INSERT INTO ratings (user_id, film_id, rating_value) VALUES (?, ?, ?)",
+            ratings);
+        return ids;
+    }
+
+    // Folds the genre x director rows of each film back into one film
+    private static class JoinedFilmsExtractor
+        implements ResultSetExtractor<List<FilmWithRating>> {
+
+        @Override
+        public List<FilmWithRating> extractData(ResultSet rs) throws SQLException {
+            Map<Long, FilmWithRating> films = new LinkedHashMap<>();
+            while (rs.next()) {
+                long filmId = rs.getLong("film_id");
+                FilmWithRating filmWithRating = films.get(filmId);
+                if (filmWithRating == null) {
+                    Film film = new Film();
+                    film.setId(filmId);
+                    film.setName(rs.getString("film_name"));
+                    film.setDescription(rs.getString("description"));
+                    java.sql.Date releaseDate = rs.getDate("release_date");
+                    film.setReleaseDate(releaseDate != null ? releaseDate.toLocalDate() : null);
+                    film.setDuration(rs.getInt("duration"));
+                    MpaRating mpa = new MpaRating();
+                    mpa.setId(rs.getInt("mpa_id"));
+                    mpa.setName(rs.getString("mpa_name"));
+                    film.setMpa(mpa.getId() == 0 ? null : mpa);
+                    film.setGenres(new HashSet<>());
+                    film.setDirectors(new HashSet<>());
+                    filmWithRating = new FilmWithRating(film, rs.getDouble("avg_rating"));
+                    films.put(filmId, filmWithRating);
+                }
+                int genreId = rs.getInt("genre_id");
+                if (genreId != 0) {
+                    filmWithRating.getFilm().getGenres()
+                        .add(new Genre(genreId, rs.getString("genre_name")));
+                }
+                long directorId = rs.getLong("director_id");
+                if (directorId != 0) {
+                    Director director = new Director();
+                    director.setId(directorId);
+                    director.setName(rs.getString("director_name"));
+                    filmWithRating.getFilm().getDirectors().add(director);
+                }
+            }
+            return new ArrayList<>(films.values());
+        }
+    }
+}
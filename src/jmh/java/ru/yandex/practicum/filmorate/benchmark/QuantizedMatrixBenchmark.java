@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrixBuilder;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOnePredictor;
+import ru.yandex.practicum.filmorate.recommendation.StripedSlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+
+/**
+ * Prediction latency per user on the exact and the quantized in-memory matrix built from the
+ * same {@link SyntheticRatings}. The estimated heap of the matrix is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QuantizedMatrixBenchmark {
+
+    private static final long SEED = 2024;
+    private static final int STRIPES = 64;
+    private static final int SAMPLED_USERS = 300;
+
+    @Param("3000")
+    public int users;
+    @Param("1500")
+    public int films;
+    @Param("30")
+    public int ratingsPerUser;
+    @Param("1.0")
+    public double skew;
+    @Param({"false", "true"})
+    public boolean quantized;
+
+    private StripedSlopeOneMatrix matrix;
+    private List<SortedMap<Long, Double>> sampledRatings;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<UserRatings> ratings = new SyntheticRatings(SEED, users, films, ratingsPerUser, skew)
+            .generate();
+        SlopeOneMatrix built = SlopeOneMatrixBuilder.build(ratings);
+        matrix = StripedSlopeOneMatrix.of(built, STRIPES, quantized);
+        sampledRatings = new ArrayList<>();
+        for (UserRatings user : ratings.subList(0, Math.min(SAMPLED_USERS, users))) {
+            SortedMap<Long, Double> userRatings = new TreeMap<>();
+            for (int i = 0; i < user.size(); i++) {
+                userRatings.put(user.filmIds()[i], user.ratings()[i]);
+            }
+            sampledRatings.add(userRatings);
+        }
+        System.out.printf("%n%d pairs, %.1f MiB%n", matrix.size(), matrix.bytes() / 1048576.0);
+    }
+
+    @Benchmark
+    public Map<Long, Double> predict() {
+        next = (next + 1) % sampledRatings.size();
+        return SlopeOnePredictor.predict(matrix, sampledRatings.get(next));
+    }
+}
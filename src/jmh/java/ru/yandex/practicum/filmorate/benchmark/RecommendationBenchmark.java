@@ -0,0 +1,200 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+import ru.yandex.practicum.filmorate.service.LikesService;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
+
+/**
+ * Full rebuild, a single incremental update and recommendation latency of each recommendation
+ * engine on the same in-memory H2 database filled from {@link SyntheticRatings}.
+ *
+ * <p>The application runs with the production recommendation settings except that snapshots
+ * and the recommendation cache are off and rating changes are applied on the calling thread, so
+ * every invocation measures the actual work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RecommendationBenchmark {
+
+    private static final long SEED = 42;
+    private static final int SAMPLED_USERS = 100;
+    private static final int BATCH_SIZE = 1000;
+    private static final String INSERT_USER_QUERY =
+        "INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_FILM_QUERY =
+        "INSERT INTO films (film_id, name, release_date, duration, mpa_rating_id) "
+            + "VALUES (?, ?, ?, ?, 1)";
+    private static final String INSERT_RATING_QUERY =
+        "INSERT INTO ratings (user_id, film_id, rating_value) VALUES (?, ?, ?)";
+
+    @Param("1000")
+    public int users;
+    @Param("500")
+    public int films;
+    @Param("20")
+    public int ratingsPerUser;
+    @Param({"0.0", "1.0"})
+    public double skew;
+    @Param({"slope-one", "matrix-factorization"})
+    public String engine;
+    // False loads the neighbourhoods of the user's films per prediction, slope-one only
+    @Param("true")
+    public boolean inMemory;
+
+    private ConfigurableApplicationContext context;
+    private RecommendationService recommendationService;
+    private LikesService likesService;
+    // Users to recommend for and, for each, a film the user has not rated
+    private long[] sampledUsers;
+    private long[] unratedFilms;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(FilmorateApplication.class).run(
+            "--spring.main.web-application-type=none",
+            "--spring.main.banner-mode=off",
+            "--spring.datasource.url=jdbc:h2:mem:benchmark;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1",
+            "--spring.sql.init.mode=always",
+            "--spring.sql.init.schema-locations=classpath:schema.sql",
+            "--logging.level.root=WARN",
+            "--logging.level.ru.yandex.practicum.filmorate=WARN",
+            "--filmorate.recommendations.rebuild.parallelism=0",
+            "--filmorate.recommendations.rebuild.compare-with-sequential=false",
+            "--filmorate.recommendations.rebuild.chunk-users=0",
+            "--filmorate.recommendations.snapshot.enabled=false",
+            "--filmorate.recommendations.startup.async=false",
+            "--filmorate.recommendations.pruning.max-neighbours=0",
+            "--filmorate.recommendations.cache.max-users=0",
+            "--filmorate.recommendations.updates.async=false",
+            "--filmorate.recommendations.storage.half-matrix=true",
+            "--filmorate.recommendations.storage.in-memory=" + inMemory,
+            "--filmorate.recommendations.engine=" + engine);
+        recommendationService = context.getBean(RecommendationService.class);
+        likesService = context.getBean(LikesService.class);
+
+        List<UserRatings> ratings = new SyntheticRatings(SEED, users, films, ratingsPerUser, skew)
+            .generate();
+        insert(context.getBean(JdbcTemplate.class), ratings);
+        recommendationService.rebuild();
+
+        int sampled = Math.min(SAMPLED_USERS, users);
+        sampledUsers = new long[sampled];
+        unratedFilms = new long[sampled];
+        for (int i = 0; i < sampled; i++) {
+            UserRatings user = ratings.get(i * (users / sampled));
+            sampledUsers[i] = user.userId();
+            unratedFilms[i] = firstUnrated(user);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    // A rebuild takes seconds, so each call is timed on its own
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void fullRebuild() {
+        recommendationService.rebuild();
+    }
+
+    @Benchmark
+    public void incrementalUpdate(NewRating rating) {
+        likesService.rateFilm(rating.userId, rating.filmId, 7.0);
+    }
+
+    @Benchmark
+    public List<FilmDto> recommendations() {
+        next = (next + 1) % sampledUsers.length;
+        return recommendationService.getRecommendations(sampledUsers[next]);
+    }
+
+    /**
+     * A rating the user does not have yet, removed again outside the measured time so every
+     * invocation starts from the same matrix.
+     */
+    @State(Scope.Thread)
+    public static class NewRating {
+
+        private long userId;
+        private long filmId;
+        private int next;
+
+        @Setup(Level.Invocation)
+        public void pick(RecommendationBenchmark benchmark) {
+            next = (next + 1) % benchmark.sampledUsers.length;
+            userId = benchmark.sampledUsers[next];
+            filmId = benchmark.unratedFilms[next];
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(RecommendationBenchmark benchmark) {
+            benchmark.likesService.unrateFilm(userId, filmId);
+        }
+    }
+
+    private static long firstUnrated(UserRatings user) {
+        long filmId = 1;
+        while (Arrays.binarySearch(user.filmIds(), filmId) >= 0) {
+            filmId++;
+        }
+        return filmId;
+    }
+
+    private void insert(JdbcTemplate jdbc, List<UserRatings> ratings) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int userId = 1; userId <= users; userId++) {
+            rows.add(new Object[]{userId, "user" + userId + "@example.com", "user" + userId,
+                "User " + userId, LocalDate.of(1970 + userId % 40, 1, 1)});
+        }
+        jdbc.batchUpdate(INSERT_USER_QUERY, rows);
+        rows.clear();
+        for (int filmId = 1; filmId <= films; filmId++) {
+            rows.add(new Object[]{filmId, "Film " + filmId,
+                LocalDate.of(1950 + filmId % 70, 1, 1), 90 + filmId % 60});
+        }
+        jdbc.batchUpdate(INSERT_FILM_QUERY, rows);
+        rows.clear();
+        for (UserRatings user : ratings) {
+            for (int i = 0; i < user.size(); i++) {
+                rows.add(new Object[]{user.userId(), user.filmIds()[i], user.ratings()[i]});
+                if (rows.size() == BATCH_SIZE) {
+                    jdbc.batchUpdate(INSERT_RATING_QUERY, rows);
+                    rows.clear();
+                }
+            }
+        }
+        jdbc.batchUpdate(INSERT_RATING_QUERY, rows);
+    }
+}
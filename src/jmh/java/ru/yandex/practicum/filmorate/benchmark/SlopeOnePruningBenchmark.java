@@ -0,0 +1,122 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrixBuilder;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOnePredictor;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+
+/**
+ * Prediction latency per user on matrices pruned to the top-K co-rated neighbours of each film,
+ * built from {@link SyntheticRatings} with skewed popularity. Each trial also prints the stored
+ * pairs, the estimated heap, how many of the unpruned top-10 recommendations survive pruning and
+ * how many of them are still predicted at all.
+ *
+ * <p>The overlap stays below 0.1 even at K = 200, for two reasons the reach shows apart. Co-rating
+ * counts follow popularity, so every film keeps mostly the same popular neighbours, while the
+ * synthetic quality of a film is unrelated to its popularity: only about half of the unpruned
+ * top-10 is still predicted at K = 200. The films that are still predicted are averaged over
+ * fewer of the user's ratings, which reorders them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SlopeOnePruningBenchmark {
+
+    private static final long SEED = 2024;
+    private static final int SAMPLED_USERS = 300;
+    private static final int TOP_N = 10;
+
+    @Param("3000")
+    public int users;
+    @Param("1500")
+    public int films;
+    @Param("30")
+    public int ratingsPerUser;
+    @Param("1.0")
+    public double skew;
+    // 0 keeps all neighbours
+    @Param({"0", "10", "25", "50", "100", "200"})
+    public int maxNeighbours;
+
+    private SlopeOneMatrix matrix;
+    private List<SortedMap<Long, Double>> sampledRatings;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<UserRatings> ratings = new SyntheticRatings(SEED, users, films, ratingsPerUser, skew)
+            .generate();
+        sampledRatings = new ArrayList<>();
+        for (UserRatings user : ratings.subList(0, Math.min(SAMPLED_USERS, users))) {
+            SortedMap<Long, Double> userRatings = new TreeMap<>();
+            for (int i = 0; i < user.size(); i++) {
+                userRatings.put(user.filmIds()[i], user.ratings()[i]);
+            }
+            sampledRatings.add(userRatings);
+        }
+        SlopeOneMatrix full = SlopeOneMatrixBuilder.build(ratings);
+        matrix = SlopeOneMatrixBuilder.build(ratings);
+        if (maxNeighbours > 0) {
+            matrix.retainTopNeighbours(maxNeighbours);
+        }
+        System.out.printf("%n%d pairs (%.1f%%), %.1f MiB, overlap@%d %.3f, reach@%d %.3f%n",
+            matrix.size(), 100.0 * matrix.size() / full.size(), matrix.bytes() / 1048576.0, TOP_N,
+            overlap(full, matrix, false), TOP_N, overlap(full, matrix, true));
+    }
+
+    @Benchmark
+    public Map<Long, Double> predict() {
+        next = (next + 1) % sampledRatings.size();
+        return SlopeOnePredictor.predict(matrix, sampledRatings.get(next));
+    }
+
+    // Mean share of the full matrix's top-N per sampled user that the pruned one also returns in
+    // its top-N, or predicts at all if reach is set
+    private double overlap(SlopeOneMatrix full, SlopeOneMatrix pruned, boolean reach) {
+        double sum = 0;
+        int counted = 0;
+        for (SortedMap<Long, Double> userRatings : sampledRatings) {
+            List<Long> expected = topN(SlopeOnePredictor.predict(full, userRatings));
+            if (expected.isEmpty()) {
+                continue;
+            }
+            Map<Long, Double> predicted = SlopeOnePredictor.predict(pruned, userRatings);
+            Set<Long> common = new HashSet<>(expected);
+            common.retainAll(reach ? predicted.keySet() : topN(predicted));
+            sum += (double) common.size() / expected.size();
+            counted++;
+        }
+        return counted == 0 ? 1.0 : sum / counted;
+    }
+
+    private static List<Long> topN(Map<Long, Double> predictions) {
+        return predictions.entrySet().stream()
+            .sorted(Map.Entry.<Long, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey(Comparator.naturalOrder())))
+            .limit(TOP_N).map(Map.Entry::getKey).toList();
+    }
+}
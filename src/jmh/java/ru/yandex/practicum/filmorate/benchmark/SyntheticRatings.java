@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+
+/**
+ * Seeded synthetic ratings for benchmarks.
+ *
+ * <p>Users {@code 1..users} each rate {@code ratingsPerUser} distinct films out of
+ * {@code 1..films}. Films are drawn with Zipf-like popularity where {@code skew} is the exponent,
+ * 0 gives uniform popularity and larger values concentrate the ratings on fewer films. A rating
+ * is a per-film quality plus a per-user bias plus noise, rounded and clamped to 1..10. The same
+ * arguments always produce the same ratings.
+ */
+public record SyntheticRatings(long seed, int users, int films, int ratingsPerUser, double skew) {
+
+    public SyntheticRatings {
+        if (users <= 0 || films <= 0 || ratingsPerUser <= 0 || ratingsPerUser > films) {
+            throw new IllegalArgumentException("Need positive users and films and at most "
+                + films + " ratings per user, got " + ratingsPerUser);
+        }
+        if (skew < 0) {
+            throw new IllegalArgumentException("Skew must not be negative: " + skew);
+        }
+    }
+
+    // Users in id order, each with film ids ascending
+    public List<UserRatings> generate() {
+        Random random = new Random(seed);
+        double[] cumulative = new double[films];
+        double total = 0;
+        for (int i = 0; i < films; i++) {
+            total += Math.pow(i + 1, -skew);
+            cumulative[i] = total;
+        }
+        // Popularity rank and film id are unrelated, so popular films are spread over the id range
+        long[] filmIdByRank = new long[films];
+        for (int i = 0; i < films; i++) {
+            filmIdByRank[i] = i + 1;
+        }
+        for (int i = films - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long tmp = filmIdByRank[i];
+            filmIdByRank[i] = filmIdByRank[j];
+            filmIdByRank[j] = tmp;
+        }
+        double[] quality = new double[films + 1];
+        for (int i = 1; i <= films; i++) {
+            quality[i] = 6.0 + random.nextGaussian() * 1.5;
+        }
+
+        List<UserRatings> result = new ArrayList<>(users);
+        boolean[] taken = new boolean[films + 1];
+        for (long userId = 1; userId <= users; userId++) {
+            double bias = random.nextGaussian();
+            long[] filmIds = new long[ratingsPerUser];
+            int count = 0;
+            while (count < ratingsPerUser) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                long filmId = filmIdByRank[Math.min(rank >= 0 ? rank : -rank - 1, films - 1)];
+                if (!taken[(int) filmId]) {
+                    taken[(int) filmId] = true;
+                    filmIds[count++] = filmId;
+                }
+            }
+            Arrays.sort(filmIds);
+            double[] ratings = new double[ratingsPerUser];
+            for (int i = 0; i < ratingsPerUser; i++) {
+                taken[(int) filmIds[i]] = false;
+                double rating = quality[(int) filmIds[i]] + bias + random.nextGaussian();
+                ratings[i] = Math.max(1, Math.min(10, Math.round(rating)));
+            }
+            result.add(new UserRatings(userId, filmIds, ratings));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.config;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "filmorate.film-cache")
+public class FilmCacheProperties {
+
+    // Films kept in memory by id, 0 disables the cache
+    private int maxFilms = 10_000;
+    // Upper bound on staleness from writes that bypass the services, 0 keeps entries until
+    // evicted or invalidated
+    private Duration expireAfter = Duration.ofMinutes(10);
+
+    @PostConstruct
+    public void validate() {
+        if (maxFilms < 0) {
+            throw new IllegalStateException("Film cache size must not be negative");
+        }
+        if (expireAfter.isNegative()) {
+            throw new IllegalStateException("Film cache expiry must not be negative");
+        }
+    }
+}
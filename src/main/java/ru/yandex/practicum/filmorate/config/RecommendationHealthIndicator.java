@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.RecommendationStatus;
+
+// Part of the readiness group: out of service while the model is built on startup
+@Component("recommendations")
+@RequiredArgsConstructor
+public class RecommendationHealthIndicator implements HealthIndicator {
+
+    private final RecommendationStatus status;
+
+    @Override
+    public Health health() {
+        Health.Builder health = switch (status.getState()) {
+            case WARMING -> Health.outOfService();
+            case READY -> Health.up();
+            case FAILED -> Health.down();
+        };
+        return health.withDetails(status.details()).build();
+    }
+}
@@ -1,20 +1,113 @@
 package ru.yandex.practicum.filmorate.config;
 
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.service.FilmStatsService;
+import ru.yandex.practicum.filmorate.service.RecommendationEngine;
 import ru.yandex.practicum.filmorate.service.RecommendationService;
+import ru.yandex.practicum.filmorate.service.RecommendationUpdatePipeline;
 
 @Component
 @RequiredArgsConstructor
+@Slf4j
 @SuppressWarnings("unused")
 public class RecommendationInitializer {
 
+    private final FilmStatsService filmStatsService;
     private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final RecommendationProperties properties;
+    private ScheduledExecutorService rebuilds;
 
     @EventListener(ApplicationReadyEvent.class)
-    public void calculateDiffAndFreqOnStartup() {
-        recommendationService.calculateDiffAndFreq();
+    public void initializeRecommendationsOnStartup() {
+        // The model build reads the average ratings from film_stats, which an upgraded database
+        // only has once the check has filled it
+        filmStatsService.checkConsistency();
+        if (!properties.getStartup().isAsync()) {
+            initialize();
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                initialize();
+            } catch (RuntimeException e) {
+                log.error("Failed to build the recommendation model, recommending popular films "
+                    + "until the next restart", e);
+            }
+        }, "recommendation-startup");
+        thread.setDaemon(true);
+        thread.start();
     }
-}
\ No newline at end of file
+
+    private void initialize() {
+        try {
+            recommendationService.initialize(cutOfRatingUpdates());
+        } finally {
+            // Even a failed build leaves a model the collected changes can go to
+            recommendationUpdates.resume();
+        }
+        scheduleRebuilds();
+    }
+
+    // Rebuilds the model with rating updates paused, so the changes made meanwhile reach the new
+    // model once, after it replaced the current one
+    public void rebuild() throws InterruptedException {
+        recommendationUpdates.pause();
+        try {
+            recommendationService.rebuild(cutOfRatingUpdates());
+        } finally {
+            recommendationUpdates.resume();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (rebuilds != null) {
+            rebuilds.shutdownNow();
+        }
+    }
+
+    // A pruned model only takes new pairs on a rebuild
+    private void scheduleRebuilds() {
+        RecommendationProperties.Pruning pruning = properties.getPruning();
+        Duration interval = pruning.getRebuildInterval();
+        if (!pruning.isEnabled() || interval.isZero()) {
+            return;
+        }
+        rebuilds = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recommendation-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilds.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Failed to rebuild the pruned recommendation model, the current one "
+                    + "may miss the changes cut for it until the next rebuild", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Pruned recommendation model is rebuilt every {}", interval);
+    }
+
+    private RecommendationEngine.BuildProgress cutOfRatingUpdates() {
+        return new RecommendationEngine.BuildProgress() {
+            @Override
+            public <T> T cut(Supplier<T> read) {
+                return recommendationUpdates.cut(read);
+            }
+        };
+    }
+}
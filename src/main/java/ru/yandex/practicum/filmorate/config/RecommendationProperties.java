@@ -0,0 +1,178 @@
+package ru.yandex.practicum.filmorate.config;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "filmorate.recommendations")
+public class RecommendationProperties {
+
+    public static final String SLOPE_ONE = "slope-one";
+    public static final String MATRIX_FACTORIZATION = "matrix-factorization";
+
+    // Engine that predicts ratings, slope-one or matrix-factorization
+    private String engine = SLOPE_ONE;
+    private final Rebuild rebuild = new Rebuild();
+    private final Snapshot snapshot = new Snapshot();
+    private final Pruning pruning = new Pruning();
+    private final Cache cache = new Cache();
+    private final Updates updates = new Updates();
+    private final Storage storage = new Storage();
+    private final Factorization factorization = new Factorization();
+    private final Similar similar = new Similar();
+    private final Startup startup = new Startup();
+
+    @PostConstruct
+    public void validate() {
+        if (rebuild.getChunkUsers() < 0) {
+            throw new IllegalStateException("Rebuild chunk size must not be negative");
+        }
+        if (similar.getMaxNeighbours() <= 0) {
+            throw new IllegalStateException("Similar films need a positive neighbour limit");
+        }
+        if (!SLOPE_ONE.equals(engine) && !MATRIX_FACTORIZATION.equals(engine)) {
+            throw new IllegalStateException("Unknown recommendation engine '" + engine
+                + "', expected " + SLOPE_ONE + " or " + MATRIX_FACTORIZATION);
+        }
+        if (!Storage.ROWS.equals(storage.getFormat())
+            && !Storage.ADJACENCY.equals(storage.getFormat())) {
+            throw new IllegalStateException("Unknown matrix storage format '"
+                + storage.getFormat() + "', expected " + Storage.ROWS + " or "
+                + Storage.ADJACENCY);
+        }
+        if (storage.isHalfMatrix() && Storage.ADJACENCY.equals(storage.getFormat())) {
+            throw new IllegalStateException("The adjacency storage keeps the full neighbour list "
+                + "of every film, which the half-matrix layout cannot provide");
+        }
+        if (pruning.getRebuildInterval().isNegative()) {
+            throw new IllegalStateException("Pruned model rebuild interval must not be negative");
+        }
+        if (storage.isHalfMatrix() && pruning.isEnabled()) {
+            throw new IllegalStateException("Neighbour pruning keeps pairs per film and direction, "
+                + "which the half-matrix storage cannot represent");
+        }
+    }
+
+    @Data
+    public static class Startup {
+
+        // Build the model on a background thread so the API serves right away, recommendations
+        // fall back to popular films until it is ready. False blocks startup until then
+        private boolean async = true;
+    }
+
+    @Data
+    public static class Rebuild {
+
+        // Worker threads for a full model rebuild, 0 means one per available processor
+        private int parallelism = 0;
+        // Also run the sequential build and log the speedup and whether both results match
+        private boolean compareWithSequential = false;
+        // Users per chunk of a rebuild by ascending user id. Each chunk is merged into a staged
+        // matrix together with a checkpoint, so an interrupted rebuild resumes after the last
+        // merged chunk. 0 builds the whole matrix in memory at once
+        private int chunkUsers = 10_000;
+
+        public boolean isChunked() {
+            return chunkUsers > 0;
+        }
+
+        public int effectiveParallelism() {
+            return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    @Data
+    public static class Snapshot {
+
+        // Load the matrix from a snapshot file on startup and replay newer ratings only
+        private boolean enabled = false;
+        private String path = "./db/recommendations.snapshot";
+    }
+
+    @Data
+    public static class Pruning {
+
+        // Neighbours kept per film in item_diff / item_freq by co-rating count, 0 keeps all.
+        // Each film keeps mostly the same popular films, so films outside them are no longer
+        // predicted and the rest from fewer of the user's ratings: on skewed popularity the
+        // top-10 barely overlaps the unpruned one, see SlopeOnePruningBenchmark. A trade of
+        // recommendations for memory and latency rather than an approximation
+        private int maxNeighbours = 0;
+        // Rating updates only change pairs that are still stored, new films and pairs enter
+        // with a rebuild run this often while pruning is on, 0 leaves them to a restart
+        private Duration rebuildInterval = Duration.ofHours(1);
+
+        public boolean isEnabled() {
+            return maxNeighbours > 0;
+        }
+    }
+
+    @Data
+    public static class Cache {
+
+        // Users whose recommendation lists are kept in memory, 0 disables the cache
+        private int maxUsers = 10_000;
+        // Bounds how long ratings of other users may go unnoticed, 0 keeps entries until evicted
+        private Duration expireAfter = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Updates {
+
+        // Apply rating changes on a background worker, false applies them on the request thread
+        private boolean async = true;
+        // Users with pending changes, when full the rating request applies its change itself
+        private int queueCapacity = 10_000;
+        // Users whose changes go into one matrix update
+        private int maxBatchUsers = 100;
+        // How long the worker waits after a user's first change so a burst is applied at once
+        private Duration coalesceWindow = Duration.ofMillis(100);
+    }
+
+    @Data
+    public static class Storage {
+
+        public static final String ROWS = "rows";
+        public static final String ADJACENCY = "adjacency";
+
+        // rows keeps one row per film pair in item_diff / item_freq, adjacency one row per film
+        // in item_adjacency with its neighbours encoded in a blob. Switching to adjacency moves
+        // the pairs over on startup
+        private String format = ROWS;
+        // Keep each pair once in item_diff / item_freq as film_id1 < film_id2 and derive the
+        // reverse direction on read. Existing tables are converted on startup
+        private boolean halfMatrix = false;
+        // Keep the saved matrix in memory for predictions. False loads the neighbourhoods of the
+        // user's rated films per prediction instead, so memory does not grow with the catalogue
+        private boolean inMemory = true;
+        // Keep the in-memory matrix as float averages and short counts, about 40% of the
+        // exact matrix. Predictions move by less than 1e-5
+        private boolean quantized = false;
+    }
+
+    @Data
+    public static class Factorization {
+
+        // Length of the latent vector of every user and film
+        private int factors = 32;
+        // Alternating least squares sweeps over users and films per rebuild
+        private int iterations = 10;
+        // L2 penalty per rating, keeps vectors of rarely rated films and users small
+        private double regularization = 0.05;
+        // Seed of the initial film vectors, so the same ratings always give the same model
+        private long seed = 42;
+    }
+
+    @Data
+    public static class Similar {
+
+        // Length of the precomputed similar-films list of every film, also the most a request
+        // can get
+        private int maxNeighbours = 50;
+    }
+}
@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Set;
@@ -18,6 +19,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
@@ -25,6 +27,7 @@ import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
 import ru.yandex.practicum.filmorate.model.SearchType;
 import ru.yandex.practicum.filmorate.service.FilmService;
 import ru.yandex.practicum.filmorate.service.LikesService;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
 
 @RestController
 @RequestMapping("/films")
@@ -35,12 +38,29 @@ public class FilmController {
 
     private final FilmService filmService;
     private final LikesService likesService;
+    private final RecommendationService recommendationService;
+    private final ObjectMapper objectMapper;
 
+    // Pages by id, unpaged=true returns the whole catalogue in one response
     @GetMapping
-    public ResponseEntity<Collection<FilmDto>> getAllFilms() {
-        log.info("Request to get all films received.");
-        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
-                .body(filmService.getAllFilms());
+    public ResponseEntity<Collection<FilmDto>> getAllFilms(
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = PageResponses.DEFAULT_LIMIT) int limit,
+            @RequestParam(defaultValue = "false") boolean unpaged) {
+        if (unpaged) {
+            log.info("Request to get all films received.");
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                    .body(filmService.getAllFilms());
+        }
+        log.info("Request to get up to {} films after ID {} received.", limit, after);
+        return PageResponses.of(filmService.getFilmsPage(after, limit));
+    }
+
+    // The whole listing as NDJSON, read and written batch by batch
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllFilms() {
+        log.info("Request to stream all films received.");
+        return NdjsonResponses.of(objectMapper, filmService::streamAllFilms);
     }
 
     @GetMapping("/{id}")
@@ -107,6 +127,17 @@ public class FilmController {
                 .body(films);
     }
 
+    @GetMapping("/{id}/similar")
+    public ResponseEntity<Collection<FilmDto>> getSimilarFilms(@PathVariable long id,
+            @RequestParam(defaultValue = "10") int count) {
+        log.info("Request to get {} films similar to film with ID {} received.", count, id);
+        RecommendationService.ServedFilms served =
+                recommendationService.getSimilarFilmsWithState(id, count);
+        return RecommendationController.withState(served.state())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(served.films());
+    }
+
     @GetMapping("/search")
     public ResponseEntity<Collection<FilmDto>> searchFilms(
             @RequestParam String query,
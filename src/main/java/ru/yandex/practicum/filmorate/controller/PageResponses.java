@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import java.util.Collection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import ru.yandex.practicum.filmorate.dto.CursorPage;
+
+// Keyset pages keep the plain array body, the cursor of the next page travels in headers
+final class PageResponses {
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String DEFAULT_LIMIT = "100";
+
+    private PageResponses() {
+    }
+
+    static <T> ResponseEntity<Collection<T>> of(CursorPage<T> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON);
+        if (page.nextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("after", page.nextCursor()).toUriString();
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor().toString())
+                .header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.items());
+    }
+}
@@ -3,12 +3,15 @@ package ru.yandex.practicum.filmorate.controller;
 import java.util.Collection;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
 import ru.yandex.practicum.filmorate.service.RecommendationService;
+import ru.yandex.practicum.filmorate.service.RecommendationStatus;
 
 @RestController
 @RequestMapping("/users")
@@ -17,11 +20,26 @@ import ru.yandex.practicum.filmorate.service.RecommendationService;
 @SuppressWarnings("unused")
 public class RecommendationController {
 
+    // Sent while the model is not ready, with the recommendation state as its value
+    public static final String STATE_HEADER = "X-Recommendations-State";
+
     private final RecommendationService recommendationService;
 
     @GetMapping("/{id}/recommendations")
-    public Collection<FilmDto> getRecommendations(@PathVariable long id) {
-        log.info("GET request: Getting recommendations for user with ID {}", id);
-        return recommendationService.getRecommendations(id);
+    public ResponseEntity<Collection<FilmDto>> getRecommendations(@PathVariable long id,
+        @RequestParam(defaultValue = "10") int count) {
+        log.info("GET request: Getting {} recommendations for user with ID {}", count, id);
+        RecommendationService.ServedFilms served =
+            recommendationService.getRecommendationsWithState(id, count);
+        return withState(served.state()).body(served.films());
+    }
+
+    // Marks responses served without the model, popular films instead of recommendations
+    static ResponseEntity.BodyBuilder withState(RecommendationStatus.State state) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (state != RecommendationStatus.State.READY) {
+            response.header(STATE_HEADER, state.name());
+        }
+        return response;
     }
 }
\ No newline at end of file
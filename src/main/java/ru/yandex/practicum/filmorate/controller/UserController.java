@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.URI;
 import java.util.Collection;
 import java.util.HashMap;
@@ -16,7 +17,9 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
@@ -36,13 +39,29 @@ public class UserController {
     private final Map<Long, User> users = new HashMap<>();
     private final UserService userService;
     private final EventService eventService;
+    private final ObjectMapper objectMapper;
     private final long currentId = 1L;
 
+    // Pages by id, unpaged=true returns every user in one response
     @GetMapping
-    public ResponseEntity<Collection<UserDto>> getAllUsers() {
-        log.info("Request to get all users received.");
-        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
-            .body(userService.getAllUsers());
+    public ResponseEntity<Collection<UserDto>> getAllUsers(
+        @RequestParam(defaultValue = "0") long after,
+        @RequestParam(defaultValue = PageResponses.DEFAULT_LIMIT) int limit,
+        @RequestParam(defaultValue = "false") boolean unpaged) {
+        if (unpaged) {
+            log.info("Request to get all users received.");
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(userService.getAllUsers());
+        }
+        log.info("Request to get up to {} users after ID {} received.", limit, after);
+        return PageResponses.of(userService.getUsersPage(after, limit));
+    }
+
+    // The whole listing as NDJSON, read and written batch by batch
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        log.info("Request to stream all users received.");
+        return NdjsonResponses.of(objectMapper, userService::streamAllUsers);
     }
 
     @GetMapping("/{id}")
@@ -0,0 +1,27 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * One keyset page of a listing. {@code nextCursor} is the id to pass as {@code after} for the
+ * following page, or null on the last page.
+ */
+public record CursorPage<T>(List<T> items, Long nextCursor) {
+
+    public static final int MAX_LIMIT = 1000;
+
+    // Rows are fetched with limit + 1, the extra row only tells that another page exists
+    public static <T> CursorPage<T> of(List<T> rows, int limit, ToLongFunction<T> idOf) {
+        if (rows.size() <= limit) {
+            return new CursorPage<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        return new CursorPage<>(items, idOf.applyAsLong(items.getLast()));
+    }
+
+    public <R> CursorPage<R> map(Function<T, R> mapper) {
+        return new CursorPage<>(items.stream().map(mapper).toList(), nextCursor);
+    }
+}
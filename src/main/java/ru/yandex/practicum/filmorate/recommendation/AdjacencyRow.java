@@ -0,0 +1,297 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The neighbours of one film with their average diff and co-rating count, in ascending id order,
+ * and the blob they are stored as.
+ *
+ * <p>Layout: a varint neighbour count, then per neighbour the varint gap to the previous
+ * neighbour id, the average diff as a big-endian float and the count as a varint. A NaN diff or
+ * a zero count marks a neighbour with only the other value, like a pair present in only one of
+ * {@code item_diff} / {@code item_freq}. Close ids and small counts take a byte each, so a
+ * neighbour usually costs 6 bytes.
+ */
+public final class AdjacencyRow {
+
+    private static final AdjacencyRow EMPTY = new AdjacencyRow(new long[0], new float[0],
+        new int[0]);
+    private static final int MAX_VARINT_LONG_BYTES = 10;
+    private static final int MAX_VARINT_INT_BYTES = 5;
+    private static final int MAX_NEIGHBOUR_BYTES = MAX_VARINT_LONG_BYTES + 4 + MAX_VARINT_INT_BYTES;
+
+    private final long[] neighbourIds;
+    private final float[] diffs;
+    private final int[] freqs;
+
+    private AdjacencyRow(long[] neighbourIds, float[] diffs, int[] freqs) {
+        this.neighbourIds = neighbourIds;
+        this.diffs = diffs;
+        this.freqs = freqs;
+    }
+
+    public static AdjacencyRow empty() {
+        return EMPTY;
+    }
+
+    // The neighbours of a film in a full or half matrix
+    public static AdjacencyRow of(SlopeOneMatrix matrix, long filmId) {
+        long[] neighbourIds = matrix.sortedNeighbours(filmId);
+        float[] diffs = new float[neighbourIds.length];
+        int[] freqs = new int[neighbourIds.length];
+        for (int i = 0; i < neighbourIds.length; i++) {
+            diffs[i] = (float) matrix.getAverageDiff(filmId, neighbourIds[i]);
+            freqs[i] = matrix.getFreq(filmId, neighbourIds[i]);
+        }
+        return new AdjacencyRow(neighbourIds, diffs, freqs);
+    }
+
+    public static AdjacencyRow decode(byte[] bytes) {
+        Reader reader = new Reader(bytes);
+        int size = (int) reader.varint();
+        long[] neighbourIds = new long[size];
+        float[] diffs = new float[size];
+        int[] freqs = new int[size];
+        long neighbourId = 0;
+        for (int i = 0; i < size; i++) {
+            neighbourId += reader.varint();
+            neighbourIds[i] = neighbourId;
+            diffs[i] = Float.intBitsToFloat(reader.int32());
+            freqs[i] = (int) reader.varint();
+        }
+        if (reader.pos != bytes.length) {
+            throw new IllegalArgumentException("Adjacency blob has " + (bytes.length - reader.pos)
+                + " trailing bytes");
+        }
+        return new AdjacencyRow(neighbourIds, diffs, freqs);
+    }
+
+    public byte[] encode() {
+        byte[] bytes = new byte[MAX_VARINT_INT_BYTES + size() * MAX_NEIGHBOUR_BYTES];
+        int pos = writeVarint(bytes, 0, size());
+        long previous = 0;
+        for (int i = 0; i < size(); i++) {
+            pos = writeVarint(bytes, pos, neighbourIds[i] - previous);
+            previous = neighbourIds[i];
+            int bits = Float.floatToIntBits(diffs[i]);
+            bytes[pos++] = (byte) (bits >>> 24);
+            bytes[pos++] = (byte) (bits >>> 16);
+            bytes[pos++] = (byte) (bits >>> 8);
+            bytes[pos++] = (byte) bits;
+            pos = writeVarint(bytes, pos, freqs[i]);
+        }
+        return Arrays.copyOf(bytes, pos);
+    }
+
+    public int size() {
+        return neighbourIds.length;
+    }
+
+    public boolean isEmpty() {
+        return neighbourIds.length == 0;
+    }
+
+    public void forEach(NeighbourConsumer consumer) {
+        for (int i = 0; i < size(); i++) {
+            consumer.accept(neighbourIds[i], diffs[i], freqs[i]);
+        }
+    }
+
+    // Adds this film's cells of a full delta matrix the way the row tables merge them: counts
+    // are summed, averages are re-weighted, and a neighbour whose count drops to zero is removed
+    public AdjacencyRow withDelta(SlopeOneMatrix delta, long filmId) {
+        long[] deltaIds = delta.sortedNeighbours(filmId);
+        int capacity = size() + deltaIds.length;
+        long[] mergedIds = new long[capacity];
+        float[] mergedDiffs = new float[capacity];
+        int[] mergedFreqs = new int[capacity];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size() || j < deltaIds.length) {
+            if (j == deltaIds.length || i < size() && neighbourIds[i] < deltaIds[j]) {
+                mergedIds[size] = neighbourIds[i];
+                mergedDiffs[size] = diffs[i];
+                mergedFreqs[size++] = freqs[i++];
+                continue;
+            }
+            long neighbourId = deltaIds[j++];
+            double diffDelta = delta.getDiffSum(filmId, neighbourId);
+            int freqDelta = delta.getFreq(filmId, neighbourId);
+            boolean present = i < size() && neighbourIds[i] == neighbourId;
+            float diff = present ? diffs[i] : Float.NaN;
+            int freq = present ? freqs[i++] : 0;
+            int newFreq = freq + freqDelta;
+            if (newFreq <= 0) {
+                // Only a shrinking count removes the neighbour, as in the row tables
+                if (present && freqDelta >= 0) {
+                    mergedIds[size] = neighbourId;
+                    mergedDiffs[size] = diff;
+                    mergedFreqs[size++] = freq;
+                }
+                continue;
+            }
+            mergedIds[size] = neighbourId;
+            mergedDiffs[size] = Float.isNaN(diff) || freq <= 0 ? (float) (diffDelta / newFreq)
+                : (float) ((diff * (double) freq + diffDelta) / newFreq);
+            mergedFreqs[size++] = newFreq;
+        }
+        return new AdjacencyRow(Arrays.copyOf(mergedIds, size), Arrays.copyOf(mergedDiffs, size),
+            Arrays.copyOf(mergedFreqs, size));
+    }
+
+    // Sets the given average diffs and keeps every other value
+    public AdjacencyRow withDiffs(Map<Long, Double> newDiffs) {
+        TreeMap<Long, Integer> slots = merge(newDiffs);
+        float[] mergedDiffs = new float[slots.size()];
+        int[] mergedFreqs = new int[slots.size()];
+        copy(slots, mergedDiffs, mergedFreqs);
+        int idx = 0;
+        for (long neighbourId : slots.keySet()) {
+            Double diff = newDiffs.get(neighbourId);
+            if (diff != null) {
+                mergedDiffs[idx] = diff.floatValue();
+            }
+            idx++;
+        }
+        return new AdjacencyRow(ids(slots), mergedDiffs, mergedFreqs);
+    }
+
+    // Sets the given co-rating counts and keeps every other value
+    public AdjacencyRow withFreqs(Map<Long, Integer> newFreqs) {
+        TreeMap<Long, Integer> slots = merge(newFreqs);
+        float[] mergedDiffs = new float[slots.size()];
+        int[] mergedFreqs = new int[slots.size()];
+        copy(slots, mergedDiffs, mergedFreqs);
+        int idx = 0;
+        for (long neighbourId : slots.keySet()) {
+            Integer freq = newFreqs.get(neighbourId);
+            if (freq != null) {
+                mergedFreqs[idx] = freq;
+            }
+            idx++;
+        }
+        return new AdjacencyRow(ids(slots), mergedDiffs, mergedFreqs);
+    }
+
+    // Keeps the maxNeighbours most co-rated neighbours, ties going to the lower film id, like
+    // SlopeOneMatrix.retainTopNeighbours. Neighbours without a count are dropped
+    public AdjacencyRow retainTop(int maxNeighbours) {
+        int[] kept = topSlots(maxNeighbours);
+        Arrays.sort(kept);
+        long[] keptIds = new long[kept.length];
+        float[] keptDiffs = new float[kept.length];
+        int[] keptFreqs = new int[kept.length];
+        for (int k = 0; k < kept.length; k++) {
+            keptIds[k] = neighbourIds[kept[k]];
+            keptDiffs[k] = diffs[kept[k]];
+            keptFreqs[k] = freqs[kept[k]];
+        }
+        return new AdjacencyRow(keptIds, keptDiffs, keptFreqs);
+    }
+
+    // Most co-rated neighbours first, ties going to the lower film id
+    public long[] topNeighbours(int limit) {
+        int[] top = topSlots(limit);
+        long[] ids = new long[top.length];
+        for (int k = 0; k < top.length; k++) {
+            ids[k] = neighbourIds[top[k]];
+        }
+        return ids;
+    }
+
+    private int[] topSlots(int limit) {
+        // Slots are in id order, so the slot breaks ties of the packed sort key
+        long[] keys = new long[size()];
+        int counted = 0;
+        for (int i = 0; i < size(); i++) {
+            if (freqs[i] > 0) {
+                keys[counted++] = (long) (Integer.MAX_VALUE - freqs[i]) << 32 | i;
+            }
+        }
+        Arrays.sort(keys, 0, counted);
+        int[] slots = new int[Math.min(limit, counted)];
+        for (int k = 0; k < slots.length; k++) {
+            slots[k] = (int) keys[k];
+        }
+        return slots;
+    }
+
+    private TreeMap<Long, Integer> merge(Map<Long, ?> values) {
+        TreeMap<Long, Integer> slots = new TreeMap<>();
+        for (int i = 0; i < size(); i++) {
+            slots.put(neighbourIds[i], i);
+        }
+        for (Long neighbourId : values.keySet()) {
+            slots.putIfAbsent(neighbourId, -1);
+        }
+        return slots;
+    }
+
+    private void copy(TreeMap<Long, Integer> slots, float[] mergedDiffs, int[] mergedFreqs) {
+        int idx = 0;
+        for (int slot : slots.values()) {
+            mergedDiffs[idx] = slot < 0 ? Float.NaN : diffs[slot];
+            mergedFreqs[idx] = slot < 0 ? 0 : freqs[slot];
+            idx++;
+        }
+    }
+
+    private static long[] ids(TreeMap<Long, Integer> slots) {
+        return slots.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static int writeVarint(byte[] bytes, int pos, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Varint must not be negative: " + value);
+        }
+        while ((value & ~0x7FL) != 0) {
+            bytes[pos++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        return pos;
+    }
+
+    @FunctionalInterface
+    public interface NeighbourConsumer {
+
+        void accept(long neighbourId, float averageDiff, int freq);
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int pos;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = next();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in adjacency blob");
+        }
+
+        private int int32() {
+            return (next() & 0xFF) << 24 | (next() & 0xFF) << 16 | (next() & 0xFF) << 8
+                | next() & 0xFF;
+        }
+
+        private byte next() {
+            if (pos == bytes.length) {
+                throw new IllegalArgumentException("Adjacency blob is truncated");
+            }
+            return bytes[pos++];
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Trains a {@link FactorModel} with alternating least squares.
+ *
+ * <p>Ratings are centred on their global mean. Every sweep solves all user vectors with the film
+ * vectors fixed and then all film vectors with the user vectors fixed, each as a small ridge
+ * regression whose penalty grows with the number of ratings of the user or film. Rows are solved
+ * independently of each other, so the number of threads changes only the speed and the same
+ * ratings always give a bit-identical model.
+ */
+public final class AlsTrainer {
+
+    // Rows solved by one task, large enough to amortize the per-task scratch arrays
+    private static final int ROWS_PER_TASK = 256;
+    private static final double INITIAL_SCALE = 0.1;
+
+    private AlsTrainer() {
+    }
+
+    public static FactorModel train(List<UserRatings> users, Settings settings,
+        int parallelism) {
+        List<UserRatings> sorted = users.stream().filter(user -> user.size() > 0)
+            .sorted(Comparator.comparingLong(UserRatings::userId)).toList();
+        int factors = settings.factors();
+        long[] userIds = sorted.stream().mapToLong(UserRatings::userId).toArray();
+        long[] filmIds = sorted.stream().flatMapToLong(user -> Arrays.stream(user.filmIds()))
+            .distinct().sorted().toArray();
+        Ratings byUser = Ratings.byUser(sorted, filmIds);
+        Ratings byFilm = byUser.transpose(filmIds.length);
+
+        float[] userFactors = new float[userIds.length * factors];
+        float[] filmFactors = new float[filmIds.length * factors];
+        Random random = new Random(settings.seed());
+        for (int i = 0; i < filmFactors.length; i++) {
+            filmFactors[i] = (float) (random.nextGaussian() * INITIAL_SCALE);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int iteration = 0; iteration < settings.iterations(); iteration++) {
+                solveAll(pool, byUser, filmFactors, userFactors, factors,
+                    settings.regularization());
+                solveAll(pool, byFilm, userFactors, filmFactors, factors,
+                    settings.regularization());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return new FactorModel(factors, byUser.mean, userIds, userFactors, filmIds, filmFactors);
+    }
+
+    // Vector of a user against the fixed film vectors of a model, zero if no film is known
+    public static float[] foldIn(FactorModel model, long[] filmIds, double[] ratings,
+        double regularization) {
+        int factors = model.factors();
+        int[] known = new int[filmIds.length];
+        float[] values = new float[filmIds.length];
+        int count = 0;
+        for (int i = 0; i < filmIds.length; i++) {
+            int film = model.filmIndex(filmIds[i]);
+            if (film >= 0) {
+                known[count] = film;
+                values[count++] = (float) (ratings[i] - model.mean());
+            }
+        }
+        float[] vector = new float[factors];
+        new Solver(factors).solve(known, values, 0, count, model.filmFactors(), vector, 0,
+            regularization);
+        return vector;
+    }
+
+    private static void solveAll(ForkJoinPool pool, Ratings rows, float[] fixed, float[] target,
+        int factors, double regularization) {
+        int tasks = (rows.rowCount() + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(task -> {
+            Solver solver = new Solver(factors);
+            int end = Math.min(rows.rowCount(), (task + 1) * ROWS_PER_TASK);
+            for (int row = task * ROWS_PER_TASK; row < end; row++) {
+                solver.solve(rows.columns, rows.values, rows.start[row], rows.start[row + 1],
+                    fixed, target, row * factors, regularization);
+            }
+        })).join();
+    }
+
+    public record Settings(int factors, int iterations, double regularization, long seed) {
+
+        public Settings {
+            if (factors <= 0 || iterations < 0 || regularization <= 0) {
+                throw new IllegalArgumentException("Need positive factors and regularization "
+                    + "and non-negative iterations");
+            }
+        }
+    }
+
+    // Sparse rows in compressed form: row i holds columns[start[i] .. start[i + 1])
+    private static final class Ratings {
+
+        private final int[] start;
+        private final int[] columns;
+        private final float[] values;
+        private final double mean;
+
+        private Ratings(int[] start, int[] columns, float[] values, double mean) {
+            this.start = start;
+            this.columns = columns;
+            this.values = values;
+            this.mean = mean;
+        }
+
+        // Users as rows, values centred on the mean of all ratings
+        private static Ratings byUser(List<UserRatings> users, long[] filmIds) {
+            int[] start = new int[users.size() + 1];
+            double sum = 0;
+            for (int i = 0; i < users.size(); i++) {
+                UserRatings user = users.get(i);
+                start[i + 1] = start[i] + user.size();
+                for (double rating : user.ratings()) {
+                    sum += rating;
+                }
+            }
+            int total = start[users.size()];
+            double mean = total == 0 ? 0 : sum / total;
+            int[] columns = new int[total];
+            float[] values = new float[total];
+            for (int i = 0; i < users.size(); i++) {
+                UserRatings user = users.get(i);
+                for (int j = 0; j < user.size(); j++) {
+                    columns[start[i] + j] = Arrays.binarySearch(filmIds, user.filmIds()[j]);
+                    values[start[i] + j] = (float) (user.ratings()[j] - mean);
+                }
+            }
+            return new Ratings(start, columns, values, mean);
+        }
+
+        private Ratings transpose(int columnCount) {
+            int[] transposedStart = new int[columnCount + 1];
+            for (int column : columns) {
+                transposedStart[column + 1]++;
+            }
+            for (int i = 0; i < columnCount; i++) {
+                transposedStart[i + 1] += transposedStart[i];
+            }
+            int[] cursor = Arrays.copyOf(transposedStart, columnCount);
+            int[] transposedColumns = new int[columns.length];
+            float[] transposedValues = new float[values.length];
+            for (int row = 0; row < rowCount(); row++) {
+                for (int j = start[row]; j < start[row + 1]; j++) {
+                    int idx = cursor[columns[j]]++;
+                    transposedColumns[idx] = row;
+                    transposedValues[idx] = values[j];
+                }
+            }
+            return new Ratings(transposedStart, transposedColumns, transposedValues, mean);
+        }
+
+        private int rowCount() {
+            return start.length - 1;
+        }
+    }
+
+    // Solves (Q^T Q + lambda * n * I) x = Q^T r by Cholesky decomposition, reusing its arrays
+    private static final class Solver {
+
+        private final int factors;
+        private final double[] matrix;
+        private final double[] rhs;
+
+        private Solver(int factors) {
+            this.factors = factors;
+            matrix = new double[factors * factors];
+            rhs = new double[factors];
+        }
+
+        private void solve(int[] columns, float[] values, int from, int to, float[] fixed,
+            float[] target, int targetOffset, double regularization) {
+            if (from == to) {
+                Arrays.fill(target, targetOffset, targetOffset + factors, 0f);
+                return;
+            }
+            Arrays.fill(matrix, 0);
+            Arrays.fill(rhs, 0);
+            // Only the lower triangle is filled, which is all the decomposition reads
+            for (int j = from; j < to; j++) {
+                int offset = columns[j] * factors;
+                double value = values[j];
+                for (int x = 0; x < factors; x++) {
+                    double qx = fixed[offset + x];
+                    rhs[x] += value * qx;
+                    int row = x * factors;
+                    for (int y = 0; y <= x; y++) {
+                        matrix[row + y] += qx * fixed[offset + y];
+                    }
+                }
+            }
+            double penalty = regularization * (to - from);
+            for (int x = 0; x < factors; x++) {
+                matrix[x * factors + x] += penalty;
+            }
+
+            for (int i = 0; i < factors; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double sum = matrix[i * factors + j];
+                    for (int m = 0; m < j; m++) {
+                        sum -= matrix[i * factors + m] * matrix[j * factors + m];
+                    }
+                    matrix[i * factors + j] = i == j ? Math.sqrt(sum)
+                        : sum / matrix[j * factors + j];
+                }
+            }
+            for (int i = 0; i < factors; i++) {
+                double sum = rhs[i];
+                for (int m = 0; m < i; m++) {
+                    sum -= matrix[i * factors + m] * rhs[m];
+                }
+                rhs[i] = sum / matrix[i * factors + i];
+            }
+            for (int i = factors - 1; i >= 0; i--) {
+                double sum = rhs[i];
+                for (int m = i + 1; m < factors; m++) {
+                    sum -= matrix[m * factors + i] * rhs[m];
+                }
+                rhs[i] = sum / matrix[i * factors + i];
+                target[targetOffset + i] = (float) rhs[i];
+            }
+        }
+    }
+}
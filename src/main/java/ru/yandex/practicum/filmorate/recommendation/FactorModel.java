@@ -0,0 +1,123 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Latent factor model: a predicted rating is the global mean plus the dot product of a user
+ * vector and a film vector, clamped to the rating range.
+ *
+ * <p>Vectors are stored row by row in flat float arrays and found through sorted id arrays, so
+ * the model takes about {@code 4 * factors + 8} bytes per user and per film no matter how many
+ * films were rated together. Film vectors are fixed after training; user vectors can be
+ * replaced as users rate, see {@link AlsTrainer#foldIn}.
+ */
+public final class FactorModel {
+
+    private static final double MIN_RATING = 1.0;
+    private static final double MAX_RATING = 10.0;
+
+    private final int factors;
+    private final double mean;
+    private final long[] userIds;
+    private final float[] userFactors;
+    private final long[] filmIds;
+    private final float[] filmFactors;
+
+    FactorModel(int factors, double mean, long[] userIds, float[] userFactors, long[] filmIds,
+        float[] filmFactors) {
+        this.factors = factors;
+        this.mean = mean;
+        this.userIds = userIds;
+        this.userFactors = userFactors;
+        this.filmIds = filmIds;
+        this.filmFactors = filmFactors;
+    }
+
+    public int factors() {
+        return factors;
+    }
+
+    public double mean() {
+        return mean;
+    }
+
+    public int userCount() {
+        return userIds.length;
+    }
+
+    public int filmCount() {
+        return filmIds.length;
+    }
+
+    public boolean hasUser(long userId) {
+        return Arrays.binarySearch(userIds, userId) >= 0;
+    }
+
+    // Copy of the user's vector, or null for users without ratings at training time
+    public synchronized float[] userVector(long userId) {
+        int idx = Arrays.binarySearch(userIds, userId);
+        return idx < 0 ? null : Arrays.copyOfRange(userFactors, idx * factors, (idx + 1) * factors);
+    }
+
+    // Returns false if the user is not part of the model
+    public synchronized boolean replaceUserVector(long userId, float[] vector) {
+        int idx = Arrays.binarySearch(userIds, userId);
+        if (idx < 0) {
+            return false;
+        }
+        System.arraycopy(vector, 0, userFactors, idx * factors, factors);
+        return true;
+    }
+
+    // Film vector by position in ascending film id order, -1 if the film is unknown
+    int filmIndex(long filmId) {
+        int idx = Arrays.binarySearch(filmIds, filmId);
+        return idx < 0 ? -1 : idx;
+    }
+
+    float[] filmFactors() {
+        return filmFactors;
+    }
+
+    // Film ids in ascending order, indexed like the film vectors
+    long[] filmIds() {
+        return filmIds;
+    }
+
+    // Scores every film of the model the user has not rated
+    public Map<Long, Double> predict(float[] userVector, LongPredicate rated) {
+        Map<Long, Double> predictions = new HashMap<>();
+        forEachPrediction(userVector, rated, predictions::put);
+        return predictions;
+    }
+
+    public void forEachPrediction(float[] userVector, LongPredicate rated,
+        PredictionConsumer consumer) {
+        for (int film = 0; film < filmIds.length; film++) {
+            if (rated.test(filmIds[film])) {
+                continue;
+            }
+            double score = mean;
+            int offset = film * factors;
+            for (int f = 0; f < factors; f++) {
+                score += userVector[f] * filmFactors[offset + f];
+            }
+            consumer.accept(filmIds[film], Math.max(MIN_RATING, Math.min(MAX_RATING, score)));
+        }
+    }
+
+    // Rough heap size of the vectors and id arrays
+    public long bytes() {
+        return 8L * (userIds.length + filmIds.length)
+            + 4L * (userFactors.length + filmFactors.length);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d users, %d films, %d factors, %.1f MiB", userIds.length,
+            filmIds.length, factors, bytes() / 1048576.0);
+    }
+}
@@ -0,0 +1,44 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sum and number of the ratings of every film, so average ratings can be checked without a
+ * query. Safe to read while rating changes are applied.
+ */
+public final class FilmRatingTotals {
+
+    private final Map<Long, Totals> totals = new ConcurrentHashMap<>();
+
+    public void add(long filmId, double ratingSum, int ratingCount) {
+        totals.merge(filmId, new Totals(ratingSum, ratingCount), Totals::plus);
+    }
+
+    public void apply(RatingChange change) {
+        if (change.removed()) {
+            add(change.filmId(), -change.ratingValue(), -1);
+        } else {
+            add(change.filmId(), change.ratingValue(), 1);
+        }
+    }
+
+    // 0 for films without ratings, like the average rating of a hydrated film
+    public double average(long filmId) {
+        Totals film = totals.get(filmId);
+        return film == null ? 0.0 : film.sum / film.count;
+    }
+
+    public int filmCount() {
+        return totals.size();
+    }
+
+    private record Totals(double sum, int count) {
+
+        // Null drops the film once its last rating is gone
+        private Totals plus(Totals other) {
+            int newCount = count + other.count;
+            return newCount <= 0 ? null : new Totals(sum + other.sum, newCount);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+// Rows of a full matrix as StripedSlopeOneMatrix keeps them, exact or quantized
+interface MatrixStripe {
+
+    void put(long filmId1, long filmId2, double diffSum, int freq);
+
+    void add(long filmId1, long filmId2, double diffDelta, int freqDelta);
+
+    int retainTopNeighbours(long filmId, int maxNeighbours);
+
+    void forEachSortedNeighbour(long filmId, SlopeOneMatrix.AverageDiffConsumer consumer);
+
+    int getFreq(long filmId1, long filmId2);
+
+    void forEach(SlopeOneMatrix.PairConsumer consumer);
+
+    int size();
+
+    // Estimated heap in bytes
+    long bytes();
+}
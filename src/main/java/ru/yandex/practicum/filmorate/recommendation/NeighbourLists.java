@@ -0,0 +1,161 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The most similar films of every film, best first and at most {@code maxNeighbours} of them.
+ *
+ * <p>Lists are ranked ahead of time, so a lookup costs O(K) whatever the size of the catalogue.
+ * Equally similar films are ranked by ascending film id. Single lists can be replaced while others
+ * are read, which is how rating changes reach them between rebuilds.
+ */
+public final class NeighbourLists {
+
+    private static final long[] NONE = new long[0];
+
+    private final int maxNeighbours;
+    private final Map<Long, long[]> lists;
+
+    private NeighbourLists(int maxNeighbours, Map<Long, long[]> lists) {
+        if (maxNeighbours <= 0) {
+            throw new IllegalArgumentException("Neighbour limit must be positive: "
+                + maxNeighbours);
+        }
+        this.maxNeighbours = maxNeighbours;
+        this.lists = new ConcurrentHashMap<>(lists);
+    }
+
+    public static NeighbourLists empty(int maxNeighbours) {
+        return new NeighbourLists(maxNeighbours, Map.of());
+    }
+
+    // Ranked by the number of users who rated both films, from a half or a full matrix
+    public static NeighbourLists byFrequency(SlopeOneMatrix matrix, int maxNeighbours) {
+        Collector collector = new Collector(maxNeighbours);
+        boolean half = matrix.isHalf();
+        matrix.forEach((filmId1, filmId2, diffSum, freq) -> {
+            collector.offer(filmId1, filmId2, freq);
+            if (half) {
+                collector.offer(filmId2, filmId1, freq);
+            }
+        });
+        return collector.finish();
+    }
+
+    // Ranked by cosine similarity of the film vectors, films pointing away are left out. Every
+    // pair of films is compared, so the cost grows with the square of the films in the model
+    public static NeighbourLists byCosine(FactorModel model, int maxNeighbours) {
+        Collector collector = new Collector(maxNeighbours);
+        int factors = model.factors();
+        long[] filmIds = model.filmIds();
+        float[] vectors = model.filmFactors();
+        double[] norms = new double[filmIds.length];
+        for (int film = 0; film < filmIds.length; film++) {
+            norms[film] = Math.sqrt(dot(vectors, film * factors, film * factors, factors));
+        }
+        for (int film1 = 0; film1 < filmIds.length; film1++) {
+            if (norms[film1] == 0) {
+                continue;
+            }
+            for (int film2 = film1 + 1; film2 < filmIds.length; film2++) {
+                if (norms[film2] == 0) {
+                    continue;
+                }
+                double similarity = dot(vectors, film1 * factors, film2 * factors, factors)
+                    / (norms[film1] * norms[film2]);
+                if (similarity > 0) {
+                    collector.offer(filmIds[film1], filmIds[film2], similarity);
+                    collector.offer(filmIds[film2], filmIds[film1], similarity);
+                }
+            }
+        }
+        return collector.finish();
+    }
+
+    public int maxNeighbours() {
+        return maxNeighbours;
+    }
+
+    public int filmCount() {
+        return lists.size();
+    }
+
+    // The first count neighbours of the film, fewer if it has fewer
+    public List<Long> neighbours(long filmId, int count) {
+        long[] list = lists.getOrDefault(filmId, NONE);
+        int size = Math.min(count, list.length);
+        List<Long> neighbours = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            neighbours.add(list[i]);
+        }
+        return neighbours;
+    }
+
+    // Replaces the list of one film with already ranked neighbours, cut to the limit
+    public void replace(long filmId, List<Long> neighbours) {
+        if (neighbours.isEmpty()) {
+            lists.remove(filmId);
+            return;
+        }
+        long[] list = neighbours.stream().limit(maxNeighbours).mapToLong(Long::longValue)
+            .toArray();
+        lists.put(filmId, list);
+    }
+
+    // Re-ranks the lists of the given films by frequency from a full matrix holding at least
+    // their complete rows, a film without neighbours loses its list
+    public void replaceByFrequency(SlopeOneMatrix rows, Collection<Long> filmIds) {
+        Set<Long> films = new HashSet<>(filmIds);
+        Collector collector = new Collector(maxNeighbours);
+        rows.forEach((filmId1, filmId2, diffSum, freq) -> {
+            if (films.contains(filmId1)) {
+                collector.offer(filmId1, filmId2, freq);
+            }
+        });
+        for (long filmId : films) {
+            TopScores heap = collector.heaps.get(filmId);
+            if (heap == null) {
+                lists.remove(filmId);
+            } else {
+                lists.put(filmId, heap.ranked());
+            }
+        }
+    }
+
+    private static double dot(float[] vectors, int offset1, int offset2, int factors) {
+        double sum = 0;
+        for (int f = 0; f < factors; f++) {
+            sum += (double) vectors[offset1 + f] * vectors[offset2 + f];
+        }
+        return sum;
+    }
+
+    // Keeps the best candidates per film while they are offered
+    private static final class Collector {
+
+        private final int maxNeighbours;
+        private final Map<Long, TopScores> heaps = new HashMap<>();
+
+        private Collector(int maxNeighbours) {
+            this.maxNeighbours = maxNeighbours;
+        }
+
+        private void offer(long filmId, long neighbourId, double score) {
+            heaps.computeIfAbsent(filmId, id -> new TopScores(maxNeighbours))
+                .offer(neighbourId, score);
+        }
+
+        private NeighbourLists finish() {
+            Map<Long, long[]> lists = new HashMap<>();
+            heaps.forEach((filmId, heap) -> lists.put(filmId, heap.ranked()));
+            return new NeighbourLists(maxNeighbours, lists);
+        }
+    }
+}
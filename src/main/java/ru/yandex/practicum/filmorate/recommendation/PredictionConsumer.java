@@ -0,0 +1,10 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+/**
+ * Receives predicted ratings one film at a time, without boxing.
+ */
+@FunctionalInterface
+public interface PredictionConsumer {
+
+    void accept(long filmId, double rating);
+}
@@ -0,0 +1,255 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * A full slope-one matrix in well under half the memory of {@link SlopeOneMatrix}, for keeping
+ * large catalogues in memory.
+ *
+ * <p>Every row is three sorted primitive arrays: neighbour ids, average diffs as floats and
+ * co-rating counts as shorts. Ratings are bounded to 1-10, so a float average is off by less
+ * than 1e-6. Counts saturate at {@link Short#MAX_VALUE}, pairs rated by more users keep that
+ * count, and their averages move a little slower on updates than the exact ones would. Rows are
+ * sorted, so iterating neighbours in id order needs no sorting, while adding a new neighbour
+ * shifts the rest of its row.
+ */
+public final class QuantizedSlopeOneMatrix implements MatrixStripe {
+
+    private static final int MIN_CAPACITY = 4;
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int REF_BYTES = 4;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    // HashMap node, boxed key and table slot of every film, like SlopeOneMatrix.boxedMapsBytes
+    private static final long FILM_ENTRY_BYTES = 32 + 24 + 2 * REF_BYTES;
+
+    private final Map<Long, Row> rows = new HashMap<>();
+    private int pairCount;
+
+    // Copies a full or half matrix, the half one in both directions
+    public static QuantizedSlopeOneMatrix of(SlopeOneMatrix matrix) {
+        QuantizedSlopeOneMatrix quantized = new QuantizedSlopeOneMatrix();
+        copySorted(matrix, filmId -> quantized);
+        return quantized;
+    }
+
+    // Visits films and neighbours in ascending order, so every put appends to its row. A lower
+    // neighbour of a half matrix comes from a film visited before the row's own neighbours
+    static void copySorted(SlopeOneMatrix matrix, LongFunction<MatrixStripe> stripeOf) {
+        boolean half = matrix.isHalf();
+        for (long filmId : matrix.sortedFilmIds()) {
+            MatrixStripe stripe = stripeOf.apply(filmId);
+            for (long neighbourId : matrix.sortedNeighbours(filmId)) {
+                double diffSum = matrix.getDiffSum(filmId, neighbourId);
+                int freq = matrix.getFreq(filmId, neighbourId);
+                stripe.put(filmId, neighbourId, diffSum, freq);
+                if (half) {
+                    stripeOf.apply(neighbourId).put(neighbourId, filmId, -diffSum, freq);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void put(long filmId1, long filmId2, double diffSum, int freq) {
+        if (freq <= 0) {
+            Row row = rows.get(filmId1);
+            if (row != null) {
+                removeAt(filmId1, row, row.indexOf(filmId2));
+            }
+            return;
+        }
+        Row row = rows.computeIfAbsent(filmId1, k -> new Row());
+        int idx = row.indexOf(filmId2);
+        if (idx < 0) {
+            idx = insertAt(row, -idx - 1, filmId2);
+        }
+        row.diffs[idx] = (float) (diffSum / freq);
+        row.freqs[idx] = saturate(freq);
+    }
+
+    // Adds a delta cell, a neighbour whose count drops to zero is removed
+    @Override
+    public void add(long filmId1, long filmId2, double diffDelta, int freqDelta) {
+        Row row = rows.get(filmId1);
+        int idx = row == null ? -1 : row.indexOf(filmId2);
+        if (idx < 0) {
+            if (freqDelta > 0) {
+                put(filmId1, filmId2, diffDelta, freqDelta);
+            }
+            return;
+        }
+        int freq = row.freqs[idx];
+        int newFreq = freq + freqDelta;
+        if (newFreq <= 0) {
+            removeAt(filmId1, row, idx);
+            return;
+        }
+        row.diffs[idx] = (float) ((row.diffs[idx] * (double) freq + diffDelta) / newFreq);
+        row.freqs[idx] = saturate(newFreq);
+    }
+
+    @Override
+    public int retainTopNeighbours(long filmId, int maxNeighbours) {
+        Row row = rows.get(filmId);
+        if (row == null || row.size <= maxNeighbours) {
+            return 0;
+        }
+        // Slots are in id order, so the slot breaks ties of the packed sort key
+        long[] keys = new long[row.size];
+        for (int i = 0; i < row.size; i++) {
+            keys[i] = (long) (Short.MAX_VALUE - row.freqs[i]) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] kept = new int[maxNeighbours];
+        for (int k = 0; k < maxNeighbours; k++) {
+            kept[k] = (int) keys[k];
+        }
+        Arrays.sort(kept);
+        int removed = row.size - maxNeighbours;
+        for (int k = 0; k < maxNeighbours; k++) {
+            row.ids[k] = row.ids[kept[k]];
+            row.diffs[k] = row.diffs[kept[k]];
+            row.freqs[k] = row.freqs[kept[k]];
+        }
+        row.size = maxNeighbours;
+        row.trim();
+        pairCount -= removed;
+        if (row.size == 0) {
+            rows.remove(filmId);
+        }
+        return removed;
+    }
+
+    @Override
+    public void forEachSortedNeighbour(long filmId, SlopeOneMatrix.AverageDiffConsumer consumer) {
+        Row row = rows.get(filmId);
+        if (row != null) {
+            for (int i = 0; i < row.size; i++) {
+                consumer.accept(row.ids[i], row.diffs[i]);
+            }
+        }
+    }
+
+    @Override
+    public int getFreq(long filmId1, long filmId2) {
+        Row row = rows.get(filmId1);
+        int idx = row == null ? -1 : row.indexOf(filmId2);
+        return idx < 0 ? 0 : row.freqs[idx];
+    }
+
+    public double getAverageDiff(long filmId1, long filmId2) {
+        Row row = rows.get(filmId1);
+        int idx = row == null ? -1 : row.indexOf(filmId2);
+        return idx < 0 ? Double.NaN : row.diffs[idx];
+    }
+
+    // Diff sums are the stored averages times the stored counts
+    @Override
+    public void forEach(SlopeOneMatrix.PairConsumer consumer) {
+        rows.forEach((filmId, row) -> {
+            for (int i = 0; i < row.size; i++) {
+                consumer.accept(filmId, row.ids[i], (double) row.diffs[i] * row.freqs[i],
+                    row.freqs[i]);
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        return pairCount;
+    }
+
+    public int filmCount() {
+        return rows.size();
+    }
+
+    // Estimated heap of the rows, sized like SlopeOneMatrix.footprint
+    @Override
+    public long bytes() {
+        long bytes = align(ARRAY_HEADER_BYTES + (long) rows.size() * 2 * REF_BYTES);
+        for (Row row : rows.values()) {
+            bytes += FILM_ENTRY_BYTES + align(OBJECT_HEADER_BYTES + 3 * REF_BYTES + Integer.BYTES)
+                + align(ARRAY_HEADER_BYTES + (long) row.ids.length * Long.BYTES)
+                + align(ARRAY_HEADER_BYTES + (long) row.diffs.length * Float.BYTES)
+                + align(ARRAY_HEADER_BYTES + (long) row.freqs.length * Short.BYTES);
+        }
+        return bytes;
+    }
+
+    private int insertAt(Row row, int idx, long neighbourId) {
+        if (row.size == row.ids.length) {
+            row.grow();
+        }
+        int tail = row.size - idx;
+        System.arraycopy(row.ids, idx, row.ids, idx + 1, tail);
+        System.arraycopy(row.diffs, idx, row.diffs, idx + 1, tail);
+        System.arraycopy(row.freqs, idx, row.freqs, idx + 1, tail);
+        row.ids[idx] = neighbourId;
+        row.size++;
+        pairCount++;
+        return idx;
+    }
+
+    private void removeAt(long filmId, Row row, int idx) {
+        if (idx < 0) {
+            return;
+        }
+        int tail = row.size - idx - 1;
+        System.arraycopy(row.ids, idx + 1, row.ids, idx, tail);
+        System.arraycopy(row.diffs, idx + 1, row.diffs, idx, tail);
+        System.arraycopy(row.freqs, idx + 1, row.freqs, idx, tail);
+        row.size--;
+        pairCount--;
+        if (row.size == 0) {
+            rows.remove(filmId);
+        }
+    }
+
+    private static short saturate(int freq) {
+        return (short) Math.min(freq, Short.MAX_VALUE);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static final class Row {
+
+        private long[] ids;
+        private float[] diffs;
+        private short[] freqs;
+        private int size;
+
+        private Row() {
+            this(MIN_CAPACITY);
+        }
+
+        private Row(int capacity) {
+            ids = new long[capacity];
+            diffs = new float[capacity];
+            freqs = new short[capacity];
+        }
+
+        private int indexOf(long neighbourId) {
+            return Arrays.binarySearch(ids, 0, size, neighbourId);
+        }
+
+        // An eighth more room, so rows built in one go stay almost exact in size
+        private void grow() {
+            resize(size + Math.max(MIN_CAPACITY, size >> 3));
+        }
+
+        private void trim() {
+            resize(size);
+        }
+
+        private void resize(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            diffs = Arrays.copyOf(diffs, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+        }
+    }
+}
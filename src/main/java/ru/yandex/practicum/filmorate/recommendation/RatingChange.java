@@ -0,0 +1,15 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+/**
+ * A rating a user added, or removed together with the value it had.
+ */
+public record RatingChange(long filmId, double ratingValue, boolean removed) {
+
+    public static RatingChange added(long filmId, double ratingValue) {
+        return new RatingChange(filmId, ratingValue, false);
+    }
+
+    public static RatingChange removed(long filmId, double ratingValue) {
+        return new RatingChange(filmId, ratingValue, true);
+    }
+}
@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.sql.Timestamp;
+
+/**
+ * Progress of a chunked matrix rebuild.
+ *
+ * <p>The rebuild covers the ratings up to {@code ratedUpTo}, {@code ratingCount} of them when it
+ * started. Pairs of the users with ids up to {@code lastUserId}, {@code ratingsScanned} ratings
+ * in total, are already merged into the staged matrix, which keeps each pair once if
+ * {@code half} is set.
+ */
+public record RebuildCheckpoint(Timestamp ratedUpTo, long ratingCount, boolean half,
+                                long lastUserId, long ratingsScanned) {
+
+    public static RebuildCheckpoint start(Timestamp ratedUpTo, long ratingCount, boolean half) {
+        return new RebuildCheckpoint(ratedUpTo, ratingCount, half, 0, 0);
+    }
+
+    // Checkpoint after the users up to lastUserId with the given number of ratings are merged
+    public RebuildCheckpoint next(long lastUserId, long ratings) {
+        return new RebuildCheckpoint(ratedUpTo, ratingCount, half, lastUserId,
+            ratingsScanned + ratings);
+    }
+}
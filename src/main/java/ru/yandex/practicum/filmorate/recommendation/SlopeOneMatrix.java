@@ -0,0 +1,702 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Slope-one diff/freq matrix keyed by primitive film id pairs.
+ *
+ * <p>Every film owns an open-addressing row that maps neighbour film ids to the running sum of
+ * rating differences and the number of users who rated both films, so no id, diff or count is
+ * boxed. The average diff is derived on read as {@code diffSum / freq}. Film ids must be positive.
+ *
+ * <p>A matrix created with {@link #forDeltas()} holds signed changes instead: frequencies may go
+ * negative and a cell is dropped only once both of its components cancel out.
+ *
+ * <p>A half matrix stores each pair once, in the row of the lower film id, since the diff of the
+ * reverse direction is the negated diff and the freq is the same. Cell reads and writes accept
+ * either direction and translate, while row-level methods only see the stored neighbours with a
+ * higher id. Predictions need both directions, see {@link #toFull()}.
+ */
+public final class SlopeOneMatrix implements MatrixStripe {
+
+    private static final long FREE = 0L;
+    private static final int MIN_CAPACITY = 4;
+    // Rough HotSpot sizes with compressed oops, used only for footprint reporting
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int REF_BYTES = 4;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private final boolean signed;
+    private final boolean half;
+    private long[] filmIds;
+    private Row[] rows;
+    private int filmCount;
+    private int pairCount;
+
+    public SlopeOneMatrix() {
+        this(16);
+    }
+
+    public SlopeOneMatrix(int expectedFilms) {
+        this(expectedFilms, false, false);
+    }
+
+    private SlopeOneMatrix(int expectedFilms, boolean signed, boolean half) {
+        int capacity = capacityFor(expectedFilms);
+        this.signed = signed;
+        this.half = half;
+        filmIds = new long[capacity];
+        rows = new Row[capacity];
+    }
+
+    public static SlopeOneMatrix forDeltas() {
+        return new SlopeOneMatrix(16, true, false);
+    }
+
+    public static SlopeOneMatrix halfMatrix(int expectedFilms) {
+        return new SlopeOneMatrix(expectedFilms, false, true);
+    }
+
+    public static SlopeOneMatrix forHalfDeltas() {
+        return new SlopeOneMatrix(16, true, true);
+    }
+
+    public boolean isDelta() {
+        return signed;
+    }
+
+    public boolean isHalf() {
+        return half;
+    }
+
+    @Override
+    public void add(long filmId1, long filmId2, double diffDelta, int freqDelta) {
+        if (half && filmId1 > filmId2) {
+            addCell(filmId2, filmId1, -diffDelta, freqDelta);
+        } else {
+            addCell(filmId1, filmId2, diffDelta, freqDelta);
+        }
+    }
+
+    @Override
+    public void put(long filmId1, long filmId2, double diffSum, int freq) {
+        if (half && filmId1 > filmId2) {
+            putCell(filmId2, filmId1, -diffSum, freq);
+        } else {
+            putCell(filmId1, filmId2, diffSum, freq);
+        }
+    }
+
+    private void addCell(long filmId1, long filmId2, double diffDelta, int freqDelta) {
+        Row row = signed || freqDelta > 0 ? rowFor(filmId1) : row(filmId1);
+        if (row == null) {
+            return;
+        }
+        int before = row.size;
+        row.add(filmId2, diffDelta, freqDelta, signed);
+        pairCount += row.size - before;
+        if (row.size == 0) {
+            removeRow(filmId1);
+        }
+    }
+
+    private void putCell(long filmId1, long filmId2, double diffSum, int freq) {
+        if (freq <= 0 && !signed) {
+            addCell(filmId1, filmId2, -getDiffSum(filmId1, filmId2),
+                -getFreq(filmId1, filmId2));
+            return;
+        }
+        Row row = rowFor(filmId1);
+        int before = row.size;
+        row.put(filmId2, diffSum, freq);
+        pairCount += row.size - before;
+    }
+
+    public boolean contains(long filmId1, long filmId2) {
+        boolean reversed = half && filmId1 > filmId2;
+        Row row = row(reversed ? filmId2 : filmId1);
+        return row != null && row.slot(reversed ? filmId1 : filmId2) >= 0;
+    }
+
+    @Override
+    public int getFreq(long filmId1, long filmId2) {
+        boolean reversed = half && filmId1 > filmId2;
+        Row row = row(reversed ? filmId2 : filmId1);
+        if (row == null) {
+            return 0;
+        }
+        int slot = row.slot(reversed ? filmId1 : filmId2);
+        return slot < 0 ? 0 : row.freqs[slot];
+    }
+
+    public double getDiffSum(long filmId1, long filmId2) {
+        boolean reversed = half && filmId1 > filmId2;
+        Row row = row(reversed ? filmId2 : filmId1);
+        if (row == null) {
+            return 0.0;
+        }
+        int slot = row.slot(reversed ? filmId1 : filmId2);
+        if (slot < 0) {
+            return 0.0;
+        }
+        return reversed ? -row.diffSums[slot] : row.diffSums[slot];
+    }
+
+    public double getAverageDiff(long filmId1, long filmId2) {
+        boolean reversed = half && filmId1 > filmId2;
+        Row row = row(reversed ? filmId2 : filmId1);
+        if (row == null) {
+            return Double.NaN;
+        }
+        int slot = row.slot(reversed ? filmId1 : filmId2);
+        if (slot < 0) {
+            return Double.NaN;
+        }
+        double average = row.diffSums[slot] / row.freqs[slot];
+        return reversed ? -average : average;
+    }
+
+    public int neighbourCount(long filmId) {
+        Row row = row(filmId);
+        return row == null ? 0 : row.size;
+    }
+
+    // Neighbour ids in ascending order, so callers iterate the matrix deterministically
+    public long[] sortedNeighbours(long filmId) {
+        Row row = row(filmId);
+        if (row == null) {
+            return new long[0];
+        }
+        long[] neighbours = new long[row.size];
+        int idx = 0;
+        for (long key : row.keys) {
+            if (key != FREE) {
+                neighbours[idx++] = key;
+            }
+        }
+        Arrays.sort(neighbours);
+        return neighbours;
+    }
+
+    // Ids of all films that have at least one neighbour, in ascending order
+    public long[] sortedFilmIds() {
+        long[] films = new long[filmCount];
+        int idx = 0;
+        for (long filmId : filmIds) {
+            if (filmId != FREE) {
+                films[idx++] = filmId;
+            }
+        }
+        Arrays.sort(films);
+        return films;
+    }
+
+    // Neighbours with their average diff in ascending id order
+    @Override
+    public void forEachSortedNeighbour(long filmId, AverageDiffConsumer consumer) {
+        for (long otherFilmId : sortedNeighbours(filmId)) {
+            consumer.accept(otherFilmId, getAverageDiff(filmId, otherFilmId));
+        }
+    }
+
+    public void forEachNeighbour(long filmId, NeighbourConsumer consumer) {
+        Row row = row(filmId);
+        if (row != null) {
+            row.forEach(consumer);
+        }
+    }
+
+    @Override
+    public void forEach(PairConsumer consumer) {
+        for (int i = 0; i < filmIds.length; i++) {
+            if (filmIds[i] != FREE) {
+                long filmId1 = filmIds[i];
+                rows[i].forEach((filmId2, diffSum, freq) -> consumer.accept(filmId1, filmId2,
+                    diffSum, freq));
+            }
+        }
+    }
+
+    // Merges another matrix into this one. Rows this matrix does not have yet are adopted as-is,
+    // so the other matrix must not be used afterwards
+    public void absorb(SlopeOneMatrix other) {
+        if (other.half != half) {
+            throw new IllegalArgumentException("Cannot merge half and full matrices");
+        }
+        for (int i = 0; i < other.filmIds.length; i++) {
+            if (other.filmIds[i] == FREE) {
+                continue;
+            }
+            long filmId1 = other.filmIds[i];
+            Row otherRow = other.rows[i];
+            if (filmSlot(filmId1) < 0) {
+                adoptRow(filmId1, otherRow);
+            } else {
+                otherRow.forEach((filmId2, diffSum, freq) -> addCell(filmId1, filmId2, diffSum,
+                    freq));
+            }
+        }
+    }
+
+    // Keeps only the maxNeighbours most co-rated neighbours of every film, ties going to the
+    // lower film id, and returns the number of pairs removed
+    public int retainTopNeighbours(int maxNeighbours) {
+        if (maxNeighbours <= 0) {
+            throw new IllegalArgumentException("Neighbour limit must be positive: "
+                + maxNeighbours);
+        }
+        if (half) {
+            throw new IllegalStateException("Neighbour limits need a full matrix");
+        }
+        int removed = 0;
+        for (int i = 0; i < rows.length; i++) {
+            Row row = rows[i];
+            if (row != null && row.size > maxNeighbours) {
+                rows[i] = row.topNeighbours(maxNeighbours);
+                removed += row.size - maxNeighbours;
+            }
+        }
+        pairCount -= removed;
+        return removed;
+    }
+
+    // Same as above for the row of a single film
+    @Override
+    public int retainTopNeighbours(long filmId, int maxNeighbours) {
+        if (maxNeighbours <= 0) {
+            throw new IllegalArgumentException("Neighbour limit must be positive: "
+                + maxNeighbours);
+        }
+        if (half) {
+            throw new IllegalStateException("Neighbour limits need a full matrix");
+        }
+        int slot = filmSlot(filmId);
+        if (slot < 0 || rows[slot].size <= maxNeighbours) {
+            return 0;
+        }
+        int removed = rows[slot].size - maxNeighbours;
+        rows[slot] = rows[slot].topNeighbours(maxNeighbours);
+        pairCount -= removed;
+        return removed;
+    }
+
+    // Exact comparison, diff sums included bit for bit
+    public boolean contentEquals(SlopeOneMatrix other) {
+        if (other.half != half || other.pairCount != pairCount
+            || other.filmCount != filmCount) {
+            return false;
+        }
+        for (int i = 0; i < filmIds.length; i++) {
+            if (filmIds[i] == FREE) {
+                continue;
+            }
+            Row otherRow = other.row(filmIds[i]);
+            if (otherRow == null || otherRow.size != rows[i].size) {
+                return false;
+            }
+            Row row = rows[i];
+            for (int j = 0; j < row.keys.length; j++) {
+                if (row.keys[j] == FREE) {
+                    continue;
+                }
+                int slot = otherRow.slot(row.keys[j]);
+                if (slot < 0 || otherRow.freqs[slot] != row.freqs[j]
+                    || Double.doubleToLongBits(otherRow.diffSums[slot])
+                    != Double.doubleToLongBits(row.diffSums[j])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return pairCount;
+    }
+
+    public int filmCount() {
+        return filmCount;
+    }
+
+    @Override
+    public long bytes() {
+        return footprint().bytes();
+    }
+
+    public Footprint footprint() {
+        long bytes = arrayBytes(filmIds.length, Long.BYTES) + arrayBytes(rows.length, REF_BYTES);
+        for (Row row : rows) {
+            if (row != null) {
+                bytes += OBJECT_HEADER_BYTES + 3 * REF_BYTES + Integer.BYTES
+                    + arrayBytes(row.keys.length, Long.BYTES)
+                    + arrayBytes(row.diffSums.length, Double.BYTES)
+                    + arrayBytes(row.freqs.length, Integer.BYTES);
+            }
+        }
+        return new Footprint(filmCount, pairCount, bytes, boxedMapsBytes(filmCount, pairCount));
+    }
+
+    // Both directions of every pair, also for a half matrix
+    public Map<Long, Map<Long, Double>> toDiffMap() {
+        Map<Long, Map<Long, Double>> diff = new HashMap<>();
+        toFull().forEach((filmId1, filmId2, diffSum, freq) -> diff.computeIfAbsent(filmId1,
+            k -> new HashMap<>()).put(filmId2, diffSum / freq));
+        return diff;
+    }
+
+    public Map<Long, Map<Long, Integer>> toFreqMap() {
+        Map<Long, Map<Long, Integer>> freq = new HashMap<>();
+        toFull().forEach((filmId1, filmId2, diffSum, count) -> freq.computeIfAbsent(filmId1,
+            k -> new HashMap<>()).put(filmId2, count));
+        return freq;
+    }
+
+    // This matrix if it already is a full one, otherwise a copy with both directions
+    public SlopeOneMatrix toFull() {
+        if (!half) {
+            return this;
+        }
+        SlopeOneMatrix full = new SlopeOneMatrix(filmCount * 2, signed, false);
+        forEach((filmId1, filmId2, diffSum, freq) -> {
+            full.put(filmId1, filmId2, diffSum, freq);
+            full.put(filmId2, filmId1, -diffSum, freq);
+        });
+        return full;
+    }
+
+    // This matrix if it already is a half one, otherwise a copy of the cells from the lower film
+    // id. Assumes a symmetric matrix, so a pruned one loses pairs kept in one direction only
+    public SlopeOneMatrix toHalf() {
+        if (half) {
+            return this;
+        }
+        SlopeOneMatrix halfMatrix = new SlopeOneMatrix(filmCount, signed, true);
+        forEach((filmId1, filmId2, diffSum, freq) -> {
+            if (filmId1 < filmId2) {
+                halfMatrix.putCell(filmId1, filmId2, diffSum, freq);
+            }
+        });
+        return halfMatrix;
+    }
+
+    private Row row(long filmId) {
+        int slot = filmSlot(filmId);
+        return slot < 0 ? null : rows[slot];
+    }
+
+    private Row rowFor(long filmId) {
+        if (filmId <= FREE) {
+            throw new IllegalArgumentException("Film id must be positive: " + filmId);
+        }
+        int mask = filmIds.length - 1;
+        int idx = mix(filmId) & mask;
+        while (filmIds[idx] != FREE) {
+            if (filmIds[idx] == filmId) {
+                return rows[idx];
+            }
+            idx = (idx + 1) & mask;
+        }
+        Row row = new Row(MIN_CAPACITY);
+        filmIds[idx] = filmId;
+        rows[idx] = row;
+        if (++filmCount * 2 > filmIds.length) {
+            rehashFilms(filmIds.length * 2);
+        }
+        return row;
+    }
+
+    private void adoptRow(long filmId, Row row) {
+        int mask = filmIds.length - 1;
+        int idx = mix(filmId) & mask;
+        while (filmIds[idx] != FREE) {
+            idx = (idx + 1) & mask;
+        }
+        filmIds[idx] = filmId;
+        rows[idx] = row;
+        pairCount += row.size;
+        if (++filmCount * 2 > filmIds.length) {
+            rehashFilms(filmIds.length * 2);
+        }
+    }
+
+    private int filmSlot(long filmId) {
+        int mask = filmIds.length - 1;
+        int idx = mix(filmId) & mask;
+        while (filmIds[idx] != FREE) {
+            if (filmIds[idx] == filmId) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void removeRow(long filmId) {
+        int slot = filmSlot(filmId);
+        if (slot < 0) {
+            return;
+        }
+        int mask = filmIds.length - 1;
+        int gap = slot;
+        int idx = (gap + 1) & mask;
+        // Backward-shift deletion keeps linear probe chains intact without tombstones
+        while (filmIds[idx] != FREE) {
+            int home = mix(filmIds[idx]) & mask;
+            if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                filmIds[gap] = filmIds[idx];
+                rows[gap] = rows[idx];
+                gap = idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        filmIds[gap] = FREE;
+        rows[gap] = null;
+        filmCount--;
+    }
+
+    private void rehashFilms(int capacity) {
+        long[] oldIds = filmIds;
+        Row[] oldRows = rows;
+        filmIds = new long[capacity];
+        rows = new Row[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != FREE) {
+                int idx = mix(oldIds[i]) & mask;
+                while (filmIds[idx] != FREE) {
+                    idx = (idx + 1) & mask;
+                }
+                filmIds[idx] = oldIds[i];
+                rows[idx] = oldRows[i];
+            }
+        }
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    static int capacityFor(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long arrayBytes(int length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + (long) length * elementBytes);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // What Map<Long, Map<Long, Double>> plus Map<Long, Map<Long, Integer>> would need for the
+    // same content: a HashMap.Node, a Long key and a boxed value per entry, plus table slots
+    static long boxedMapsBytes(int films, long pairs) {
+        long node = align(OBJECT_HEADER_BYTES + 4 * REF_BYTES + Integer.BYTES);
+        long boxedLong = align(OBJECT_HEADER_BYTES + Long.BYTES);
+        long boxedDouble = align(OBJECT_HEADER_BYTES + Double.BYTES);
+        long boxedInteger = align(OBJECT_HEADER_BYTES + Integer.BYTES);
+        long hashMap = align(OBJECT_HEADER_BYTES + 3 * REF_BYTES + 3 * Integer.BYTES + Float.BYTES);
+        long tableSlot = 2L * REF_BYTES; // load factor 0.75 with power-of-two tables
+        long perPair = 2 * (node + boxedLong + tableSlot) + boxedDouble + boxedInteger;
+        long perFilm = 2 * (node + boxedLong + tableSlot + hashMap + ARRAY_HEADER_BYTES);
+        return pairs * perPair + films * perFilm;
+    }
+
+    @FunctionalInterface
+    public interface NeighbourConsumer {
+
+        void accept(long filmId, double diffSum, int freq);
+    }
+
+    @FunctionalInterface
+    public interface AverageDiffConsumer {
+
+        void accept(long filmId, double averageDiff);
+    }
+
+    @FunctionalInterface
+    public interface PairConsumer {
+
+        void accept(long filmId1, long filmId2, double diffSum, int freq);
+    }
+
+    public record Footprint(int films, int pairs, long bytes, long boxedBytes) {
+
+        @Override
+        public String toString() {
+            return String.format("%d films, %d pairs, ~%.1f MiB (~%.1f MiB as boxed maps)", films,
+                pairs, bytes / 1048576.0, boxedBytes / 1048576.0);
+        }
+    }
+
+    private static final class Row {
+
+        private long[] keys;
+        private double[] diffSums;
+        private int[] freqs;
+        private int size;
+
+        private Row(int capacity) {
+            keys = new long[capacity];
+            diffSums = new double[capacity];
+            freqs = new int[capacity];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int idx = mix(key) & mask;
+            while (keys[idx] != FREE) {
+                if (keys[idx] == key) {
+                    return idx;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void add(long key, double diffDelta, int freqDelta, boolean signed) {
+            if (key <= FREE) {
+                throw new IllegalArgumentException("Film id must be positive: " + key);
+            }
+            int mask = keys.length - 1;
+            int idx = mix(key) & mask;
+            while (keys[idx] != FREE) {
+                if (keys[idx] == key) {
+                    diffSums[idx] += diffDelta;
+                    freqs[idx] += freqDelta;
+                    if (signed ? freqs[idx] == 0 && diffSums[idx] == 0.0 : freqs[idx] <= 0) {
+                        remove(idx);
+                    }
+                    return;
+                }
+                idx = (idx + 1) & mask;
+            }
+            if (signed ? freqDelta != 0 || diffDelta != 0.0 : freqDelta > 0) {
+                insert(idx, key, diffDelta, freqDelta);
+            }
+        }
+
+        private void put(long key, double diffSum, int freq) {
+            if (key <= FREE) {
+                throw new IllegalArgumentException("Film id must be positive: " + key);
+            }
+            int mask = keys.length - 1;
+            int idx = mix(key) & mask;
+            while (keys[idx] != FREE) {
+                if (keys[idx] == key) {
+                    diffSums[idx] = diffSum;
+                    freqs[idx] = freq;
+                    return;
+                }
+                idx = (idx + 1) & mask;
+            }
+            insert(idx, key, diffSum, freq);
+        }
+
+        private void insert(int idx, long key, double diffSum, int freq) {
+            keys[idx] = key;
+            diffSums[idx] = diffSum;
+            freqs[idx] = freq;
+            if (++size * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+            }
+        }
+
+        private void remove(int slot) {
+            int mask = keys.length - 1;
+            int gap = slot;
+            int idx = (gap + 1) & mask;
+            while (keys[idx] != FREE) {
+                int home = mix(keys[idx]) & mask;
+                if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                    keys[gap] = keys[idx];
+                    diffSums[gap] = diffSums[idx];
+                    freqs[gap] = freqs[idx];
+                    gap = idx;
+                }
+                idx = (idx + 1) & mask;
+            }
+            keys[gap] = FREE;
+            diffSums[gap] = 0.0;
+            freqs[gap] = 0;
+            size--;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            double[] oldDiffSums = diffSums;
+            int[] oldFreqs = freqs;
+            keys = new long[capacity];
+            diffSums = new double[capacity];
+            freqs = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int idx = mix(oldKeys[i]) & mask;
+                    while (keys[idx] != FREE) {
+                        idx = (idx + 1) & mask;
+                    }
+                    keys[idx] = oldKeys[i];
+                    diffSums[idx] = oldDiffSums[i];
+                    freqs[idx] = oldFreqs[i];
+                }
+            }
+        }
+
+        private Row topNeighbours(int limit) {
+            int[] sortedFreqs = new int[size];
+            int idx = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE) {
+                    sortedFreqs[idx++] = freqs[i];
+                }
+            }
+            Arrays.sort(sortedFreqs);
+            int threshold = sortedFreqs[size - limit];
+            int above = 0;
+            int tied = 0;
+            for (int freq : sortedFreqs) {
+                if (freq > threshold) {
+                    above++;
+                } else if (freq == threshold) {
+                    tied++;
+                }
+            }
+            long[] tiedKeys = new long[tied];
+            idx = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE && freqs[i] == threshold) {
+                    tiedKeys[idx++] = keys[i];
+                }
+            }
+            Arrays.sort(tiedKeys);
+            // Highest tied id that still fits in the limit
+            long lastTiedKey = tiedKeys[limit - above - 1];
+
+            Row top = new Row(capacityFor(limit * 2 / 3 + 1));
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE && (freqs[i] > threshold
+                    || freqs[i] == threshold && keys[i] <= lastTiedKey)) {
+                    top.put(keys[i], diffSums[i], freqs[i]);
+                }
+            }
+            return top;
+        }
+
+        private void forEach(NeighbourConsumer consumer) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE) {
+                    consumer.accept(keys[i], diffSums[i], freqs[i]);
+                }
+            }
+        }
+    }
+}
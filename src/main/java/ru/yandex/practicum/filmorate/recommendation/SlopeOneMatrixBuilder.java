@@ -0,0 +1,224 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a slope-one matrix from users fed one at a time, either on the calling thread or on a
+ * fork-join pool.
+ *
+ * <p>The parallel build shards the matrix by source film rather than by user: every worker scans
+ * all users in the same order but only accumulates the rows it owns. Each cell therefore sees
+ * exactly the same sequence of floating-point additions as in the sequential build, so both
+ * produce bit-for-bit identical matrices for any degree of parallelism, and the per-worker
+ * partial matrices have disjoint rows that merge without further arithmetic. Users are handed to
+ * the workers in batches of bounded size, so a streamed build never holds more than one batch
+ * of ratings besides the matrix itself.
+ *
+ * <p>A half-matrix build only accumulates each pair once, in the row of its lower film id, which
+ * halves both the additions and the result.
+ */
+public final class SlopeOneMatrixBuilder implements Consumer<UserRatings>, AutoCloseable {
+
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int BATCH_RATINGS = 65_536;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+    private final SlopeOneMatrix[] shards;
+    private final List<UserRatings> batch = new ArrayList<>();
+    private int batchRatings;
+    private int users;
+    private long ratings;
+    private SlopeOneMatrix result;
+
+    public SlopeOneMatrixBuilder() {
+        this(1);
+    }
+
+    public SlopeOneMatrixBuilder(int parallelism) {
+        this(parallelism, false);
+    }
+
+    public SlopeOneMatrixBuilder(int parallelism, boolean half) {
+        this(parallelism > 1 ? new ForkJoinPool(parallelism) : null, true,
+            Math.max(parallelism, 1) * SHARDS_PER_THREAD, half);
+    }
+
+    public SlopeOneMatrixBuilder(ForkJoinPool pool, int shards) {
+        this(pool, false, shards, false);
+    }
+
+    public SlopeOneMatrixBuilder(ForkJoinPool pool, int shards, boolean half) {
+        this(pool, false, shards, half);
+    }
+
+    private SlopeOneMatrixBuilder(ForkJoinPool pool, boolean ownsPool, int shardCount,
+        boolean half) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        shards = new SlopeOneMatrix[pool == null ? 1 : shardCount];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = half ? SlopeOneMatrix.halfMatrix(16) : new SlopeOneMatrix();
+        }
+    }
+
+    public static SlopeOneMatrix build(List<UserRatings> users) {
+        return build(users, 1);
+    }
+
+    public static SlopeOneMatrix build(List<UserRatings> users, int parallelism) {
+        try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(parallelism)) {
+            users.forEach(builder);
+            return builder.build();
+        }
+    }
+
+    @Override
+    public void accept(UserRatings user) {
+        if (result != null) {
+            throw new IllegalStateException("Matrix has already been built");
+        }
+        users++;
+        ratings += user.size();
+        if (pool == null) {
+            accumulate(shards[0], user);
+            return;
+        }
+        batch.add(user);
+        batchRatings += user.size();
+        if (batchRatings >= BATCH_RATINGS) {
+            flush();
+        }
+    }
+
+    public int userCount() {
+        return users;
+    }
+
+    public long ratingCount() {
+        return ratings;
+    }
+
+    public SlopeOneMatrix build() {
+        if (result == null) {
+            flush();
+            result = shards[0];
+            for (int i = 1; i < shards.length; i++) {
+                result.absorb(shards[i]);
+                shards[i] = null;
+            }
+            close();
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool && pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            pool.submit(() -> IntStream.range(0, shards.length).parallel()
+                .forEach(shard -> batch.forEach(
+                    user -> accumulateShard(shards[shard], user, shard, shards.length)))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel matrix build interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel matrix build failed", e.getCause());
+        }
+        batch.clear();
+        batchRatings = 0;
+    }
+
+    public static void accumulate(SlopeOneMatrix matrix, UserRatings user) {
+        long[] filmIds = user.filmIds();
+        double[] ratings = user.ratings();
+        // Ensure each pair is iterated through once
+        for (int i = 0; i < filmIds.length; i++) {
+            for (int j = i + 1; j < filmIds.length; j++) {
+                addPair(matrix, filmIds[i], ratings[i], filmIds[j], ratings[j], 1);
+            }
+        }
+    }
+
+    // Adds (sign = 1) or subtracts (sign = -1) one user's ratings of two films, in both
+    // directions unless the matrix is a half matrix, which derives the reverse one
+    public static void addPair(SlopeOneMatrix matrix, long filmId1, double rating1, long filmId2,
+        double rating2, int sign) {
+        matrix.add(filmId1, filmId2, sign * (rating1 - rating2), sign);
+        if (!matrix.isHalf()) {
+            matrix.add(filmId2, filmId1, sign * (rating2 - rating1), sign);
+        }
+    }
+
+    // Same additions as accumulate(), restricted to the rows whose source film is in the shard
+    public static void accumulateShard(SlopeOneMatrix matrix, UserRatings user, int shard,
+        int shards) {
+        long[] filmIds = user.filmIds();
+        double[] ratings = user.ratings();
+        for (int i = 0; i < filmIds.length; i++) {
+            if (shardOf(filmIds[i], shards) != shard) {
+                continue;
+            }
+            for (int j = 0; j < filmIds.length; j++) {
+                // A half matrix keeps the pair in the row of the lower film only
+                if (i != j && (!matrix.isHalf() || filmIds[i] < filmIds[j])) {
+                    matrix.add(filmIds[i], filmIds[j], ratings[i] - ratings[j], 1);
+                }
+            }
+        }
+    }
+
+    // Adds the difference between a user's contribution with the ratings after and before some
+    // changes to a delta matrix. Only pairs with a film whose rating differs are visited
+    public static void accumulateChange(SlopeOneMatrix delta, Map<Long, Double> before,
+        Map<Long, Double> after) {
+        Set<Long> changed = new HashSet<>();
+        before.forEach((filmId, rating) -> {
+            if (!rating.equals(after.get(filmId))) {
+                changed.add(filmId);
+            }
+        });
+        after.keySet().stream().filter(filmId -> !before.containsKey(filmId))
+            .forEach(changed::add);
+        accumulatePairs(delta, before, changed, -1);
+        accumulatePairs(delta, after, changed, 1);
+    }
+
+    private static void accumulatePairs(SlopeOneMatrix delta, Map<Long, Double> ratings,
+        Set<Long> changed, int sign) {
+        for (long filmId1 : changed) {
+            Double rating1 = ratings.get(filmId1);
+            if (rating1 == null) {
+                continue;
+            }
+            for (Map.Entry<Long, Double> other : ratings.entrySet()) {
+                long filmId2 = other.getKey();
+                // A pair of two changed films is visited from its lower film id only
+                if (filmId2 == filmId1 || filmId2 < filmId1 && changed.contains(filmId2)) {
+                    continue;
+                }
+                addPair(delta, filmId1, rating1, filmId2, other.getValue(), sign);
+            }
+        }
+    }
+
+    static int shardOf(long filmId, int shards) {
+        return Math.floorMod(SlopeOneMatrix.mix(filmId), shards);
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Predicts a user's ratings for unrated films from a slope-one matrix.
+ */
+public final class SlopeOnePredictor {
+
+    private SlopeOnePredictor() {
+    }
+
+    // Ratings must be ordered by film so predictions do not depend on hashing order
+    public static Map<Long, Double> predict(SlopeOneMatrix matrix,
+        SortedMap<Long, Double> userRatings) {
+        if (matrix.isHalf()) {
+            throw new IllegalArgumentException("Predictions need a full matrix");
+        }
+        return predict(matrix::forEachSortedNeighbour, userRatings);
+    }
+
+    // Same as above against a matrix other threads may update meanwhile
+    public static Map<Long, Double> predict(StripedSlopeOneMatrix matrix,
+        SortedMap<Long, Double> userRatings) {
+        return predict(matrix::forEachSortedNeighbour, userRatings);
+    }
+
+    private static Map<Long, Double> predict(Rows rows, SortedMap<Long, Double> userRatings) {
+        Map<Long, Double> predictedRatings = new HashMap<>();
+        for (Map.Entry<Long, Double> entry : userRatings.entrySet()) {
+            long filmId = entry.getKey();
+            double rating = entry.getValue();
+            int[] predictionsCount = {0};
+            rows.forEachSortedNeighbour(filmId, (otherFilmId, diffValue) -> {
+                double otherFilmRating = rating + diffValue;
+                // Skip already rated films
+                if (!userRatings.containsKey(otherFilmId)) {
+                    predictedRatings.compute(otherFilmId, (k, v) -> {
+                        if (v == null) {
+                            predictionsCount[0]++;
+                            return otherFilmRating;
+                        } else {
+                            return (v * predictionsCount[0] + otherFilmRating)
+                                / (++predictionsCount[0]);
+                        }
+                    });
+                }
+            });
+        }
+        return predictedRatings;
+    }
+
+    @FunctionalInterface
+    private interface Rows {
+
+        void forEachSortedNeighbour(long filmId, SlopeOneMatrix.AverageDiffConsumer consumer);
+    }
+}
@@ -0,0 +1,124 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * A slope-one matrix persisted to a binary file together with the ratings it was built from.
+ *
+ * <p>{@code ratedUpTo} is the latest {@code ratings.rated_at} covered by the matrix and
+ * {@code ratingCount} the number of ratings up to that stamp, so a reader can replay only newer
+ * ratings and detect deletions by comparing counts. {@code ratedUpTo} is null for a matrix built
+ * from an empty ratings table.
+ *
+ * <p>Layout, big-endian: magic, format version, half-matrix flag, stamp flag, stamp seconds and
+ * nanos, rating count, film count, pair count, then for every film in ascending id order its id,
+ * neighbour count and {@code (neighbour id, diff sum, freq)} triples, and the magic again as a
+ * trailer. A half matrix only lists the neighbours with a higher id. Version 1 files have no
+ * half-matrix flag and always hold a full matrix. Files are written to a sibling temporary file
+ * and moved into place, and read back as a buffered stream straight into the matrix.
+ */
+public record SlopeOneSnapshot(SlopeOneMatrix matrix, Instant ratedUpTo, long ratingCount) {
+
+    private static final int MAGIC = 0x534C4F31; // "SLO1"
+    private static final int VERSION = 2;
+    private static final int V1_HEADER_BYTES = 4 + 4 + 1 + 8 + 4 + 8 + 4 + 8;
+    private static final int HEADER_BYTES = V1_HEADER_BYTES + 1;
+    private static final int FILM_BYTES = 8 + 4;
+    private static final int PAIR_BYTES = 8 + 8 + 4;
+    private static final int TRAILER_BYTES = 4;
+
+    public void writeTo(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(matrix.isHalf());
+            out.writeBoolean(ratedUpTo != null);
+            out.writeLong(ratedUpTo == null ? 0 : ratedUpTo.getEpochSecond());
+            out.writeInt(ratedUpTo == null ? 0 : ratedUpTo.getNano());
+            out.writeLong(ratingCount);
+            out.writeInt(matrix.filmCount());
+            out.writeLong(matrix.size());
+            for (long filmId : matrix.sortedFilmIds()) {
+                out.writeLong(filmId);
+                out.writeInt(matrix.neighbourCount(filmId));
+                for (long otherFilmId : matrix.sortedNeighbours(filmId)) {
+                    out.writeLong(otherFilmId);
+                    out.writeDouble(matrix.getDiffSum(filmId, otherFilmId));
+                    out.writeInt(matrix.getFreq(filmId, otherFilmId));
+                }
+            }
+            out.writeInt(MAGIC);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Throws IOException if the file is missing, truncated or not a snapshot of this version
+    public static SlopeOneSnapshot readFrom(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < V1_HEADER_BYTES + TRAILER_BYTES) {
+            throw new IOException("Snapshot is truncated: " + size + " bytes");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Files.newInputStream(path), 1 << 16))) {
+            return read(in, size);
+        } catch (EOFException | IllegalArgumentException e) {
+            throw new IOException("Snapshot is corrupted", e);
+        }
+    }
+
+    private static SlopeOneSnapshot read(DataInputStream in, long size) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a slope-one snapshot");
+        }
+        int version = in.readInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        boolean half = version > 1 && in.readBoolean();
+        int headerBytes = version > 1 ? HEADER_BYTES : V1_HEADER_BYTES;
+        boolean stamped = in.readBoolean();
+        long seconds = in.readLong();
+        int nanos = in.readInt();
+        long ratingCount = in.readLong();
+        int filmCount = in.readInt();
+        long pairCount = in.readLong();
+        if (filmCount < 0 || pairCount < 0
+            || size != headerBytes + (long) filmCount * FILM_BYTES + pairCount * PAIR_BYTES
+            + TRAILER_BYTES) {
+            throw new IOException("Snapshot size does not match its header");
+        }
+
+        SlopeOneMatrix matrix = half ? SlopeOneMatrix.halfMatrix(filmCount)
+            : new SlopeOneMatrix(filmCount);
+        for (int i = 0; i < filmCount; i++) {
+            long filmId = in.readLong();
+            int neighbours = in.readInt();
+            for (int j = 0; j < neighbours; j++) {
+                matrix.put(filmId, in.readLong(), in.readDouble(), in.readInt());
+            }
+        }
+        if (in.readInt() != MAGIC || matrix.size() != pairCount) {
+            throw new IOException("Snapshot content does not match its header");
+        }
+        Instant ratedUpTo = stamped ? Instant.ofEpochSecond(seconds, nanos) : null;
+        return new SlopeOneSnapshot(matrix, ratedUpTo, ratingCount);
+    }
+}
@@ -0,0 +1,239 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A full slope-one matrix shared by request threads that predict from it and apply rating
+ * changes to it at the same time.
+ *
+ * <p>Rows are split over stripes by source film the same way the parallel builder shards them,
+ * and each stripe is a {@link SlopeOneMatrix} behind a read-write lock of its own. A delta is
+ * applied one stripe at a time, so updates touching different films proceed in parallel while
+ * every cell is only ever changed under its stripe's write lock and no increment is lost.
+ * Readers see each row either before or after a given delta, not halfway. Quantized stripes
+ * are {@link QuantizedSlopeOneMatrix} rows, which take well under half the memory.
+ */
+public final class StripedSlopeOneMatrix {
+
+    private final MatrixStripe[] stripes;
+    private final ReadWriteLock[] locks;
+    private final boolean quantized;
+
+    public StripedSlopeOneMatrix(int stripeCount) {
+        this(stripeCount, false);
+    }
+
+    public StripedSlopeOneMatrix(int stripeCount, boolean quantized) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive: " + stripeCount);
+        }
+        this.quantized = quantized;
+        stripes = new MatrixStripe[stripeCount];
+        locks = new ReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = quantized ? new QuantizedSlopeOneMatrix() : new SlopeOneMatrix();
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // Copies a full or half matrix, the half one in both directions
+    public static StripedSlopeOneMatrix of(SlopeOneMatrix matrix, int stripeCount) {
+        return of(matrix, stripeCount, false);
+    }
+
+    public static StripedSlopeOneMatrix of(SlopeOneMatrix matrix, int stripeCount,
+        boolean quantized) {
+        StripedSlopeOneMatrix striped = new StripedSlopeOneMatrix(stripeCount, quantized);
+        if (quantized) {
+            QuantizedSlopeOneMatrix.copySorted(matrix, striped::stripeOf);
+            return striped;
+        }
+        boolean half = matrix.isHalf();
+        matrix.forEach((filmId1, filmId2, diffSum, freq) -> {
+            striped.stripeOf(filmId1).put(filmId1, filmId2, diffSum, freq);
+            if (half) {
+                striped.stripeOf(filmId2).put(filmId2, filmId1, -diffSum, freq);
+            }
+        });
+        return striped;
+    }
+
+    // Adds a full or half delta, cells whose frequency drops to zero are removed
+    public void apply(SlopeOneMatrix delta) {
+        Cells cells = new Cells(delta.isHalf() ? 2 * delta.size() : delta.size());
+        delta.forEach((filmId1, filmId2, diffDelta, freqDelta) -> {
+            cells.add(stripeIndex(filmId1), filmId1, filmId2, diffDelta, freqDelta);
+            if (delta.isHalf()) {
+                cells.add(stripeIndex(filmId2), filmId2, filmId1, -diffDelta, freqDelta);
+            }
+        });
+        // Counting sort by stripe, so each stripe is locked once
+        int[] starts = new int[stripes.length + 1];
+        for (int i = 0; i < cells.size; i++) {
+            starts[cells.stripes[i] + 1]++;
+        }
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            starts[stripe + 1] += starts[stripe];
+        }
+        int[] order = new int[cells.size];
+        int[] next = Arrays.copyOf(starts, stripes.length);
+        for (int i = 0; i < cells.size; i++) {
+            order[next[cells.stripes[i]]++] = i;
+        }
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            if (starts[stripe] == starts[stripe + 1]) {
+                continue;
+            }
+            locks[stripe].writeLock().lock();
+            try {
+                for (int i = starts[stripe]; i < starts[stripe + 1]; i++) {
+                    int cell = order[i];
+                    stripes[stripe].add(cells.filmIds1[cell], cells.filmIds2[cell],
+                        cells.diffs[cell], cells.freqs[cell]);
+                }
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+    }
+
+    // Keeps the maxNeighbours most co-rated neighbours in the rows of the given films
+    public int retainTopNeighbours(Collection<Long> filmIds, int maxNeighbours) {
+        int removed = 0;
+        for (long filmId : filmIds) {
+            int stripe = stripeIndex(filmId);
+            locks[stripe].writeLock().lock();
+            try {
+                removed += stripes[stripe].retainTopNeighbours(filmId, maxNeighbours);
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+        return removed;
+    }
+
+    // Visits the film's row under its stripe's read lock, consumers must not block
+    public void forEachSortedNeighbour(long filmId,
+        SlopeOneMatrix.AverageDiffConsumer consumer) {
+        int stripe = stripeIndex(filmId);
+        locks[stripe].readLock().lock();
+        try {
+            stripes[stripe].forEachSortedNeighbour(filmId, consumer);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    public int getFreq(long filmId1, long filmId2) {
+        int stripe = stripeIndex(filmId1);
+        locks[stripe].readLock().lock();
+        try {
+            return stripes[stripe].getFreq(filmId1, filmId2);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    // Copy of the rows of the given films, each row as one stripe holds it at the time
+    public SlopeOneMatrix rows(Collection<Long> filmIds) {
+        SlopeOneMatrix rows = new SlopeOneMatrix();
+        for (long filmId : filmIds) {
+            int stripe = stripeIndex(filmId);
+            MatrixStripe rowStripe = stripes[stripe];
+            locks[stripe].readLock().lock();
+            try {
+                rowStripe.forEachSortedNeighbour(filmId, (neighbourId, averageDiff) -> {
+                    int freq = rowStripe.getFreq(filmId, neighbourId);
+                    rows.put(filmId, neighbourId, averageDiff * freq, freq);
+                });
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+        return rows;
+    }
+
+    // Copy of the whole matrix, consistent per stripe
+    public SlopeOneMatrix toMatrix() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            locks[stripe].readLock().lock();
+            try {
+                stripes[stripe].forEach(matrix::put);
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+        return matrix;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    // Estimated heap of all stripes
+    public long bytes() {
+        long bytes = 0;
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            locks[stripe].readLock().lock();
+            try {
+                bytes += stripes[stripe].bytes();
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+
+    public int size() {
+        int size = 0;
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            locks[stripe].readLock().lock();
+            try {
+                size += stripes[stripe].size();
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    private MatrixStripe stripeOf(long filmId) {
+        return stripes[stripeIndex(filmId)];
+    }
+
+    private int stripeIndex(long filmId) {
+        return SlopeOneMatrixBuilder.shardOf(filmId, stripes.length);
+    }
+
+    // Cells of a delta in primitive arrays, tagged with their stripe
+    private static final class Cells {
+
+        private final int[] stripes;
+        private final long[] filmIds1;
+        private final long[] filmIds2;
+        private final double[] diffs;
+        private final int[] freqs;
+        private int size;
+
+        private Cells(int capacity) {
+            stripes = new int[capacity];
+            filmIds1 = new long[capacity];
+            filmIds2 = new long[capacity];
+            diffs = new double[capacity];
+            freqs = new int[capacity];
+        }
+
+        private void add(int stripe, long filmId1, long filmId2, double diff, int freq) {
+            stripes[size] = stripe;
+            filmIds1[size] = filmId1;
+            filmIds2[size] = filmId2;
+            diffs[size] = diff;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the ids with the highest scores out of a stream of id/score pairs.
+ *
+ * <p>A min-heap of at most {@code limit} primitive pairs holds the current winners with the
+ * weakest at the root, so offering n candidates costs O(n log limit) and no candidate is boxed.
+ * Equal scores are ranked by ascending id. Arrays grow on demand, so a large limit over few
+ * candidates stays small.
+ */
+public final class TopScores {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int limit;
+    private long[] ids;
+    private double[] scores;
+    private int size;
+
+    public TopScores(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        this.limit = limit;
+        int capacity = Math.min(limit, INITIAL_CAPACITY);
+        ids = new long[capacity];
+        scores = new double[capacity];
+    }
+
+    public void offer(long id, double score) {
+        if (size < limit) {
+            if (size == ids.length) {
+                int capacity = (int) Math.min(limit, size * 2L);
+                ids = Arrays.copyOf(ids, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (weaker(ids[0], scores[0], id, score)) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Ids best first. Empties the selector
+    public long[] ranked() {
+        long[] ranked = new long[size];
+        // Popping the weakest entry each time fills the result from the back
+        for (int i = size - 1; i >= 0; i--) {
+            ranked[i] = ids[0];
+            size--;
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return ranked;
+    }
+
+    private void siftUp(int idx) {
+        while (idx > 0) {
+            int parent = (idx - 1) / 2;
+            if (!weaker(ids[idx], scores[idx], ids[parent], scores[parent])) {
+                return;
+            }
+            swap(idx, parent);
+            idx = parent;
+        }
+    }
+
+    private void siftDown(int idx) {
+        while (true) {
+            int weakest = idx;
+            for (int child = 2 * idx + 1; child <= 2 * idx + 2 && child < size; child++) {
+                if (weaker(ids[child], scores[child], ids[weakest], scores[weakest])) {
+                    weakest = child;
+                }
+            }
+            if (weakest == idx) {
+                return;
+            }
+            swap(idx, weakest);
+            idx = weakest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    private static boolean weaker(long id1, double score1, long id2, double score2) {
+        return score1 < score2 || score1 == score2 && id1 > id2;
+    }
+}
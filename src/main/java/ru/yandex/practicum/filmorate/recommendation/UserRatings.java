@@ -0,0 +1,11 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+/**
+ * All ratings of one user as parallel primitive arrays, the unit the matrix builders consume.
+ */
+public record UserRatings(long userId, long[] filmIds, double[] ratings) {
+
+    public int size() {
+        return filmIds.length;
+    }
+}
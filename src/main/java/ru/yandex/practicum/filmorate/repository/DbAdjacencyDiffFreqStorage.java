@@ -0,0 +1,301 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.recommendation.AdjacencyRow;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+
+/**
+ * Keeps the neighbours of every film as one {@link AdjacencyRow} blob in {@code item_adjacency}.
+ *
+ * <p>Every pair is stored in the rows of both its films, so the neighbourhood of a film is a
+ * single row read. Average diffs are stored as floats, which is well below the precision of a
+ * rating. Rows of deleted films go away with the film, their entries in other rows stay until
+ * the next rebuild.
+ */
+@Repository
+@ConditionalOnProperty(prefix = "filmorate.recommendations.storage", name = "format",
+    havingValue = RecommendationProperties.Storage.ADJACENCY)
+@RequiredArgsConstructor
+@Slf4j
+@SuppressWarnings("unused")
+public class DbAdjacencyDiffFreqStorage implements DiffFreqStorage {
+
+    private static final String LOAD_ROWS_QUERY = "SELECT film_id, neighbours FROM item_adjacency";
+    private static final String LOAD_ROWS_BY_IDS_QUERY =
+        "SELECT film_id, neighbours FROM item_adjacency WHERE film_id IN (%s)";
+    private static final String LOAD_ROW_QUERY =
+        "SELECT neighbours FROM item_adjacency WHERE film_id = ?";
+    // Rows are read, merged and written back, so concurrent deltas of a film must take turns
+    private static final String LOAD_ROW_FOR_UPDATE_QUERY =
+        "SELECT neighbours FROM item_adjacency WHERE film_id = ? FOR UPDATE";
+    private static final String MERGE_ROW_QUERY =
+        "MERGE INTO item_adjacency (film_id, neighbour_count, neighbours) "
+            + "KEY (film_id) VALUES (?, ?, ?)";
+    private static final String INSERT_ROW_QUERY =
+        "INSERT INTO item_adjacency (film_id, neighbour_count, neighbours) VALUES (?, ?, ?)";
+    private static final String DELETE_ROW_QUERY = "DELETE FROM item_adjacency WHERE film_id = ?";
+    private static final String CLEAR_ROWS_QUERY = "DELETE FROM item_adjacency";
+    private static final String HAS_ROWS_QUERY = "SELECT EXISTS (SELECT 1 FROM item_adjacency)";
+    private static final String HAS_PAIRS_QUERY = "SELECT EXISTS (SELECT 1 FROM item_freq)";
+    private static final String HAS_LOWER_HALF_QUERY = """
+        SELECT EXISTS (
+          SELECT 1
+          FROM item_freq
+          WHERE film_id1 > film_id2
+        )
+        """;
+    private static final String LOAD_PAIRS_QUERY = """
+        SELECT
+          d.film_id1,
+          d.film_id2,
+          COALESCE(d.diff_sum, d.diff_value * f.freq_value) AS diff_sum,
+          f.freq_value
+        FROM item_diff AS d
+        JOIN item_freq AS f ON d.film_id1 = f.film_id1
+          AND d.film_id2 = f.film_id2
+        """;
+    private static final String CLEAR_DIFF_QUERY = "DELETE FROM item_diff";
+    private static final String CLEAR_FREQ_QUERY = "DELETE FROM item_freq";
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbc;
+
+    @Override
+    @Transactional
+    public void saveDiff(Map<Long, Map<Long, Double>> diff) {
+        try {
+            List<Object[]> batchArgs = new ArrayList<>();
+            diff.forEach((filmId, neighbours) -> batchArgs.add(rowArgs(filmId,
+                loadRow(filmId, LOAD_ROW_FOR_UPDATE_QUERY).withDiffs(neighbours))));
+            jdbc.batchUpdate(MERGE_ROW_QUERY, batchArgs);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to save diff.", e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void saveFreq(Map<Long, Map<Long, Integer>> freq) {
+        try {
+            List<Object[]> batchArgs = new ArrayList<>();
+            freq.forEach((filmId, neighbours) -> batchArgs.add(rowArgs(filmId,
+                loadRow(filmId, LOAD_ROW_FOR_UPDATE_QUERY).withFreqs(neighbours))));
+            jdbc.batchUpdate(MERGE_ROW_QUERY, batchArgs);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to save freq.", e);
+        }
+    }
+
+    @Override
+    public Map<Long, Map<Long, Double>> loadDiff() {
+        Map<Long, Map<Long, Double>> diff = new HashMap<>();
+        forEachRow((filmId, row) -> row.forEach((neighbourId, averageDiff, freq) -> {
+            if (!Float.isNaN(averageDiff)) {
+                diff.computeIfAbsent(filmId, k -> new HashMap<>()).put(neighbourId,
+                    (double) averageDiff);
+            }
+        }));
+        return diff;
+    }
+
+    @Override
+    public Map<Long, Map<Long, Integer>> loadFreq() {
+        Map<Long, Map<Long, Integer>> freq = new HashMap<>();
+        forEachRow((filmId, row) -> row.forEach((neighbourId, averageDiff, count) -> {
+            if (count > 0) {
+                freq.computeIfAbsent(filmId, k -> new HashMap<>()).put(neighbourId, count);
+            }
+        }));
+        return freq;
+    }
+
+    @Override
+    @Transactional
+    public void saveMatrix(SlopeOneMatrix matrix) {
+        SlopeOneMatrix full = matrix.toFull();
+        try {
+            jdbc.update(CLEAR_ROWS_QUERY);
+            List<Object[]> batchArgs = new ArrayList<>();
+            long bytes = 0;
+            for (long filmId : full.sortedFilmIds()) {
+                Object[] args = rowArgs(filmId, AdjacencyRow.of(full, filmId));
+                bytes += ((byte[]) args[2]).length;
+                batchArgs.add(args);
+                if (batchArgs.size() == BATCH_SIZE) {
+                    jdbc.batchUpdate(INSERT_ROW_QUERY, batchArgs);
+                    batchArgs.clear();
+                }
+            }
+            if (!batchArgs.isEmpty()) {
+                jdbc.batchUpdate(INSERT_ROW_QUERY, batchArgs);
+            }
+            log.info("Saved {} films with {} neighbours in {} bytes of adjacency blobs",
+                full.filmCount(), full.size(), bytes);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to save diff and freq matrix.", e);
+        }
+    }
+
+    @Override
+    public SlopeOneMatrix loadMatrix() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        forEachRow((filmId, row) -> putRow(matrix, filmId, row));
+        return matrix;
+    }
+
+    @Override
+    public SlopeOneMatrix loadNeighbourhoods(Collection<Long> filmIds) {
+        SlopeOneMatrix matrix = new SlopeOneMatrix(filmIds.size());
+        try {
+            InLists.forEachChunk(filmIds, LOAD_ROWS_BY_IDS_QUERY, (sql, args) ->
+                jdbc.query(sql, rs -> {
+                    putRow(matrix, rs.getLong("film_id"),
+                        AdjacencyRow.decode(rs.getBytes("neighbours")));
+                }, args));
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load film neighbourhoods.", e);
+        }
+        return matrix;
+    }
+
+    @Override
+    @Transactional
+    public void applyDelta(SlopeOneMatrix delta) {
+        SlopeOneMatrix full = delta.toFull();
+        try {
+            List<Object[]> mergeArgs = new ArrayList<>();
+            List<Object[]> deleteArgs = new ArrayList<>();
+            // Ascending ids, so two deltas lock shared rows in the same order
+            for (long filmId : full.sortedFilmIds()) {
+                AdjacencyRow row = loadRow(filmId, LOAD_ROW_FOR_UPDATE_QUERY)
+                    .withDelta(full, filmId);
+                if (row.isEmpty()) {
+                    deleteArgs.add(new Object[]{filmId});
+                } else {
+                    mergeArgs.add(rowArgs(filmId, row));
+                }
+            }
+            jdbc.batchUpdate(MERGE_ROW_QUERY, mergeArgs);
+            jdbc.batchUpdate(DELETE_ROW_QUERY, deleteArgs);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to apply diff and freq delta.", e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void retainTopNeighbours(Collection<Long> filmIds, int maxNeighbours) {
+        try {
+            List<Object[]> mergeArgs = new ArrayList<>();
+            List<Object[]> deleteArgs = new ArrayList<>();
+            for (long filmId : new TreeSet<>(filmIds)) {
+                AdjacencyRow row = loadRow(filmId, LOAD_ROW_FOR_UPDATE_QUERY);
+                AdjacencyRow kept = row.retainTop(maxNeighbours);
+                if (kept.size() == row.size()) {
+                    continue;
+                }
+                if (kept.isEmpty()) {
+                    deleteArgs.add(new Object[]{filmId});
+                } else {
+                    mergeArgs.add(rowArgs(filmId, kept));
+                }
+            }
+            jdbc.batchUpdate(MERGE_ROW_QUERY, mergeArgs);
+            jdbc.batchUpdate(DELETE_ROW_QUERY, deleteArgs);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to trim diff and freq neighbours.", e);
+        }
+    }
+
+    @Override
+    public List<Long> getTopNeighbours(long filmId, int limit) {
+        try {
+            long[] top = loadRow(filmId, LOAD_ROW_QUERY).topNeighbours(limit);
+            List<Long> neighbours = new ArrayList<>(top.length);
+            for (long neighbourId : top) {
+                neighbours.add(neighbourId);
+            }
+            return neighbours;
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load top neighbours.", e);
+        }
+    }
+
+    // Moves pairs left in item_diff / item_freq by the row storage into the blobs once
+    @Override
+    @Transactional
+    public void migrateLayout() {
+        try {
+            if (Boolean.TRUE.equals(jdbc.queryForObject(HAS_ROWS_QUERY, Boolean.class))
+                || !Boolean.TRUE.equals(jdbc.queryForObject(HAS_PAIRS_QUERY, Boolean.class))) {
+                return;
+            }
+            // Without a pair in the lower direction the tables hold the half layout
+            boolean half = !Boolean.TRUE.equals(
+                jdbc.queryForObject(HAS_LOWER_HALF_QUERY, Boolean.class));
+            SlopeOneMatrix matrix = half ? SlopeOneMatrix.halfMatrix(16) : new SlopeOneMatrix();
+            jdbc.query(LOAD_PAIRS_QUERY, rs -> {
+                int freq = rs.getInt("freq_value");
+                matrix.put(rs.getLong("film_id1"), rs.getLong("film_id2"),
+                    rs.getDouble("diff_sum"), freq);
+            });
+            saveMatrix(matrix);
+            int dropped = jdbc.update(CLEAR_FREQ_QUERY);
+            jdbc.update(CLEAR_DIFF_QUERY);
+            log.info("Moved {} rows of item_diff / item_freq into item_adjacency", dropped);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to convert diff and freq layout.", e);
+        }
+    }
+
+    private AdjacencyRow loadRow(long filmId, String query) {
+        Optional<byte[]> bytes = jdbc.query(query, (rs, rowNum) -> rs.getBytes("neighbours"),
+            filmId).stream().findFirst();
+        return bytes.map(AdjacencyRow::decode).orElse(AdjacencyRow.empty());
+    }
+
+    private void forEachRow(RowConsumer consumer) {
+        try {
+            jdbc.query(LOAD_ROWS_QUERY, rs -> {
+                consumer.accept(rs.getLong("film_id"),
+                    AdjacencyRow.decode(rs.getBytes("neighbours")));
+            });
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load adjacency rows.", e);
+        }
+    }
+
+    // Neighbours with both an average diff and a count, like the join of the row tables
+    private static void putRow(SlopeOneMatrix matrix, long filmId, AdjacencyRow row) {
+        row.forEach((neighbourId, averageDiff, freq) -> {
+            if (freq > 0 && !Float.isNaN(averageDiff)) {
+                matrix.put(filmId, neighbourId, (double) averageDiff * freq, freq);
+            }
+        });
+    }
+
+    private static Object[] rowArgs(long filmId, AdjacencyRow row) {
+        return new Object[]{filmId, row.size(), row.encode()};
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+
+        void accept(long filmId, AdjacencyRow row);
+    }
+}
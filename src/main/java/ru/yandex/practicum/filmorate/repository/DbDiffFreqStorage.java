@@ -1,26 +1,39 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
 import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
 import ru.yandex.practicum.filmorate.repository.mappers.DiffRow;
 import ru.yandex.practicum.filmorate.repository.mappers.FreqRow;
 
 @Repository
+@ConditionalOnProperty(prefix = "filmorate.recommendations.storage", name = "format",
+    havingValue = RecommendationProperties.Storage.ROWS, matchIfMissing = true)
 @RequiredArgsConstructor
+@Slf4j
 @SuppressWarnings("unused")
 public class DbDiffFreqStorage implements DiffFreqStorage {
 
+    // Only the average is known here, so the sum is left to be derived from it
     private static final String MERGE_DIFF_QUERY =
-        "MERGE INTO item_diff (film_id1, film_id2, diff_value) "
-            + "KEY (film_id1, film_id2) VALUES (?, ?, ?)";
+        "MERGE INTO item_diff (film_id1, film_id2, diff_value, diff_sum) "
+            + "KEY (film_id1, film_id2) VALUES (?, ?, ?, NULL)";
     private static final String MERGE_FREQ_QUERY =
         "MERGE INTO item_freq (film_id1, film_id2, freq_value) "
             + "KEY (film_id1, film_id2) VALUES (?, ?, ?)";
@@ -28,16 +41,226 @@ public class DbDiffFreqStorage implements DiffFreqStorage {
         "SELECT film_id1, film_id2, diff_value " + "FROM item_diff";
     private static final String LOAD_FREQ_QUERY =
         "SELECT film_id1, film_id2, freq_value " + "FROM item_freq";
+    private static final String CLEAR_DIFF_QUERY = "DELETE FROM item_diff";
+    private static final String CLEAR_FREQ_QUERY = "DELETE FROM item_freq";
+    private static final String INSERT_DIFF_QUERY =
+        "INSERT INTO item_diff (film_id1, film_id2, diff_value, diff_sum) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_FREQ_QUERY =
+        "INSERT INTO item_freq (film_id1, film_id2, freq_value) VALUES (?, ?, ?)";
+    // Pairs stored before diff_sum existed only have the average
+    private static final String LOAD_MATRIX_QUERY = """
+        SELECT
+          d.film_id1,
+          d.film_id2,
+          COALESCE(d.diff_sum, d.diff_value * f.freq_value) AS diff_sum,
+          f.freq_value
+        FROM item_diff AS d
+        JOIN item_freq AS f ON d.film_id1 = f.film_id1
+          AND d.film_id2 = f.film_id2
+        """;
+    private static final String LOAD_NEIGHBOURHOODS_QUERY = LOAD_MATRIX_QUERY
+        + "WHERE d.film_id1 IN (%s)";
+    // The half layout keeps the neighbours with a lower id in their rows
+    private static final String LOAD_LOWER_NEIGHBOURHOODS_QUERY = LOAD_MATRIX_QUERY
+        + "WHERE d.film_id2 IN (%s)";
+    // Frequencies are bumped first, so the diff merge can recover the old count as new - delta.
+    // The exact sum is what gets updated, the average is derived from it every time
+    private static final String APPLY_FREQ_DELTA_QUERY = """
+        MERGE INTO item_freq AS t
+        USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS INTEGER)))
+          AS s(film_id1, film_id2, freq_delta)
+        ON t.film_id1 = s.film_id1 AND t.film_id2 = s.film_id2
+        WHEN MATCHED THEN
+          UPDATE SET freq_value = t.freq_value + s.freq_delta
+        WHEN NOT MATCHED AND s.freq_delta > 0 THEN
+          INSERT (film_id1, film_id2, freq_value) VALUES (s.film_id1, s.film_id2, s.freq_delta)
+        """;
+    private static final String APPLY_DIFF_DELTA_QUERY = """
+        MERGE INTO item_diff AS t
+        USING (
+          SELECT
+            v.film_id1,
+            v.film_id2,
+            v.diff_delta,
+            v.freq_delta,
+            f.freq_value
+          FROM (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS DOUBLE PRECISION),
+            CAST(? AS INTEGER))) AS v(film_id1, film_id2, diff_delta, freq_delta)
+          JOIN item_freq AS f ON f.film_id1 = v.film_id1
+            AND f.film_id2 = v.film_id2
+          WHERE f.freq_value > 0
+        ) AS s
+        ON t.film_id1 = s.film_id1 AND t.film_id2 = s.film_id2
+        WHEN MATCHED THEN
+          UPDATE SET
+            diff_sum = COALESCE(t.diff_sum, t.diff_value * (s.freq_value - s.freq_delta))
+              + s.diff_delta,
+            diff_value = (COALESCE(t.diff_sum, t.diff_value * (s.freq_value - s.freq_delta))
+              + s.diff_delta) / s.freq_value
+        WHEN NOT MATCHED THEN
+          INSERT (film_id1, film_id2, diff_value, diff_sum)
+          VALUES (s.film_id1, s.film_id2, s.diff_delta / s.freq_value, s.diff_delta)
+        """;
+    private static final String DELETE_EMPTY_DIFF_QUERY = """
+        DELETE FROM item_diff AS d
+        WHERE d.film_id1 = ?
+          AND d.film_id2 = ?
+          AND NOT EXISTS (
+            SELECT 1
+            FROM item_freq AS f
+            WHERE f.film_id1 = d.film_id1
+              AND f.film_id2 = d.film_id2
+              AND f.freq_value > 0
+          )
+        """;
+    private static final String DELETE_EMPTY_FREQ_QUERY = """
+        DELETE FROM item_freq
+        WHERE film_id1 = ?
+          AND film_id2 = ?
+          AND freq_value <= 0
+        """;
+    // Same order as SlopeOneMatrix.retainTopNeighbours: by frequency, ties to the lower film id
+    private static final String TRIM_FREQ_QUERY = """
+        DELETE FROM item_freq
+        WHERE film_id1 = ?
+          AND film_id2 NOT IN (
+            SELECT
+              film_id2
+            FROM item_freq
+            WHERE film_id1 = ?
+            ORDER BY
+              freq_value DESC,
+              film_id2
+            FETCH FIRST ? ROWS ONLY
+          )
+        """;
+    private static final String TRIM_DIFF_QUERY = """
+        DELETE FROM item_diff AS d
+        WHERE d.film_id1 = ?
+          AND NOT EXISTS (
+            SELECT 1
+            FROM item_freq AS f
+            WHERE f.film_id1 = d.film_id1
+              AND f.film_id2 = d.film_id2
+          )
+        """;
+    private static final String TOP_NEIGHBOURS_QUERY = """
+        SELECT
+          film_id2
+        FROM item_freq
+        WHERE film_id1 = ?
+        ORDER BY
+          freq_value DESC,
+          film_id2
+        FETCH FIRST ? ROWS ONLY
+        """;
+    // The half layout keeps the neighbours with a lower id in their own rows
+    private static final String TOP_HALF_NEIGHBOURS_QUERY = """
+        SELECT
+          n.neighbour_id
+        FROM (
+          SELECT
+            film_id2 AS neighbour_id,
+            freq_value
+          FROM item_freq
+          WHERE film_id1 = ?
+          UNION ALL
+          SELECT
+            film_id1 AS neighbour_id,
+            freq_value
+          FROM item_freq
+          WHERE film_id2 = ?
+        ) AS n
+        ORDER BY
+          n.freq_value DESC,
+          n.neighbour_id
+        FETCH FIRST ? ROWS ONLY
+        """;
+    private static final String HAS_LOWER_HALF_QUERY = """
+        SELECT EXISTS (
+          SELECT 1
+          FROM item_freq
+          WHERE film_id1 > film_id2
+        )
+        """;
+    private static final String HAS_UPPER_HALF_QUERY = """
+        SELECT EXISTS (
+          SELECT 1
+          FROM item_freq
+          WHERE film_id1 < film_id2
+        )
+        """;
+    // Pairs a pruned full layout kept in the lower film's direction only are moved over
+    private static final String MOVE_LOWER_FREQ_QUERY = """
+        INSERT INTO item_freq (film_id1, film_id2, freq_value)
+        SELECT
+          f.film_id2,
+          f.film_id1,
+          f.freq_value
+        FROM item_freq AS f
+        WHERE f.film_id1 > f.film_id2
+          AND NOT EXISTS (
+            SELECT 1
+            FROM item_freq AS m
+            WHERE m.film_id1 = f.film_id2
+              AND m.film_id2 = f.film_id1
+          )
+        """;
+    private static final String MOVE_LOWER_DIFF_QUERY = """
+        INSERT INTO item_diff (film_id1, film_id2, diff_value, diff_sum)
+        SELECT
+          d.film_id2,
+          d.film_id1,
+          -d.diff_value,
+          -d.diff_sum
+        FROM item_diff AS d
+        WHERE d.film_id1 > d.film_id2
+          AND NOT EXISTS (
+            SELECT 1
+            FROM item_diff AS m
+            WHERE m.film_id1 = d.film_id2
+              AND m.film_id2 = d.film_id1
+          )
+        """;
+    private static final String DELETE_LOWER_FREQ_QUERY =
+        "DELETE FROM item_freq WHERE film_id1 > film_id2";
+    private static final String DELETE_LOWER_DIFF_QUERY =
+        "DELETE FROM item_diff WHERE film_id1 > film_id2";
+    private static final String MIRROR_FREQ_QUERY = """
+        INSERT INTO item_freq (film_id1, film_id2, freq_value)
+        SELECT
+          film_id2,
+          film_id1,
+          freq_value
+        FROM item_freq
+        WHERE film_id1 < film_id2
+        """;
+    private static final String MIRROR_DIFF_QUERY = """
+        INSERT INTO item_diff (film_id1, film_id2, diff_value, diff_sum)
+        SELECT
+          film_id2,
+          film_id1,
+          -diff_value,
+          -diff_sum
+        FROM item_diff
+        WHERE film_id1 < film_id2
+        """;
+    private static final int BATCH_SIZE = 1000;
 
     private final JdbcTemplate jdbc;
     private final RowMapper<DiffRow> diffRowRowMapper;
     private final RowMapper<FreqRow> freqRowRowMapper;
+    private final RecommendationProperties properties;
 
     @Override
     public void saveDiff(Map<Long, Map<Long, Double>> diff) {
+        boolean half = isHalf();
         List<Object[]> batchArgs = new ArrayList<>();
-        diff.forEach((filmId1, innerMap) -> innerMap.forEach(
-            (filmId2, diffValue) -> batchArgs.add(new Object[]{filmId1, filmId2, diffValue})));
+        diff.forEach((filmId1, innerMap) -> innerMap.forEach((filmId2, diffValue) -> {
+            if (!half || filmId1 < filmId2) {
+                batchArgs.add(new Object[]{filmId1, filmId2, diffValue});
+            }
+        }));
 
         try {
             jdbc.batchUpdate(MERGE_DIFF_QUERY, batchArgs);
@@ -48,9 +271,13 @@ public class DbDiffFreqStorage implements DiffFreqStorage {
 
     @Override
     public void saveFreq(Map<Long, Map<Long, Integer>> freq) {
+        boolean half = isHalf();
         List<Object[]> batchArgs = new ArrayList<>();
-        freq.forEach((filmId1, innerMap) -> innerMap.forEach(
-            (filmId2, freqValue) -> batchArgs.add(new Object[]{filmId1, filmId2, freqValue})));
+        freq.forEach((filmId1, innerMap) -> innerMap.forEach((filmId2, freqValue) -> {
+            if (!half || filmId1 < filmId2) {
+                batchArgs.add(new Object[]{filmId1, filmId2, freqValue});
+            }
+        }));
 
         try {
             jdbc.batchUpdate(MERGE_FREQ_QUERY, batchArgs);
@@ -61,6 +288,7 @@ public class DbDiffFreqStorage implements DiffFreqStorage {
 
     @Override
     public Map<Long, Map<Long, Double>> loadDiff() {
+        boolean half = isHalf();
         Map<Long, Map<Long, Double>> diff = new HashMap<>();
         List<DiffRow> rows = jdbc.query(LOAD_DIFF_QUERY, diffRowRowMapper);
         for (DiffRow row : rows) {
@@ -69,12 +297,16 @@ public class DbDiffFreqStorage implements DiffFreqStorage {
             double diffValue = row.getDiffValue();
 
             diff.computeIfAbsent(filmId1, k -> new HashMap<>()).put(filmId2, diffValue);
+            if (half) {
+                diff.computeIfAbsent(filmId2, k -> new HashMap<>()).put(filmId1, -diffValue);
+            }
         }
         return diff;
     }
 
     @Override
     public Map<Long, Map<Long, Integer>> loadFreq() {
+        boolean half = isHalf();
         Map<Long, Map<Long, Integer>> freq = new HashMap<>();
         List<FreqRow> rows = jdbc.query(LOAD_FREQ_QUERY, freqRowRowMapper);
         for (FreqRow row : rows) {
@@ -83,7 +315,230 @@ public class DbDiffFreqStorage implements DiffFreqStorage {
             int freqValue = row.getFreqValue();
 
             freq.computeIfAbsent(filmId1, k -> new HashMap<>()).put(filmId2, freqValue);
+            if (half) {
+                freq.computeIfAbsent(filmId2, k -> new HashMap<>()).put(filmId1, freqValue);
+            }
         }
         return freq;
     }
+
+    @Override
+    @Transactional
+    public void saveMatrix(SlopeOneMatrix matrix) {
+        try {
+            jdbc.update(CLEAR_DIFF_QUERY);
+            jdbc.update(CLEAR_FREQ_QUERY);
+            PairBatch batch = new PairBatch();
+            forEachStoredPair(matrix, (filmId1, filmId2, diffSum, freq) -> {
+                batch.add(filmId1, filmId2, diffSum, freq);
+                if (batch.size == BATCH_SIZE) {
+                    batch.flush();
+                }
+            });
+            batch.flush();
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to save diff and freq matrix.", e);
+        }
+    }
+
+    @Override
+    public SlopeOneMatrix loadMatrix() {
+        boolean half = isHalf();
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        jdbc.query(LOAD_MATRIX_QUERY, rs -> {
+            long filmId1 = rs.getLong("film_id1");
+            long filmId2 = rs.getLong("film_id2");
+            int freqValue = rs.getInt("freq_value");
+            double diffSum = rs.getDouble("diff_sum");
+            matrix.put(filmId1, filmId2, diffSum, freqValue);
+            if (half) {
+                matrix.put(filmId2, filmId1, -diffSum, freqValue);
+            }
+        });
+        return matrix;
+    }
+
+    @Override
+    public SlopeOneMatrix loadNeighbourhoods(Collection<Long> filmIds) {
+        SlopeOneMatrix matrix = new SlopeOneMatrix(filmIds.size());
+        try {
+            InLists.forEachChunk(filmIds, LOAD_NEIGHBOURHOODS_QUERY, (sql, args) ->
+                jdbc.query(sql, rs -> {
+                    int freqValue = rs.getInt("freq_value");
+                    matrix.put(rs.getLong("film_id1"), rs.getLong("film_id2"),
+                        rs.getDouble("diff_sum"), freqValue);
+                }, args));
+            if (isHalf()) {
+                InLists.forEachChunk(filmIds, LOAD_LOWER_NEIGHBOURHOODS_QUERY, (sql, args) ->
+                    jdbc.query(sql, rs -> {
+                        int freqValue = rs.getInt("freq_value");
+                        matrix.put(rs.getLong("film_id2"), rs.getLong("film_id1"),
+                            -rs.getDouble("diff_sum"), freqValue);
+                    }, args));
+            }
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load film neighbourhoods.", e);
+        }
+        return matrix;
+    }
+
+    @Override
+    @Transactional
+    public void applyDelta(SlopeOneMatrix delta) {
+        List<Object[]> freqArgs = new ArrayList<>();
+        List<Object[]> diffArgs = new ArrayList<>();
+        List<Object[]> shrunkPairs = new ArrayList<>();
+        forEachStoredPair(delta, (filmId1, filmId2, diffDelta, freqDelta) -> {
+            freqArgs.add(new Object[]{filmId1, filmId2, freqDelta});
+            diffArgs.add(new Object[]{filmId1, filmId2, diffDelta, freqDelta});
+            if (freqDelta < 0) {
+                shrunkPairs.add(new Object[]{filmId1, filmId2});
+            }
+        });
+
+        try {
+            jdbc.batchUpdate(APPLY_FREQ_DELTA_QUERY, freqArgs);
+            jdbc.batchUpdate(APPLY_DIFF_DELTA_QUERY, diffArgs);
+            if (!shrunkPairs.isEmpty()) {
+                jdbc.batchUpdate(DELETE_EMPTY_DIFF_QUERY, shrunkPairs);
+                jdbc.batchUpdate(DELETE_EMPTY_FREQ_QUERY, shrunkPairs);
+            }
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to apply diff and freq delta.", e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void retainTopNeighbours(Collection<Long> filmIds, int maxNeighbours) {
+        if (isHalf()) {
+            throw new IllegalStateException("Neighbour limits need the full matrix layout");
+        }
+        List<Object[]> freqArgs = new ArrayList<>();
+        List<Object[]> diffArgs = new ArrayList<>();
+        for (long filmId : filmIds) {
+            freqArgs.add(new Object[]{filmId, filmId, maxNeighbours});
+            diffArgs.add(new Object[]{filmId});
+        }
+
+        try {
+            jdbc.batchUpdate(TRIM_FREQ_QUERY, freqArgs);
+            jdbc.batchUpdate(TRIM_DIFF_QUERY, diffArgs);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to trim diff and freq neighbours.", e);
+        }
+    }
+
+    @Override
+    public List<Long> getTopNeighbours(long filmId, int limit) {
+        try {
+            if (isHalf()) {
+                return jdbc.queryForList(TOP_HALF_NEIGHBOURS_QUERY, Long.class, filmId, filmId,
+                    limit);
+            }
+            return jdbc.queryForList(TOP_NEIGHBOURS_QUERY, Long.class, filmId, limit);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load top neighbours.", e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void migrateLayout() {
+        boolean half = isHalf();
+        try {
+            if (half && Boolean.TRUE.equals(
+                jdbc.queryForObject(HAS_LOWER_HALF_QUERY, Boolean.class))) {
+                int moved = jdbc.update(MOVE_LOWER_FREQ_QUERY);
+                jdbc.update(MOVE_LOWER_DIFF_QUERY);
+                int deleted = jdbc.update(DELETE_LOWER_FREQ_QUERY);
+                jdbc.update(DELETE_LOWER_DIFF_QUERY);
+                log.info("Converted item_diff / item_freq to the half-matrix layout: {} rows "
+                    + "dropped, {} one-directional pairs moved", deleted, moved);
+            } else if (!half && !Boolean.TRUE.equals(
+                jdbc.queryForObject(HAS_LOWER_HALF_QUERY, Boolean.class))
+                && Boolean.TRUE.equals(jdbc.queryForObject(HAS_UPPER_HALF_QUERY, Boolean.class))) {
+                int mirrored = jdbc.update(MIRROR_FREQ_QUERY);
+                jdbc.update(MIRROR_DIFF_QUERY);
+                log.info("Converted item_diff / item_freq to the full layout: {} rows mirrored",
+                    mirrored);
+            }
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to convert diff and freq layout.", e);
+        }
+    }
+
+    private boolean isHalf() {
+        return properties.getStorage().isHalfMatrix();
+    }
+
+    // Visits the cells of a matrix the way the configured layout stores them
+    private void forEachStoredPair(SlopeOneMatrix matrix, SlopeOneMatrix.PairConsumer consumer) {
+        boolean half = isHalf();
+        matrix.forEach((filmId1, filmId2, diffSum, freq) -> {
+            if (half) {
+                if (matrix.isHalf() || filmId1 < filmId2) {
+                    consumer.accept(filmId1, filmId2, diffSum, freq);
+                }
+                return;
+            }
+            consumer.accept(filmId1, filmId2, diffSum, freq);
+            if (matrix.isHalf()) {
+                consumer.accept(filmId2, filmId1, -diffSum, freq);
+            }
+        });
+    }
+
+    // Buffers matrix cells in primitive arrays so a full save never materializes all rows at once
+    private class PairBatch {
+
+        private final long[] filmIds1 = new long[BATCH_SIZE];
+        private final long[] filmIds2 = new long[BATCH_SIZE];
+        private final double[] diffSums = new double[BATCH_SIZE];
+        private final int[] freqs = new int[BATCH_SIZE];
+        private int size;
+
+        private void add(long filmId1, long filmId2, double diffSum, int freq) {
+            filmIds1[size] = filmId1;
+            filmIds2[size] = filmId2;
+            diffSums[size] = diffSum;
+            freqs[size] = freq;
+            size++;
+        }
+
+        private void flush() {
+            if (size == 0) {
+                return;
+            }
+            jdbc.batchUpdate(INSERT_DIFF_QUERY, setter((ps, i) -> {
+                ps.setDouble(3, diffSums[i] / freqs[i]);
+                ps.setDouble(4, diffSums[i]);
+            }));
+            jdbc.batchUpdate(INSERT_FREQ_QUERY, setter((ps, i) -> ps.setInt(3, freqs[i])));
+            size = 0;
+        }
+
+        private BatchPreparedStatementSetter setter(ValueSetter valueSetter) {
+            int batchSize = size;
+            return new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setLong(1, filmIds1[i]);
+                    ps.setLong(2, filmIds2[i]);
+                    valueSetter.set(ps, i);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return batchSize;
+                }
+            };
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueSetter {
+
+        void set(PreparedStatement ps, int i) throws SQLException;
+    }
 }
@@ -0,0 +1,75 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+@SuppressWarnings("unused")
+public class DbFilmStatsStorage implements FilmStatsStorage {
+
+    // Sums are of ratings up to 10, so only float noise of repeated updates is tolerated
+    private static final double SUM_TOLERANCE = 1e-6;
+    private static final String FIND_INCONSISTENT_FILMS_QUERY = """
+        SELECT
+          f.film_id
+        FROM films AS f
+        LEFT JOIN (
+          SELECT
+            film_id,
+            SUM(rating_value) AS rating_sum,
+            COUNT(*) AS rating_count
+          FROM ratings
+          GROUP BY film_id
+        ) AS r ON f.film_id = r.film_id
+        LEFT JOIN film_stats AS s ON f.film_id = s.film_id
+        WHERE
+          s.film_id IS NULL
+          OR s.rating_count <> COALESCE(r.rating_count, 0)
+          OR ABS(s.rating_sum - COALESCE(r.rating_sum, 0.0)) > ?
+        ORDER BY
+          f.film_id
+        """;
+    private static final String CLEAR_QUERY = "DELETE FROM film_stats";
+    private static final String REBUILD_QUERY = """
+        INSERT INTO film_stats (film_id, rating_sum, rating_count)
+        SELECT
+          f.film_id,
+          COALESCE(SUM(r.rating_value), 0.0),
+          COUNT(r.film_id)
+        FROM films AS f
+        LEFT JOIN ratings AS r ON f.film_id = r.film_id
+        GROUP BY f.film_id
+        """;
+
+    private final JdbcTemplate jdbc;
+
+    @Override
+    public List<Long> findInconsistentFilms() {
+        try {
+            return jdbc.queryForList(FIND_INCONSISTENT_FILMS_QUERY, Long.class, SUM_TOLERANCE);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to check film stats.", e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public int rebuild() {
+        try {
+            jdbc.update(CLEAR_QUERY);
+            int rows = jdbc.update(REBUILD_QUERY);
+            log.trace("Film stats rebuilt for {} films", rows);
+            return rows;
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to rebuild film stats.", e);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package ru.yandex.practicum.filmorate.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.CollectionUtils;
 import ru.yandex.practicum.filmorate.model.Director;
@@ -29,7 +33,8 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
             )
             """;
 
-    private static final String GET_ALL_QUERY = """
+    // Films with their scalar columns only, FilmDetails adds genres and directors
+    private static final String SELECT_FILMS_QUERY = """
             SELECT
                 f.film_id,
                 f.name AS film_name,
@@ -38,69 +43,31 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
                 f.duration,
                 m.mpa_id,
                 m.name AS mpa_name,
-                g.genre_id,
-                g.name AS genre_name,
-                d.director_id,
-                d.name AS director_name,
-                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
+                COALESCE(s.avg_rating, 0.0) AS avg_rating
             FROM films AS f
             LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
-            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
-            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
-            LEFT JOIN film_directors AS fd ON f.film_id = fd.film_id
-            LEFT JOIN directors AS d ON fd.director_id = d.director_id
-            LEFT JOIN ratings AS r ON f.film_id = r.film_id
-            GROUP BY
-                f.film_id,
-                f.name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name,
-                g.genre_id,
-                g.name,
-                d.director_id,
-                d.name
+            LEFT JOIN film_stats AS s ON f.film_id = s.film_id
+            """;
+
+    private static final String GET_ALL_QUERY = SELECT_FILMS_QUERY + """
             ORDER BY
-                f.film_id,
-                g.genre_id
+                f.film_id
             """;
 
-    private static final String GET_BY_ID_QUERY = """
-            SELECT
-                f.film_id,
-                f.name AS film_name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name AS mpa_name,
-                g.genre_id,
-                g.name AS genre_name,
-                d.director_id,
-                d.name AS director_name,
-                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
-            FROM films AS f
-            LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
-            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
-            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
-            LEFT JOIN film_directors AS fd ON f.film_id = fd.film_id
-            LEFT JOIN directors AS d ON fd.director_id = d.director_id
-            LEFT JOIN ratings AS r ON f.film_id = r.film_id
+    // Keyset page, the primary key index finds the first film after the cursor
+    private static final String GET_PAGE_QUERY = SELECT_FILMS_QUERY + """
+            WHERE f.film_id > ?
+            ORDER BY
+                f.film_id
+            LIMIT ?
+            """;
+
+    private static final String GET_BY_ID_QUERY = SELECT_FILMS_QUERY + """
             WHERE f.film_id = ?
-            GROUP BY
-                f.film_id,
-                f.name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name,
-                g.genre_id,
-                g.name,
-                d.director_id,
-                d.name
+            """;
+
+    private static final String GET_BY_IDS_QUERY = SELECT_FILMS_QUERY + """
+            WHERE f.film_id IN (%s)
             """;
 
     private static final String INSERT_QUERY = """
@@ -119,6 +86,12 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
             )
             """;
 
+    // Rating writes then only update the row, see DbLikesStorage
+    private static final String INSERT_STATS_QUERY = """
+            INSERT INTO film_stats (film_id)
+            VALUES (?)
+            """;
+
     private static final String UPDATE_QUERY = """
             UPDATE films
             SET
@@ -165,165 +138,62 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
             WHERE film_id = ?
             """;
 
-    private static final String GET_BY_DIRECTOR_ID_RATING_QUERY = """
-            SELECT
-                f.film_id,
-                f.name AS film_name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name AS mpa_name,
-                g.genre_id,
-                g.name AS genre_name,
-                d.director_id,
-                d.name AS director_name,
-                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
-            FROM films AS f
-            JOIN film_directors AS fd ON f.film_id = fd.film_id
-            JOIN directors AS d ON fd.director_id = d.director_id
-            JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
-            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
-            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
-            LEFT JOIN ratings AS r ON f.film_id = r.film_id
-            WHERE d.director_id = ?
-            GROUP BY
-                f.film_id,
-                f.name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name,
-                g.genre_id,
-                g.name,
-                d.director_id,
-                d.name
+    // Films without an MPA rating are left out, as the inner join to mpa_ratings did
+    private static final String GET_BY_DIRECTOR_ID_RATING_QUERY = SELECT_FILMS_QUERY + """
+            WHERE f.film_id IN (
+                SELECT fd.film_id
+                FROM film_directors AS fd
+                WHERE fd.director_id = ?
+            )
+                AND m.mpa_id IS NOT NULL
             ORDER BY
                 avg_rating DESC,
-                f.film_id,
-                g.genre_id
+                f.film_id
             """;
 
-    private static final String GET_BY_DIRECTOR_ID_YEAR_QUERY = """
-            SELECT
-                f.film_id,
-                f.name AS film_name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name AS mpa_name,
-                g.genre_id,
-                g.name AS genre_name,
-                d.director_id,
-                d.name AS director_name,
-                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
-            FROM films AS f
-            JOIN film_directors AS fd ON f.film_id = fd.film_id
-            JOIN directors AS d ON fd.director_id = d.director_id
-            LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
-            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
-            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
-            LEFT JOIN ratings AS r ON f.film_id = r.film_id
-            WHERE d.director_id = ?
-            GROUP BY
-                f.film_id,
-                f.name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name,
-                g.genre_id,
-                g.name,
-                d.director_id,
-                d.name
+    private static final String GET_BY_DIRECTOR_ID_YEAR_QUERY = SELECT_FILMS_QUERY + """
+            WHERE f.film_id IN (
+                SELECT fd.film_id
+                FROM film_directors AS fd
+                WHERE fd.director_id = ?
+            )
             ORDER BY
                 f.release_date,
                 f.film_id DESC
             """;
 
-    private static final String GET_COMMON_FILMS_QUERY = """
-            SELECT
-                f.film_id,
-                f.name AS film_name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name AS mpa_name,
-                g.genre_id,
-                g.name AS genre_name,
-                d.director_id,
-                d.name AS director_name,
-                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
-            FROM films AS f
-            LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
-            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
-            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
-            LEFT JOIN film_directors AS fd ON f.film_id = fd.film_id
-            LEFT JOIN directors AS d ON fd.director_id = d.director_id
-            INNER JOIN ratings AS r ON f.film_id = r.film_id
-            WHERE r.user_id IN (?, ?)
-            GROUP BY
-                f.film_id,
-                f.name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name,
-                g.genre_id,
-                g.name,
-                d.director_id,
-                d.name
-            HAVING COUNT(DISTINCT r.user_id) = 2
+    private static final String GET_COMMON_FILMS_QUERY = SELECT_FILMS_QUERY + """
+            WHERE f.film_id IN (
+                SELECT r.film_id
+                FROM ratings AS r
+                WHERE r.user_id IN (?, ?)
+                GROUP BY r.film_id
+                HAVING COUNT(DISTINCT r.user_id) = 2
+            )
             ORDER BY avg_rating DESC
             """;
 
-    private static final String SEARCH_QUERY = """
-            SELECT
-                f.film_id,
-                f.name AS film_name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name AS mpa_name,
-                g.genre_id,
-                g.name AS genre_name,
-                d.director_id,
-                d.name AS director_name,
-                COALESCE(AVG(r.rating_value), 0.0) AS avg_rating
-            FROM films AS f
-            LEFT JOIN mpa_ratings AS m ON f.mpa_rating_id = m.mpa_id
-            LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id
-            LEFT JOIN genres AS g ON fg.genre_id = g.genre_id
-            LEFT JOIN film_directors AS fd ON f.film_id = fd.film_id
-            LEFT JOIN directors AS d ON fd.director_id = d.director_id
-            LEFT JOIN ratings AS r ON f.film_id = r.film_id
+    private static final String SEARCH_QUERY = SELECT_FILMS_QUERY + """
             WHERE (%s)
-            GROUP BY
-                f.film_id,
-                f.name,
-                f.description,
-                f.release_date,
-                f.duration,
-                m.mpa_id,
-                m.name,
-                g.genre_id,
-                g.name,
-                d.director_id,
-                d.name
             ORDER BY avg_rating DESC, f.film_id DESC
             """;
 
-    private final ResultSetExtractor<List<FilmWithRating>> extractor;
+    private static final String TITLE_CONDITION = "LOWER(f.name) LIKE LOWER(?)";
+
+    private static final String DIRECTOR_CONDITION = """
+            EXISTS (
+                SELECT 1
+                FROM film_directors AS fd
+                JOIN directors AS d ON fd.director_id = d.director_id
+                WHERE fd.film_id = f.film_id
+                    AND LOWER(d.name) LIKE LOWER(?)
+            )""";
 
-    public DbFilmStorage(JdbcTemplate jdbc, ResultSetExtractor<List<FilmWithRating>> extractor) {
+    private final RowMapper<FilmWithRating> filmMapper;
+
+    public DbFilmStorage(JdbcTemplate jdbc, RowMapper<FilmWithRating> filmMapper) {
         super(jdbc, null);
-        this.extractor = extractor;
+        this.filmMapper = filmMapper;
     }
 
     @Override
@@ -333,11 +203,37 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
 
     @Override
     public Optional<FilmWithRating> getFilmById(long filmId) {
-        List<FilmWithRating> resultList = jdbc.query(GET_BY_ID_QUERY, extractor, filmId);
+        List<FilmWithRating> resultList = queryFilms(GET_BY_ID_QUERY, filmId);
         return CollectionUtils.isEmpty(resultList) ? Optional.empty()
                 : Optional.of(resultList.getFirst());
     }
 
+    @Override
+    public List<FilmWithRating> getFilmsByIds(Collection<Long> filmIds) {
+        if (filmIds.isEmpty()) {
+            return List.of();
+        }
+        Set<Long> distinctIds = new LinkedHashSet<>(filmIds);
+        List<FilmWithRating> films = new ArrayList<>(distinctIds.size());
+        InLists.forEachChunk(distinctIds, GET_BY_IDS_QUERY, (sql, args) ->
+                films.addAll(jdbc.query(sql, filmMapper, args)));
+        FilmDetails.load(jdbc, films);
+
+        // Restore the caller's order, ids without a film are skipped
+        Map<Long, FilmWithRating> filmsById = new HashMap<>();
+        for (FilmWithRating film : films) {
+            filmsById.put(film.getFilm().getId(), film);
+        }
+        List<FilmWithRating> ordered = new ArrayList<>(films.size());
+        for (Long filmId : distinctIds) {
+            FilmWithRating film = filmsById.get(filmId);
+            if (film != null) {
+                ordered.add(film);
+            }
+        }
+        return ordered;
+    }
+
     @Override
     public long addFilm(Film film) {
         long assignedId = insert(INSERT_QUERY,
@@ -346,6 +242,7 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
                 film.getReleaseDate(),
                 film.getDuration(),
                 film.getMpa() == null ? null : film.getMpa().getId());
+        jdbc.update(INSERT_STATS_QUERY, assignedId);
         if (film.getGenres() != null) {
             for (Genre genre : film.getGenres()) {
                 jdbc.update(ADD_GENRE_QUERY, assignedId, genre.getId());
@@ -384,16 +281,21 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
 
     @Override
     public List<FilmWithRating> getAllFilms() {
-        return jdbc.query(GET_ALL_QUERY, extractor);
+        return queryFilms(GET_ALL_QUERY);
+    }
+
+    @Override
+    public List<FilmWithRating> getFilmsAfter(long afterId, int limit) {
+        return queryFilms(GET_PAGE_QUERY, afterId, limit);
     }
 
     @Override
     public List<FilmWithRating> getDirectorFilmsBylikes(long directorId, String params) {
         List<FilmWithRating> resultList = List.of();
         if (params.contains("rate") || params.contains("likes"))
-            return jdbc.query(GET_BY_DIRECTOR_ID_RATING_QUERY, extractor, directorId);
+            return queryFilms(GET_BY_DIRECTOR_ID_RATING_QUERY, directorId);
         else if (params.contains("year"))
-            return jdbc.query(GET_BY_DIRECTOR_ID_YEAR_QUERY, extractor, directorId);
+            return queryFilms(GET_BY_DIRECTOR_ID_YEAR_QUERY, directorId);
         return resultList;
     }
 
@@ -404,7 +306,7 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
 
     @Override
     public List<FilmWithRating> getCommonFilms(long userId, long friendId) {
-        return jdbc.query(GET_COMMON_FILMS_QUERY, extractor, userId, friendId);
+        return queryFilms(GET_COMMON_FILMS_QUERY, userId, friendId);
     }
 
     @Override
@@ -414,10 +316,10 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
         for (SearchType type : searchTypes) {
             switch (type) {
                 case TITLE:
-                    conditions.add("LOWER(f.name) LIKE LOWER(?)");
+                    conditions.add(TITLE_CONDITION);
                     break;
                 case DIRECTOR:
-                    conditions.add("LOWER(d.name) LIKE LOWER(?)");
+                    conditions.add(DIRECTOR_CONDITION);
                     break;
             }
         }
@@ -431,6 +333,10 @@ public class DbFilmStorage extends DbBaseStorage<Film> implements FilmStorage {
             params[i] = searchPattern;
         }
 
-        return jdbc.query(finalQuery, extractor, params);
+        return queryFilms(finalQuery, params);
+    }
+
+    private List<FilmWithRating> queryFilms(String query, Object... params) {
+        return FilmDetails.load(jdbc, jdbc.query(query, filmMapper, params));
     }
 }
\ No newline at end of file
@@ -1,16 +1,28 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.model.FilmWithRating;
 import ru.yandex.practicum.filmorate.model.Rating;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.FilmRatingTotals;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
 
 @Repository
 @Primary
@@ -23,27 +35,44 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
         VALUES (?, ?, ?)
         """;
 
+    private static final String GET_RATING_VALUE_FOR_UPDATE_QUERY = """
+        SELECT
+          rating_value
+        FROM ratings
+        WHERE user_id = ?
+          AND film_id = ?
+        FOR UPDATE
+        """;
+
     private static final String REMOVE_RATING_QUERY = """
         DELETE FROM ratings
         WHERE user_id = ?
           AND film_id = ?
         """;
 
+    private static final String UPDATE_FILM_STATS_QUERY = """
+        UPDATE film_stats
+        SET
+          rating_sum = rating_sum + ?,
+          rating_count = rating_count + ?
+        WHERE film_id = ?
+        """;
+
+    // For films inserted without a film_stats row
+    private static final String MERGE_FILM_STATS_QUERY = """
+        MERGE INTO film_stats AS t
+        USING (VALUES (CAST(? AS BIGINT), CAST(? AS DOUBLE PRECISION), CAST(? AS INTEGER)))
+          AS v(film_id, rating_sum, rating_count)
+        ON t.film_id = v.film_id
+        WHEN MATCHED THEN
+          UPDATE SET rating_sum = t.rating_sum + v.rating_sum,
+            rating_count = t.rating_count + v.rating_count
+        WHEN NOT MATCHED THEN
+          INSERT (film_id, rating_sum, rating_count)
+          VALUES (v.film_id, v.rating_sum, v.rating_count)
+        """;
+
     private static final String GET_RATED_FILMS_QUERY = """
-        WITH avg_film_ratings AS (
-          SELECT
-            film_id,
-            AVG(rating_value) AS avg_rating
-          FROM ratings
-          GROUP BY
-            film_id
-        ), film_ratings AS (
-          SELECT
-            film_id
-          FROM ratings
-          WHERE
-            user_id = ?
-        )
         SELECT
           f.film_id,
           f.name AS film_name,
@@ -52,22 +81,15 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
           f.duration,
           m.mpa_id,
           m.name AS mpa_name,
-          g.genre_id,
-          g.name AS genre_name,
-          d.director_id,
-          d.name AS director_name,
-          COALESCE(avg_film_ratings.avg_rating, 0.0) AS avg_rating
+          COALESCE(s.avg_rating, 0.0) AS avg_rating
         FROM films f
         JOIN mpa_ratings m ON f.mpa_rating_id = m.mpa_id
-        LEFT JOIN film_genres fg ON f.film_id = fg.film_id
-        LEFT JOIN genres g ON fg.genre_id = g.genre_id
-        JOIN film_ratings ON f.film_id = film_ratings.film_id
-        LEFT JOIN film_directors fd ON f.film_id = fd.film_id
-        LEFT JOIN directors d ON fd.director_id = d.director_id
-        LEFT JOIN avg_film_ratings ON f.film_id = avg_film_ratings.film_id
+        JOIN ratings r ON f.film_id = r.film_id
+        LEFT JOIN film_stats s ON f.film_id = s.film_id
+        WHERE
+          r.user_id = ?
         ORDER BY
-          f.film_id,
-          g.genre_id
+          f.film_id
         """;
 
     private static final String GET_USERS_WHO_RATED_FILM_QUERY = """
@@ -109,26 +131,6 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
         """;
 
     private static final String GET_POPULAR_FILMS_QUERY = """
-        WITH FilmAvgRatings AS (
-            SELECT
-                film_id,
-                AVG(rating_value) AS avg_rating
-            FROM ratings
-            GROUP BY
-                film_id
-        ),
-        TopFilmIds AS (
-            SELECT
-                f.film_id
-            FROM films f
-            LEFT JOIN film_genres fg ON f.film_id = fg.film_id
-            LEFT JOIN FilmAvgRatings fa ON f.film_id = fa.film_id
-            WHERE
-                (? IS NULL OR EXTRACT(YEAR FROM f.release_date) = ?)
-                AND (? IS NULL OR fg.genre_id = ?)
-            ORDER BY COALESCE(fa.avg_rating, 0) DESC, f.film_id
-            LIMIT ?
-        )
         SELECT
             f.film_id,
             f.name AS film_name,
@@ -137,23 +139,22 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
             f.duration,
             m.mpa_id,
             m.name AS mpa_name,
-            g.genre_id,
-            g.name AS genre_name,
-            d.director_id,
-            d.name AS director_name,
-            COALESCE(FilmAvgRatings.avg_rating, 0.0) AS avg_rating
+            COALESCE(s.avg_rating, 0.0) AS avg_rating
         FROM films f
         JOIN mpa_ratings m ON f.mpa_rating_id = m.mpa_id
-        LEFT JOIN film_genres fg ON f.film_id = fg.film_id
-        LEFT JOIN genres g ON fg.genre_id = g.genre_id
-        LEFT JOIN film_directors fd ON f.film_id = fd.film_id
-        LEFT JOIN directors d ON fd.director_id = d.director_id
-        INNER JOIN TopFilmIds ON f.film_id = TopFilmIds.film_id
-        LEFT JOIN FilmAvgRatings ON f.film_id = FilmAvgRatings.film_id
+        LEFT JOIN film_stats s ON f.film_id = s.film_id
+        WHERE
+            (? IS NULL OR EXTRACT(YEAR FROM f.release_date) = ?)
+            AND (? IS NULL OR EXISTS (
+                SELECT 1
+                FROM film_genres fg
+                WHERE fg.film_id = f.film_id
+                  AND fg.genre_id = ?
+            ))
         ORDER BY
             avg_rating DESC,
-            f.film_id,
-            g.genre_id
+            f.film_id
+        LIMIT ?
         """;
 
     private static final String GET_ALL_RATINGS_QUERY = """
@@ -162,32 +163,137 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
         FROM ratings
         """;
 
+    private static final String SCAN_RATINGS_BY_USER_QUERY = GET_ALL_RATINGS_QUERY + """
+        ORDER BY
+          user_id,
+          film_id
+        """;
+
+    private static final String SCAN_RATINGS_BY_USER_UP_TO_QUERY = GET_ALL_RATINGS_QUERY + """
+        WHERE
+          rated_at <= ?
+        ORDER BY
+          user_id,
+          film_id
+        """;
+
+    private static final String SCAN_RATINGS_BY_USER_RANGE_QUERY = GET_ALL_RATINGS_QUERY + """
+        WHERE
+          rated_at <= ?
+          AND user_id > ?
+          AND user_id <= ?
+        ORDER BY
+          user_id,
+          film_id
+        """;
+
+    private static final String FIND_RATER_ID_RANGE_END_QUERY = """
+        SELECT
+          MAX(r.user_id)
+        FROM (
+          SELECT DISTINCT
+            user_id
+          FROM ratings
+          WHERE
+            rated_at <= ?
+            AND user_id > ?
+          ORDER BY
+            user_id
+          FETCH FIRST ? ROWS ONLY
+        ) AS r
+        """;
+
+    private static final String GET_LAST_RATED_AT_QUERY = """
+        SELECT
+          MAX(rated_at)
+        FROM ratings
+        """;
+
+    // film_stats is kept in line with ratings by every rating write
+    private static final String GET_FILM_RATING_TOTALS_QUERY = """
+        SELECT
+          film_id,
+          rating_sum,
+          rating_count
+        FROM film_stats
+        WHERE
+          rating_count > 0
+        """;
+
+    private static final String COUNT_RATINGS_UP_TO_QUERY = """
+        SELECT
+          COUNT(*)
+        FROM ratings
+        WHERE
+          rated_at <= ?
+        """;
+
+    private static final String GET_RATINGS_RATED_BETWEEN_QUERY = GET_ALL_RATINGS_QUERY + """
+        WHERE
+          rated_at > ?
+          AND rated_at <= ?
+        ORDER BY
+          user_id,
+          film_id
+        """;
+
+    private static final int SCAN_FETCH_SIZE = 1000;
+
     private final RowMapper<User> userMapper;
-    private final ResultSetExtractor<List<FilmWithRating>> filmExtractor;
+    private final RowMapper<FilmWithRating> filmMapper;
 
     protected DbLikesStorage(JdbcTemplate jdbc, RowMapper<Rating> mapper,
-        RowMapper<User> userMapper, ResultSetExtractor<List<FilmWithRating>> filmExtractor) {
+        RowMapper<User> userMapper, RowMapper<FilmWithRating> filmMapper) {
         super(jdbc, mapper);
         this.userMapper = userMapper;
-        this.filmExtractor = filmExtractor;
+        this.filmMapper = filmMapper;
     }
 
     @Override
-    public void addRating(long userId, long filmId, double ratingValue) {
+    @Transactional
+    public boolean addRating(long userId, long filmId, double ratingValue) {
         log.trace("Adding rating from userId={} to filmId={}", userId, filmId);
         try {
             int rowsAffected = jdbc.update(SAVE_RATING_QUERY, userId, filmId, ratingValue);
             log.trace("Rating added, rows affected: {}", rowsAffected);
+            if (rowsAffected == 0) {
+                return false;
+            }
         } catch (DuplicateKeyException e) {
             log.warn("Adding duplicate like aborted");
+            return false;
         }
+        updateFilmStats(filmId, ratingValue, 1);
+        return true;
     }
 
     @Override
+    @Transactional
     public void removeRating(long userId, long filmId) {
         log.trace("Removing rating from userId={} to filmId={}", userId, filmId);
+        List<Double> values = jdbc.queryForList(GET_RATING_VALUE_FOR_UPDATE_QUERY, Double.class,
+            userId, filmId);
+        if (values.isEmpty()) {
+            log.trace("No rating to remove");
+            return;
+        }
         int rowsAffected = jdbc.update(REMOVE_RATING_QUERY, userId, filmId);
         log.trace("Rating removed, rows affected: {}", rowsAffected);
+        updateFilmStats(filmId, -values.getFirst(), -1);
+    }
+
+    // Adds to the film's rating sum and count in the transaction of the rating write
+    private void updateFilmStats(long filmId, double ratingDelta, int countDelta) {
+        if (jdbc.update(UPDATE_FILM_STATS_QUERY, ratingDelta, countDelta, filmId) == 0) {
+            jdbc.update(MERGE_FILM_STATS_QUERY, filmId, ratingDelta, countDelta);
+        }
+    }
+
+    @Override
+    public Optional<Rating> getRating(long userId, long filmId) {
+        log.trace("Getting rating of userId={} for filmId={}", userId, filmId);
+        return getSingle(GET_ALL_RATINGS_QUERY + " WHERE user_id = ? AND film_id = ?", userId,
+            filmId);
     }
 
     @Override
@@ -211,11 +317,95 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
         return getMultiple(GET_ALL_RATINGS_QUERY);
     }
 
+    @Override
+    public void forEachUserRatings(Consumer<UserRatings> consumer) {
+        log.trace("Streaming ratings grouped by user");
+        scanRatingsByUser(consumer, SCAN_RATINGS_BY_USER_QUERY);
+    }
+
+    @Override
+    public void forEachUserRatings(Timestamp ratedUpTo, Consumer<UserRatings> consumer) {
+        log.trace("Streaming ratings grouped by user, rated up to {}", ratedUpTo);
+        scanRatingsByUser(consumer, SCAN_RATINGS_BY_USER_UP_TO_QUERY, ratedUpTo);
+    }
+
+    @Override
+    public void forEachUserRatings(Timestamp ratedUpTo, long afterUserId, long toUserId,
+        Consumer<UserRatings> consumer) {
+        log.trace("Streaming ratings of users ({}, {}] grouped by user, rated up to {}",
+            afterUserId, toUserId, ratedUpTo);
+        scanRatingsByUser(consumer, SCAN_RATINGS_BY_USER_RANGE_QUERY, ratedUpTo, afterUserId,
+            toUserId);
+    }
+
+    @Override
+    public Optional<Long> findRaterIdRangeEnd(Timestamp ratedUpTo, long afterUserId, int users) {
+        return Optional.ofNullable(jdbc.queryForObject(FIND_RATER_ID_RANGE_END_QUERY, Long.class,
+            ratedUpTo, afterUserId, users));
+    }
+
+    private void scanRatingsByUser(Consumer<UserRatings> consumer, String query,
+        Object... params) {
+        UserRatingsCollector collector = new UserRatingsCollector(consumer);
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(query,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(SCAN_FETCH_SIZE);
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            return ps;
+        }, collector);
+        collector.finish();
+        log.trace("Streamed {} ratings of {} users", collector.rows, collector.users);
+    }
+
+    @Override
+    public Optional<Timestamp> getLastRatedAt() {
+        return Optional.ofNullable(jdbc.queryForObject(GET_LAST_RATED_AT_QUERY, Timestamp.class));
+    }
+
+    // H2 keeps a serializable transaction on the data committed before its first statement, and
+    // a read-only one never blocks or fails the rating writes running meanwhile
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public <T> T readConsistent(Supplier<T> reads) {
+        return reads.get();
+    }
+
+    @Override
+    public FilmRatingTotals getFilmRatingTotals() {
+        FilmRatingTotals totals = new FilmRatingTotals();
+        jdbc.query(GET_FILM_RATING_TOTALS_QUERY, rs -> {
+            totals.add(rs.getLong("film_id"), rs.getDouble("rating_sum"),
+                rs.getInt("rating_count"));
+        });
+        log.trace("Loaded rating totals of {} films", totals.filmCount());
+        return totals;
+    }
+
+    @Override
+    public long countRatingsRatedUpTo(Timestamp ratedUpTo) {
+        Long count = jdbc.queryForObject(COUNT_RATINGS_UP_TO_QUERY, Long.class, ratedUpTo);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public List<Rating> getRatingsRatedBetween(Timestamp ratedAfter, Timestamp ratedUpTo) {
+        log.trace("Getting ratings rated after {} up to {}", ratedAfter, ratedUpTo);
+        List<Rating> ratings = ratedAfter == null
+            ? getMultiple(SCAN_RATINGS_BY_USER_UP_TO_QUERY, ratedUpTo)
+            : getMultiple(GET_RATINGS_RATED_BETWEEN_QUERY, ratedAfter, ratedUpTo);
+        log.trace("Found {} ratings", ratings.size());
+        return ratings;
+    }
+
     @Override
     public List<FilmWithRating> getFilmsRatedByUser(long userId) {
         log.trace("Fetching rated films for userId={}", userId);
-        List<FilmWithRating> films = jdbc.query(GET_RATED_FILMS_QUERY, filmExtractor, userId);
-        log.trace("Found {} rated films for userId={}", films == null ? 0 : films.size(), userId);
+        List<FilmWithRating> films = FilmDetails.load(jdbc,
+            jdbc.query(GET_RATED_FILMS_QUERY, filmMapper, userId));
+        log.trace("Found {} rated films for userId={}", films.size(), userId);
         return films;
     }
 
@@ -240,9 +430,52 @@ public class DbLikesStorage extends DbBaseStorage<Rating> implements LikesStorag
     public List<FilmWithRating> getPopularFilms(long count, Integer genreId, Integer year) {
         log.trace("Fetching popular films with count={}, genreId={}, year={}", count, genreId,
             year);
-        List<FilmWithRating> films = jdbc.query(GET_POPULAR_FILMS_QUERY, filmExtractor, year, year,
-            genreId, genreId, count);
-        log.trace("Found {} popular films", films == null ? 0 : films.size());
+        List<FilmWithRating> films = FilmDetails.load(jdbc,
+            jdbc.query(GET_POPULAR_FILMS_QUERY, filmMapper, year, year, genreId, genreId, count));
+        log.trace("Found {} popular films", films.size());
         return films;
     }
-}
\ No newline at end of file
+
+    // Buffers the rows of the current user and hands them over once the user id changes
+    private class UserRatingsCollector implements RowCallbackHandler {
+
+        private final Consumer<UserRatings> consumer;
+        private long userId;
+        private long[] filmIds = new long[16];
+        private double[] ratings = new double[16];
+        private int size;
+        private long rows;
+        private long users;
+
+        private UserRatingsCollector(Consumer<UserRatings> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            Rating rating = mapper.mapRow(rs, (int) rows);
+            if (size > 0 && rating.getUserId() != userId) {
+                finish();
+            }
+            if (size == filmIds.length) {
+                filmIds = Arrays.copyOf(filmIds, size * 2);
+                ratings = Arrays.copyOf(ratings, size * 2);
+            }
+            userId = rating.getUserId();
+            filmIds[size] = rating.getFilmId();
+            ratings[size] = rating.getRatingValue();
+            size++;
+            rows++;
+        }
+
+        private void finish() {
+            if (size == 0) {
+                return;
+            }
+            consumer.accept(new UserRatings(userId, Arrays.copyOf(filmIds, size),
+                Arrays.copyOf(ratings, size)));
+            users++;
+            size = 0;
+        }
+    }
+}
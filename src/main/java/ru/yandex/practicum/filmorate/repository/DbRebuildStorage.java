@@ -0,0 +1,150 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.recommendation.RebuildCheckpoint;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+@SuppressWarnings("unused")
+public class DbRebuildStorage implements RebuildStorage {
+
+    // A single rebuild runs at a time, so the checkpoint is one fixed row
+    private static final int CHECKPOINT_ID = 1;
+    private static final String GET_CHECKPOINT_QUERY = """
+        SELECT
+          rated_up_to,
+          rating_count,
+          half_matrix,
+          last_user_id,
+          ratings_scanned
+        FROM rebuild_checkpoint
+        WHERE checkpoint_id = ?
+        """;
+    private static final String INSERT_CHECKPOINT_QUERY = """
+        INSERT INTO rebuild_checkpoint (checkpoint_id, rated_up_to, rating_count, half_matrix,
+          last_user_id, ratings_scanned)
+        VALUES (?, ?, ?, ?, ?, ?)
+        """;
+    private static final String UPDATE_CHECKPOINT_QUERY = """
+        UPDATE rebuild_checkpoint
+        SET
+          last_user_id = ?,
+          ratings_scanned = ?,
+          updated_at = CURRENT_TIMESTAMP
+        WHERE checkpoint_id = ?
+        """;
+    private static final String CLEAR_CHECKPOINT_QUERY = "DELETE FROM rebuild_checkpoint";
+    private static final String CLEAR_PAIRS_QUERY = "DELETE FROM item_pair_rebuild";
+    private static final String MERGE_PAIR_QUERY = """
+        MERGE INTO item_pair_rebuild AS t
+        USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS DOUBLE PRECISION),
+          CAST(? AS INTEGER))) AS s(film_id1, film_id2, diff_sum, freq_value)
+        ON t.film_id1 = s.film_id1 AND t.film_id2 = s.film_id2
+        WHEN MATCHED THEN
+          UPDATE SET diff_sum = t.diff_sum + s.diff_sum, freq_value = t.freq_value + s.freq_value
+        WHEN NOT MATCHED THEN
+          INSERT (film_id1, film_id2, diff_sum, freq_value)
+          VALUES (s.film_id1, s.film_id2, s.diff_sum, s.freq_value)
+        """;
+    private static final String LOAD_PAIRS_QUERY = """
+        SELECT
+          film_id1,
+          film_id2,
+          diff_sum,
+          freq_value
+        FROM item_pair_rebuild
+        """;
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbc;
+
+    @Override
+    public Optional<RebuildCheckpoint> getCheckpoint() {
+        try {
+            return jdbc.query(GET_CHECKPOINT_QUERY, (rs, rowNum) -> new RebuildCheckpoint(
+                rs.getTimestamp("rated_up_to"), rs.getLong("rating_count"),
+                rs.getBoolean("half_matrix"), rs.getLong("last_user_id"),
+                rs.getLong("ratings_scanned")), CHECKPOINT_ID).stream().findFirst();
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load rebuild checkpoint.", e);
+        }
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void start(RebuildCheckpoint checkpoint) {
+        try {
+            jdbc.update(CLEAR_PAIRS_QUERY);
+            jdbc.update(CLEAR_CHECKPOINT_QUERY);
+            jdbc.update(INSERT_CHECKPOINT_QUERY, CHECKPOINT_ID, checkpoint.ratedUpTo(),
+                checkpoint.ratingCount(), checkpoint.half(), checkpoint.lastUserId(),
+                checkpoint.ratingsScanned());
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to start rebuild checkpoint.", e);
+        }
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void saveChunk(SlopeOneMatrix chunk, RebuildCheckpoint checkpoint) {
+        try {
+            List<Object[]> batchArgs = new ArrayList<>();
+            chunk.forEach((filmId1, filmId2, diffSum, freq) -> {
+                batchArgs.add(new Object[]{filmId1, filmId2, diffSum, freq});
+                if (batchArgs.size() == BATCH_SIZE) {
+                    jdbc.batchUpdate(MERGE_PAIR_QUERY, batchArgs);
+                    batchArgs.clear();
+                }
+            });
+            if (!batchArgs.isEmpty()) {
+                jdbc.batchUpdate(MERGE_PAIR_QUERY, batchArgs);
+            }
+            if (jdbc.update(UPDATE_CHECKPOINT_QUERY, checkpoint.lastUserId(),
+                checkpoint.ratingsScanned(), CHECKPOINT_ID) == 0) {
+                throw new InternalServerException("No rebuild checkpoint to move past user "
+                    + checkpoint.lastUserId());
+            }
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to save rebuild chunk.", e);
+        }
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public SlopeOneMatrix loadMatrix(boolean half) {
+        SlopeOneMatrix matrix = half ? SlopeOneMatrix.halfMatrix(16) : new SlopeOneMatrix();
+        try {
+            jdbc.query(LOAD_PAIRS_QUERY, rs -> {
+                matrix.put(rs.getLong("film_id1"), rs.getLong("film_id2"),
+                    rs.getDouble("diff_sum"), rs.getInt("freq_value"));
+            });
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to load staged matrix.", e);
+        }
+        return matrix;
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void finish() {
+        try {
+            int pairs = jdbc.update(CLEAR_PAIRS_QUERY);
+            jdbc.update(CLEAR_CHECKPOINT_QUERY);
+            log.trace("Dropped {} staged pairs and the rebuild checkpoint", pairs);
+        } catch (DataAccessException e) {
+            throw new InternalServerException("Failed to clear rebuild checkpoint.", e);
+        }
+    }
+}
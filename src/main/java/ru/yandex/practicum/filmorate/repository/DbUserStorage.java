@@ -2,11 +2,13 @@ package ru.yandex.practicum.filmorate.repository;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.model.User;
 
 @Repository
@@ -17,12 +19,24 @@ public class DbUserStorage extends DbBaseStorage<User> implements UserStorage {
     private static final String CHECK_EXISTS_QUERY =
         "SELECT EXISTS (SELECT 1 FROM users WHERE " + "user_id = ?)";
     private static final String GET_ALL_QUERY = "SELECT * FROM users ORDER BY user_id";
+    private static final String GET_PAGE_QUERY =
+        "SELECT * FROM users WHERE user_id > ? ORDER BY user_id LIMIT ?";
     private static final String GET_BY_ID_QUERY = "SELECT * FROM users WHERE user_id = ?";
     private static final String INSERT_QUERY =
         "INSERT INTO users (email, login, name, birthday) " + "VALUES (?, ?, ?, ?)";
     private static final String UPDATE_QUERY =
         "UPDATE users SET email = ?, login = ?, name = ?, " + "birthday = ? WHERE user_id = ?";
     private static final String DELETE_QUERY = "DELETE FROM users WHERE user_id = ?";
+    // Takes the user's ratings out of film_stats before they are deleted
+    private static final String SUBTRACT_RATINGS_FROM_STATS_QUERY = """
+        UPDATE film_stats AS s
+        SET
+          rating_sum = s.rating_sum - (
+            SELECT r.rating_value FROM ratings AS r WHERE r.user_id = ? AND r.film_id = s.film_id),
+          rating_count = s.rating_count - 1
+        WHERE s.film_id IN (SELECT film_id FROM ratings WHERE user_id = ?)
+        """;
+    private static final String DELETE_RATINGS_QUERY = "DELETE FROM ratings WHERE user_id = ?";
 
     public DbUserStorage(JdbcTemplate jdbc, RowMapper<User> mapper) {
         super(jdbc, mapper);
@@ -56,7 +70,15 @@ public class DbUserStorage extends DbBaseStorage<User> implements UserStorage {
     }
 
     @Override
+    public List<User> getUsersAfter(long afterId, int limit) {
+        return getMultiple(GET_PAGE_QUERY, afterId, limit);
+    }
+
+    @Override
+    @Transactional
     public void deleteUser(long userId) {
+        jdbc.update(SUBTRACT_RATINGS_FROM_STATS_QUERY, userId, userId);
+        jdbc.update(DELETE_RATINGS_QUERY, userId);
         delete(DELETE_QUERY, userId);
     }
 
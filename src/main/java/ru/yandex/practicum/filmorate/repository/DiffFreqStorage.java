@@ -1,6 +1,9 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
 
 public interface DiffFreqStorage {
 
@@ -12,4 +15,22 @@ public interface DiffFreqStorage {
 
     Map<Long, Map<Long, Integer>> loadFreq();
 
+    void saveMatrix(SlopeOneMatrix matrix);
+
+    SlopeOneMatrix loadMatrix();
+
+    // Full matrix with only the rows of the given films, in either layout
+    SlopeOneMatrix loadNeighbourhoods(Collection<Long> filmIds);
+
+    void applyDelta(SlopeOneMatrix delta);
+
+    // Drops all but the maxNeighbours most co-rated neighbours of the given films
+    void retainTopNeighbours(Collection<Long> filmIds, int maxNeighbours);
+
+    // Most co-rated neighbours of a film in either layout, ties going to the lower film id
+    List<Long> getTopNeighbours(long filmId, int limit);
+
+    // Converts the stored pairs to the configured full or half-matrix layout if needed
+    void migrateLayout();
+
 }
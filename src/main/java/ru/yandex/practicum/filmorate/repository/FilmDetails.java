@@ -0,0 +1,62 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmWithRating;
+import ru.yandex.practicum.filmorate.model.Genre;
+
+// Second phase of reading films: genres and directors of already selected films, one query per
+// table instead of joining both into the film query and multiplying its rows
+final class FilmDetails {
+
+    private static final String GET_GENRES_QUERY = """
+            SELECT
+                fg.film_id,
+                g.genre_id,
+                g.name AS genre_name
+            FROM film_genres AS fg
+            JOIN genres AS g ON fg.genre_id = g.genre_id
+            WHERE fg.film_id IN (%s)
+            """;
+
+    private static final String GET_DIRECTORS_QUERY = """
+            SELECT
+                fd.film_id,
+                d.director_id,
+                d.name AS director_name
+            FROM film_directors AS fd
+            JOIN directors AS d ON fd.director_id = d.director_id
+            WHERE fd.film_id IN (%s)
+            """;
+
+    private FilmDetails() {
+    }
+
+    // Fills the genres and directors of the films in place and returns the same list
+    static List<FilmWithRating> load(JdbcTemplate jdbc, List<FilmWithRating> films) {
+        if (films == null || films.isEmpty()) {
+            return films == null ? List.of() : films;
+        }
+        Map<Long, Film> filmsById = new HashMap<>();
+        for (FilmWithRating film : films) {
+            filmsById.put(film.getFilm().getId(), film.getFilm());
+        }
+        InLists.forEachChunk(filmsById.keySet(), GET_GENRES_QUERY, (sql, args) ->
+            jdbc.query(sql, rs -> {
+                filmsById.get(rs.getLong("film_id")).getGenres()
+                    .add(new Genre(rs.getInt("genre_id"), rs.getString("genre_name")));
+            }, args));
+        InLists.forEachChunk(filmsById.keySet(), GET_DIRECTORS_QUERY, (sql, args) ->
+            jdbc.query(sql, rs -> {
+                Director director = new Director();
+                director.setId(rs.getLong("director_id"));
+                director.setName(rs.getString("director_name"));
+                filmsById.get(rs.getLong("film_id")).getDirectors().add(director);
+            }, args));
+        return films;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.List;
+
+public interface FilmStatsStorage {
+
+    // Films whose film_stats row is missing or differs from their ratings
+    List<Long> findInconsistentFilms();
+
+    // Recomputes film_stats of every film from ratings, returns the rows written
+    int rebuild();
+}
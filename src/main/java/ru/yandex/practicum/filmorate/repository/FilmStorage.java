@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -14,12 +15,18 @@ public interface FilmStorage {
 
     Optional<FilmWithRating> getFilmById(long filmId);
 
+    // Films in the order of the given ids, unknown ids are skipped
+    List<FilmWithRating> getFilmsByIds(Collection<Long> filmIds);
+
     long addFilm(Film film);
 
     void updateFilm(Film film);
 
     List<FilmWithRating> getAllFilms();
 
+    // Up to limit films with ids above afterId, in id order
+    List<FilmWithRating> getFilmsAfter(long afterId, int limit);
+
     List<FilmWithRating> getDirectorFilmsBylikes(long directorId, String params);
 
     List<FilmWithRating> getCommonFilms(long userId, long friendId);
@@ -0,0 +1,36 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+// Splits id lists for IN (...) queries, so a long history never becomes one huge statement
+final class InLists {
+
+    static final int CHUNK_SIZE = 500;
+
+    private InLists() {
+    }
+
+    // Runs the query once per chunk, the template gets the placeholders of the chunk via %s
+    static void forEachChunk(Collection<Long> ids, String template, ChunkQuery query) {
+        Iterator<Long> iterator = ids.iterator();
+        while (iterator.hasNext()) {
+            Object[] chunk = new Object[Math.min(CHUNK_SIZE, ids.size())];
+            int size = 0;
+            while (size < chunk.length && iterator.hasNext()) {
+                chunk[size++] = iterator.next();
+            }
+            Object[] args = size == chunk.length ? chunk : Arrays.copyOf(chunk, size);
+            query.run(String.format(template,
+                String.join(", ", Collections.nCopies(size, "?"))), args);
+        }
+    }
+
+    @FunctionalInterface
+    interface ChunkQuery {
+
+        void run(String sql, Object[] args);
+    }
+}
@@ -1,20 +1,55 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import ru.yandex.practicum.filmorate.model.FilmWithRating;
 import ru.yandex.practicum.filmorate.model.Rating;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.FilmRatingTotals;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
 
 public interface LikesStorage {
 
-    void addRating(long userId, long filmId, double ratingValue);
+    boolean addRating(long userId, long filmId, double ratingValue);
 
     void removeRating(long userId, long filmId);
 
+    Optional<Rating> getRating(long userId, long filmId);
+
     List<Rating> getRatingsOfFilm(long filmId);
 
     List<Rating> getAllRatings();
 
+    // Streams all ratings grouped by user in ascending user id order, one user at a time
+    void forEachUserRatings(Consumer<UserRatings> consumer);
+
+    // Same as above, limited to ratings with rated_at up to and including the given stamp
+    void forEachUserRatings(Timestamp ratedUpTo, Consumer<UserRatings> consumer);
+
+    // Same as above, limited to users with ids in (afterUserId, toUserId]
+    void forEachUserRatings(Timestamp ratedUpTo, long afterUserId, long toUserId,
+        Consumer<UserRatings> consumer);
+
+    // Highest id among the next users after afterUserId with ratings up to the stamp, at most
+    // the given number of them, empty if there are none left
+    Optional<Long> findRaterIdRangeEnd(Timestamp ratedUpTo, long afterUserId, int users);
+
+    Optional<Timestamp> getLastRatedAt();
+
+    // Runs the reads against one consistent view of the tables, taken at their first statement.
+    // Rating writes committed after that stay invisible to them, whatever rows they touch
+    <T> T readConsistent(Supplier<T> reads);
+
+    FilmRatingTotals getFilmRatingTotals();
+
+    long countRatingsRatedUpTo(Timestamp ratedUpTo);
+
+    // Ratings with rated_at in (ratedAfter, ratedUpTo], ratedAfter may be null for no lower bound
+    List<Rating> getRatingsRatedBetween(Timestamp ratedAfter, Timestamp ratedUpTo);
+
     List<FilmWithRating> getFilmsRatedByUser(long userId);
 
     List<Rating> getRatingsByUser(long userId);
@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import java.util.Optional;
+import ru.yandex.practicum.filmorate.recommendation.RebuildCheckpoint;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+
+// Every call runs in a transaction of its own, even inside the read of the ratings a rebuild
+// is made from, so chunks are committed as they are merged and read back as committed
+public interface RebuildStorage {
+
+    Optional<RebuildCheckpoint> getCheckpoint();
+
+    // Drops any earlier staged matrix and checkpoint
+    void start(RebuildCheckpoint checkpoint);
+
+    // Adds the diff sums and frequencies of a chunk to the staged matrix and moves the
+    // checkpoint past it, both or neither
+    void saveChunk(SlopeOneMatrix chunk, RebuildCheckpoint checkpoint);
+
+    // The staged matrix in the layout recorded by the checkpoint
+    SlopeOneMatrix loadMatrix(boolean half);
+
+    // Drops the staged matrix and the checkpoint
+    void finish();
+}
@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.repository;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import ru.yandex.practicum.filmorate.model.User;
 
@@ -16,5 +17,8 @@ public interface UserStorage {
 
     Collection<User> getAllUsers();
 
+    // Up to limit users with ids above afterId, in id order
+    List<User> getUsersAfter(long afterId, int limit);
+
     void deleteUser(long userId);
 }
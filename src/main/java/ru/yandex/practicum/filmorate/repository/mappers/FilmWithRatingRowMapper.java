@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.repository.mappers;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmWithRating;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+
+// One row per film, genres and directors are left empty for a second query to fill
+@Component
+@SuppressWarnings("unused")
+public class FilmWithRatingRowMapper implements RowMapper<FilmWithRating> {
+
+    @Override
+    public FilmWithRating mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Film film = new Film();
+        film.setId(rs.getLong("film_id"));
+        film.setName(rs.getString("film_name"));
+        film.setDescription(rs.getString("description"));
+        Date releaseDate = rs.getDate("release_date");
+        film.setReleaseDate(releaseDate != null ? releaseDate.toLocalDate() : null);
+        film.setDuration(rs.getInt("duration"));
+
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(rs.getInt("mpa_id"));
+        mpaRating.setName(rs.getString("mpa_name"));
+        film.setMpa(mpaRating.getId() == 0 ? null : mpaRating);
+
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        double avgRating = rs.getDouble("avg_rating");
+        return new FilmWithRating(film, rs.wasNull() ? 0.0 : avgRating);
+    }
+}
@@ -23,6 +23,7 @@ public class DirectorService {
     private final DirectorStorage directorStorage;
     private final Validator validator;
     private final DirectorMapper mapper;
+    private final FilmCache filmCache;
 
     public Director getDirectorById(long id) {
         log.debug("Getting director with ID {}", id);
@@ -66,6 +67,8 @@ public class DirectorService {
         log.debug("Updating director with ID {}: {}", director.getId(), director);
         director = mapper.updateDirectorFields(director, updateDirectorRequest);
         directorStorage.updateDirector(director);
+        // Cached films carry the director's name
+        filmCache.invalidateAll();
         return mapper.mapToDirectorDto(director);
     }
 
@@ -76,5 +79,6 @@ public class DirectorService {
         }
         log.debug("Director with ID {} was deleted", directorId);
         directorStorage.removeDirector(directorId);
+        filmCache.invalidateAll();
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.config.FilmCacheProperties;
+import ru.yandex.practicum.filmorate.model.FilmWithRating;
+
+/**
+ * Size-bounded LRU read-through cache of films by id.
+ *
+ * <p>The services drop a film's entry when it is updated, deleted or rated, and drop everything
+ * when a director changes or a user is deleted, as those touch films without naming them. Unknown
+ * ids are not cached. Cached films are shared between requests, so nothing may modify them; the
+ * update path reads its copy from storage. Meters are tagged {@code cache=films}, the hit rate is
+ * {@code cache.gets} with {@code result=hit} over all {@code cache.gets}.
+ */
+@Component
+public class FilmCache {
+
+    private static final String CACHE_NAME = "films";
+
+    private final LruCache<Long, FilmWithRating> cache;
+
+    @Autowired
+    public FilmCache(FilmCacheProperties properties, MeterRegistry registry) {
+        this(properties, registry, System::nanoTime);
+    }
+
+    FilmCache(FilmCacheProperties properties, MeterRegistry registry, LongSupplier clock) {
+        cache = new LruCache<>(CACHE_NAME, properties.getMaxFilms(), properties.getExpireAfter(),
+            registry, clock);
+    }
+
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    public Optional<FilmWithRating> get(long filmId,
+        LongFunction<Optional<FilmWithRating>> loader) {
+        return Optional.ofNullable(cache.get(filmId, id -> loader.apply(id).orElse(null)));
+    }
+
+    // Films in the order of the given ids, only the missing ones are loaded in one call
+    public List<FilmWithRating> getAll(Collection<Long> filmIds,
+        Function<Collection<Long>, List<FilmWithRating>> loader) {
+        Map<Long, FilmWithRating> films = cache.getAll(filmIds, missing ->
+            loader.apply(missing).stream().collect(Collectors.toMap(
+                film -> film.getFilm().getId(), Function.identity(), (first, second) -> first)));
+        List<FilmWithRating> ordered = new ArrayList<>(films.size());
+        for (long filmId : new LinkedHashSet<>(filmIds)) {
+            FilmWithRating film = films.get(filmId);
+            if (film != null) {
+                ordered.add(film);
+            }
+        }
+        return ordered;
+    }
+
+    public void invalidate(long filmId) {
+        cache.invalidate(filmId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
@@ -6,10 +6,12 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.dto.CursorPage;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
 import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
@@ -37,6 +39,8 @@ import ru.yandex.practicum.filmorate.repository.UserStorage;
 @Slf4j
 public class FilmService {
 
+    private static final int STREAM_BATCH_SIZE = 500;
+
     private final FilmStorage filmStorage;
     private final MpaRatingStorage mpaRatingStorage;
     private final GenreStorage genreStorage;
@@ -44,14 +48,42 @@ public class FilmService {
     private final FilmMapper mapper;
     private final UserStorage userStorage;
     private final DirectorStorage directorStorage;
+    private final FilmCache filmCache;
 
     public Collection<FilmDto> getAllFilms() {
         log.debug("Getting all films");
         return filmStorage.getAllFilms().stream().map(mapper::mapToFilmDto).collect(Collectors.toList());
     }
 
+    public CursorPage<FilmDto> getFilmsPage(long afterId, int limit) {
+        if (limit < 1 || limit > CursorPage.MAX_LIMIT) {
+            log.warn("Getting films failed: page limit {} out of range", limit);
+            throw new FilmValidationException("Error when getting films",
+                    "limit must be between 1 and " + CursorPage.MAX_LIMIT);
+        }
+        log.debug("Getting up to {} films after ID {}", limit, afterId);
+        return CursorPage.of(filmStorage.getFilmsAfter(afterId, limit + 1), limit,
+                film -> film.getFilm().getId()).map(mapper::mapToFilmDto);
+    }
+
+    // Walks the catalogue in keyset batches, so only one batch of films is held at a time
+    public void streamAllFilms(Consumer<FilmDto> consumer) {
+        log.debug("Streaming all films");
+        long afterId = 0;
+        List<FilmWithRating> batch;
+        do {
+            batch = filmStorage.getFilmsAfter(afterId, STREAM_BATCH_SIZE);
+            for (FilmWithRating film : batch) {
+                consumer.accept(mapper.mapToFilmDto(film));
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.getLast().getFilm().getId();
+            }
+        } while (batch.size() == STREAM_BATCH_SIZE);
+    }
+
     public FilmDto getFilmById(long filmId) {
-        Optional<FilmWithRating> film = filmStorage.getFilmById(filmId);
+        Optional<FilmWithRating> film = filmCache.get(filmId, filmStorage::getFilmById);
         if (film.isEmpty()) {
             log.warn("Getting film failed: film with ID {} not found", filmId);
             throw new FilmNotFoundException("Error when getting film", filmId);
@@ -92,6 +124,7 @@ public class FilmService {
     }
 
     public FilmDto updateFilm(UpdateFilmRequest updateFilmRequest) {
+        // Read past the cache, the film is changed in place below and cached films are shared
         Film film = filmStorage.getFilmById(updateFilmRequest.getId()).orElseThrow(() -> {
             log.warn("Updating film failed: film with ID {} not found", updateFilmRequest.getId());
             return new FilmNotFoundException("Error when updating film", updateFilmRequest.getId());
@@ -122,6 +155,7 @@ public class FilmService {
         log.debug("Updating film with ID {}: {}", film.getId(), film);
         film = mapper.updateFilmFields(film, updateFilmRequest);
         filmStorage.updateFilm(film);
+        filmCache.invalidate(film.getId());
         return mapper.mapToFilmDto(film);
     }
 
@@ -147,6 +181,7 @@ public class FilmService {
         }
         log.debug("Deleting film with ID {}", filmId);
         filmStorage.deleteFilm(filmId);
+        filmCache.invalidate(filmId);
     }
 
     public Collection<FilmDto> searchFilms(String query, Set<SearchType> searchTypes) {
@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.repository.FilmStatsStorage;
+
+/**
+ * Keeps the film_stats aggregate that film reads take the average rating from in line with the
+ * ratings table. Rating writes maintain it, the check catches writes that went around them and
+ * fills the table after an upgrade.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FilmStatsService {
+
+    private static final int LOGGED_FILM_IDS = 10;
+
+    private final FilmStatsStorage filmStatsStorage;
+    private final FilmCache filmCache;
+
+    // Rebuilds film_stats from ratings if any film is off, returns the number of such films
+    public int checkConsistency() {
+        List<Long> filmIds = filmStatsStorage.findInconsistentFilms();
+        if (filmIds.isEmpty()) {
+            log.info("Film stats are consistent with ratings");
+            return 0;
+        }
+        log.warn("Film stats of {} films differ from ratings, e.g. {}, rebuilding", filmIds.size(),
+            filmIds.subList(0, Math.min(LOGGED_FILM_IDS, filmIds.size())));
+        int rows = filmStatsStorage.rebuild();
+        filmCache.invalidateAll();
+        log.info("Film stats rebuilt for {} films", rows);
+        return filmIds.size();
+    }
+}
@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.service;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +12,8 @@ import ru.yandex.practicum.filmorate.exception.UserNotFoundException;
 import ru.yandex.practicum.filmorate.mapper.FilmMapper;
 import ru.yandex.practicum.filmorate.model.Events;
 import ru.yandex.practicum.filmorate.model.Operations;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
 import ru.yandex.practicum.filmorate.repository.EventStorage;
 import ru.yandex.practicum.filmorate.repository.FilmStorage;
 import ru.yandex.practicum.filmorate.repository.LikesStorage;
@@ -25,22 +28,26 @@ public class LikesService {
     private final FilmStorage filmStorage;
     private final LikesStorage likesStorage;
     private final FilmMapper filmMapper;
-    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
     private final EventStorage eventStorage;
+    private final FilmCache filmCache;
 
     public void rateFilm(long userId, long filmId, double ratingValue) {
         if (userStorage.getUserById(userId).isEmpty()) {
             log.warn("Rating film failed: user with ID {} not found", userId);
             throw new UserNotFoundException("Error when rating film", userId);
         }
-        if (filmStorage.getFilmById(filmId).isEmpty()) {
+        if (filmCache.get(filmId, filmStorage::getFilmById).isEmpty()) {
             log.warn("Rating film failed: film with ID {} not found", filmId);
             throw new FilmNotFoundException("Error when rating film", filmId);
         }
         log.debug("User with ID {} gives film with ID {} a rating of {}", userId, filmId,
             ratingValue);
-        likesStorage.addRating(userId, filmId, ratingValue);
-        recommendationService.updateDiffAndFreq(userId, filmId, ratingValue);
+        recommendationUpdates.record(userId, () ->
+            likesStorage.addRating(userId, filmId, ratingValue)
+                ? Optional.of(RatingChange.added(filmId, ratingValue)) : Optional.empty());
+        // The film's average rating changed
+        filmCache.invalidate(filmId);
         eventStorage.insertUserFeedQuery(userId, Events.LIKE.name(), Operations.ADD.name(), filmId);
     }
 
@@ -49,13 +56,17 @@ public class LikesService {
             log.warn("Unliking film failed: user with ID {} not found", userId);
             throw new UserNotFoundException("Error when unrating film", userId);
         }
-        if (filmStorage.getFilmById(filmId).isEmpty()) {
+        if (filmCache.get(filmId, filmStorage::getFilmById).isEmpty()) {
             log.warn("Unrating film failed: film with ID {} not found", filmId);
             throw new FilmNotFoundException("Error when unrating film", filmId);
         }
         log.debug("User with ID {} unrates film with ID {}", userId, filmId);
-        likesStorage.removeRating(userId, filmId);
-        recommendationService.updateDiffAndFreq(userId, filmId, 0);
+        recommendationUpdates.record(userId, () -> {
+            Optional<Rating> rating = likesStorage.getRating(userId, filmId);
+            likesStorage.removeRating(userId, filmId);
+            return rating.map(r -> RatingChange.removed(filmId, r.getRatingValue()));
+        });
+        filmCache.invalidate(filmId);
         eventStorage.insertUserFeedQuery(userId, Events.LIKE.name(), Operations.REMOVE.name(), filmId);
     }
 
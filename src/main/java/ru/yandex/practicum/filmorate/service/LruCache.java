@@ -0,0 +1,184 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded LRU map with optional expiry behind the service caches.
+ *
+ * <p>Values are loaded outside the lock and only stored if their key was not invalidated
+ * meanwhile. Invalidations are counted per stripe of keys, so a write to one key only discards
+ * concurrent loads of the few keys sharing its stripe. Hits, misses, evictions and the current
+ * size are published under the standard {@code cache.*} meters tagged with the cache name.
+ */
+final class LruCache<K, V> {
+
+    private static final int STRIPES = 256;
+
+    private final int maxSize;
+    private final long expireAfterNanos;
+    private final LongSupplier clock;
+    private final Map<K, Entry<V>> entries;
+    private final long[] generations = new long[STRIPES];
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    LruCache(String name, int maxSize, Duration expireAfter, MeterRegistry registry,
+        LongSupplier clock) {
+        this.maxSize = maxSize;
+        expireAfterNanos = expireAfter.toNanos();
+        this.clock = clock;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        hits = Counter.builder("cache.gets").tag("cache", name).tag("result", "hit")
+            .register(registry);
+        misses = Counter.builder("cache.gets").tag("cache", name).tag("result", "miss")
+            .register(registry);
+        evictions = Counter.builder("cache.evictions").tag("cache", name).register(registry);
+        Gauge.builder("cache.size", this, LruCache::size).tag("cache", name).register(registry);
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    // A null from the loader means there is no value, which is not cached
+    V get(K key, Function<K, V> loader) {
+        if (!isEnabled()) {
+            return loader.apply(key);
+        }
+        long generation;
+        synchronized (this) {
+            V cached = lookup(key);
+            if (cached != null) {
+                return cached;
+            }
+            generation = generations[stripe(key)];
+        }
+        V value = loader.apply(key);
+        if (value != null) {
+            put(key, value, generation);
+        }
+        return value;
+    }
+
+    // Values of the keys that have one, all missing keys go to the loader in one call
+    Map<K, V> getAll(Collection<K> keys, Function<List<K>, Map<K, V>> loader) {
+        List<K> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+        if (!isEnabled()) {
+            return loader.apply(distinctKeys);
+        }
+        Map<K, V> values = new HashMap<>();
+        List<K> missing = new ArrayList<>();
+        Map<K, Long> missingGenerations = new HashMap<>();
+        synchronized (this) {
+            for (K key : distinctKeys) {
+                V cached = lookup(key);
+                if (cached != null) {
+                    values.put(key, cached);
+                } else {
+                    missing.add(key);
+                    missingGenerations.put(key, generations[stripe(key)]);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<K, V> loaded = loader.apply(missing);
+            values.putAll(loaded);
+            synchronized (this) {
+                loaded.forEach((key, value) -> {
+                    Long generation = missingGenerations.get(key);
+                    if (generation != null) {
+                        put(key, value, generation);
+                    }
+                });
+            }
+        }
+        return values;
+    }
+
+    synchronized void invalidate(K key) {
+        generations[stripe(key)]++;
+        entries.remove(key);
+    }
+
+    synchronized void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            generations[i]++;
+        }
+        entries.clear();
+    }
+
+    // Reloads every cached key, a key invalidated during its reload is dropped instead
+    void refreshAll(Function<K, V> loader) {
+        Map<K, Long> keys = new LinkedHashMap<>();
+        synchronized (this) {
+            for (K key : entries.keySet()) {
+                keys.put(key, generations[stripe(key)]);
+            }
+        }
+        keys.forEach((key, generation) -> replace(key, loader.apply(key), generation));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private V lookup(K key) {
+        Entry<V> cached = entries.get(key);
+        if (cached != null && !isExpired(cached)) {
+            hits.increment();
+            return cached.value();
+        }
+        if (cached != null) {
+            entries.remove(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return expireAfterNanos > 0 && clock.getAsLong() - entry.loadedAt() >= expireAfterNanos;
+    }
+
+    private synchronized void put(K key, V value, long generation) {
+        if (generations[stripe(key)] == generation) {
+            entries.put(key, new Entry<>(value, clock.getAsLong()));
+        }
+    }
+
+    private synchronized void replace(K key, V value, long generation) {
+        if (value != null && generations[stripe(key)] == generation) {
+            entries.replace(key, new Entry<>(value, clock.getAsLong()));
+        } else {
+            entries.remove(key);
+        }
+    }
+
+    private static int stripe(Object key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+
+    private record Entry<V>(V value, long loadedAt) {
+    }
+}
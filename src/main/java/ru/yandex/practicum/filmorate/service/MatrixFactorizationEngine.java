@@ -0,0 +1,153 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.recommendation.AlsTrainer;
+import ru.yandex.practicum.filmorate.recommendation.FactorModel;
+import ru.yandex.practicum.filmorate.recommendation.NeighbourLists;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+
+/**
+ * Predicts ratings from latent user and film vectors trained on the ratings table.
+ *
+ * <p>The model only needs a vector per user and film, so memory grows linearly with users and
+ * films instead of with co-rated pairs. It lives in memory and is retrained on startup and on
+ * every rebuild. Between rebuilds, a user who rates or unrates gets a new vector fitted to the
+ * current ratings against the fixed film vectors. Users unknown to the model are fitted the
+ * same way on every request. Films rated for the first time after training are not predicted
+ * until the next rebuild.
+ *
+ * <p>Similar films are those whose vectors point the most in the same direction. Film vectors
+ * only change on a rebuild, which is also when their lists are ranked.
+ */
+@Component
+@ConditionalOnProperty(prefix = "filmorate.recommendations", name = "engine",
+    havingValue = RecommendationProperties.MATRIX_FACTORIZATION)
+@RequiredArgsConstructor
+@Slf4j
+public class MatrixFactorizationEngine implements RecommendationEngine {
+
+    private final LikesStorage likesStorage;
+    private final RecommendationProperties properties;
+    private volatile FactorModel model;
+    private volatile NeighbourLists neighbourLists;
+
+    // There is no persisted model, so startup always trains
+    @Override
+    public boolean initialize(BuildProgress progress) {
+        rebuild(progress);
+        return false;
+    }
+
+    @Override
+    public void rebuild(BuildProgress progress) {
+        log.info("Training matrix factorization model");
+        progress.phase("scanning ratings");
+        RecommendationProperties.Factorization settings = properties.getFactorization();
+        int parallelism = properties.getRebuild().effectiveParallelism();
+
+        long start = System.nanoTime();
+        // Read as of the cut, so the changes applied after the build are exactly the later ones
+        List<UserRatings> users = likesStorage.readConsistent(() -> {
+            List<UserRatings> read = new ArrayList<>();
+            Timestamp ratedUpTo = progress.cut(() -> likesStorage.getLastRatedAt().orElse(null));
+            if (ratedUpTo != null) {
+                progress.ratingsToScan(likesStorage.countRatingsRatedUpTo(ratedUpTo));
+                likesStorage.forEachUserRatings(ratedUpTo, user -> {
+                    read.add(user);
+                    progress.ratingsScanned(user.size());
+                });
+            }
+            return read;
+        });
+        progress.phase("training");
+        FactorModel trained = AlsTrainer.train(users,
+            new AlsTrainer.Settings(settings.getFactors(), settings.getIterations(),
+                settings.getRegularization(), settings.getSeed()), parallelism);
+        model = trained;
+        log.info("Matrix factorization model trained with parallelism {} in {} ms: {}",
+            parallelism, (System.nanoTime() - start) / 1_000_000, trained);
+
+        progress.phase("ranking similar films");
+        start = System.nanoTime();
+        neighbourLists = NeighbourLists.byCosine(trained,
+            properties.getSimilar().getMaxNeighbours());
+        log.info("Similar films of {} films ranked in {} ms", neighbourLists.filmCount(),
+            (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public Predictor predictor() {
+        FactorModel current = model;
+        return (userId, consumer) -> {
+            if (current == null) {
+                return;
+            }
+            List<Rating> ratings = likesStorage.getRatingsByUser(userId);
+            float[] vector = current.userVector(userId);
+            if (vector == null) {
+                vector = foldIn(current, ratings);
+            }
+            Set<Long> rated = new HashSet<>();
+            ratings.forEach(rating -> rated.add(rating.getFilmId()));
+            current.forEachPrediction(vector, rated::contains, consumer);
+        };
+    }
+
+    @Override
+    public RatingUpdate newUpdate() {
+        List<Long> userIds = new ArrayList<>();
+        return new RatingUpdate() {
+            @Override
+            public void add(long userId, List<RatingChange> changes) {
+                userIds.add(userId);
+            }
+
+            @Override
+            public void apply() {
+                FactorModel current = model;
+                if (current == null) {
+                    return;
+                }
+                int refitted = 0;
+                for (long userId : userIds) {
+                    // Unknown users are fitted on every request anyway
+                    if (current.hasUser(userId)) {
+                        current.replaceUserVector(userId,
+                            foldIn(current, likesStorage.getRatingsByUser(userId)));
+                        refitted++;
+                    }
+                }
+                log.info("Refitted factor vectors of {} of users {}", refitted, userIds);
+            }
+        };
+    }
+
+    @Override
+    public List<Long> similarFilms(long filmId, int count) {
+        NeighbourLists lists = neighbourLists;
+        return lists == null ? List.of() : lists.neighbours(filmId, count);
+    }
+
+    private float[] foldIn(FactorModel current, List<Rating> ratings) {
+        long[] filmIds = new long[ratings.size()];
+        double[] values = new double[ratings.size()];
+        for (int i = 0; i < ratings.size(); i++) {
+            filmIds[i] = ratings.get(i).getFilmId();
+            values[i] = ratings.get(i).getRatingValue();
+        }
+        return AlsTrainer.foldIn(current, filmIds, values,
+            properties.getFactorization().getRegularization());
+    }
+}
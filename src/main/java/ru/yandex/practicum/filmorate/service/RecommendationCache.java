@@ -0,0 +1,63 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+
+/**
+ * Size-bounded LRU cache of recommendation lists by user id.
+ *
+ * <p>A user's entry is dropped when that user rates or unrates, and all entries are recomputed
+ * after a matrix rebuild. Ratings of other users also shift predictions slightly, which the
+ * cache only picks up once an entry expires. A rating that lands while a list is computed keeps
+ * that list out of the cache, see {@link LruCache}. Meters are tagged
+ * {@code cache=user-recommendations}.
+ */
+@Component
+public class RecommendationCache {
+
+    private static final String CACHE_NAME = "user-recommendations";
+
+    private final LruCache<Long, List<FilmDto>> cache;
+
+    @Autowired
+    public RecommendationCache(RecommendationProperties properties, MeterRegistry registry) {
+        this(properties, registry, System::nanoTime);
+    }
+
+    RecommendationCache(RecommendationProperties properties, MeterRegistry registry,
+        LongSupplier clock) {
+        cache = new LruCache<>(CACHE_NAME, properties.getCache().getMaxUsers(),
+            properties.getCache().getExpireAfter(), registry, clock);
+    }
+
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    public List<FilmDto> get(long userId, LongFunction<List<FilmDto>> loader) {
+        return cache.get(userId, id -> List.copyOf(loader.apply(id)));
+    }
+
+    public void invalidate(long userId) {
+        cache.invalidate(userId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    // Recomputes every cached list, e.g. after the matrix was rebuilt
+    public void refreshAll(LongFunction<List<FilmDto>> loader) {
+        cache.refreshAll(userId -> List.copyOf(loader.apply(userId)));
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,84 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import ru.yandex.practicum.filmorate.recommendation.PredictionConsumer;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+
+/**
+ * Predicts ratings of films a user has not rated yet and keeps its model in sync with the
+ * ratings table. The engine in use is chosen by {@code filmorate.recommendations.engine}.
+ */
+public interface RecommendationEngine {
+
+    // Loads or builds the model on startup, returns whether a persisted model was reused
+    boolean initialize(BuildProgress progress);
+
+    // Rebuilds the model from all ratings
+    default void rebuild() {
+        rebuild(BuildProgress.NONE);
+    }
+
+    // Same as above, with the ratings cut off by the given progress
+    void rebuild(BuildProgress progress);
+
+    // Predictions against the current model, reusable for many users
+    Predictor predictor();
+
+    // Collects rating changes of several users that are then applied to the model at once
+    RatingUpdate newUpdate();
+
+    // Films most similar to the given one, best first, at most count and never more than
+    // filmorate.recommendations.similar.max-neighbours of them
+    List<Long> similarFilms(long filmId, int count);
+
+    @FunctionalInterface
+    interface Predictor {
+
+        // Passes every predicted rating to the consumer, films the user has rated are left out
+        void predict(long userId, PredictionConsumer consumer);
+
+        // Predicted rating by film id
+        default Map<Long, Double> predict(long userId) {
+            Map<Long, Double> predictions = new HashMap<>();
+            predict(userId, predictions::put);
+            return predictions;
+        }
+    }
+
+    interface RatingUpdate {
+
+        // The changes are already stored and the user's ratings must not change during the call
+        void add(long userId, List<RatingChange> changes);
+
+        void apply();
+    }
+
+    /**
+     * Receives the progress of a model build and fixes which ratings the model covers. Reports
+     * nothing and reads the cut directly unless overridden.
+     */
+    interface BuildProgress {
+
+        BuildProgress NONE = new BuildProgress() {
+        };
+
+        default void phase(String phase) {
+        }
+
+        default void ratingsToScan(long ratings) {
+        }
+
+        default void ratingsScanned(int ratings) {
+        }
+
+        // Runs the read that decides which ratings the model is built from. Rating changes
+        // recorded before it are part of the model, later ones are applied once it is built, so
+        // the build reads the ratings as of the cut, see LikesStorage.readConsistent
+        default <T> T cut(Supplier<T> read) {
+            return read.get();
+        }
+    }
+}
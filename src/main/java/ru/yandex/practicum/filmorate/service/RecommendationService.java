@@ -1,19 +1,24 @@
 package ru.yandex.practicum.filmorate.service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.exception.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exception.FilmValidationException;
+import ru.yandex.practicum.filmorate.exception.UserValidationException;
 import ru.yandex.practicum.filmorate.mapper.FilmMapper;
 import ru.yandex.practicum.filmorate.model.FilmWithRating;
 import ru.yandex.practicum.filmorate.model.Rating;
-import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.recommendation.FilmRatingTotals;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.recommendation.TopScores;
 import ru.yandex.practicum.filmorate.repository.FilmStorage;
 import ru.yandex.practicum.filmorate.repository.LikesStorage;
 
@@ -22,164 +27,222 @@ import ru.yandex.practicum.filmorate.repository.LikesStorage;
 @Slf4j
 public class RecommendationService {
 
-    private final LikesStorage likesStorage;
-    private final DiffFreqStorage diffFreqStorage;
+    // Length of the cached lists, larger requests are computed on every call
+    public static final int DEFAULT_COUNT = 10;
+    // Films rated this or lower on average are never recommended
+    private static final double MIN_AVERAGE_RATING = 5.0;
+
+    private final RecommendationEngine engine;
     private final FilmStorage filmStorage;
+    private final LikesStorage likesStorage;
     private final FilmMapper filmMapper;
+    private final RecommendationCache recommendationCache;
+    private final FilmCache filmCache;
+    private final RecommendationStatus status;
+    // Average ratings for filtering candidates before they are hydrated, updated together with
+    // the model and reloaded whenever it is rebuilt
+    private volatile FilmRatingTotals filmRatings = new FilmRatingTotals();
+
+    // Loads or builds the model of the configured engine, returns whether a persisted model
+    // was reused
+    public boolean initialize() {
+        return initialize(RecommendationEngine.BuildProgress.NONE);
+    }
 
-    public void calculateDiffAndFreq() {
-        log.info("Calculating diff and freq matrices");
-        List<Rating> allRatings = likesStorage.getAllRatings();
-        Map<Long, Map<Long, Double>> diff = new HashMap<>();
-        Map<Long, Map<Long, Integer>> freq = new HashMap<>();
-
-        // Group ratings by user
-        Map<Long, Map<Long, Double>> userRatings = new HashMap<>();
-        for (Rating rating : allRatings) {
-            userRatings.computeIfAbsent(rating.getUserId(), k -> new HashMap<>())
-                .put(rating.getFilmId(), rating.getRatingValue());
-        }
+    // Same as above, reporting progress to the status and the given progress, which also
+    // decides how the ratings the model covers are cut off
+    public boolean initialize(RecommendationEngine.BuildProgress progress) {
+        status.started();
+        try {
+            boolean restored = engine.initialize(new RecommendationEngine.BuildProgress() {
+                @Override
+                public void phase(String phase) {
+                    status.phase(phase);
+                    progress.phase(phase);
+                }
 
-        // Iterate through all pairs of films
-        for (Map<Long, Double> user1Ratings : userRatings.values()) {
-            List<Map.Entry<Long, Double>> ratingsList = new ArrayList<>(user1Ratings.entrySet());
-            // Ensure each pair is iterated through once
-            for (int i = 0; i < ratingsList.size(); i++) {
-                Long filmId1 = ratingsList.get(i).getKey();
-                Double rating1 = ratingsList.get(i).getValue();
-                for (int j = i + 1; j < ratingsList.size(); j++) {
-                    Long filmId2 = ratingsList.get(j).getKey();
-                    Double rating2 = ratingsList.get(j).getValue();
-
-                    // Update diff and freq for both directions
-                    updateDiffAndFreqForPair(diff, freq, filmId1, filmId2, rating1, rating2);
-                    updateDiffAndFreqForPair(diff, freq, filmId2, filmId1, rating2, rating1);
+                @Override
+                public void ratingsToScan(long ratings) {
+                    status.ratingsToScan(ratings);
+                    progress.ratingsToScan(ratings);
                 }
-            }
+
+                @Override
+                public void ratingsScanned(int ratings) {
+                    status.ratingsScanned(ratings);
+                    progress.ratingsScanned(ratings);
+                }
+
+                @Override
+                public <T> T cut(Supplier<T> read) {
+                    return cutWithFilmRatings(progress, read);
+                }
+            });
+            refreshCachedRecommendations();
+            status.ready();
+            return restored;
+        } catch (RuntimeException e) {
+            status.failed(e);
+            throw e;
         }
+    }
 
-        // Divide diff by freq
-        diff.forEach((filmId1, innerMap) -> innerMap.replaceAll((filmId2, diffValue) -> {
-            Map<Long, Integer> innerFreqMap = freq.get(filmId1);
-            if (innerFreqMap == null) {
-                log.warn("Unexpected null innerFreqMap for filmId1: {}", filmId1);
-                return Double.NaN;
+    public boolean isReady() {
+        return status.isReady();
+    }
+
+    public void rebuild() {
+        rebuild(RecommendationEngine.BuildProgress.NONE);
+    }
+
+    // Same as above, with the ratings cut off by the given progress. Readiness is left as it
+    // is, the current model keeps serving until the new one replaces it
+    public void rebuild(RecommendationEngine.BuildProgress progress) {
+        engine.rebuild(new RecommendationEngine.BuildProgress() {
+            @Override
+            public void phase(String phase) {
+                progress.phase(phase);
             }
-            Integer frequency = innerFreqMap.get(filmId2);
-            if (frequency == null) {
-                log.warn("Unexpected null frequency for filmId1: {}, filmId2: {}", filmId1,
-                    filmId2);
-                return Double.NaN;
+
+            @Override
+            public void ratingsToScan(long ratings) {
+                progress.ratingsToScan(ratings);
             }
-            if (frequency == 0) {
-                log.warn("Division by zero risk for filmId1: {}, filmId2: {}", filmId1, filmId2);
-                return Double.NaN;
+
+            @Override
+            public void ratingsScanned(int ratings) {
+                progress.ratingsScanned(ratings);
             }
-            return diffValue / frequency;
-        }));
-
-        // Save matrices to the database
-        diffFreqStorage.saveDiff(diff);
-        diffFreqStorage.saveFreq(freq);
-        log.info("Diff and freq matrices calculated and saved");
-    }
-
-    private void updateDiffAndFreqForPair(Map<Long, Map<Long, Double>> diff,
-        Map<Long, Map<Long, Integer>> freq, Long filmId1, Long filmId2, Double rating1,
-        Double rating2) {
-        // Update diff
-        diff.computeIfAbsent(filmId1, k -> new HashMap<>()).compute(filmId2, (k, v) -> {
-            if (v == null) {
-                return rating1 - rating2;
-            } else {
-                return v + rating1 - rating2;
+
+            @Override
+            public <T> T cut(Supplier<T> read) {
+                return cutWithFilmRatings(progress, read);
             }
         });
-        // Update freq
-        freq.computeIfAbsent(filmId1, k -> new HashMap<>()).compute(filmId2, (k, v) -> {
-            if (v == null) {
-                return 1;
-            } else {
-                return v + 1;
-            }
+        refreshCachedRecommendations();
+    }
+
+    // Averages are read at the same cut as the model, so changes applied later are counted
+    // exactly once
+    private <T> T cutWithFilmRatings(RecommendationEngine.BuildProgress progress,
+        Supplier<T> read) {
+        return progress.cut(() -> {
+            T value = read.get();
+            filmRatings = likesStorage.getFilmRatingTotals();
+            return value;
         });
     }
 
-    public void updateDiffAndFreq(long userId, long filmId, double ratingValue) {
-        log.info("Updating diff and freq matrices for user {} and film {}", userId, filmId);
-        // Load existing diff and freq data
-        Map<Long, Map<Long, Double>> diff = diffFreqStorage.loadDiff();
-        Map<Long, Map<Long, Integer>> freq = diffFreqStorage.loadFreq();
+    // Rating changes applied through the returned update also drop the users' cached lists
+    public RecommendationEngine.RatingUpdate newRatingUpdate() {
+        RecommendationEngine.RatingUpdate update = engine.newUpdate();
+        List<Long> userIds = new ArrayList<>();
+        return new RecommendationEngine.RatingUpdate() {
+            @Override
+            public void add(long userId, List<RatingChange> changes) {
+                update.add(userId, changes);
+                changes.forEach(filmRatings::apply);
+                userIds.add(userId);
+            }
+
+            @Override
+            public void apply() {
+                update.apply();
+                userIds.forEach(recommendationCache::invalidate);
+            }
+        };
+    }
+
+    public List<FilmDto> getRecommendations(long userId) {
+        return getRecommendations(userId, DEFAULT_COUNT);
+    }
 
-        // Get the list of all films rated by the current user
-        List<Rating> userRatings = likesStorage.getRatingsByUser(userId);
+    public List<FilmDto> getRecommendations(long userId, int count) {
+        return getRecommendationsWithState(userId, count).films();
+    }
 
-        // Update diff and freq for the new rating
-        for (Rating userRating : userRatings) {
-            long otherFilmId = userRating.getFilmId();
-            double otherRating = userRating.getRatingValue();
+    // Popular films until the model is ready, returned with the state they were served in
+    public ServedFilms getRecommendationsWithState(long userId, int count) {
+        log.info("Getting {} recommendations for user {}", count, userId);
+        if (count <= 0) {
+            throw new UserValidationException("Error when getting recommendations",
+                "count must be positive");
+        }
+        RecommendationStatus.State state = status.getState();
+        if (state != RecommendationStatus.State.READY) {
+            return new ServedFilms(getPopularFilms(userId, count), state);
+        }
+        if (count > DEFAULT_COUNT) {
+            return new ServedFilms(computeRecommendations(userId, count, engine.predictor()),
+                state);
+        }
+        List<FilmDto> films = recommendationCache.get(userId,
+            id -> computeRecommendations(id, DEFAULT_COUNT, engine.predictor()));
+        return new ServedFilms(films.subList(0, Math.min(count, films.size())), state);
+    }
 
-            // Skip comparing a film to itself
-            if (filmId == otherFilmId) {
-                continue;
-            }
-            // Update for both directions
-            updateDiffAndFreqForPair(diff, freq, filmId, otherFilmId, ratingValue, otherRating);
-            updateDiffAndFreqForPair(diff, freq, otherFilmId, filmId, otherRating, ratingValue);
+    public List<FilmDto> getSimilarFilms(long filmId, int count) {
+        return getSimilarFilmsWithState(filmId, count).films();
+    }
+
+    // Nothing is similar until the model is ready, returned with the state it was served in
+    public ServedFilms getSimilarFilmsWithState(long filmId, int count) {
+        log.info("Getting {} films similar to film {}", count, filmId);
+        if (count <= 0) {
+            throw new FilmValidationException("Error when getting similar films",
+                "count must be positive");
+        }
+        if (filmCache.get(filmId, filmStorage::getFilmById).isEmpty()) {
+            log.warn("Getting similar films failed: film with ID {} not found", filmId);
+            throw new FilmNotFoundException("Error when getting similar films", filmId);
+        }
+        RecommendationStatus.State state = status.getState();
+        if (state != RecommendationStatus.State.READY) {
+            return new ServedFilms(List.of(), state);
         }
+        return new ServedFilms(filmCache.getAll(engine.similarFilms(filmId, count),
+                filmStorage::getFilmsByIds).stream().map(filmMapper::mapToFilmDto).toList(),
+            state);
+    }
 
-        // Save the updated matrices
-        diffFreqStorage.saveDiff(diff);
-        diffFreqStorage.saveFreq(freq);
-        log.info("Diff and freq matrices updated for user {} and film {}", userId, filmId);
+    // Served while the model is not ready, popular films the user has not rated yet
+    private List<FilmDto> getPopularFilms(long userId, int count) {
+        Set<Long> rated = likesStorage.getRatingsByUser(userId).stream().map(Rating::getFilmId)
+            .collect(Collectors.toSet());
+        return likesStorage.getPopularFilms(count + rated.size(), null, null).stream()
+            .filter(film -> !rated.contains(film.getFilm().getId())).limit(count)
+            .map(filmMapper::mapToFilmDto).toList();
     }
 
-    public List<FilmDto> getRecommendations(long userId) {
-        log.info("Getting recommendations for user {}", userId);
-        // Load diff and freq
-        Map<Long, Map<Long, Double>> diff = diffFreqStorage.loadDiff();
-
-        // Load user ratings
-        List<Rating> userRatings = likesStorage.getRatingsByUser(userId);
-        Map<Long, Double> userRatingMap = userRatings.stream()
-            .collect(Collectors.toMap(Rating::getFilmId, Rating::getRatingValue));
-
-        // Calculate predicted ratings
-        Map<Long, Double> predictedRatings = new HashMap<>();
-        for (Map.Entry<Long, Double> entry : userRatingMap.entrySet()) {
-            long filmId = entry.getKey();
-            double rating = entry.getValue();
-            Map<Long, Double> filmDiff = diff.get(filmId);
-            if (filmDiff != null) {
-                int[] predictionsCount = {0};
-                for (Map.Entry<Long, Double> diffEntry : filmDiff.entrySet()) {
-                    long otherFilmId = diffEntry.getKey();
-                    double diffValue = diffEntry.getValue();
-                    double otherFilmRating = rating + diffValue;
-                    // Skip already rated films
-                    if (!userRatingMap.containsKey(otherFilmId)) {
-                        predictedRatings.compute(otherFilmId, (k, v) -> {
-                            if (v == null) {
-                                predictionsCount[0]++;
-                                return otherFilmRating;
-                            } else {
-                                return (v * predictionsCount[0] + otherFilmRating)
-                                    / (++predictionsCount[0]);
-                            }
-                        });
-                    }
-                }
-            }
+    private void refreshCachedRecommendations() {
+        if (!recommendationCache.isEnabled() || recommendationCache.size() == 0) {
+            return;
         }
+        RecommendationEngine.Predictor predictor = engine.predictor();
+        recommendationCache.refreshAll(userId -> computeRecommendations(userId, DEFAULT_COUNT,
+            predictor));
+        log.info("Refreshed cached recommendations of {} users", recommendationCache.size());
+    }
 
-        // Recommend top films
-        List<FilmWithRating> recommendedFilms = predictedRatings.entrySet().stream()
-            .sorted(Map.Entry.<Long, Double>comparingByValue().reversed()).map(Map.Entry::getKey)
-            .map(filmStorage::getFilmById).flatMap(Optional::stream)
-            .filter(f -> f.getAvgRating() > 5.0).limit(10)
-            .collect(Collectors.toList());
+    private List<FilmDto> computeRecommendations(long userId, int count,
+        RecommendationEngine.Predictor predictor) {
+        // Only the best candidates are kept while predicting, low rated films never get in
+        FilmRatingTotals ratings = filmRatings;
+        TopScores top = new TopScores(count);
+        predictor.predict(userId, (filmId, rating) -> {
+            if (ratings.average(filmId) > MIN_AVERAGE_RATING) {
+                top.offer(filmId, rating);
+            }
+        });
 
+        List<FilmWithRating> recommendedFilms = filmCache.getAll(
+            Arrays.stream(top.ranked()).boxed().toList(), filmStorage::getFilmsByIds);
         log.info("Recommended films: {}", recommendedFilms);
         return recommendedFilms.stream().map(filmMapper::mapToFilmDto).toList();
     }
+
+    // Films together with the state of the model when they were chosen, anything but READY
+    // means the model was not used
+    public record ServedFilms(List<FilmDto> films, RecommendationStatus.State state) {
+    }
 }
@@ -0,0 +1,92 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks whether the recommendation model has been built since startup and how far the build
+ * has got. Until it is ready, recommendations fall back to popular films.
+ */
+@Component
+public class RecommendationStatus {
+
+    public enum State {
+        WARMING,
+        READY,
+        FAILED
+    }
+
+    private final AtomicLong ratingsScanned = new AtomicLong();
+    private volatile State state = State.WARMING;
+    private volatile String phase = "waiting";
+    private volatile long ratingsToScan;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    void started() {
+        startedAt = Instant.now();
+    }
+
+    void phase(String phase) {
+        this.phase = phase;
+    }
+
+    void ratingsToScan(long ratings) {
+        ratingsToScan = ratings;
+        ratingsScanned.set(0);
+    }
+
+    void ratingsScanned(int ratings) {
+        ratingsScanned.addAndGet(ratings);
+    }
+
+    void ready() {
+        phase = "done";
+        finishedAt = Instant.now();
+        state = State.READY;
+    }
+
+    void failed(Throwable cause) {
+        error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        finishedAt = Instant.now();
+        state = State.FAILED;
+    }
+
+    // State and progress of the startup build as shown on the readiness endpoint
+    public Map<String, Object> details() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("state", state);
+        details.put("phase", phase);
+        long toScan = ratingsToScan;
+        long scanned = ratingsScanned.get();
+        details.put("ratingsScanned", scanned);
+        details.put("ratingsToScan", toScan);
+        if (toScan > 0) {
+            details.put("scanProgress", String.format("%.1f%%", 100.0 * scanned / toScan));
+        }
+        Instant started = startedAt;
+        if (started != null) {
+            Instant finished = finishedAt;
+            details.put("startedAt", started);
+            details.put("elapsed", Duration.between(started,
+                finished == null ? Instant.now() : finished));
+        }
+        if (error != null) {
+            details.put("error", error);
+        }
+        return details;
+    }
+}
@@ -0,0 +1,288 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+
+/**
+ * Applies rating changes to the recommendation model off the request path.
+ *
+ * <p>Changes are collected per user, and only a user's first pending change puts the user into
+ * the bounded queue, so a burst from one user ends up in a single update. The worker waits for
+ * the coalescing window of the oldest queued user, then takes up to a batch of users and writes
+ * their combined update in one go. When the queue is full the rating request applies its change
+ * itself instead of waiting.
+ *
+ * <p>Rating writes and the worker reading a user's ratings are serialized per user, so the
+ * ratings read always include exactly the pending changes and an engine can reconstruct the
+ * state before them by undoing those.
+ *
+ * <p>The pipeline starts paused: until the model is first built, changes are only collected.
+ * The build takes its {@link #cut} of the ratings with no rating write in progress, which drops
+ * the changes the build will see anyway, and {@link #resume()} applies the rest. A later rebuild
+ * {@link #pause() pauses} it the same way.
+ */
+@Component
+@Slf4j
+public class RecommendationUpdatePipeline {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final long IDLE_CHECK_MILLIS = 10;
+
+    private final RecommendationService recommendationService;
+    private final RecommendationProperties.Updates settings;
+    private final Object[] userLocks = new Object[LOCK_STRIPES];
+    private final Map<Long, PendingChanges> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Long> queue;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter events;
+    private final Counter batches;
+    private final Counter callerRuns;
+    private final Counter failures;
+    private final Timer lag;
+    private volatile boolean running;
+    private volatile boolean paused = true;
+    private Thread worker;
+
+    public RecommendationUpdatePipeline(RecommendationService recommendationService,
+        RecommendationProperties properties, MeterRegistry registry) {
+        this.recommendationService = recommendationService;
+        settings = properties.getUpdates();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new Object();
+        }
+        queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        events = Counter.builder("recommendation.updates.events")
+            .description("Rating changes recorded").register(registry);
+        batches = Counter.builder("recommendation.updates.batches")
+            .description("Matrix updates written").register(registry);
+        callerRuns = Counter.builder("recommendation.updates.caller.runs")
+            .description("Changes applied on the request thread because the queue was full")
+            .register(registry);
+        failures = Counter.builder("recommendation.updates.failures")
+            .description("Batches that could not be applied").register(registry);
+        lag = Timer.builder("recommendation.updates.lag")
+            .description("Time from a user's first pending change to the model update")
+            .register(registry);
+        Gauge.builder("recommendation.updates.pending", pending, Map::size)
+            .description("Users with changes not yet applied").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!settings.isAsync()) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "recommendation-updates");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        worker.interrupt();
+        worker.join();
+        worker = null;
+        queue.clear();
+        // Apply whatever is left so no change is lost on shutdown. Changes collected while
+        // paused are left to the next startup, whose build reads the ratings table anyway
+        if (!paused) {
+            apply(new ArrayList<>(pending.keySet()));
+        }
+    }
+
+    // Runs the read with no rating write in progress and drops the changes collected so far,
+    // which the read covers. The build must keep reading the ratings as of this point, or a
+    // later change would reach the model twice or not at all. Only meant for a paused pipeline
+    public <T> T cut(Supplier<T> read) {
+        return withAllUserLocks(0, () -> {
+            T value = read.get();
+            int dropped = pending.size();
+            pending.clear();
+            log.info("Rating changes cut for the model build, {} users' changes already covered",
+                dropped);
+            return value;
+        });
+    }
+
+    // Stops applying changes until resume(), so a rebuild can take its cut. Returns once the
+    // updates already being written are done, later changes are only collected
+    public void pause() throws InterruptedException {
+        withAllUserLocks(0, () -> paused = true);
+        while (inFlight.get() > 0) {
+            Thread.sleep(IDLE_CHECK_MILLIS);
+        }
+    }
+
+    // Applies the changes collected while paused and lets new ones through
+    public void resume() {
+        withAllUserLocks(0, () -> paused = false);
+        List<Long> userIds = new ArrayList<>(pending.keySet());
+        log.info("Rating updates resumed, applying changes of {} users collected meanwhile",
+            userIds.size());
+        for (int from = 0; from < userIds.size(); from += settings.getMaxBatchUsers()) {
+            apply(userIds.subList(from, Math.min(from + settings.getMaxBatchUsers(),
+                userIds.size())));
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    // Runs a rating write and applies the change it reports, if any, now or in the background
+    public void record(long userId, Supplier<Optional<RatingChange>> write) {
+        boolean queued;
+        synchronized (lockFor(userId)) {
+            Optional<RatingChange> change = write.get();
+            if (change.isEmpty()) {
+                return;
+            }
+            events.increment();
+            PendingChanges changes = pending.get(userId);
+            if (changes != null) {
+                changes.list.add(change.get());
+                return;
+            }
+            changes = new PendingChanges(System.nanoTime());
+            changes.list.add(change.get());
+            pending.put(userId, changes);
+            if (paused) {
+                return;
+            }
+            queued = running && queue.offer(userId);
+        }
+        if (!queued) {
+            if (running) {
+                callerRuns.increment();
+            }
+            apply(List.of(userId));
+        }
+    }
+
+    // Waits until every recorded change has been applied, returns false on timeout
+    public boolean awaitIdle(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!pending.isEmpty() || inFlight.get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(IDLE_CHECK_MILLIS);
+        }
+        return true;
+    }
+
+    private void run() {
+        List<Long> batch = new ArrayList<>();
+        while (running) {
+            try {
+                long userId = queue.take();
+                awaitCoalesceWindow(userId);
+                batch.add(userId);
+                queue.drainTo(batch, settings.getMaxBatchUsers() - 1);
+                apply(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failures.increment();
+                log.error("Failed to apply rating changes of users {}, the recommendation model "
+                    + "is off until the next rebuild", batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void awaitCoalesceWindow(long userId) throws InterruptedException {
+        PendingChanges changes = pending.get(userId);
+        if (changes == null) {
+            return;
+        }
+        long waitNanos = changes.since + settings.getCoalesceWindow().toNanos() - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void apply(List<Long> userIds) {
+        inFlight.incrementAndGet();
+        try {
+            RecommendationEngine.RatingUpdate update = recommendationService.newRatingUpdate();
+            List<Long> updatedUsers = new ArrayList<>(userIds.size());
+            List<Long> since = new ArrayList<>(userIds.size());
+            for (long userId : userIds) {
+                synchronized (lockFor(userId)) {
+                    // Left to resume() while a rebuild is under way
+                    if (paused) {
+                        continue;
+                    }
+                    PendingChanges changes = pending.remove(userId);
+                    // Already applied by a request thread or an earlier batch
+                    if (changes == null) {
+                        continue;
+                    }
+                    update.add(userId, changes.list);
+                    since.add(changes.since);
+                }
+                updatedUsers.add(userId);
+            }
+            if (updatedUsers.isEmpty()) {
+                return;
+            }
+            update.apply();
+            batches.increment();
+            long now = System.nanoTime();
+            since.forEach(start -> lag.record(now - start, TimeUnit.NANOSECONDS));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // Holds every user lock while running the action, so no rating write is half done
+    private <T> T withAllUserLocks(int stripe, Supplier<T> action) {
+        if (stripe == LOCK_STRIPES) {
+            return action.get();
+        }
+        synchronized (userLocks[stripe]) {
+            return withAllUserLocks(stripe + 1, action);
+        }
+    }
+
+    private Object lockFor(long userId) {
+        return userLocks[Math.floorMod(Long.hashCode(userId), LOCK_STRIPES)];
+    }
+
+    private static final class PendingChanges {
+
+        private final long since;
+        private final List<RatingChange> list = new ArrayList<>();
+
+        private PendingChanges(long since) {
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.recommendation.NeighbourLists;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.recommendation.RebuildCheckpoint;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrixBuilder;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOnePredictor;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneSnapshot;
+import ru.yandex.practicum.filmorate.recommendation.StripedSlopeOneMatrix;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.RebuildStorage;
+
+/**
+ * Weighted slope-one over the co-rated film pairs kept in {@code item_diff} / {@code item_freq}.
+ *
+ * <p>Memory and storage grow with the number of co-rated pairs, which is close to quadratic in
+ * the catalogue for active raters.
+ *
+ * <p>Predictions read a copy of the saved matrix kept in memory, which rating changes update
+ * next to the tables, so changes of many users apply at once without reloading the matrix per
+ * prediction. Updates lock the stripes of the films they touch, in ascending order, for both
+ * writes, so updates of unrelated films run in parallel while updates sharing a film reach the
+ * tables and the memory in the same order. Without the in-memory copy each prediction loads the
+ * neighbourhoods of the films the user rated, so its I/O grows with the user's history rather
+ * than the catalogue.
+ *
+ * <p>Similar films are the most co-rated neighbours of a film. Their lists are ranked from the
+ * matrix whenever it is saved and re-read for the films a rating change touched.
+ */
+@Component
+@ConditionalOnProperty(prefix = "filmorate.recommendations", name = "engine",
+    havingValue = RecommendationProperties.SLOPE_ONE, matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class SlopeOneEngine implements RecommendationEngine {
+
+    private static final int CHUNK_SHARDS_PER_THREAD = 4;
+    private static final int MATRIX_STRIPES = 64;
+    private static final int UPDATE_STRIPES = 64;
+
+    private final LikesStorage likesStorage;
+    private final DiffFreqStorage diffFreqStorage;
+    private final RebuildStorage rebuildStorage;
+    private final RecommendationProperties properties;
+    private volatile NeighbourLists neighbourLists;
+    // The saved matrix kept in memory for predictions, rating changes update both
+    private volatile StripedSlopeOneMatrix sharedMatrix;
+    // Held by film while a rating update writes the rows of the film. Concurrent MERGEs of a new
+    // pair would race on its insert, and a trim has to see the rows it trims in both places
+    private final ReentrantLock[] updateLocks = newUpdateLocks();
+
+    // Restores the matrix from the snapshot file if it is usable, otherwise rebuilds it
+    @Override
+    public boolean initialize(BuildProgress progress) {
+        progress.phase("migrating layout");
+        diffFreqStorage.migrateLayout();
+        if (properties.getSnapshot().isEnabled() && restoreFromSnapshot(progress)) {
+            return true;
+        }
+        rebuild(progress);
+        return false;
+    }
+
+    @Override
+    public void rebuild(BuildProgress progress) {
+        log.info("Calculating diff and freq matrices");
+        progress.phase("scanning ratings");
+        boolean chunked = properties.getRebuild().isChunked();
+        // The cut and every read of the ratings after it see the table as of the cut, so a
+        // change recorded after it reaches the matrix only when the pipeline applies it, even if
+        // it deletes a row the scan has not reached yet or carries the stamp of the cut
+        Scan scan = likesStorage.readConsistent(() -> {
+            // Only ratings up to this stamp are scanned, so a snapshot knows exactly what it
+            // covers
+            Timestamp ratedUpTo = progress.cut(() -> likesStorage.getLastRatedAt().orElse(null));
+            return ratedUpTo != null && chunked ? scanInChunks(ratedUpTo, progress)
+                : scanAll(ratedUpTo, progress);
+        });
+
+        // The snapshot keeps the unpruned matrix so later replays stay exact
+        progress.phase("saving matrix");
+        writeSnapshot(scan.matrix(), scan.ratedUpTo(), scan.ratings());
+        saveMatrix(scan.matrix());
+        if (chunked && scan.ratedUpTo() != null) {
+            rebuildStorage.finish();
+        }
+        log.info("Diff and freq matrices calculated and saved");
+    }
+
+    private Scan scanAll(Timestamp ratedUpTo, BuildProgress progress) {
+        if (ratedUpTo != null) {
+            progress.ratingsToScan(likesStorage.countRatingsRatedUpTo(ratedUpTo));
+        }
+        int parallelism = properties.getRebuild().effectiveParallelism();
+        long start = System.nanoTime();
+        SlopeOneMatrix matrix;
+        int users;
+        long ratings;
+        // Ratings are streamed user by user, so only one user's history is buffered at a time
+        try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(parallelism,
+            isHalfMatrix())) {
+            scanRatings(ratedUpTo, builder, progress);
+            matrix = builder.build();
+            users = builder.userCount();
+            ratings = builder.ratingCount();
+        }
+        long elapsed = System.nanoTime() - start;
+        log.info("Diff and freq matrices built from {} users with parallelism {} in {} ms: {}",
+            users, parallelism, elapsed / 1_000_000, matrix.footprint());
+        if (parallelism > 1 && properties.getRebuild().isCompareWithSequential()) {
+            compareWithSequential(ratedUpTo, matrix, elapsed);
+        }
+        return new Scan(matrix, ratedUpTo, ratings);
+    }
+
+    // Merges the pairs of a bounded number of users at a time into the staged matrix, so only
+    // one chunk is aggregated in memory. A checkpoint left by an interrupted rebuild is resumed
+    // if the ratings it covers are unchanged, ratings since are replayed on top
+    private Scan scanInChunks(Timestamp ratedUpTo, BuildProgress progress) {
+        RebuildCheckpoint checkpoint = resumableCheckpoint(ratedUpTo).orElse(null);
+        if (checkpoint == null) {
+            checkpoint = RebuildCheckpoint.start(ratedUpTo,
+                likesStorage.countRatingsRatedUpTo(ratedUpTo), isHalfMatrix());
+            rebuildStorage.start(checkpoint);
+        } else {
+            log.info("Resuming rebuild of ratings up to {} after user {}, {} of {} ratings "
+                    + "already merged", checkpoint.ratedUpTo(), checkpoint.lastUserId(),
+                checkpoint.ratingsScanned(), checkpoint.ratingCount());
+        }
+        progress.ratingsToScan(checkpoint.ratingCount());
+        progress.ratingsScanned((int) checkpoint.ratingsScanned());
+
+        long start = System.nanoTime();
+        int chunkUsers = properties.getRebuild().getChunkUsers();
+        int parallelism = properties.getRebuild().effectiveParallelism();
+        int chunks = 0;
+        // One pool for all chunks, each chunk gets a builder of its own
+        try (ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null) {
+            Optional<Long> toUserId;
+            while ((toUserId = likesStorage.findRaterIdRangeEnd(checkpoint.ratedUpTo(),
+                checkpoint.lastUserId(), chunkUsers)).isPresent()) {
+                SlopeOneMatrix chunk;
+                long ratings;
+                try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(pool,
+                    parallelism * CHUNK_SHARDS_PER_THREAD, checkpoint.half())) {
+                    likesStorage.forEachUserRatings(checkpoint.ratedUpTo(),
+                        checkpoint.lastUserId(), toUserId.get(), user -> {
+                            builder.accept(user);
+                            progress.ratingsScanned(user.size());
+                        });
+                    chunk = builder.build();
+                    ratings = builder.ratingCount();
+                }
+                checkpoint = checkpoint.next(toUserId.get(), ratings);
+                rebuildStorage.saveChunk(chunk, checkpoint);
+                chunks++;
+                log.debug("Rebuild chunk up to user {} merged: {} pairs, {} of {} ratings",
+                    checkpoint.lastUserId(), chunk.size(), checkpoint.ratingsScanned(),
+                    checkpoint.ratingCount());
+            }
+        }
+
+        SlopeOneMatrix matrix = rebuildStorage.loadMatrix(checkpoint.half());
+        if (checkpoint.half() != isHalfMatrix()) {
+            matrix = isHalfMatrix() ? matrix.toHalf() : matrix.toFull();
+        }
+        long ratings = checkpoint.ratingCount();
+        if (ratedUpTo.after(checkpoint.ratedUpTo())) {
+            List<Rating> newRatings = likesStorage.getRatingsRatedBetween(checkpoint.ratedUpTo(),
+                ratedUpTo);
+            int users = replayRatings(matrix, newRatings, checkpoint.ratedUpTo(), ratedUpTo);
+            ratings += newRatings.size();
+            log.info("{} ratings of {} users since the checkpoint replayed", newRatings.size(),
+                users);
+        }
+        log.info("Diff and freq matrices built in {} chunks of up to {} users in {} ms: {}",
+            chunks, chunkUsers, (System.nanoTime() - start) / 1_000_000, matrix.footprint());
+        return new Scan(matrix, ratedUpTo, ratings);
+    }
+
+    // The checkpoint of an interrupted rebuild, if the ratings it covers have not changed since
+    private Optional<RebuildCheckpoint> resumableCheckpoint(Timestamp ratedUpTo) {
+        return rebuildStorage.getCheckpoint().filter(checkpoint -> {
+            boolean unchanged = !checkpoint.ratedUpTo().after(ratedUpTo)
+                && likesStorage.countRatingsRatedUpTo(checkpoint.ratedUpTo())
+                == checkpoint.ratingCount();
+            if (!unchanged) {
+                log.info("Rebuild checkpoint of ratings up to {} is stale, starting over",
+                    checkpoint.ratedUpTo());
+            }
+            return unchanged;
+        });
+    }
+
+    private void scanRatings(Timestamp ratedUpTo, SlopeOneMatrixBuilder builder,
+        BuildProgress progress) {
+        // No stamp means there were no ratings at all
+        if (ratedUpTo != null) {
+            likesStorage.forEachUserRatings(ratedUpTo, user -> {
+                builder.accept(user);
+                progress.ratingsScanned(user.size());
+            });
+        }
+    }
+
+    private void compareWithSequential(Timestamp ratedUpTo, SlopeOneMatrix parallel,
+        long parallelNanos) {
+        long start = System.nanoTime();
+        SlopeOneMatrix sequential;
+        try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(1, isHalfMatrix())) {
+            scanRatings(ratedUpTo, builder, BuildProgress.NONE);
+            sequential = builder.build();
+        }
+        long sequentialNanos = System.nanoTime() - start;
+        boolean identical = sequential.contentEquals(parallel);
+        log.info("Sequential rebuild took {} ms, parallel speedup {}x, results identical: {}",
+            sequentialNanos / 1_000_000,
+            String.format("%.2f", (double) sequentialNanos / Math.max(parallelNanos, 1)),
+            identical);
+        if (!identical) {
+            log.warn("Parallel and sequential diff and freq matrices differ");
+        }
+    }
+
+    private boolean restoreFromSnapshot(BuildProgress progress) {
+        progress.phase("restoring snapshot");
+        Path path = Path.of(properties.getSnapshot().getPath());
+        if (!Files.exists(path)) {
+            log.info("No recommendation snapshot found at {}", path);
+            return false;
+        }
+        long start = System.nanoTime();
+        SlopeOneSnapshot snapshot;
+        try {
+            snapshot = SlopeOneSnapshot.readFrom(path);
+        } catch (IOException e) {
+            log.warn("Failed to read recommendation snapshot {}: {}", path, e.getMessage());
+            return false;
+        }
+
+        Timestamp ratedAfter = snapshot.ratedUpTo() == null ? null
+            : Timestamp.from(snapshot.ratedUpTo());
+        // Read as of the cut for the same reason as a rebuild
+        Optional<Scan> restored = likesStorage.readConsistent(() -> {
+            Timestamp ratedUpTo = progress.cut(() -> likesStorage.getLastRatedAt()
+                .orElse(ratedAfter));
+            List<Rating> newRatings = ratedUpTo == null ? List.of()
+                : likesStorage.getRatingsRatedBetween(ratedAfter, ratedUpTo);
+            // Deleted ratings, or ratings stamped before the snapshot but committed after it,
+            // cannot be replayed, and both show up as a count mismatch
+            long expected = snapshot.ratingCount() + newRatings.size();
+            long actual = ratedUpTo == null ? 0 : likesStorage.countRatingsRatedUpTo(ratedUpTo);
+            if (expected != actual) {
+                log.info("Recommendation snapshot is stale: {} ratings expected, {} found",
+                    expected, actual);
+                return Optional.empty();
+            }
+
+            progress.phase("replaying ratings");
+            SlopeOneMatrix matrix = isHalfMatrix() ? snapshot.matrix().toHalf()
+                : snapshot.matrix().toFull();
+            int users = replayRatings(matrix, newRatings, ratedAfter, ratedUpTo);
+            log.info("Diff and freq matrices restored from snapshot in {} ms, {} new ratings of "
+                    + "{} users replayed: {}", (System.nanoTime() - start) / 1_000_000,
+                newRatings.size(), users, matrix.footprint());
+            return Optional.of(new Scan(matrix, ratedUpTo, actual));
+        });
+        if (restored.isEmpty()) {
+            return false;
+        }
+
+        progress.phase("saving matrix");
+        Scan scan = restored.get();
+        // Any rating replayed on top of the file makes it cover less than the matrix
+        if (scan.ratings() != snapshot.ratingCount()) {
+            writeSnapshot(scan.matrix(), scan.ratedUpTo(), scan.ratings());
+        }
+        saveMatrix(scan.matrix());
+        return true;
+    }
+
+    // Prunes the matrix if configured and saves it to the database
+    private void saveMatrix(SlopeOneMatrix matrix) {
+        RecommendationProperties.Pruning pruning = properties.getPruning();
+        if (pruning.isEnabled()) {
+            int removed = matrix.retainTopNeighbours(pruning.getMaxNeighbours());
+            log.info("Pruned {} pairs to keep at most {} neighbours per film: {}", removed,
+                pruning.getMaxNeighbours(), matrix.footprint());
+        }
+        diffFreqStorage.saveMatrix(matrix);
+        RecommendationProperties.Storage storage = properties.getStorage();
+        sharedMatrix = storage.isInMemory()
+            ? StripedSlopeOneMatrix.of(matrix, MATRIX_STRIPES, storage.isQuantized()) : null;
+        if (sharedMatrix != null && sharedMatrix.isQuantized()) {
+            log.info("In-memory matrix quantized to ~{} MiB",
+                String.format("%.1f", sharedMatrix.bytes() / (1024.0 * 1024.0)));
+        }
+        neighbourLists = NeighbourLists.byFrequency(matrix,
+            properties.getSimilar().getMaxNeighbours());
+    }
+
+    // Adds the pairs each new rating forms with the user's older ratings and with the user's
+    // other new ratings, which is what a full rebuild would have added on top of the snapshot
+    private int replayRatings(SlopeOneMatrix matrix, List<Rating> newRatings,
+        Timestamp ratedAfter, Timestamp ratedUpTo) {
+        Set<Long> userIds = newRatings.stream().map(Rating::getUserId)
+            .collect(Collectors.toCollection(TreeSet::new));
+        for (long userId : userIds) {
+            List<Rating> fresh = new ArrayList<>();
+            List<Rating> old = new ArrayList<>();
+            for (Rating rating : likesStorage.getRatingsByUser(userId)) {
+                Timestamp ratedAt = rating.getRatedAt();
+                if (ratedAt.after(ratedUpTo)) {
+                    continue;
+                }
+                if (ratedAfter == null || ratedAt.after(ratedAfter)) {
+                    fresh.add(rating);
+                } else {
+                    old.add(rating);
+                }
+            }
+            for (int i = 0; i < fresh.size(); i++) {
+                for (Rating other : old) {
+                    addPair(matrix, fresh.get(i), other);
+                }
+                for (int j = i + 1; j < fresh.size(); j++) {
+                    addPair(matrix, fresh.get(i), fresh.get(j));
+                }
+            }
+        }
+        return userIds.size();
+    }
+
+    private void addPair(SlopeOneMatrix matrix, Rating rating1, Rating rating2) {
+        SlopeOneMatrixBuilder.addPair(matrix, rating1.getFilmId(), rating1.getRatingValue(),
+            rating2.getFilmId(), rating2.getRatingValue(), 1);
+    }
+
+    private boolean isHalfMatrix() {
+        return properties.getStorage().isHalfMatrix();
+    }
+
+    private void writeSnapshot(SlopeOneMatrix matrix, Timestamp ratedUpTo, long ratingCount) {
+        if (!properties.getSnapshot().isEnabled()) {
+            return;
+        }
+        Path path = Path.of(properties.getSnapshot().getPath());
+        Instant stamp = ratedUpTo == null ? null : ratedUpTo.toInstant();
+        try {
+            new SlopeOneSnapshot(matrix, stamp, ratingCount).writeTo(path);
+            log.info("Recommendation snapshot written to {}", path);
+        } catch (IOException e) {
+            log.warn("Failed to write recommendation snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public Predictor predictor() {
+        if (!properties.getStorage().isInMemory()) {
+            return (userId, consumer) -> {
+                SortedMap<Long, Double> userRatings = getSortedRatings(userId);
+                SlopeOneMatrix neighbourhoods = diffFreqStorage.loadNeighbourhoods(
+                    userRatings.keySet());
+                SlopeOnePredictor.predict(neighbourhoods, userRatings).forEach(consumer::accept);
+            };
+        }
+        StripedSlopeOneMatrix matrix = sharedMatrix;
+        if (matrix == null) {
+            return (userId, consumer) -> {
+            };
+        }
+        return (userId, consumer) -> {
+            // Averages are only final once every rated film was visited, so they are collected
+            // first
+            SlopeOnePredictor.predict(matrix, getSortedRatings(userId)).forEach(consumer::accept);
+        };
+    }
+
+    // Ordered by film so predictions do not depend on hashing order
+    private SortedMap<Long, Double> getSortedRatings(long userId) {
+        return likesStorage.getRatingsByUser(userId).stream()
+            .collect(Collectors.toMap(Rating::getFilmId, Rating::getRatingValue, (a, b) -> b,
+                TreeMap::new));
+    }
+
+    @Override
+    public RatingUpdate newUpdate() {
+        SlopeOneMatrix delta = isHalfMatrix() ? SlopeOneMatrix.forHalfDeltas()
+            : SlopeOneMatrix.forDeltas();
+        List<Long> userIds = new ArrayList<>();
+        return new RatingUpdate() {
+            @Override
+            public void add(long userId, List<RatingChange> changes) {
+                accumulateRatingChanges(delta, userId, changes);
+                userIds.add(userId);
+            }
+
+            @Override
+            public void apply() {
+                applyRatingChanges(delta, userIds);
+            }
+        };
+    }
+
+    // Adds what the given changes did to the user's contribution to a delta matrix. The changes
+    // must be the latest of the user, in the order they were written, and already stored
+    private void accumulateRatingChanges(SlopeOneMatrix delta, long userId,
+        List<RatingChange> changes) {
+        Map<Long, Double> after = new HashMap<>();
+        for (Rating rating : likesStorage.getRatingsByUser(userId)) {
+            after.put(rating.getFilmId(), rating.getRatingValue());
+        }
+        // Undo the changes newest first to get the ratings the matrix currently reflects
+        Map<Long, Double> before = new HashMap<>(after);
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            RatingChange change = changes.get(i);
+            if (change.removed()) {
+                before.put(change.filmId(), change.ratingValue());
+            } else {
+                before.remove(change.filmId());
+            }
+        }
+        SlopeOneMatrixBuilder.accumulateChange(delta, before, after);
+    }
+
+    private void applyRatingChanges(SlopeOneMatrix changes, Collection<Long> userIds) {
+        log.info("Updating diff and freq matrices for users {}", userIds);
+        // Every film of these users may have gained a neighbour
+        Set<Long> touchedFilms = new TreeSet<>();
+        changes.forEach((filmId1, filmId2, diffDelta, freqDelta) -> {
+            touchedFilms.add(filmId1);
+            touchedFilms.add(filmId2);
+        });
+        int[] stripes = touchedFilms.stream().mapToInt(SlopeOneEngine::updateStripe).distinct()
+            .sorted().toArray();
+        for (int stripe : stripes) {
+            updateLocks[stripe].lock();
+        }
+        int pairs;
+        try {
+            pairs = applyLocked(changes, touchedFilms);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                updateLocks[stripes[i]].unlock();
+            }
+        }
+        log.info("Diff and freq matrices updated for users {}: {} pairs touched", userIds, pairs);
+    }
+
+    // Runs with the rows of the touched films locked, returns the number of pairs written
+    private int applyLocked(SlopeOneMatrix changes, Set<Long> touchedFilms) {
+        RecommendationProperties.Pruning pruning = properties.getPruning();
+        SlopeOneMatrix delta = pruning.isEnabled() ? withStoredPairsOnly(changes) : changes;
+        diffFreqStorage.applyDelta(delta);
+        StripedSlopeOneMatrix matrix = sharedMatrix;
+        if (matrix != null) {
+            matrix.apply(delta);
+        }
+        if (pruning.isEnabled()) {
+            diffFreqStorage.retainTopNeighbours(touchedFilms, pruning.getMaxNeighbours());
+            if (matrix != null) {
+                matrix.retainTopNeighbours(touchedFilms, pruning.getMaxNeighbours());
+            }
+        }
+        NeighbourLists lists = neighbourLists;
+        if (lists != null) {
+            // From the in-memory rows if there are some, otherwise from one chunked read
+            SlopeOneMatrix rows = matrix != null ? matrix.rows(touchedFilms)
+                : diffFreqStorage.loadNeighbourhoods(touchedFilms);
+            lists.replaceByFrequency(rows, touchedFilms);
+        }
+        return delta.size();
+    }
+
+    // A pair missing from a pruned matrix may have been pruned with a real co-rating count, which
+    // a delta cannot restore: inserting the delta alone would restart the count at the delta's.
+    // Such pairs are left out, so every stored pair keeps its exact count, and pairs that are
+    // new or could climb back into a top list only enter with the next full rebuild, which
+    // RecommendationInitializer runs every pruning.rebuild-interval
+    private SlopeOneMatrix withStoredPairsOnly(SlopeOneMatrix delta) {
+        Set<Long> filmIds = new TreeSet<>();
+        delta.forEach((filmId1, filmId2, diffDelta, freqDelta) -> filmIds.add(filmId1));
+        SlopeOneMatrix stored = diffFreqStorage.loadNeighbourhoods(filmIds);
+        SlopeOneMatrix kept = SlopeOneMatrix.forDeltas();
+        delta.forEach((filmId1, filmId2, diffDelta, freqDelta) -> {
+            if (stored.contains(filmId1, filmId2)) {
+                kept.add(filmId1, filmId2, diffDelta, freqDelta);
+            }
+        });
+        return kept;
+    }
+
+    private static int updateStripe(long filmId) {
+        return Math.floorMod(Long.hashCode(filmId), UPDATE_STRIPES);
+    }
+
+    private static ReentrantLock[] newUpdateLocks() {
+        ReentrantLock[] locks = new ReentrantLock[UPDATE_STRIPES];
+        for (int i = 0; i < UPDATE_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    @Override
+    public List<Long> similarFilms(long filmId, int count) {
+        NeighbourLists lists = neighbourLists;
+        return lists == null ? List.of() : lists.neighbours(filmId, count);
+    }
+
+    // A matrix read from the ratings up to the stamp, with the number of ratings it covers
+    private record Scan(SlopeOneMatrix matrix, Timestamp ratedUpTo, long ratings) {
+    }
+}
@@ -3,12 +3,15 @@ package ru.yandex.practicum.filmorate.service;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Validator;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.dto.CursorPage;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
 import ru.yandex.practicum.filmorate.dto.UserDto;
@@ -23,15 +26,45 @@ import ru.yandex.practicum.filmorate.repository.UserStorage;
 @Slf4j
 public class UserService {
 
+    private static final int STREAM_BATCH_SIZE = 500;
+
     private final UserStorage userStorage;
     private final Validator validator;
     private final UserMapper mapper;
+    private final FilmCache filmCache;
 
     public Collection<UserDto> getAllUsers() {
         return userStorage.getAllUsers().stream().map(mapper::mapToUserDto)
             .collect(Collectors.toList());
     }
 
+    public CursorPage<UserDto> getUsersPage(long afterId, int limit) {
+        if (limit < 1 || limit > CursorPage.MAX_LIMIT) {
+            log.warn("Getting users failed: page limit {} out of range", limit);
+            throw new UserValidationException("Error when getting users",
+                "limit must be between 1 and " + CursorPage.MAX_LIMIT);
+        }
+        log.debug("Getting up to {} users after ID {}", limit, afterId);
+        return CursorPage.of(userStorage.getUsersAfter(afterId, limit + 1), limit, User::getId)
+            .map(mapper::mapToUserDto);
+    }
+
+    // Walks the users in keyset batches, so only one batch is held at a time
+    public void streamAllUsers(Consumer<UserDto> consumer) {
+        log.debug("Streaming all users");
+        long afterId = 0;
+        List<User> batch;
+        do {
+            batch = userStorage.getUsersAfter(afterId, STREAM_BATCH_SIZE);
+            for (User user : batch) {
+                consumer.accept(mapper.mapToUserDto(user));
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.getLast().getId();
+            }
+        } while (batch.size() == STREAM_BATCH_SIZE);
+    }
+
     public UserDto getUserById(long userId) {
         Optional<User> user = userStorage.getUserById(userId);
         if (user.isEmpty()) {
@@ -85,6 +118,8 @@ public class UserService {
         }
         log.debug("Deleting user with ID {}", userId);
         userStorage.deleteUser(userId);
+        // The user's ratings are gone from the averages of every film they rated
+        filmCache.invalidateAll();
     }
 
 }
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.time.LocalDate;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,11 +15,14 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import ru.yandex.practicum.filmorate.dto.ErrorMessage;
 import ru.yandex.practicum.filmorate.model.Film;
@@ -211,4 +215,100 @@ public class FilmControllerTest {
             .andExpect(jsonPath("$.error").value("Error when deleting film"))
             .andExpect(jsonPath("$.description").value("Film with ID 999999 not found"));
     }
+
+    @Test
+    void shouldPageFilmsByCursor() throws Exception {
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            Film film = new Film();
+            film.setName(MOCK_FILM_NAME + " " + i);
+            film.setReleaseDate(MOCK_FILM_RELEASE_DATE);
+            film.setDescription(MOCK_FILM_DESCRIPTION);
+            film.setDuration(MOCK_FILM_DURATION);
+            MvcResult resultPost = mockMvc.perform(
+                    post(filmsURI).content(mapper.writeValueAsString(film))
+                        .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isCreated())
+                .andReturn();
+            ids[i] = mapper.readValue(resultPost.getResponse().getContentAsString(), Film.class)
+                .getId();
+        }
+
+        mockMvc.perform(get(filmsURI).param("after", String.valueOf(ids[0] - 1))
+                .param("limit", "2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(2))
+            .andExpect(jsonPath("$[0].id").value(ids[0]))
+            .andExpect(jsonPath("$[1].id").value(ids[1]))
+            .andExpect(header().string("X-Next-Cursor", String.valueOf(ids[1])))
+            .andExpect(header().string("Link", containsString("after=" + ids[1])));
+        mockMvc.perform(get(filmsURI).param("after", String.valueOf(ids[1]))
+                .param("limit", "2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].id").value(ids[2]))
+            .andExpect(header().doesNotExist("X-Next-Cursor"));
+        mockMvc.perform(get(filmsURI).param("unpaged", "true"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist("X-Next-Cursor"))
+            .andExpect(jsonPath("$[-1].id").value(ids[2]));
+    }
+
+    @Test
+    void shouldReturn400ForOutOfRangeLimit() throws Exception {
+        mockMvc.perform(get(filmsURI).param("limit", "0")).andExpect(status().isBadRequest())
+            .andExpect(jsonPath("$.error").value("Error when getting films"));
+        mockMvc.perform(get(filmsURI).param("limit", "1001")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldStreamAllFilmsAsNdjson() throws Exception {
+        Film film = new Film();
+        film.setName(MOCK_FILM_NAME);
+        film.setReleaseDate(MOCK_FILM_RELEASE_DATE);
+        film.setDescription(MOCK_FILM_DESCRIPTION);
+        film.setDuration(MOCK_FILM_DURATION);
+        mockMvc.perform(post(filmsURI).content(mapper.writeValueAsString(film))
+                .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isCreated());
+        List<Film> expected = mapper.readValue(mockMvc.perform(get(filmsURI)
+                    .param("unpaged", "true")).andReturn().getResponse().getContentAsString(),
+            new TypeReference<>() {
+            });
+
+        MvcResult started = mockMvc.perform(get(filmsURI).accept(MediaType.APPLICATION_NDJSON))
+            .andExpect(request().asyncStarted()).andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+            .andReturn();
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(expected.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(expected.get(i), mapper.readValue(lines[i], Film.class));
+        }
+    }
+
+    @Test
+    void shouldNotServeCachedFilmAfterUpdateOrDelete() throws Exception {
+        Film film = new Film();
+        film.setName(MOCK_FILM_NAME);
+        film.setReleaseDate(MOCK_FILM_RELEASE_DATE);
+        film.setDescription(MOCK_FILM_DESCRIPTION);
+        film.setDuration(MOCK_FILM_DURATION);
+        MvcResult resultPost = mockMvc.perform(post(filmsURI)
+                .content(mapper.writeValueAsString(film)).contentType(MediaType.APPLICATION_JSON))
+            .andExpect(status().isCreated()).andReturn();
+        Film createdFilm = mapper.readValue(resultPost.getResponse().getContentAsString(),
+            Film.class);
+        String filmURI = filmsURI + "/" + createdFilm.getId();
+        mockMvc.perform(get(filmURI)).andExpect(jsonPath("$.name").value(MOCK_FILM_NAME));
+
+        createdFilm.setName("new name");
+        mockMvc.perform(MockMvcRequestBuilders.put(filmsURI)
+                .content(mapper.writeValueAsString(createdFilm))
+                .contentType(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        mockMvc.perform(get(filmURI)).andExpect(jsonPath("$.name").value("new name"));
+
+        mockMvc.perform(delete(filmURI)).andExpect(status().isNoContent());
+        mockMvc.perform(get(filmURI)).andExpect(status().isNotFound());
+    }
 }
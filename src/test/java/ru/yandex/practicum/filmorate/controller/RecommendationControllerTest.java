@@ -1,6 +1,8 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -19,7 +21,11 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
 import ru.yandex.practicum.filmorate.dto.UserDto;
 import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.service.RecommendationCache;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
+import ru.yandex.practicum.filmorate.service.RecommendationUpdatePipeline;
 
+// Runs with the production setup: background startup and updates, cached recommendations
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
@@ -29,14 +35,25 @@ public class RecommendationControllerTest {
     private static final String RECOMMENDATIONS_URL = "/recommendations";
     private static final String FILMS_URL = "/films";
     private static final String LIKES_URL = "/like";
+    private static final String SIMILAR_URL = "/similar";
     private static final String DELETE_LIKES_QUERY = "DELETE FROM ratings";
     private static final String DELETE_FILMS_QUERY = "DELETE FROM films";
     private static final String DELETE_USERS_QUERY = "DELETE FROM users";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
     protected final JdbcTemplate jdbc;
     private final TestRestTemplate restTemplate;
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final RecommendationCache recommendationCache;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws InterruptedException {
+        // The model is built in the background after startup
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!recommendationService.isReady() || recommendationUpdates.isPaused()) {
+            assertThat(System.nanoTime() - deadline).isNegative();
+            Thread.sleep(10);
+        }
         jdbc.execute(DELETE_LIKES_QUERY);
         jdbc.execute(DELETE_FILMS_QUERY);
         jdbc.execute(DELETE_USERS_QUERY);
@@ -86,10 +103,37 @@ public class RecommendationControllerTest {
             FilmDto[].class);
     }
 
+    private ResponseEntity<FilmDto[]> getRecommendations(long userId, int count) {
+        return restTemplate.getForEntity(USERS_URL + "/" + userId + RECOMMENDATIONS_URL
+            + "?count=" + count, FilmDto[].class);
+    }
+
+    private ResponseEntity<FilmDto[]> getSimilarFilms(long filmId, int count) {
+        return restTemplate.getForEntity(FILMS_URL + "/" + filmId + SIMILAR_URL + "?count="
+            + count, FilmDto[].class);
+    }
+
     private void rateFilm(long userId, long filmId, int rating) {
         HttpEntity<Void> requestEntity = new HttpEntity<>(null);
         restTemplate.exchange(FILMS_URL + "/" + filmId + LIKES_URL + "/" + userId + "/" + rating,
             HttpMethod.PUT, requestEntity, Void.class);
+        awaitModelUpdated();
+    }
+
+    private void unrateFilm(long userId, long filmId) {
+        restTemplate.exchange(FILMS_URL + "/" + filmId + LIKES_URL + "/" + userId,
+            HttpMethod.DELETE, new HttpEntity<>(null), Void.class);
+        awaitModelUpdated();
+    }
+
+    // Rating changes reach the model in the background after the request has returned
+    private void awaitModelUpdated() {
+        try {
+            assertThat(recommendationUpdates.awaitIdle(TIMEOUT)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
     }
 
     @Test
@@ -132,6 +176,36 @@ public class RecommendationControllerTest {
         assertThat(recommendations[0].getId()).isEqualTo(film1.getId());
     }
 
+    @Test
+    void testUnratingRemovesContributionFromRecommendations() {
+        UserDto user1 = createUser(
+            createUserDto("user1@example.com", "user1login", "User 1", LocalDate.of(2000, 1, 1)))
+            .getBody();
+        UserDto user2 = createUser(
+            createUserDto("user2@example.com", "user2login", "User 2", LocalDate.of(2001, 2, 2)))
+            .getBody();
+        FilmDto film1 = createFilm(
+            createFilmDto("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120, 1,
+                "G")).getBody();
+        FilmDto film2 = createFilm(
+            createFilmDto("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150, 2,
+                "PG")).getBody();
+
+        rateFilm(user1.getId(), film1.getId(), 10);
+        rateFilm(user1.getId(), film2.getId(), 9);
+        rateFilm(user2.getId(), film2.getId(), 8);
+        assertThat(getRecommendations(user2.getId()).getBody()).hasSize(1);
+
+        unrateFilm(user1.getId(), film2.getId());
+        // Another user's change only reaches a cached list once it expires
+        assertThat(getRecommendations(user2.getId()).getBody()).hasSize(1);
+        recommendationCache.invalidate(user2.getId());
+
+        assertThat(getRecommendations(user2.getId()).getBody()).isEmpty();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM item_freq WHERE film_id1 = ?",
+            Integer.class, film1.getId())).isZero();
+    }
+
     @Test
     void testGetRecommendationsForUserWithNoRatedFilms() {
         // Create a user
@@ -309,4 +383,99 @@ public class RecommendationControllerTest {
         assertThat(recommendations).isNotNull();
         assertThat(recommendations.length).isEqualTo(0);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetSimilarFilmsFollowsRatings() {
+        UserDto user1 = createUser(
+            createUserDto("user1@example.com", "user1login", "User 1", LocalDate.of(2000, 1, 1)))
+            .getBody();
+        UserDto user2 = createUser(
+            createUserDto("user2@example.com", "user2login", "User 2", LocalDate.of(2001, 2, 2)))
+            .getBody();
+        UserDto user3 = createUser(
+            createUserDto("user3@example.com", "user3login", "User 3", LocalDate.of(2002, 3, 3)))
+            .getBody();
+        FilmDto film1 = createFilm(
+            createFilmDto("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120, 1,
+                "G")).getBody();
+        FilmDto film2 = createFilm(
+            createFilmDto("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150, 2,
+                "PG")).getBody();
+        FilmDto film3 = createFilm(
+            createFilmDto("Test Film 3", "Test Description 3", LocalDate.of(2002, 3, 3), 180, 3,
+                "PG-13")).getBody();
+
+        // No one has rated two films yet
+        ResponseEntity<FilmDto[]> similarEntity = getSimilarFilms(film1.getId(), 10);
+        assertThat(similarEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(similarEntity.getBody()).isEmpty();
+
+        rateFilm(user1.getId(), film1.getId(), 7);
+        rateFilm(user1.getId(), film2.getId(), 7);
+
+        assertThat(getSimilarFilms(film1.getId(), 10).getBody()).extracting(FilmDto::getId)
+            .containsExactly(film2.getId());
+
+        // Film 3 overtakes film 2 as the film most often rated together with film 1
+        rateFilm(user2.getId(), film1.getId(), 4);
+        rateFilm(user2.getId(), film3.getId(), 6);
+        rateFilm(user3.getId(), film3.getId(), 8);
+        rateFilm(user3.getId(), film1.getId(), 9);
+
+        assertThat(getSimilarFilms(film1.getId(), 10).getBody()).extracting(FilmDto::getId)
+            .containsExactly(film3.getId(), film2.getId());
+        assertThat(getSimilarFilms(film1.getId(), 1).getBody()).extracting(FilmDto::getId)
+            .containsExactly(film3.getId());
+        assertThat(getSimilarFilms(film2.getId(), 10).getBody()).extracting(FilmDto::getId)
+            .containsExactly(film1.getId());
+
+        unrateFilm(user1.getId(), film2.getId());
+
+        assertThat(getSimilarFilms(film1.getId(), 10).getBody()).extracting(FilmDto::getId)
+            .containsExactly(film3.getId());
+        assertThat(getSimilarFilms(film2.getId(), 10).getBody()).isEmpty();
+    }
+
+    @Test
+    void testGetSimilarFilmsRejectsUnknownFilmAndBadCount() {
+        FilmDto film = createFilm(
+            createFilmDto("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120, 1,
+                "G")).getBody();
+
+        assertThat(restTemplate.getForEntity(FILMS_URL + "/" + (film.getId() + 1) + SIMILAR_URL,
+            String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity(FILMS_URL + "/" + film.getId() + SIMILAR_URL
+            + "?count=0", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void testGetRecommendationsHonoursCount() {
+        UserDto user1 = createUser(
+            createUserDto("user1@example.com", "user1login", "User 1", LocalDate.of(2000, 1, 1)))
+            .getBody();
+        UserDto user2 = createUser(
+            createUserDto("user2@example.com", "user2login", "User 2", LocalDate.of(2001, 2, 2)))
+            .getBody();
+        List<FilmDto> films = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            films.add(createFilm(createFilmDto("Test Film " + i, "Test Description " + i,
+                LocalDate.of(2000, 1, i), 120, 1, "G")).getBody());
+        }
+        rateFilm(user1.getId(), films.get(0).getId(), 6);
+        rateFilm(user1.getId(), films.get(1).getId(), 9);
+        rateFilm(user1.getId(), films.get(2).getId(), 8);
+        rateFilm(user1.getId(), films.get(3).getId(), 7);
+        rateFilm(user2.getId(), films.get(0).getId(), 6);
+
+        FilmDto[] all = getRecommendations(user2.getId()).getBody();
+        assertThat(all).extracting(FilmDto::getId).containsExactlyInAnyOrder(
+            films.get(1).getId(), films.get(2).getId(), films.get(3).getId());
+        assertThat(getRecommendations(user2.getId(), 2).getBody()).extracting(FilmDto::getId)
+            .containsExactly(all[0].getId(), all[1].getId());
+        assertThat(getRecommendations(user2.getId(), 50).getBody()).extracting(FilmDto::getId)
+            .containsExactly(all[0].getId(), all[1].getId(), all[2].getId());
+        assertThat(restTemplate.getForEntity(USERS_URL + "/" + user2.getId()
+                + RECOMMENDATIONS_URL + "?count=0", String.class).getStatusCode())
+            .isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+}
@@ -14,11 +14,13 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import ru.yandex.practicum.filmorate.dto.ErrorMessage;
 import ru.yandex.practicum.filmorate.model.User;
@@ -238,4 +240,31 @@ public class UserControllerTest {
             .andExpect(jsonPath("$.error").value("Error when deleting user"))
             .andExpect(jsonPath("$.description").value("User with ID 999999 not found"));
     }
+
+    @Test
+    void shouldStreamAllUsersAsNdjson() throws Exception {
+        User user = new User();
+        user.setEmail(MOCK_USER_EMAIL);
+        user.setLogin(MOCK_USER_LOGIN);
+        user.setName(MOCK_USER_NAME);
+        user.setBirthday(MOCK_USER_BIRTHDAY);
+        mockMvc.perform(post(usersURI).content(mapper.writeValueAsString(user))
+            .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isCreated());
+        List<User> expected = mapper.readValue(mockMvc.perform(get(usersURI)
+                .param("unpaged", "true")).andReturn().getResponse().getContentAsString(),
+            new TypeReference<>() {
+            });
+
+        MvcResult started = mockMvc.perform(get(usersURI).accept(MediaType.APPLICATION_NDJSON))
+            .andExpect(request().asyncStarted()).andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+            .andReturn();
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(expected.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(expected.get(i), mapper.readValue(lines[i], User.class));
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Arrays;
+import java.util.Map;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+public class AdjacencyRowTest {
+
+    @Test
+    void shouldRoundTripThroughBlob() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(7, 3, 4.5, 3);
+        matrix.put(7, 8, -2.0, 1);
+        matrix.put(7, 5_000_000_000L, 0.25, 70_000);
+        AdjacencyRow row = AdjacencyRow.of(matrix, 7);
+
+        byte[] blob = row.encode();
+        StringBuilder decoded = new StringBuilder();
+        AdjacencyRow.decode(blob).forEach((neighbourId, averageDiff, freq) ->
+            decoded.append(neighbourId).append(':').append(averageDiff).append(':').append(freq)
+                .append(' '));
+
+        assertThat(decoded.toString()).isEqualTo("3:1.5:3 8:-2.0:1 5000000000:3.5714286E-6:70000 ");
+        // Count byte, then gap, float and count per neighbour
+        assertThat(blob).hasSize(1 + (1 + 4 + 1) + (1 + 4 + 1) + (5 + 4 + 3));
+    }
+
+    @Test
+    void shouldRejectTruncatedBlob() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(1, 2, 1.0, 1);
+        byte[] blob = AdjacencyRow.of(matrix, 1).encode();
+
+        assertThatThrownBy(() -> AdjacencyRow.decode(Arrays.copyOf(blob, blob.length - 1)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldMergeDeltaLikeTheRowTables() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(1, 2, 6.0, 2);
+        matrix.put(1, 3, 1.0, 1);
+        matrix.put(1, 4, 2.0, 2);
+        SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+        delta.add(1, 2, 3.0, 1);
+        delta.add(1, 3, -1.0, -1);
+        delta.add(1, 4, 2.0, 0);
+        delta.add(1, 5, -4.0, 2);
+        delta.add(1, 6, 1.0, -1);
+
+        AdjacencyRow row = AdjacencyRow.of(matrix, 1).withDelta(delta, 1);
+
+        SlopeOneMatrix expected = new SlopeOneMatrix();
+        expected.put(1, 2, 9.0, 3);
+        expected.put(1, 4, 4.0, 2);
+        expected.put(1, 5, -4.0, 2);
+        assertSameRow(row, AdjacencyRow.of(expected, 1));
+    }
+
+    @Test
+    void shouldKeepValuesNotSetByLegacyMaps() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(1, 2, 6.0, 2);
+
+        AdjacencyRow row = AdjacencyRow.of(matrix, 1).withDiffs(Map.of(3L, 0.5))
+            .withFreqs(Map.of(2L, 4, 4L, 1));
+
+        StringBuilder values = new StringBuilder();
+        row.forEach((neighbourId, averageDiff, freq) -> values.append(neighbourId).append(':')
+            .append(averageDiff).append(':').append(freq).append(' '));
+        assertThat(values.toString()).isEqualTo("2:3.0:4 3:0.5:0 4:NaN:1 ");
+    }
+
+    @Test
+    void shouldRankByFrequencyWithTiesToLowerId() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(1, 2, 1.0, 2);
+        matrix.put(1, 3, 1.0, 5);
+        matrix.put(1, 4, 1.0, 2);
+        matrix.put(1, 5, 1.0, 1);
+        AdjacencyRow row = AdjacencyRow.of(matrix, 1).withDiffs(Map.of(6L, 1.0));
+
+        assertThat(row.topNeighbours(10)).containsExactly(3L, 2L, 4L, 5L);
+        assertThat(row.topNeighbours(2)).containsExactly(3L, 2L);
+        StringBuilder kept = new StringBuilder();
+        row.retainTop(3).forEach((neighbourId, averageDiff, freq) -> kept.append(neighbourId));
+        assertThat(kept.toString()).isEqualTo("234");
+    }
+
+    private static void assertSameRow(AdjacencyRow actual, AdjacencyRow expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+        long[] ids = new long[expected.size()];
+        double[] diffs = new double[expected.size()];
+        int[] freqs = new int[expected.size()];
+        int[] idx = {0};
+        expected.forEach((neighbourId, averageDiff, freq) -> {
+            ids[idx[0]] = neighbourId;
+            diffs[idx[0]] = averageDiff;
+            freqs[idx[0]++] = freq;
+        });
+        idx[0] = 0;
+        actual.forEach((neighbourId, averageDiff, freq) -> {
+            assertThat(neighbourId).isEqualTo(ids[idx[0]]);
+            assertThat((double) averageDiff).isCloseTo(diffs[idx[0]], within(1e-6));
+            assertThat(freq).isEqualTo(freqs[idx[0]++]);
+        });
+    }
+}
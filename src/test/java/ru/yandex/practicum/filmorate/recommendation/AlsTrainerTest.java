@@ -0,0 +1,100 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+public class AlsTrainerTest {
+
+    private static final AlsTrainer.Settings SETTINGS = new AlsTrainer.Settings(4, 15, 0.01, 7);
+
+    @Test
+    void shouldFitLowRankRatings() {
+        List<UserRatings> users = lowRankUsers(new Random(1), 200, 80, 30);
+
+        FactorModel model = AlsTrainer.train(users, SETTINGS, 2);
+
+        assertThat(model.userCount()).isEqualTo(200);
+        assertThat(model.filmCount()).isEqualTo(80);
+        double squaredError = 0;
+        int count = 0;
+        for (UserRatings user : users) {
+            Map<Long, Double> predictions = model.predict(model.userVector(user.userId()),
+                filmId -> false);
+            for (int i = 0; i < user.size(); i++) {
+                double error = predictions.get(user.filmIds()[i]) - user.ratings()[i];
+                squaredError += error * error;
+                count++;
+            }
+        }
+        assertThat(Math.sqrt(squaredError / count)).isLessThan(0.3);
+    }
+
+    @Test
+    void shouldTrainSameModelForAnyParallelism() {
+        List<UserRatings> users = lowRankUsers(new Random(2), 700, 120, 25);
+
+        FactorModel sequential = AlsTrainer.train(users, SETTINGS, 1);
+        FactorModel parallel = AlsTrainer.train(users, SETTINGS, 4);
+
+        for (UserRatings user : users) {
+            float[] vector = sequential.userVector(user.userId());
+            assertThat(parallel.userVector(user.userId())).containsExactly(vector);
+            assertThat(parallel.predict(vector, filmId -> false))
+                .isEqualTo(sequential.predict(vector, filmId -> false));
+        }
+    }
+
+    @Test
+    void shouldFoldInUserCloseToTrainedVector() {
+        List<UserRatings> users = lowRankUsers(new Random(3), 300, 60, 30);
+        FactorModel model = AlsTrainer.train(users, SETTINGS, 1);
+        UserRatings user = users.get(17);
+
+        float[] folded = AlsTrainer.foldIn(model, user.filmIds(), user.ratings(), 0.01);
+
+        Map<Long, Double> expected = model.predict(model.userVector(user.userId()),
+            filmId -> false);
+        model.predict(folded, filmId -> false).forEach((filmId, rating) ->
+            assertThat(rating).isCloseTo(expected.get(filmId), within(0.2)));
+    }
+
+    @Test
+    void shouldSkipRatedAndUnknownFilms() {
+        List<UserRatings> users = lowRankUsers(new Random(4), 50, 20, 10);
+        FactorModel model = AlsTrainer.train(users, SETTINGS, 1);
+
+        float[] unknownOnly = AlsTrainer.foldIn(model, new long[]{1000}, new double[]{9}, 0.01);
+        Map<Long, Double> predictions = model.predict(unknownOnly, filmId -> filmId <= 5);
+
+        assertThat(unknownOnly).containsOnly(0f);
+        assertThat(predictions).hasSize(model.filmCount() - 5).doesNotContainKeys(1L, 5L);
+        predictions.values().forEach(rating ->
+            assertThat(rating).isCloseTo(model.mean(), within(1e-9)));
+    }
+
+    // Ratings generated from two hidden factors, so a rank-4 model can fit them closely
+    private static List<UserRatings> lowRankUsers(Random random, int users, int films,
+        int ratingsPerUser) {
+        double[][] filmFactors = new double[films + 1][2];
+        for (int film = 1; film <= films; film++) {
+            filmFactors[film] = new double[]{random.nextGaussian(), random.nextGaussian()};
+        }
+        List<UserRatings> result = new ArrayList<>();
+        for (long userId = 1; userId <= users; userId++) {
+            double[] userFactors = {random.nextGaussian(), random.nextGaussian()};
+            long[] filmIds = random.ints(1, films + 1).distinct().limit(ratingsPerUser)
+                .sorted().asLongStream().toArray();
+            double[] ratings = Arrays.stream(filmIds).mapToDouble(filmId ->
+                5.5 + userFactors[0] * filmFactors[(int) filmId][0]
+                    + userFactors[1] * filmFactors[(int) filmId][1]).toArray();
+            result.add(new UserRatings(userId, filmIds, ratings));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,105 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.List;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+public class NeighbourListsTest {
+
+    @Test
+    void shouldRankByFrequencyWithTiesToLowerId() {
+        SlopeOneMatrix matrix = symmetric(new SlopeOneMatrix(), new long[][]{
+            {1, 2, 2}, {1, 3, 5}, {1, 4, 2}, {1, 5, 1}, {2, 3, 4}});
+
+        NeighbourLists lists = NeighbourLists.byFrequency(matrix, 3);
+
+        assertThat(lists.filmCount()).isEqualTo(5);
+        assertThat(lists.neighbours(1, 10)).containsExactly(3L, 2L, 4L);
+        assertThat(lists.neighbours(1, 2)).containsExactly(3L, 2L);
+        assertThat(lists.neighbours(2, 10)).containsExactly(3L, 1L);
+        assertThat(lists.neighbours(5, 10)).containsExactly(1L);
+        assertThat(lists.neighbours(6, 10)).isEmpty();
+    }
+
+    @Test
+    void shouldRankHalfMatrixLikeFullOne() {
+        Random random = new Random(5);
+        SlopeOneMatrix full = new SlopeOneMatrix();
+        for (int i = 0; i < 400; i++) {
+            long filmId1 = 1 + random.nextInt(40);
+            long filmId2 = 1 + random.nextInt(40);
+            if (filmId1 != filmId2) {
+                int freq = 1 + random.nextInt(5);
+                full.add(filmId1, filmId2, 0.0, freq);
+                full.add(filmId2, filmId1, 0.0, freq);
+            }
+        }
+
+        NeighbourLists fromFull = NeighbourLists.byFrequency(full, 7);
+        NeighbourLists fromHalf = NeighbourLists.byFrequency(full.toHalf(), 7);
+
+        for (long filmId = 1; filmId <= 40; filmId++) {
+            assertThat(fromHalf.neighbours(filmId, 7))
+                .isEqualTo(fromFull.neighbours(filmId, 7))
+                .hasSize(Math.min(7, full.neighbourCount(filmId)));
+        }
+    }
+
+    @Test
+    void shouldReplaceSingleList() {
+        NeighbourLists lists = NeighbourLists.byFrequency(
+            symmetric(new SlopeOneMatrix(), new long[][]{{1, 2, 1}, {1, 3, 1}}), 2);
+
+        lists.replace(1, List.of(4L, 3L, 2L));
+        lists.replace(2, List.of());
+
+        assertThat(lists.neighbours(1, 10)).containsExactly(4L, 3L);
+        assertThat(lists.neighbours(2, 10)).isEmpty();
+        assertThat(lists.neighbours(3, 10)).containsExactly(1L);
+    }
+
+    @Test
+    void shouldReplaceListsOfGivenFilmsFromTheirRows() {
+        NeighbourLists lists = NeighbourLists.byFrequency(symmetric(new SlopeOneMatrix(),
+            new long[][]{{1, 2, 1}, {1, 3, 2}, {2, 3, 1}, {3, 4, 1}}), 2);
+        SlopeOneMatrix rows = new SlopeOneMatrix();
+        rows.add(1, 2, 0.0, 3);
+        rows.add(1, 3, 0.0, 2);
+        rows.add(1, 4, 0.0, 3);
+        rows.add(4, 1, 0.0, 3);
+        rows.add(2, 1, 0.0, 3);
+
+        lists.replaceByFrequency(rows, List.of(1L, 4L, 5L, 3L));
+
+        assertThat(lists.neighbours(1, 10)).containsExactly(2L, 4L);
+        assertThat(lists.neighbours(4, 10)).containsExactly(1L);
+        assertThat(lists.neighbours(3, 10)).isEmpty();
+        assertThat(lists.neighbours(5, 10)).isEmpty();
+        // Films not named keep their lists even if the rows hold them
+        assertThat(lists.neighbours(2, 10)).containsExactly(1L, 3L);
+    }
+
+    @Test
+    void shouldRankByCosineOfFilmVectors() {
+        FactorModel model = new FactorModel(2, 5.0, new long[0], new float[0],
+            new long[]{1, 2, 3, 4, 5},
+            new float[]{1, 0, 2, 0.2f, 0.5f, 0.5f, -1, 0, 0, 0});
+
+        NeighbourLists lists = NeighbourLists.byCosine(model, 10);
+
+        // Opposite and zero vectors are never similar
+        assertThat(lists.neighbours(1, 10)).containsExactly(2L, 3L);
+        assertThat(lists.neighbours(3, 10)).containsExactly(2L, 1L);
+        assertThat(lists.neighbours(4, 10)).isEmpty();
+        assertThat(lists.neighbours(5, 10)).isEmpty();
+    }
+
+    private static SlopeOneMatrix symmetric(SlopeOneMatrix matrix, long[][] pairs) {
+        for (long[] pair : pairs) {
+            matrix.add(pair[0], pair[1], 0.0, (int) pair[2]);
+            matrix.add(pair[1], pair[0], 0.0, (int) pair[2]);
+        }
+        return matrix;
+    }
+}
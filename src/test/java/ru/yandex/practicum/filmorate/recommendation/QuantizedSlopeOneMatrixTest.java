@@ -0,0 +1,140 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+public class QuantizedSlopeOneMatrixTest {
+
+    @Test
+    void shouldAddAndRemoveLikeTheExactMatrix() {
+        QuantizedSlopeOneMatrix matrix = new QuantizedSlopeOneMatrix();
+        matrix.put(1, 5, 6.0, 2);
+        matrix.put(1, 2, 1.0, 1);
+        matrix.add(1, 5, 3.0, 1);
+        matrix.add(1, 2, -1.0, -1);
+        matrix.add(1, 3, 2.0, 0);
+        matrix.add(1, 4, -4.0, 2);
+
+        assertThat(matrix.getFreq(1, 5)).isEqualTo(3);
+        assertThat(matrix.getAverageDiff(1, 5)).isEqualTo(3.0);
+        assertThat(matrix.getFreq(1, 2)).isZero();
+        assertThat(matrix.getFreq(1, 3)).isZero();
+        assertThat(matrix.getAverageDiff(1, 4)).isEqualTo(-2.0);
+        assertThat(matrix.size()).isEqualTo(2);
+        StringBuilder neighbours = new StringBuilder();
+        matrix.forEachSortedNeighbour(1, (neighbourId, diff) -> neighbours.append(neighbourId));
+        assertThat(neighbours.toString()).isEqualTo("45");
+
+        matrix.put(1, 4, 0.0, 0);
+        matrix.add(1, 5, -9.0, -3);
+        assertThat(matrix.size()).isZero();
+        assertThat(matrix.filmCount()).isZero();
+    }
+
+    @Test
+    void shouldSaturateCounts() {
+        QuantizedSlopeOneMatrix matrix = new QuantizedSlopeOneMatrix();
+        matrix.put(1, 2, 100_000.0, 100_000);
+        matrix.add(1, 2, 1.0, 1);
+
+        assertThat(matrix.getFreq(1, 2)).isEqualTo(Short.MAX_VALUE);
+        assertThat(matrix.getAverageDiff(1, 2)).isCloseTo(1.0, within(1e-6));
+    }
+
+    @Test
+    void shouldRetainTopNeighboursWithTiesToLowerId() {
+        QuantizedSlopeOneMatrix matrix = new QuantizedSlopeOneMatrix();
+        matrix.put(1, 2, 1.0, 2);
+        matrix.put(1, 3, 1.0, 5);
+        matrix.put(1, 4, 1.0, 2);
+        matrix.put(1, 5, 1.0, 1);
+
+        assertThat(matrix.retainTopNeighbours(1, 2)).isEqualTo(2);
+
+        StringBuilder kept = new StringBuilder();
+        matrix.forEachSortedNeighbour(1, (neighbourId, diff) -> kept.append(neighbourId));
+        assertThat(kept.toString()).isEqualTo("23");
+        assertThat(matrix.size()).isEqualTo(2);
+        assertThat(matrix.retainTopNeighbours(1, 2)).isZero();
+    }
+
+    @Test
+    void shouldCopyHalfMatrixInBothDirections() {
+        SlopeOneMatrix half = SlopeOneMatrix.halfMatrix(4);
+        half.put(1, 3, 3.0, 2);
+        half.put(2, 3, -1.0, 1);
+        half.put(1, 2, 4.0, 4);
+
+        QuantizedSlopeOneMatrix matrix = QuantizedSlopeOneMatrix.of(half);
+
+        assertThat(matrix.size()).isEqualTo(6);
+        assertThat(matrix.getAverageDiff(3, 1)).isEqualTo(-1.5);
+        assertThat(matrix.getAverageDiff(3, 2)).isEqualTo(1.0);
+        StringBuilder neighbours = new StringBuilder();
+        matrix.forEachSortedNeighbour(2, (neighbourId, diff) -> neighbours.append(neighbourId));
+        assertThat(neighbours.toString()).isEqualTo("13");
+    }
+
+    @Test
+    void shouldPredictCloseToTheExactMatrixAfterUpdates() {
+        Random random = new Random(5);
+        List<UserRatings> users = new ArrayList<>();
+        for (long userId = 1; userId <= 200; userId++) {
+            TreeMap<Long, Double> ratings = new TreeMap<>();
+            int count = 3 + random.nextInt(10);
+            while (ratings.size() < count) {
+                ratings.put(1L + random.nextInt(40), 1.0 + random.nextInt(10));
+            }
+            users.add(new UserRatings(userId,
+                ratings.keySet().stream().mapToLong(Long::longValue).toArray(),
+                ratings.values().stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+        SlopeOneMatrix built = SlopeOneMatrixBuilder.build(users);
+        StripedSlopeOneMatrix exact = StripedSlopeOneMatrix.of(built, 4);
+        StripedSlopeOneMatrix quantized = StripedSlopeOneMatrix.of(built, 4, true);
+        for (int step = 0; step < 300; step++) {
+            int idx = random.nextInt(users.size());
+            SortedMap<Long, Double> before = ratingsOf(users.get(idx));
+            TreeMap<Long, Double> after = new TreeMap<>(before);
+            long filmId = 1L + random.nextInt(40);
+            if (after.containsKey(filmId) && random.nextBoolean()) {
+                after.remove(filmId);
+            } else {
+                after.put(filmId, 1.0 + random.nextInt(10));
+            }
+            SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+            SlopeOneMatrixBuilder.accumulateChange(delta, before, after);
+            exact.apply(delta);
+            quantized.apply(delta);
+            users.set(idx, new UserRatings(idx + 1,
+                after.keySet().stream().mapToLong(Long::longValue).toArray(),
+                after.values().stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+
+        assertThat(quantized.toMatrix().toFreqMap()).isEqualTo(exact.toMatrix().toFreqMap());
+        assertThat(quantized.bytes()).isLessThan(exact.bytes());
+        for (UserRatings user : users) {
+            SortedMap<Long, Double> ratings = ratingsOf(user);
+            Map<Long, Double> expected = SlopeOnePredictor.predict(exact, ratings);
+            Map<Long, Double> actual = SlopeOnePredictor.predict(quantized, ratings);
+            assertThat(actual.keySet()).isEqualTo(expected.keySet());
+            expected.forEach((filmId, rating) ->
+                assertThat(actual.get(filmId)).isCloseTo(rating, within(1e-5)));
+        }
+    }
+
+    private static SortedMap<Long, Double> ratingsOf(UserRatings user) {
+        SortedMap<Long, Double> ratings = new TreeMap<>();
+        for (int i = 0; i < user.size(); i++) {
+            ratings.put(user.filmIds()[i], user.ratings()[i]);
+        }
+        return ratings;
+    }
+}
@@ -0,0 +1,198 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+public class SlopeOneMatrixBuilderTest {
+
+    @Test
+    void shouldBuildSameMatrixAsPairwiseLoop() {
+        List<UserRatings> users = randomUsers(new Random(3), 100, 200, 25);
+
+        SlopeOneMatrix expected = new SlopeOneMatrix();
+        for (UserRatings user : users) {
+            for (int i = 0; i < user.size(); i++) {
+                for (int j = i + 1; j < user.size(); j++) {
+                    expected.add(user.filmIds()[i], user.filmIds()[j],
+                        user.ratings()[i] - user.ratings()[j], 1);
+                    expected.add(user.filmIds()[j], user.filmIds()[i],
+                        user.ratings()[j] - user.ratings()[i], 1);
+                }
+            }
+        }
+
+        assertThat(SlopeOneMatrixBuilder.build(users).contentEquals(expected)).isTrue();
+    }
+
+    @Test
+    void shouldBuildBitIdenticalMatrixForAnyParallelism() {
+        // Fractional ratings make the summation order visible in the low bits
+        List<UserRatings> users = randomUsers(new Random(11), 500, 400, 60);
+        SlopeOneMatrix sequential = SlopeOneMatrixBuilder.build(users);
+
+        for (int parallelism : new int[]{2, 3, 4, 8}) {
+            SlopeOneMatrix parallel = SlopeOneMatrixBuilder.build(users, parallelism);
+
+            assertThat(parallel.size()).isEqualTo(sequential.size());
+            assertThat(parallel.filmCount()).isEqualTo(sequential.filmCount());
+            assertThat(parallel.contentEquals(sequential)).isTrue();
+        }
+    }
+
+    @Test
+    void shouldBuildHalfMatrixMatchingFullOne() {
+        List<UserRatings> users = randomUsers(new Random(13), 300, 200, 40);
+        SlopeOneMatrix full = SlopeOneMatrixBuilder.build(users);
+
+        for (int parallelism : new int[]{1, 4}) {
+            try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(parallelism, true)) {
+                users.forEach(builder);
+                SlopeOneMatrix half = builder.build();
+
+                assertThat(half.isHalf()).isTrue();
+                assertThat(half.size()).isEqualTo(full.size() / 2);
+                assertThat(half.contentEquals(full.toHalf())).isTrue();
+                assertThat(half.toFull().contentEquals(full)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void shouldMergeShardsWithDisjointRows() {
+        List<UserRatings> users = randomUsers(new Random(5), 50, 100, 20);
+        int shards = 7;
+
+        Set<Long> seen = new LinkedHashSet<>();
+        int pairs = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            SlopeOneMatrix partial = new SlopeOneMatrix();
+            for (UserRatings user : users) {
+                SlopeOneMatrixBuilder.accumulateShard(partial, user, shard, shards);
+            }
+            int owned = shard;
+            partial.forEach((filmId1, filmId2, diffSum, freq) -> {
+                assertThat(SlopeOneMatrixBuilder.shardOf(filmId1, shards)).isEqualTo(owned);
+                seen.add(filmId1);
+            });
+            pairs += partial.size();
+        }
+
+        SlopeOneMatrix merged;
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(pool, shards);
+            users.forEach(builder);
+            merged = builder.build();
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(merged.filmCount()).isEqualTo(seen.size());
+        assertThat(merged.size()).isEqualTo(pairs);
+        assertThat(merged.contentEquals(SlopeOneMatrixBuilder.build(users))).isTrue();
+    }
+
+    @Test
+    void shouldKeepResultIdenticalAcrossBatches() {
+        // Enough ratings to make the parallel builder flush several batches
+        List<UserRatings> users = randomUsers(new Random(17), 6000, 3000, 60);
+        SlopeOneMatrix sequential = SlopeOneMatrixBuilder.build(users);
+
+        try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder(4)) {
+            users.forEach(builder);
+            SlopeOneMatrix parallel = builder.build();
+
+            assertThat(builder.userCount()).isEqualTo(users.size());
+            assertThat(parallel.contentEquals(sequential)).isTrue();
+            assertThatThrownBy(() -> builder.accept(users.get(0)))
+                .isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void shouldDetectSingleBitDifferences() {
+        SlopeOneMatrix first = new SlopeOneMatrix();
+        SlopeOneMatrix second = new SlopeOneMatrix();
+        first.add(1, 2, 0.1 + 0.2, 1);
+        second.add(1, 2, 0.3, 1);
+
+        assertThat(first.getAverageDiff(1, 2)).isCloseTo(second.getAverageDiff(1, 2),
+            within(1e-15));
+        assertThat(first.contentEquals(second)).isFalse();
+    }
+
+    @Test
+    void shouldTurnMatrixOfOldRatingsIntoMatrixOfNewOnes() {
+        Map<Long, Double> before = Map.of(1L, 8.0, 2L, 6.0, 3L, 4.0, 4L, 9.0);
+        // Film 2 removed, film 3 re-rated, films 5 and 6 added
+        Map<Long, Double> after = Map.of(1L, 8.0, 3L, 7.0, 4L, 9.0, 5L, 2.0, 6L, 5.0);
+        UserRatings other = new UserRatings(2, new long[]{1, 2, 5}, new double[]{3, 5, 6});
+
+        SlopeOneMatrix matrix = SlopeOneMatrixBuilder.build(List.of(asUser(1, before), other));
+        SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+        SlopeOneMatrixBuilder.accumulateChange(delta, before, after);
+        delta.forEach(matrix::add);
+
+        SlopeOneMatrix expected = SlopeOneMatrixBuilder.build(List.of(asUser(1, after), other));
+        assertThat(matrix.toFreqMap()).isEqualTo(expected.toFreqMap());
+        expected.forEach((filmId1, filmId2, diffSum, freq) ->
+            assertThat(matrix.getDiffSum(filmId1, filmId2)).isCloseTo(diffSum, within(1e-9)));
+        assertThat(delta.contains(1, 4)).isFalse();
+    }
+
+    @Test
+    void shouldAccumulateChangeIntoHalfDelta() {
+        Map<Long, Double> before = Map.of(1L, 8.0, 2L, 6.0, 3L, 4.0);
+        Map<Long, Double> after = Map.of(1L, 5.0, 3L, 4.0, 4L, 9.0);
+        UserRatings other = new UserRatings(2, new long[]{1, 3, 4}, new double[]{3, 5, 6});
+
+        SlopeOneMatrix full = SlopeOneMatrix.forDeltas();
+        SlopeOneMatrixBuilder.accumulateChange(full, before, after);
+        SlopeOneMatrix half = SlopeOneMatrix.forHalfDeltas();
+        SlopeOneMatrixBuilder.accumulateChange(half, before, after);
+
+        assertThat(half.contentEquals(full.toHalf())).isTrue();
+        SlopeOneMatrix matrix = SlopeOneMatrixBuilder.build(List.of(asUser(1, before), other))
+            .toHalf();
+        half.forEach(matrix::add);
+        SlopeOneMatrix expected = SlopeOneMatrixBuilder.build(List.of(asUser(1, after), other))
+            .toHalf();
+        assertThat(matrix.toFreqMap()).isEqualTo(expected.toFreqMap());
+    }
+
+    private static UserRatings asUser(long userId, Map<Long, Double> ratings) {
+        long[] filmIds = ratings.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        double[] values = new double[filmIds.length];
+        for (int i = 0; i < filmIds.length; i++) {
+            values[i] = ratings.get(filmIds[i]);
+        }
+        return new UserRatings(userId, filmIds, values);
+    }
+
+    private static List<UserRatings> randomUsers(Random random, int users, int films,
+        int maxRatingsPerUser) {
+        List<UserRatings> result = new ArrayList<>();
+        for (long userId = 1; userId <= users; userId++) {
+            Set<Long> filmIds = new LinkedHashSet<>();
+            int count = 1 + random.nextInt(maxRatingsPerUser);
+            while (filmIds.size() < count) {
+                filmIds.add(1L + random.nextInt(films));
+            }
+            long[] ids = filmIds.stream().mapToLong(Long::longValue).toArray();
+            double[] ratings = new double[ids.length];
+            for (int i = 0; i < ratings.length; i++) {
+                ratings[i] = 1.0 + random.nextDouble() * 9.0;
+            }
+            result.add(new UserRatings(userId, ids, ratings));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,259 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+public class SlopeOneMatrixTest {
+
+    @Test
+    void shouldAccumulateDiffSumsAndFrequencies() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1, 2, 1.5, 1);
+        matrix.add(1, 2, 0.5, 1);
+        matrix.add(2, 1, -2.0, 2);
+
+        assertThat(matrix.getDiffSum(1, 2)).isEqualTo(2.0);
+        assertThat(matrix.getFreq(1, 2)).isEqualTo(2);
+        assertThat(matrix.getAverageDiff(1, 2)).isEqualTo(1.0);
+        assertThat(matrix.getAverageDiff(2, 1)).isEqualTo(-1.0);
+        assertThat(matrix.size()).isEqualTo(2);
+        assertThat(matrix.filmCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldReportMissingPairs() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1, 2, 1.0, 1);
+
+        assertThat(matrix.contains(2, 1)).isFalse();
+        assertThat(matrix.getFreq(3, 4)).isZero();
+        assertThat(matrix.getAverageDiff(1, 3)).isNaN();
+        assertThat(matrix.sortedNeighbours(5)).isEmpty();
+    }
+
+    @Test
+    void shouldDropPairsWhoseFrequencyReachesZero() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (long other = 2; other <= 100; other++) {
+            matrix.add(1, other, other, 1);
+        }
+        for (long other = 2; other <= 100; other += 2) {
+            matrix.add(1, other, -other, -1);
+        }
+
+        assertThat(matrix.size()).isEqualTo(49);
+        for (long other = 2; other <= 100; other++) {
+            assertThat(matrix.contains(1, other)).isEqualTo(other % 2 == 1);
+        }
+
+        for (long other = 3; other <= 100; other += 2) {
+            matrix.add(1, other, -other, -1);
+        }
+        assertThat(matrix.size()).isZero();
+        assertThat(matrix.filmCount()).isZero();
+    }
+
+    @Test
+    void shouldStoreHalfMatrixPairsOnce() {
+        SlopeOneMatrix matrix = SlopeOneMatrix.halfMatrix(4);
+        matrix.add(1, 2, 1.5, 1);
+        matrix.add(2, 1, -0.5, 1);
+        matrix.add(3, 1, 2.0, 1);
+
+        assertThat(matrix.size()).isEqualTo(2);
+        assertThat(matrix.getDiffSum(1, 2)).isEqualTo(2.0);
+        assertThat(matrix.getDiffSum(2, 1)).isEqualTo(-2.0);
+        assertThat(matrix.getFreq(2, 1)).isEqualTo(2);
+        assertThat(matrix.getAverageDiff(1, 3)).isEqualTo(-2.0);
+        assertThat(matrix.sortedNeighbours(3)).isEmpty();
+
+        SlopeOneMatrix full = matrix.toFull();
+        assertThat(full.size()).isEqualTo(4);
+        assertThat(full.sortedNeighbours(3)).containsExactly(1L);
+        assertThat(full.getAverageDiff(3, 1)).isEqualTo(2.0);
+        assertThat(full.toHalf().contentEquals(matrix)).isTrue();
+        assertThatThrownBy(() -> matrix.retainTopNeighbours(1))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldReturnNeighboursInAscendingOrder() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(7, 42, 1.0, 1);
+        matrix.add(7, 3, 1.0, 1);
+        matrix.add(7, 1000, 1.0, 1);
+        matrix.add(7, 8, 1.0, 1);
+
+        assertThat(matrix.sortedNeighbours(7)).containsExactly(3, 8, 42, 1000);
+    }
+
+    @Test
+    void shouldRetainMostCoRatedNeighbours() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (long other = 2; other <= 30; other++) {
+            matrix.add(1, other, other * 0.5, (int) (other % 5) + 1);
+        }
+        matrix.add(2, 1, 1.0, 1);
+        matrix.add(2, 3, 1.0, 1);
+
+        int removed = matrix.retainTopNeighbours(8);
+
+        // Freq 5 for ids 4, 9, .., 29 (6 films), then freq 4 ties go to the lowest ids 3 and 8
+        assertThat(removed).isEqualTo(21);
+        assertThat(matrix.sortedNeighbours(1)).containsExactly(3, 4, 8, 9, 14, 19, 24, 29);
+        assertThat(matrix.getDiffSum(1, 29)).isEqualTo(14.5);
+        assertThat(matrix.getFreq(1, 8)).isEqualTo(4);
+        assertThat(matrix.sortedNeighbours(2)).containsExactly(1, 3);
+        assertThat(matrix.size()).isEqualTo(10);
+        matrix.add(1, 100, 1.0, 1);
+        assertThat(matrix.neighbourCount(1)).isEqualTo(9);
+    }
+
+    @Test
+    void shouldKeepMostCoRatedNeighboursOnRandomRatings() {
+        Map<Long, Map<Long, Double>> userRatings = randomRatings(new Random(11), 300, 200, 30);
+        SlopeOneMatrix full = new SlopeOneMatrix();
+        userRatings.values().forEach(ratings -> ratings.forEach((filmId1, rating1) -> ratings
+            .forEach((filmId2, rating2) -> {
+                if (!filmId1.equals(filmId2)) {
+                    full.add(filmId1, filmId2, rating1 - rating2, 1);
+                }
+            })));
+        SlopeOneMatrix pruned = new SlopeOneMatrix();
+        full.forEach(pruned::put);
+
+        int removed = pruned.retainTopNeighbours(10);
+
+        assertThat(pruned.size()).isEqualTo(full.size() - removed)
+            .isLessThanOrEqualTo(10 * pruned.filmCount());
+        for (long filmId : full.sortedFilmIds()) {
+            int kept = pruned.neighbourCount(filmId);
+            assertThat(kept).isEqualTo(Math.min(10, full.neighbourCount(filmId)));
+            int minKeptFreq = Integer.MAX_VALUE;
+            for (long neighbourId : pruned.sortedNeighbours(filmId)) {
+                minKeptFreq = Math.min(minKeptFreq, pruned.getFreq(filmId, neighbourId));
+                assertThat(pruned.getFreq(filmId, neighbourId))
+                    .isEqualTo(full.getFreq(filmId, neighbourId));
+                assertThat(pruned.getDiffSum(filmId, neighbourId))
+                    .isEqualTo(full.getDiffSum(filmId, neighbourId));
+            }
+            for (long neighbourId : full.sortedNeighbours(filmId)) {
+                if (!pruned.contains(filmId, neighbourId)) {
+                    assertThat(full.getFreq(filmId, neighbourId)).isLessThanOrEqualTo(minKeptFreq);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldRejectNonPositiveFilmIds() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+
+        assertThatThrownBy(() -> matrix.add(0, 1, 1.0, 1))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> matrix.add(1, -1, 1.0, 1))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldMatchNestedMapsOnRandomRatings() {
+        Map<Long, Map<Long, Double>> userRatings = randomRatings(new Random(42), 300, 500, 40);
+
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (Map<Long, Double> ratings : userRatings.values()) {
+            List<Map.Entry<Long, Double>> ratingsList = new ArrayList<>(ratings.entrySet());
+            for (int i = 0; i < ratingsList.size(); i++) {
+                for (int j = i + 1; j < ratingsList.size(); j++) {
+                    long filmId1 = ratingsList.get(i).getKey();
+                    long filmId2 = ratingsList.get(j).getKey();
+                    double rating1 = ratingsList.get(i).getValue();
+                    double rating2 = ratingsList.get(j).getValue();
+                    matrix.add(filmId1, filmId2, rating1 - rating2, 1);
+                    matrix.add(filmId2, filmId1, rating2 - rating1, 1);
+                }
+            }
+        }
+
+        Map<Long, Map<Long, Double>> expectedDiff = new HashMap<>();
+        Map<Long, Map<Long, Integer>> expectedFreq = new HashMap<>();
+        computeWithMaps(userRatings, expectedDiff, expectedFreq);
+
+        assertThat(matrix.toFreqMap()).isEqualTo(expectedFreq);
+        Map<Long, Map<Long, Double>> actualDiff = matrix.toDiffMap();
+        assertThat(actualDiff.keySet()).isEqualTo(expectedDiff.keySet());
+        expectedDiff.forEach((filmId1, row) -> {
+            assertThat(actualDiff.get(filmId1).keySet()).isEqualTo(row.keySet());
+            row.forEach((filmId2, diff) -> assertThat(actualDiff.get(filmId1).get(filmId2))
+                .isCloseTo(diff, within(1e-9)));
+        });
+        assertThat(matrix.size()).isEqualTo(
+            expectedFreq.values().stream().mapToInt(Map::size).sum());
+    }
+
+    @Test
+    void shouldReportSmallerFootprintThanBoxedMaps() {
+        Map<Long, Map<Long, Double>> userRatings = randomRatings(new Random(7), 200, 300, 30);
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        userRatings.values().forEach(ratings -> ratings.forEach((filmId1, rating1) -> ratings
+            .forEach((filmId2, rating2) -> {
+                if (!filmId1.equals(filmId2)) {
+                    matrix.add(filmId1, filmId2, rating1 - rating2, 1);
+                }
+            })));
+
+        SlopeOneMatrix.Footprint footprint = matrix.footprint();
+
+        assertThat(footprint.pairs()).isEqualTo(matrix.size());
+        assertThat(footprint.films()).isEqualTo(matrix.filmCount());
+        assertThat(footprint.bytes()).isPositive();
+        assertThat(footprint.boxedBytes()).isGreaterThan(footprint.bytes() * 2);
+    }
+
+    private static Map<Long, Map<Long, Double>> randomRatings(Random random, int users,
+        int films, int maxRatingsPerUser) {
+        Map<Long, Map<Long, Double>> userRatings = new LinkedHashMap<>();
+        for (long userId = 1; userId <= users; userId++) {
+            Map<Long, Double> ratings = new LinkedHashMap<>();
+            int count = 1 + random.nextInt(maxRatingsPerUser);
+            while (ratings.size() < count) {
+                ratings.put(1L + random.nextInt(films), 1.0 + random.nextInt(19) * 0.5);
+            }
+            userRatings.put(userId, ratings);
+        }
+        return userRatings;
+    }
+
+    // The nested-map computation the matrix replaced, kept here as the reference
+    private static void computeWithMaps(Map<Long, Map<Long, Double>> userRatings,
+        Map<Long, Map<Long, Double>> diff, Map<Long, Map<Long, Integer>> freq) {
+        for (Map<Long, Double> ratings : userRatings.values()) {
+            List<Map.Entry<Long, Double>> ratingsList = new ArrayList<>(ratings.entrySet());
+            for (int i = 0; i < ratingsList.size(); i++) {
+                for (int j = i + 1; j < ratingsList.size(); j++) {
+                    Long filmId1 = ratingsList.get(i).getKey();
+                    Long filmId2 = ratingsList.get(j).getKey();
+                    double rating1 = ratingsList.get(i).getValue();
+                    double rating2 = ratingsList.get(j).getValue();
+                    diff.computeIfAbsent(filmId1, k -> new HashMap<>())
+                        .merge(filmId2, rating1 - rating2, Double::sum);
+                    freq.computeIfAbsent(filmId1, k -> new HashMap<>())
+                        .merge(filmId2, 1, Integer::sum);
+                    diff.computeIfAbsent(filmId2, k -> new HashMap<>())
+                        .merge(filmId1, rating2 - rating1, Double::sum);
+                    freq.computeIfAbsent(filmId2, k -> new HashMap<>())
+                        .merge(filmId1, 1, Integer::sum);
+                }
+            }
+        }
+        diff.forEach((filmId1, row) -> row.replaceAll(
+            (filmId2, diffValue) -> diffValue / freq.get(filmId1).get(filmId2)));
+    }
+}
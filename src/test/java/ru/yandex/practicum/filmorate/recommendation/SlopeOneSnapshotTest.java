@@ -0,0 +1,103 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SlopeOneSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldRoundTripMatrixAndStamp() throws IOException {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1, 2, 0.1 + 0.2, 3);
+        matrix.add(2, 1, -0.3, 3);
+        matrix.add(1, 1000, 4.5, 1);
+        matrix.add(1000, 1, -4.5, 1);
+        Instant stamp = Instant.parse("2024-05-01T10:15:30.123456Z");
+        Path path = dir.resolve("matrix.snapshot");
+
+        new SlopeOneSnapshot(matrix, stamp, 7).writeTo(path);
+        SlopeOneSnapshot loaded = SlopeOneSnapshot.readFrom(path);
+
+        assertThat(loaded.ratedUpTo()).isEqualTo(stamp);
+        assertThat(loaded.ratingCount()).isEqualTo(7);
+        assertThat(loaded.matrix().contentEquals(matrix)).isTrue();
+        assertThat(Files.exists(dir.resolve("matrix.snapshot.tmp"))).isFalse();
+    }
+
+    @Test
+    void shouldRoundTripHalfMatrix() throws IOException {
+        SlopeOneMatrix matrix = SlopeOneMatrix.halfMatrix(4);
+        matrix.add(2, 1, 0.1 + 0.2, 3);
+        matrix.add(1, 1000, 4.5, 1);
+        Path path = dir.resolve("half.snapshot");
+
+        new SlopeOneSnapshot(matrix, null, 4).writeTo(path);
+        SlopeOneMatrix loaded = SlopeOneSnapshot.readFrom(path).matrix();
+
+        assertThat(loaded.isHalf()).isTrue();
+        assertThat(loaded.size()).isEqualTo(2);
+        assertThat(loaded.contentEquals(matrix)).isTrue();
+    }
+
+    @Test
+    void shouldRoundTripEmptyMatrixWithoutStamp() throws IOException {
+        Path path = dir.resolve("empty.snapshot");
+
+        new SlopeOneSnapshot(new SlopeOneMatrix(), null, 0).writeTo(path);
+        SlopeOneSnapshot loaded = SlopeOneSnapshot.readFrom(path);
+
+        assertThat(loaded.ratedUpTo()).isNull();
+        assertThat(loaded.ratingCount()).isZero();
+        assertThat(loaded.matrix().size()).isZero();
+    }
+
+    @Test
+    void shouldReplaceExistingSnapshot() throws IOException {
+        Path path = dir.resolve("matrix.snapshot");
+        SlopeOneMatrix first = new SlopeOneMatrix();
+        first.add(1, 2, 1.0, 1);
+        SlopeOneMatrix second = new SlopeOneMatrix();
+        second.add(3, 4, 2.0, 2);
+
+        new SlopeOneSnapshot(first, Instant.EPOCH, 1).writeTo(path);
+        new SlopeOneSnapshot(second, Instant.EPOCH, 2).writeTo(path);
+
+        assertThat(SlopeOneSnapshot.readFrom(path).matrix().contentEquals(second)).isTrue();
+    }
+
+    @Test
+    void shouldRejectTruncatedOrForeignFiles() throws IOException {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (long other = 2; other <= 50; other++) {
+            matrix.add(1, other, other, 1);
+        }
+        Path path = dir.resolve("matrix.snapshot");
+        new SlopeOneSnapshot(matrix, Instant.EPOCH, 49).writeTo(path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path truncated = dir.resolve("truncated.snapshot");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 10));
+        assertThatThrownBy(() -> SlopeOneSnapshot.readFrom(truncated))
+            .isInstanceOf(IOException.class);
+
+        Path foreign = dir.resolve("foreign.snapshot");
+        byte[] corrupted = bytes.clone();
+        corrupted[0] = 'X';
+        Files.write(foreign, corrupted);
+        assertThatThrownBy(() -> SlopeOneSnapshot.readFrom(foreign))
+            .isInstanceOf(IOException.class);
+
+        assertThatThrownBy(() -> SlopeOneSnapshot.readFrom(dir.resolve("missing.snapshot")))
+            .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,159 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+public class StripedSlopeOneMatrixTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    void shouldMatchSequentialBuildAfterConcurrentUpdates() throws Exception {
+        // Few films and many users, so threads keep hitting the same rows
+        int users = 2000;
+        int films = 30;
+        StripedSlopeOneMatrix shared = new StripedSlopeOneMatrix(4);
+        List<Map<Long, Double>> finalRatings = new ArrayList<>();
+        for (int user = 0; user < users; user++) {
+            finalRatings.add(new HashMap<>());
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int first = thread;
+                // Half the threads send half-matrix deltas
+                boolean half = thread % 2 == 1;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    Random random = new Random(first);
+                    for (int user = first; user < users; user += THREADS) {
+                        rateRandomly(shared, finalRatings.get(user), random, films, half);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+
+        List<UserRatings> expectedUsers = new ArrayList<>();
+        for (int user = 0; user < users; user++) {
+            TreeMap<Long, Double> ratings = new TreeMap<>(finalRatings.get(user));
+            expectedUsers.add(new UserRatings(user + 1,
+                ratings.keySet().stream().mapToLong(Long::longValue).toArray(),
+                ratings.values().stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+        assertEquivalent(shared.toMatrix(), SlopeOneMatrixBuilder.build(expectedUsers));
+    }
+
+    @Test
+    void shouldPredictLikeThePlainMatrix() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        SlopeOneMatrixBuilder.addPair(matrix, 1, 8, 2, 6, 1);
+        SlopeOneMatrixBuilder.addPair(matrix, 1, 4, 3, 9, 1);
+        SlopeOneMatrixBuilder.addPair(matrix, 2, 7, 3, 2, 1);
+        TreeMap<Long, Double> userRatings = new TreeMap<>(Map.of(1L, 5.0));
+
+        assertThat(SlopeOnePredictor.predict(StripedSlopeOneMatrix.of(matrix, 3), userRatings))
+            .isEqualTo(SlopeOnePredictor.predict(matrix, userRatings));
+    }
+
+    @Test
+    void shouldCopyHalfMatrixInBothDirections() {
+        SlopeOneMatrix half = SlopeOneMatrix.halfMatrix(4);
+        SlopeOneMatrixBuilder.addPair(half, 1, 8, 2, 6, 1);
+        SlopeOneMatrixBuilder.addPair(half, 3, 9, 1, 4, 1);
+
+        assertThat(StripedSlopeOneMatrix.of(half, 2).toMatrix().contentEquals(half.toFull()))
+            .isTrue();
+    }
+
+    @Test
+    void shouldRetainTopNeighboursOfGivenFilmsOnly() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(1, 2, 1.0, 3);
+        matrix.put(1, 3, 1.0, 1);
+        matrix.put(1, 4, 1.0, 2);
+        matrix.put(2, 3, 1.0, 1);
+        matrix.put(2, 4, 1.0, 1);
+        StripedSlopeOneMatrix shared = StripedSlopeOneMatrix.of(matrix, 2);
+
+        assertThat(shared.retainTopNeighbours(List.of(1L), 2)).isEqualTo(1);
+        assertThat(shared.getFreq(1, 3)).isZero();
+        assertThat(shared.getFreq(1, 4)).isEqualTo(2);
+        assertThat(shared.getFreq(2, 3)).isEqualTo(1);
+        assertThat(shared.size()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldCopyRowsOfGivenFilms() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        SlopeOneMatrixBuilder.addPair(matrix, 1, 8, 2, 6, 1);
+        SlopeOneMatrixBuilder.addPair(matrix, 1, 4, 3, 9, 1);
+        SlopeOneMatrixBuilder.addPair(matrix, 1, 5, 3, 7, 1);
+        SlopeOneMatrixBuilder.addPair(matrix, 2, 7, 3, 2, 1);
+
+        for (boolean quantized : new boolean[]{false, true}) {
+            SlopeOneMatrix rows = StripedSlopeOneMatrix.of(matrix, 2, quantized)
+                .rows(List.of(1L, 4L));
+
+            assertThat(rows.toFreqMap()).isEqualTo(Map.of(1L, Map.of(2L, 1, 3L, 2)));
+            assertThat(rows.getDiffSum(1, 3)).isCloseTo(-7.0, within(1e-4));
+            assertThat(rows.getDiffSum(1, 2)).isCloseTo(2.0, within(1e-4));
+        }
+    }
+
+    // Adds ratings one change at a time, then changes and removes some of them
+    private static void rateRandomly(StripedSlopeOneMatrix shared, Map<Long, Double> ratings,
+        Random random, int films, boolean half) {
+        int count = 2 + random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            long filmId = 1L + random.nextInt(films);
+            change(shared, ratings, filmId, 1.0 + random.nextDouble() * 9.0, half);
+        }
+        for (Long filmId : new ArrayList<>(ratings.keySet())) {
+            int action = random.nextInt(4);
+            if (action == 0) {
+                change(shared, ratings, filmId, null, half);
+            } else if (action == 1) {
+                change(shared, ratings, filmId, 1.0 + random.nextDouble() * 9.0, half);
+            }
+        }
+    }
+
+    private static void change(StripedSlopeOneMatrix shared, Map<Long, Double> ratings,
+        long filmId, Double rating, boolean half) {
+        Map<Long, Double> before = new HashMap<>(ratings);
+        if (rating == null) {
+            ratings.remove(filmId);
+        } else {
+            ratings.put(filmId, rating);
+        }
+        SlopeOneMatrix delta = half ? SlopeOneMatrix.forHalfDeltas() : SlopeOneMatrix.forDeltas();
+        SlopeOneMatrixBuilder.accumulateChange(delta, before, ratings);
+        shared.apply(delta);
+    }
+
+    // Same pairs and frequencies, diff sums up to the order they were added in
+    private static void assertEquivalent(SlopeOneMatrix actual, SlopeOneMatrix expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+        assertThat(actual.toFreqMap()).isEqualTo(expected.toFreqMap());
+        expected.forEach((filmId1, filmId2, diffSum, freq) ->
+            assertThat(actual.getDiffSum(filmId1, filmId2)).isCloseTo(diffSum, within(1e-9)));
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.recommendation;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.Test;
+
+public class TopScoresTest {
+
+    @Test
+    void shouldKeepHighestScoresBestFirst() {
+        TopScores top = new TopScores(3);
+        top.offer(1, 5.0);
+        top.offer(2, 9.0);
+        top.offer(3, 1.0);
+        top.offer(4, 7.5);
+        top.offer(5, 8.0);
+
+        assertThat(top.size()).isEqualTo(3);
+        assertThat(top.ranked()).containsExactly(2, 5, 4);
+        assertThat(top.size()).isZero();
+    }
+
+    @Test
+    void shouldRankEqualScoresByLowerId() {
+        TopScores top = new TopScores(2);
+        top.offer(7, 3.0);
+        top.offer(3, 3.0);
+        top.offer(5, 3.0);
+
+        assertThat(top.ranked()).containsExactly(3, 5);
+    }
+
+    @Test
+    void shouldMatchFullSort() {
+        Random random = new Random(11);
+        List<long[]> candidates = IntStream.range(0, 5_000)
+            .mapToObj(i -> new long[]{i + 1, random.nextInt(200)}).toList();
+        TopScores top = new TopScores(25);
+        candidates.forEach(candidate -> top.offer(candidate[0], candidate[1] / 20.0));
+
+        long[] expected = candidates.stream()
+            .sorted(Comparator.<long[]>comparingLong(candidate -> -candidate[1])
+                .thenComparingLong(candidate -> candidate[0]))
+            .limit(25).mapToLong(candidate -> candidate[0]).toArray();
+        assertThat(top.ranked()).containsExactly(expected);
+    }
+
+    @Test
+    void shouldReturnFewerThanLimit() {
+        TopScores top = new TopScores(Integer.MAX_VALUE);
+        top.offer(1, 2.0);
+
+        assertThat(top.ranked()).containsExactly(1);
+        assertThatThrownBy(() -> new TopScores(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
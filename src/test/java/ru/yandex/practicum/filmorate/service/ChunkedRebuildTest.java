@@ -0,0 +1,232 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.recommendation.RebuildCheckpoint;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrixBuilder;
+import ru.yandex.practicum.filmorate.repository.DbRebuildStorage;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.RebuildStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(properties = {
+    "filmorate.recommendations.rebuild.chunk-users=2",
+    // Builds run by the test itself and rating changes applied in line
+    "filmorate.recommendations.startup.async=false",
+    "filmorate.recommendations.updates.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class ChunkedRebuildTest {
+
+    // Chunks saved since the last reset, the chunk with this number fails when positive
+    private static final AtomicInteger SAVED_CHUNKS = new AtomicInteger();
+    private static final AtomicInteger FAILING_CHUNK = new AtomicInteger();
+
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final RebuildStorage rebuildStorage;
+    private final DiffFreqStorage diffFreqStorage;
+    private final LikesStorage likesStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        clear();
+        for (int i = 1; i <= 5; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 5; i++) {
+            films.add(createFilm(i));
+        }
+        rate(0, 0, 8);
+        rate(0, 1, 6);
+        rate(0, 2, 3);
+        rate(1, 0, 4);
+        rate(1, 2, 9);
+        rate(2, 1, 7);
+        rate(2, 3, 2);
+        rate(3, 0, 5);
+        rate(3, 3, 10);
+        rate(3, 4, 1);
+        rate(4, 2, 6);
+        rate(4, 4, 8);
+        SAVED_CHUNKS.set(0);
+        FAILING_CHUNK.set(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FAILING_CHUNK.set(0);
+        clear();
+    }
+
+    @Test
+    void shouldMatchTheInMemoryBuild() {
+        recommendationService.rebuild();
+
+        assertThat(SAVED_CHUNKS.get()).isEqualTo(3);
+        assertThat(rebuildStorage.getCheckpoint()).isEmpty();
+        assertMatchesInMemoryBuild();
+    }
+
+    @Test
+    void shouldResumeAfterTheLastMergedChunk() {
+        FAILING_CHUNK.set(2);
+        assertThatThrownBy(recommendationService::rebuild)
+            .isInstanceOf(InternalServerException.class);
+        Optional<RebuildCheckpoint> checkpoint = rebuildStorage.getCheckpoint();
+        assertThat(checkpoint).isPresent();
+        assertThat(checkpoint.get().lastUserId()).isEqualTo(users.get(1));
+        assertThat(checkpoint.get().ratingsScanned()).isEqualTo(5);
+
+        // A rating after the checkpoint is replayed on top of the resumed rebuild
+        FAILING_CHUNK.set(0);
+        SAVED_CHUNKS.set(0);
+        rate(1, 4, 7);
+        recommendationService.rebuild();
+
+        assertThat(SAVED_CHUNKS.get()).isEqualTo(2);
+        assertThat(rebuildStorage.getCheckpoint()).isEmpty();
+        assertMatchesInMemoryBuild();
+    }
+
+    @Test
+    void shouldStartOverWhenCheckpointedRatingsChanged() {
+        FAILING_CHUNK.set(2);
+        assertThatThrownBy(recommendationService::rebuild)
+            .isInstanceOf(InternalServerException.class);
+
+        FAILING_CHUNK.set(0);
+        SAVED_CHUNKS.set(0);
+        likesStorage.removeRating(users.get(0), films.get(1));
+        recommendationService.rebuild();
+
+        assertThat(SAVED_CHUNKS.get()).isEqualTo(3);
+        assertMatchesInMemoryBuild();
+    }
+
+    private void assertMatchesInMemoryBuild() {
+        SlopeOneMatrix expected;
+        try (SlopeOneMatrixBuilder builder = new SlopeOneMatrixBuilder()) {
+            likesStorage.forEachUserRatings(builder);
+            expected = builder.build();
+        }
+        assertThat(diffFreqStorage.loadFreq()).isEqualTo(expected.toFreqMap());
+        Map<Long, Map<Long, Double>> diff = diffFreqStorage.loadDiff();
+        expected.toDiffMap().forEach((filmId1, row) -> row.forEach((filmId2, value) ->
+            assertThat(diff.get(filmId1).get(filmId2)).isCloseTo(value, within(1e-9))));
+    }
+
+    private void rate(int user, int film, double rating) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void clear() {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+        rebuildStorage.finish();
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+
+    @TestConfiguration
+    static class FailingRebuildStorageConfig {
+
+        // Counts saved chunks and fails the chosen one, like a crash in the middle of a rebuild
+        @Bean
+        @Primary
+        RebuildStorage failingRebuildStorage(DbRebuildStorage storage) {
+            return new RebuildStorage() {
+                @Override
+                public Optional<RebuildCheckpoint> getCheckpoint() {
+                    return storage.getCheckpoint();
+                }
+
+                @Override
+                public void start(RebuildCheckpoint checkpoint) {
+                    storage.start(checkpoint);
+                }
+
+                @Override
+                public void saveChunk(SlopeOneMatrix chunk, RebuildCheckpoint checkpoint) {
+                    if (SAVED_CHUNKS.get() + 1 == FAILING_CHUNK.get()) {
+                        throw new InternalServerException("Failed to save rebuild chunk.");
+                    }
+                    storage.saveChunk(chunk, checkpoint);
+                    SAVED_CHUNKS.incrementAndGet();
+                }
+
+                @Override
+                public SlopeOneMatrix loadMatrix(boolean half) {
+                    return storage.loadMatrix(half);
+                }
+
+                @Override
+                public void finish() {
+                    storage.finish();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+// Rating changes are applied on the request threads, as in the test configuration
+@SpringBootTest(properties = {
+    // Checks the model right after each change, which needs it built and updated in line
+    "filmorate.recommendations.startup.async=false",
+    "filmorate.recommendations.updates.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class ConcurrentRatingUpdatesTest {
+
+    private static final int THREADS = 8;
+
+    private final SlopeOneEngine engine;
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final DiffFreqStorage diffFreqStorage;
+    private final LikesStorage likesStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        clear();
+        for (int i = 1; i <= 40; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 12; i++) {
+            films.add(createFilm(i));
+        }
+        recommendationService.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void shouldMatchRebuildAfterConcurrentRatings() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int first = thread;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    Random random = new Random(first);
+                    for (int user = first; user < users.size(); user += THREADS) {
+                        for (int i = 0; i < 6; i++) {
+                            rate(user, random.nextInt(films.size()), 1 + random.nextInt(10));
+                        }
+                        unrate(user, random.nextInt(films.size()));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+        Map<Long, Map<Long, Integer>> updatedFreq = diffFreqStorage.loadFreq();
+        List<Map<Long, Double>> updatedPredictions = predictAll();
+
+        recommendationService.rebuild();
+
+        assertThat(updatedFreq).isEqualTo(diffFreqStorage.loadFreq());
+        List<Map<Long, Double>> rebuiltPredictions = predictAll();
+        for (int user = 0; user < users.size(); user++) {
+            Map<Long, Double> rebuilt = rebuiltPredictions.get(user);
+            assertThat(updatedPredictions.get(user)).containsOnlyKeys(rebuilt.keySet());
+            updatedPredictions.get(user).forEach((filmId, rating) ->
+                assertThat(rating).isCloseTo(rebuilt.get(filmId), within(1e-9)));
+        }
+    }
+
+    private List<Map<Long, Double>> predictAll() {
+        RecommendationEngine.Predictor predictor = engine.predictor();
+        return users.stream().map(predictor::predict).toList();
+    }
+
+    private void rate(int user, int film, double rating) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void unrate(int user, int film) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> {
+            Optional<Rating> rating = likesStorage.getRating(userId, filmId);
+            likesStorage.removeRating(userId, filmId);
+            return rating.map(r -> RatingChange.removed(filmId, r.getRatingValue()));
+        });
+    }
+
+    private void clear() {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx % 28 + 1));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+}
@@ -0,0 +1,182 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.config.FilmCacheProperties;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmWithRating;
+
+public class FilmCacheTest {
+
+    private static final long UNKNOWN_FILM_ID = 99L;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<Collection<Long>> batchLoads = new ArrayList<>();
+    private FilmCacheProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new FilmCacheProperties();
+        properties.setMaxFilms(2);
+        properties.setExpireAfter(Duration.ofMinutes(1));
+    }
+
+    @Test
+    void shouldServeRepeatedReadsFromCache() {
+        FilmCache cache = newCache();
+
+        Optional<FilmWithRating> first = cache.get(1L, this::load);
+        Optional<FilmWithRating> second = cache.get(1L, this::load);
+
+        assertThat(second).containsSame(first.orElseThrow());
+        assertThat(loads).hasValue(1);
+        assertThat(gets("hit")).isEqualTo(1.0);
+        assertThat(gets("miss")).isEqualTo(1.0);
+        assertThat(registry.get("cache.size").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldNotCacheUnknownFilms() {
+        FilmCache cache = newCache();
+
+        assertThat(cache.get(UNKNOWN_FILM_ID, this::load)).isEmpty();
+        assertThat(cache.get(UNKNOWN_FILM_ID, this::load)).isEmpty();
+
+        assertThat(loads).hasValue(2);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedFilm() {
+        FilmCache cache = newCache();
+
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.get(1L, this::load);
+        cache.get(3L, this::load);
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+
+        assertThat(loads).hasValue(4);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(registry.get("cache.evictions").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void shouldReloadAfterInvalidation() {
+        FilmCache cache = newCache();
+
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.invalidate(1L);
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.invalidateAll();
+        cache.get(2L, this::load);
+
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void shouldReloadExpiredEntries() {
+        FilmCache cache = newCache();
+
+        cache.get(1L, this::load);
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldNotStoreFilmLoadedBeforeInvalidation() {
+        FilmCache cache = newCache();
+
+        cache.get(1L, filmId -> {
+            cache.invalidate(filmId);
+            return load(filmId);
+        });
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldStoreFilmWhenAnotherFilmIsInvalidatedDuringLoad() {
+        FilmCache cache = newCache();
+
+        cache.get(1L, filmId -> {
+            cache.invalidate(2L);
+            return load(filmId);
+        });
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldLoadOnlyMissingFilmsInRequestedOrder() {
+        properties.setMaxFilms(10);
+        FilmCache cache = newCache();
+        cache.get(2L, this::load);
+
+        List<FilmWithRating> films = cache.getAll(List.of(3L, UNKNOWN_FILM_ID, 2L, 1L, 3L),
+            this::loadAll);
+
+        assertThat(films).extracting(film -> film.getFilm().getId()).containsExactly(3L, 2L, 1L);
+        assertThat(batchLoads).containsExactly(List.of(3L, UNKNOWN_FILM_ID, 1L));
+        assertThat(cache.getAll(List.of(1L, 2L, 3L), this::loadAll)).hasSize(3);
+        assertThat(batchLoads).hasSize(1);
+    }
+
+    @Test
+    void shouldBypassCacheWhenDisabled() {
+        properties.setMaxFilms(0);
+        FilmCache cache = newCache();
+
+        cache.get(1L, this::load);
+        cache.get(1L, this::load);
+        cache.getAll(List.of(1L), this::loadAll);
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(loads).hasValue(2);
+        assertThat(batchLoads).hasSize(1);
+        assertThat(cache.size()).isZero();
+    }
+
+    private FilmCache newCache() {
+        return new FilmCache(properties, registry, clock::get);
+    }
+
+    private Optional<FilmWithRating> load(long filmId) {
+        loads.incrementAndGet();
+        return filmId == UNKNOWN_FILM_ID ? Optional.empty() : Optional.of(film(filmId));
+    }
+
+    private List<FilmWithRating> loadAll(Collection<Long> filmIds) {
+        batchLoads.add(List.copyOf(filmIds));
+        return filmIds.stream().filter(filmId -> filmId != UNKNOWN_FILM_ID)
+            .map(FilmCacheTest::film).toList();
+    }
+
+    private double gets(String result) {
+        return registry.get("cache.gets").tag("result", result).counter().count();
+    }
+
+    private static FilmWithRating film(long id) {
+        Film film = new Film();
+        film.setId(id);
+        return new FilmWithRating(film, 0.0);
+    }
+}
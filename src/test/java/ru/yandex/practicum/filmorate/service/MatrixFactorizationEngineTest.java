@@ -0,0 +1,156 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(properties = {
+    "filmorate.recommendations.engine=matrix-factorization",
+    "filmorate.recommendations.factorization.factors=4",
+    // Builds run by the test itself and rating changes applied in line
+    "filmorate.recommendations.startup.async=false",
+    "filmorate.recommendations.updates.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class MatrixFactorizationEngineTest {
+
+    private final MatrixFactorizationEngine engine;
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final LikesStorage likesStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final ApplicationContext context;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        clear();
+        for (int i = 1; i <= 4; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 6; i++) {
+            films.add(createFilm(i));
+        }
+        rate(0, 0, 9);
+        rate(0, 1, 8);
+        rate(1, 0, 8);
+        rate(1, 1, 9);
+        rate(1, 2, 7);
+        rate(2, 2, 3);
+        rate(2, 3, 6);
+        rate(3, 4, 5);
+        recommendationService.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void shouldBeTheOnlyEngine() {
+        assertThat(context.getBeansOfType(RecommendationEngine.class)).containsOnlyKeys(
+            "matrixFactorizationEngine");
+    }
+
+    @Test
+    void shouldPredictUnratedFilmsOfTheModel() {
+        Map<Long, Double> predictions = engine.predictor().predict(users.get(0));
+
+        // The sixth film has no ratings and is not part of the model
+        assertThat(predictions).containsOnlyKeys(films.get(2), films.get(3), films.get(4));
+        predictions.values().forEach(rating -> assertThat(rating).isBetween(1.0, 10.0));
+    }
+
+    @Test
+    void shouldRefitUserWhoRates() {
+        rate(0, 2, 10);
+
+        assertThat(engine.predictor().predict(users.get(0))).containsOnlyKeys(films.get(3),
+            films.get(4));
+    }
+
+    @Test
+    void shouldFitUsersUnknownToTheModel() {
+        long newUser = createUser(5);
+        rate(newUser, films.get(0), 9);
+
+        assertThat(engine.predictor().predict(newUser)).containsOnlyKeys(films.get(1),
+            films.get(2), films.get(3), films.get(4));
+    }
+
+    @Test
+    void shouldRankSimilarFilmsOfTheModel() {
+        List<Long> similar = engine.similarFilms(films.get(0), 10);
+
+        assertThat(similar).doesNotContain(films.get(0), films.get(5)).doesNotHaveDuplicates();
+        assertThat(films.subList(0, 5)).containsAll(similar);
+        assertThat(engine.similarFilms(films.get(0), 1)).isEqualTo(similar.subList(0, 1));
+        assertThat(engine.similarFilms(films.get(5), 10)).isEmpty();
+    }
+
+    private void rate(int user, int film, double rating) {
+        rate(users.get(user), films.get(film), rating);
+    }
+
+    // Same writes as LikesService, which also needs the feed tables
+    private void rate(long userId, long filmId, double rating) {
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void clear() {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+}
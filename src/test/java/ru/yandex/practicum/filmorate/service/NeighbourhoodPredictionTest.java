@@ -0,0 +1,137 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOnePredictor;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(properties = {
+    "filmorate.recommendations.storage.in-memory=false",
+    // Checks the model right after each change, which needs it built and updated in line
+    "filmorate.recommendations.startup.async=false",
+    "filmorate.recommendations.updates.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class NeighbourhoodPredictionTest {
+
+    private final SlopeOneEngine engine;
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final DiffFreqStorage diffFreqStorage;
+    private final LikesStorage likesStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        clear();
+        for (int i = 1; i <= 4; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 6; i++) {
+            films.add(createFilm(i));
+        }
+        rate(0, 0, 8);
+        rate(0, 1, 6);
+        rate(0, 2, 3);
+        rate(1, 0, 4);
+        rate(1, 3, 9);
+        recommendationService.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void shouldPredictFromTheLoadedNeighbourhoods() {
+        // Applied to the tables only, there is no in-memory matrix to update
+        rate(2, 1, 7);
+        rate(2, 4, 2);
+        rate(3, 4, 5);
+        rate(3, 5, 10);
+
+        RecommendationEngine.Predictor predictor = engine.predictor();
+        for (long userId : users) {
+            SortedMap<Long, Double> ratings = new TreeMap<>();
+            for (Rating rating : likesStorage.getRatingsByUser(userId)) {
+                ratings.put(rating.getFilmId(), rating.getRatingValue());
+            }
+            Map<Long, Double> expected = SlopeOnePredictor.predict(diffFreqStorage.loadMatrix(),
+                ratings);
+            Map<Long, Double> predicted = predictor.predict(userId);
+            assertThat(predicted).containsOnlyKeys(expected.keySet()).isNotEmpty();
+            predicted.forEach((filmId, rating) ->
+                assertThat(rating).isCloseTo(expected.get(filmId), within(1e-9)));
+        }
+    }
+
+    private void rate(int user, int film, double rating) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void clear() {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+}
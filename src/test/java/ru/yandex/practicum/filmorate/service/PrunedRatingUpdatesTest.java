@@ -0,0 +1,287 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.config.RecommendationInitializer;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrixBuilder;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOnePredictor;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(properties = {
+    "filmorate.recommendations.pruning.max-neighbours=2",
+    // Checks the model right after each change, which needs it built and updated in line
+    "filmorate.recommendations.startup.async=false",
+    "filmorate.recommendations.updates.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class PrunedRatingUpdatesTest {
+
+    private static final int THREADS = 8;
+
+    private final SlopeOneEngine engine;
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final RecommendationInitializer recommendationInitializer;
+    private final DiffFreqStorage diffFreqStorage;
+    private final LikesStorage likesStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        clear();
+        for (int i = 1; i <= 6; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 4; i++) {
+            films.add(createFilm(i));
+        }
+        // The last film is co-rated once with the first and twice with the second and third
+        rate(0, 3, 8);
+        rate(0, 0, 6);
+        rate(1, 3, 4);
+        rate(1, 1, 9);
+        rate(2, 3, 5);
+        rate(2, 1, 7);
+        rate(3, 3, 2);
+        rate(3, 2, 6);
+        rate(4, 3, 7);
+        rate(4, 2, 3);
+        // so its pair with the first film is pruned
+        recommendationService.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void shouldNotRestartPrunedPairsFromDelta() {
+        long first = films.get(0);
+        long last = films.get(3);
+        assertThat(diffFreqStorage.loadMatrix().contains(last, first)).isFalse();
+
+        // The pair with the second film drops to one co-rating, the pruned pair really has two.
+        // Restarted at the delta's single co-rating it would win the tie with the second film
+        unrate(1, 1);
+        rate(5, 3, 3);
+        rate(5, 0, 9);
+
+        SlopeOneMatrix stored = diffFreqStorage.loadMatrix();
+        SlopeOneMatrix exact = buildFromRatings();
+        assertThat(stored.contains(last, first)).isFalse();
+        assertThat(stored.getFreq(first, last)).isEqualTo(2);
+        stored.forEach((filmId1, filmId2, diffSum, freq) -> {
+            assertThat(freq).isEqualTo(exact.getFreq(filmId1, filmId2));
+            assertThat(diffSum).isCloseTo(exact.getDiffSum(filmId1, filmId2), within(1e-4));
+        });
+    }
+
+    @Test
+    void shouldAdmitNewFilmsOnRebuild() throws InterruptedException {
+        films.add(createFilm(5));
+        long first = films.get(0);
+        long added = films.get(4);
+        rate(0, 4, 7);
+        rate(3, 4, 5);
+        assertThat(diffFreqStorage.loadMatrix().contains(added, first)).isFalse();
+        assertThat(engine.similarFilms(added, 10)).isEmpty();
+
+        recommendationInitializer.rebuild();
+
+        SlopeOneMatrix stored = diffFreqStorage.loadMatrix();
+        assertThat(stored.getFreq(added, first)).isEqualTo(1);
+        assertThat(engine.similarFilms(added, 10)).contains(first);
+        assertThat(recommendationUpdates.isPaused()).isFalse();
+    }
+
+    @Test
+    void shouldKeepExactCountsWhenRatingsArriveDuringRebuild() throws Exception {
+        for (int i = users.size() + 1; i <= 40; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = films.size() + 1; i <= 10; i++) {
+            films.add(createFilm(i));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1)) {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int first = thread;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    Random random = new Random(first);
+                    for (int user = first; user < users.size(); user += THREADS) {
+                        for (int i = 0; i < 5; i++) {
+                            rate(user, random.nextInt(films.size()), 1 + random.nextInt(10));
+                        }
+                        unrate(user, random.nextInt(films.size()));
+                    }
+                    return null;
+                }));
+            }
+            workers.add(executor.submit(() -> {
+                start.await();
+                recommendationInitializer.rebuild();
+                return null;
+            }));
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+
+        // Changes were either part of the rebuild or applied after it, never both or neither
+        SlopeOneMatrix stored = diffFreqStorage.loadMatrix();
+        SlopeOneMatrix exact = buildFromRatings();
+        stored.forEach((filmId1, filmId2, diffSum, freq) -> {
+            assertThat(freq).isEqualTo(exact.getFreq(filmId1, filmId2));
+            assertThat(diffSum).isCloseTo(exact.getDiffSum(filmId1, filmId2), within(1e-4));
+        });
+    }
+
+    @Test
+    void shouldTrimTablesAndMemoryAlikeUnderConcurrentRatings() throws Exception {
+        for (int i = users.size() + 1; i <= 40; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = films.size() + 1; i <= 10; i++) {
+            films.add(createFilm(i));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int first = thread;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    Random random = new Random(first);
+                    for (int user = first; user < users.size(); user += THREADS) {
+                        for (int i = 0; i < 5; i++) {
+                            rate(user, random.nextInt(films.size()), 1 + random.nextInt(10));
+                        }
+                        unrate(user, random.nextInt(films.size()));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+
+        // The in-memory matrix took the same trims as the tables
+        SlopeOneMatrix stored = diffFreqStorage.loadMatrix();
+        RecommendationEngine.Predictor predictor = engine.predictor();
+        for (long userId : users) {
+            SortedMap<Long, Double> ratings = new TreeMap<>();
+            for (Rating rating : likesStorage.getRatingsByUser(userId)) {
+                ratings.put(rating.getFilmId(), rating.getRatingValue());
+            }
+            Map<Long, Double> expected = SlopeOnePredictor.predict(stored, ratings);
+            Map<Long, Double> predicted = predictor.predict(userId);
+            assertThat(predicted).containsOnlyKeys(expected.keySet());
+            predicted.forEach((filmId, rating) ->
+                assertThat(rating).isCloseTo(expected.get(filmId), within(1e-9)));
+        }
+    }
+
+    private SlopeOneMatrix buildFromRatings() {
+        List<UserRatings> ratings = new ArrayList<>();
+        for (long userId : users) {
+            List<Rating> userRatings = likesStorage.getRatingsByUser(userId).stream()
+                .sorted((a, b) -> Long.compare(a.getFilmId(), b.getFilmId())).toList();
+            ratings.add(new UserRatings(userId,
+                userRatings.stream().mapToLong(Rating::getFilmId).toArray(),
+                userRatings.stream().mapToDouble(Rating::getRatingValue).toArray()));
+        }
+        return SlopeOneMatrixBuilder.build(ratings);
+    }
+
+    private void rate(int user, int film, double rating) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void unrate(int user, int film) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> {
+            Optional<Rating> rating = likesStorage.getRating(userId, filmId);
+            likesStorage.removeRating(userId, filmId);
+            return rating.map(r -> RatingChange.removed(filmId, r.getRatingValue()));
+        });
+    }
+
+    private void clear() {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx % 28 + 1));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+}
@@ -0,0 +1,138 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+
+public class RecommendationCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private RecommendationProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        properties = new RecommendationProperties();
+        properties.getCache().setMaxUsers(2);
+        properties.getCache().setExpireAfter(Duration.ofMinutes(1));
+    }
+
+    @Test
+    void shouldServeRepeatedRequestsFromCache() {
+        RecommendationCache cache = newCache();
+
+        List<FilmDto> first = cache.get(1L, this::load);
+        List<FilmDto> second = cache.get(1L, this::load);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(loads).hasValue(1);
+        assertThat(gets("hit")).isEqualTo(1.0);
+        assertThat(gets("miss")).isEqualTo(1.0);
+        assertThat(registry.get("cache.size").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedUser() {
+        RecommendationCache cache = newCache();
+
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.get(1L, this::load);
+        cache.get(3L, this::load);
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+
+        assertThat(loads).hasValue(4);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(registry.get("cache.evictions").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void shouldReloadAfterInvalidation() {
+        RecommendationCache cache = newCache();
+
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.invalidate(1L);
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void shouldReloadExpiredEntries() {
+        RecommendationCache cache = newCache();
+
+        cache.get(1L, this::load);
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldNotStoreListComputedBeforeInvalidation() {
+        RecommendationCache cache = newCache();
+
+        cache.get(1L, userId -> {
+            cache.invalidate(userId);
+            return load(userId);
+        });
+        cache.get(1L, this::load);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldRefreshOnlyCachedUsers() {
+        RecommendationCache cache = newCache();
+        cache.get(1L, this::load);
+
+        cache.refreshAll(userId -> List.of(film(userId * 100)));
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get(1L, this::load)).extracting(FilmDto::getId).containsExactly(100L);
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldBypassCacheWhenDisabled() {
+        properties.getCache().setMaxUsers(0);
+        RecommendationCache cache = newCache();
+
+        cache.get(1L, this::load);
+        cache.get(1L, this::load);
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(loads).hasValue(2);
+        assertThat(cache.size()).isZero();
+    }
+
+    private RecommendationCache newCache() {
+        return new RecommendationCache(properties, registry, clock::get);
+    }
+
+    private List<FilmDto> load(long userId) {
+        loads.incrementAndGet();
+        return List.of(film(userId));
+    }
+
+    private double gets(String result) {
+        return registry.get("cache.gets").tag("result", result).counter().count();
+    }
+
+    private static FilmDto film(long id) {
+        FilmDto film = new FilmDto();
+        film.setId(id);
+        return film;
+    }
+}
@@ -0,0 +1,178 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneSnapshot;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(properties = {
+    "filmorate.recommendations.snapshot.enabled=true",
+    "filmorate.recommendations.snapshot.path=" + RecommendationSnapshotTest.SNAPSHOT,
+    // Builds run by the test itself, none in the background
+    "filmorate.recommendations.startup.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class RecommendationSnapshotTest {
+
+    static final String SNAPSHOT = "target/test-snapshots/recommendations.snapshot";
+    private static final String INSERT_RATING_QUERY = "INSERT INTO ratings (user_id, film_id, "
+        + "rating_value, rated_at) VALUES (?, ?, ?, ?)";
+    private static final Timestamp FIRST_BATCH = Timestamp.from(
+        Instant.parse("2024-01-01T10:00:00Z"));
+    private static final Timestamp SECOND_BATCH = Timestamp.from(
+        Instant.parse("2024-01-02T10:00:00Z"));
+
+    private final RecommendationService recommendationService;
+    private final DiffFreqStorage diffFreqStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clear();
+        for (int i = 1; i <= 4; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 5; i++) {
+            films.add(createFilm(i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        clear();
+    }
+
+    @Test
+    void shouldReplayRatingsAddedAfterSnapshot() {
+        rate(0, 0, 8, FIRST_BATCH);
+        rate(0, 1, 6, FIRST_BATCH);
+        rate(1, 0, 4, FIRST_BATCH);
+        rate(1, 2, 9, FIRST_BATCH);
+        recommendationService.rebuild();
+        assertThat(Files.exists(Path.of(SNAPSHOT))).isTrue();
+
+        // An existing user rates more films, a new user rates several at once
+        rate(0, 2, 3, SECOND_BATCH);
+        rate(1, 3, 7, SECOND_BATCH);
+        rate(2, 0, 5, SECOND_BATCH);
+        rate(2, 3, 10, SECOND_BATCH);
+        rate(2, 4, 2, SECOND_BATCH);
+
+        assertThat(recommendationService.initialize()).isTrue();
+        Map<Long, Map<Long, Integer>> restoredFreq = diffFreqStorage.loadFreq();
+        Map<Long, Map<Long, Double>> restoredDiff = diffFreqStorage.loadDiff();
+
+        recommendationService.rebuild();
+        assertThat(restoredFreq).isEqualTo(diffFreqStorage.loadFreq());
+        Map<Long, Map<Long, Double>> rebuiltDiff = diffFreqStorage.loadDiff();
+        assertThat(restoredDiff.keySet()).isEqualTo(rebuiltDiff.keySet());
+        rebuiltDiff.forEach((filmId1, row) -> row.forEach((filmId2, diff) ->
+            assertThat(restoredDiff.get(filmId1).get(filmId2)).isCloseTo(diff, within(1e-9))));
+    }
+
+    @Test
+    void shouldUseSnapshotContentWhenNothingChanged() throws IOException {
+        rate(0, 0, 8, FIRST_BATCH);
+        rate(0, 1, 6, FIRST_BATCH);
+        SlopeOneMatrix marked = new SlopeOneMatrix();
+        marked.add(films.get(0), films.get(1), 42.0, 1);
+        marked.add(films.get(1), films.get(0), -42.0, 1);
+        new SlopeOneSnapshot(marked, FIRST_BATCH.toInstant(), 2).writeTo(Path.of(SNAPSHOT));
+
+        assertThat(recommendationService.initialize()).isTrue();
+
+        assertThat(diffFreqStorage.loadDiff().get(films.get(0)).get(films.get(1))).isEqualTo(42.0);
+    }
+
+    @Test
+    void shouldRebuildWhenRatingsWereDeleted() {
+        rate(0, 0, 8, FIRST_BATCH);
+        rate(0, 1, 6, FIRST_BATCH);
+        rate(0, 2, 5, FIRST_BATCH);
+        recommendationService.rebuild();
+
+        jdbc.update("DELETE FROM ratings WHERE film_id = ?", films.get(2));
+
+        assertThat(recommendationService.initialize()).isFalse();
+        assertThat(diffFreqStorage.loadFreq().get(films.get(0))).containsOnlyKeys(films.get(1));
+    }
+
+    @Test
+    void shouldRebuildWhenSnapshotIsUnreadable() throws IOException {
+        rate(0, 0, 8, FIRST_BATCH);
+        rate(0, 1, 6, FIRST_BATCH);
+        Files.createDirectories(Path.of(SNAPSHOT).getParent());
+        Files.writeString(Path.of(SNAPSHOT), "not a snapshot");
+
+        assertThat(recommendationService.initialize()).isFalse();
+        assertThat(diffFreqStorage.loadFreq().get(films.get(0))).containsOnlyKeys(films.get(1));
+        assertThat(SlopeOneSnapshot.readFrom(Path.of(SNAPSHOT)).ratingCount()).isEqualTo(2);
+    }
+
+    private void rate(int user, int film, int rating, Timestamp ratedAt) {
+        jdbc.update(INSERT_RATING_QUERY, users.get(user), films.get(film), rating, ratedAt);
+    }
+
+    private void clear() throws IOException {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+        Files.deleteIfExists(Path.of(SNAPSHOT));
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+}
@@ -0,0 +1,270 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.controller.RecommendationController;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "filmorate.recommendations.startup.async=true",
+        // Same readiness group as in the application config, which the test config replaces
+        "management.endpoint.health.probes.enabled=true",
+        "management.endpoint.health.group.readiness.include=readinessState,recommendations",
+        "management.endpoint.health.group.readiness.show-details=always"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class RecommendationStartupTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    // The startup build waits for the test before it starts and again right after its cut
+    private static final CountDownLatch BUILD = new CountDownLatch(1);
+    private static final CountDownLatch CUT_TAKEN = new CountDownLatch(1);
+    private static final CountDownLatch FINISH = new CountDownLatch(1);
+
+    private final RecommendationService recommendationService;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final DiffFreqStorage diffFreqStorage;
+    private final LikesStorage likesStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final TestRestTemplate restTemplate;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        BUILD.countDown();
+        FINISH.countDown();
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+    }
+
+    @Test
+    void shouldServePopularFilmsUntilTheModelIsBuilt() throws InterruptedException {
+        for (int i = 1; i <= 3; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 4; i++) {
+            films.add(createFilm(i));
+        }
+        rate(0, 0, 9);
+        rate(0, 1, 8);
+        rate(1, 0, 7);
+        rate(1, 2, 6);
+        rate(2, 3, 5);
+
+        ResponseEntity<Map> readiness = restTemplate.getForEntity("/actuator/health/readiness",
+            Map.class);
+        assertThat(readiness.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(readiness.getBody().toString()).contains("state=WARMING");
+
+        ResponseEntity<FilmDto[]> response = restTemplate.getForEntity(
+            "/users/" + users.get(2) + "/recommendations", FilmDto[].class);
+        assertThat(response.getHeaders().getFirst(RecommendationController.STATE_HEADER))
+            .isEqualTo("WARMING");
+        assertThat(response.getBody()).extracting(FilmDto::getId)
+            .containsExactlyInAnyOrder(films.get(0), films.get(1), films.get(2));
+        ResponseEntity<FilmDto[]> similar = restTemplate.getForEntity(
+            "/films/" + films.get(0) + "/similar", FilmDto[].class);
+        assertThat(similar.getHeaders().getFirst(RecommendationController.STATE_HEADER))
+            .isEqualTo("WARMING");
+        assertThat(similar.getBody()).isEmpty();
+
+        // Ratings before the cut are read by the build, ratings after it are applied on resume
+        Timestamp cutStamp = likesStorage.getLastRatedAt().orElseThrow();
+        BUILD.countDown();
+        assertThat(CUT_TAKEN.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        rate(2, 0, 4);
+        rate(1, 1, 10);
+        // Neither a rating gone before the scan reads it nor one written within the same tick
+        // as the cut may reach the model twice or not at all
+        unrate(0, 1);
+        rateAt(2, 2, 3, cutStamp);
+        assertThat(recommendationService.isReady()).isFalse();
+        FINISH.countDown();
+
+        assertThat(await(() -> recommendationService.isReady()
+            && !recommendationUpdates.isPaused())).isTrue();
+        assertThat(recommendationUpdates.awaitIdle(TIMEOUT)).isTrue();
+        assertThat(restTemplate.getForEntity("/actuator/health/readiness", Map.class)
+            .getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(restTemplate.getForEntity("/users/" + users.get(2) + "/recommendations",
+            FilmDto[].class).getHeaders().containsKey(RecommendationController.STATE_HEADER))
+            .isFalse();
+
+        Map<Long, Map<Long, Integer>> updatedFreq = diffFreqStorage.loadFreq();
+        Map<Long, Map<Long, Double>> updatedDiff = diffFreqStorage.loadDiff();
+        recommendationService.rebuild();
+        assertThat(updatedFreq).isEqualTo(diffFreqStorage.loadFreq());
+        assertThat(updatedDiff).isEqualTo(diffFreqStorage.loadDiff());
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void rate(int user, int film, double rating) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void unrate(int user, int film) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.getRating(userId, filmId)
+            .map(rating -> {
+                likesStorage.removeRating(userId, filmId);
+                return RatingChange.removed(filmId, rating.getRatingValue());
+            }));
+    }
+
+    // Rates with the given stamp, as a clock of coarse resolution would
+    private void rateAt(int user, int film, double rating, Timestamp ratedAt) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> {
+            likesStorage.addRating(userId, filmId, rating);
+            jdbc.update("UPDATE ratings SET rated_at = ? WHERE user_id = ? AND film_id = ?",
+                ratedAt, userId, filmId);
+            return Optional.of(RatingChange.added(filmId, rating));
+        });
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+
+    @TestConfiguration
+    static class BlockingEngineConfig {
+
+        // Holds the startup build of the slope-one engine until the test lets it go on
+        @Bean
+        @Primary
+        RecommendationEngine blockingEngine(SlopeOneEngine engine) {
+            return new RecommendationEngine() {
+                @Override
+                public boolean initialize(BuildProgress progress) {
+                    awaitLatch(BUILD);
+                    return engine.initialize(new BuildProgress() {
+                        @Override
+                        public void phase(String phase) {
+                            progress.phase(phase);
+                        }
+
+                        @Override
+                        public void ratingsToScan(long ratings) {
+                            progress.ratingsToScan(ratings);
+                        }
+
+                        @Override
+                        public void ratingsScanned(int ratings) {
+                            progress.ratingsScanned(ratings);
+                        }
+
+                        @Override
+                        public <T> T cut(Supplier<T> read) {
+                            T value = progress.cut(read);
+                            CUT_TAKEN.countDown();
+                            awaitLatch(FINISH);
+                            return value;
+                        }
+                    });
+                }
+
+                @Override
+                public void rebuild(BuildProgress progress) {
+                    engine.rebuild(progress);
+                }
+
+                @Override
+                public Predictor predictor() {
+                    return engine.predictor();
+                }
+
+                @Override
+                public RatingUpdate newUpdate() {
+                    return engine.newUpdate();
+                }
+
+                @Override
+                public List<Long> similarFilms(long filmId, int count) {
+                    return engine.similarFilms(filmId, count);
+                }
+            };
+        }
+
+        private static void awaitLatch(CountDownLatch latch) {
+            try {
+                latch.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.Rating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.RatingChange;
+import ru.yandex.practicum.filmorate.repository.DiffFreqStorage;
+import ru.yandex.practicum.filmorate.repository.FilmStorage;
+import ru.yandex.practicum.filmorate.repository.LikesStorage;
+import ru.yandex.practicum.filmorate.repository.UserStorage;
+
+@SpringBootTest(properties = {
+    "filmorate.recommendations.updates.async=true",
+    "filmorate.recommendations.updates.coalesce-window=200ms",
+    // Builds run by the test itself, none in the background
+    "filmorate.recommendations.startup.async=false"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class RecommendationUpdatePipelineTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final LikesStorage likesStorage;
+    private final RecommendationUpdatePipeline recommendationUpdates;
+    private final RecommendationService recommendationService;
+    private final DiffFreqStorage diffFreqStorage;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final MeterRegistry meterRegistry;
+    private final JdbcTemplate jdbc;
+    private final List<Long> users = new ArrayList<>();
+    private final List<Long> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        clear();
+        for (int i = 1; i <= 3; i++) {
+            users.add(createUser(i));
+        }
+        for (int i = 1; i <= 5; i++) {
+            films.add(createFilm(i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void shouldMatchRebuildAfterBackgroundUpdates() throws InterruptedException {
+        rate(0, 0, 8);
+        rate(0, 1, 6);
+        rate(1, 0, 4);
+        rate(1, 2, 9);
+        rate(2, 1, 7);
+        unrate(0, 1);
+        rate(0, 1, 3);
+        rate(0, 3, 5);
+        unrate(1, 2);
+        rate(2, 4, 10);
+
+        assertThat(recommendationUpdates.awaitIdle(TIMEOUT)).isTrue();
+        Map<Long, Map<Long, Integer>> updatedFreq = diffFreqStorage.loadFreq();
+        Map<Long, Map<Long, Double>> updatedDiff = diffFreqStorage.loadDiff();
+
+        recommendationService.rebuild();
+        assertThat(updatedFreq).isEqualTo(diffFreqStorage.loadFreq());
+        diffFreqStorage.loadDiff().forEach((filmId1, row) -> row.forEach((filmId2, diff) ->
+            assertThat(updatedDiff.get(filmId1).get(filmId2)).isCloseTo(diff, within(1e-9))));
+    }
+
+    @Test
+    void shouldCoalesceBurstOfOneUser() throws InterruptedException {
+        double events = count("recommendation.updates.events");
+        double batches = count("recommendation.updates.batches");
+
+        for (int film = 0; film < films.size(); film++) {
+            rate(0, film, film + 3);
+        }
+
+        assertThat(recommendationUpdates.awaitIdle(TIMEOUT)).isTrue();
+        assertThat(count("recommendation.updates.events") - events).isEqualTo(5.0);
+        assertThat(count("recommendation.updates.batches") - batches).isEqualTo(1.0);
+        assertThat(diffFreqStorage.loadFreq().get(films.get(0))).hasSize(4);
+        assertThat(meterRegistry.get("recommendation.updates.lag").timer().count()).isPositive();
+    }
+
+    private double count(String counter) {
+        return meterRegistry.get(counter).counter().count();
+    }
+
+    // Same writes as LikesService, which also needs the feed tables
+    private void rate(int user, int film, double rating) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> likesStorage.addRating(userId, filmId, rating)
+            ? Optional.of(RatingChange.added(filmId, rating)) : Optional.empty());
+    }
+
+    private void unrate(int user, int film) {
+        long userId = users.get(user);
+        long filmId = films.get(film);
+        recommendationUpdates.record(userId, () -> {
+            Optional<Rating> rating = likesStorage.getRating(userId, filmId);
+            likesStorage.removeRating(userId, filmId);
+            return rating.map(r -> RatingChange.removed(filmId, r.getRatingValue()));
+        });
+    }
+
+    private void clear() {
+        jdbc.execute("DELETE FROM ratings");
+        jdbc.execute("DELETE FROM films");
+        jdbc.execute("DELETE FROM users");
+        jdbc.execute("DELETE FROM item_diff");
+        jdbc.execute("DELETE FROM item_freq");
+        users.clear();
+        films.clear();
+    }
+
+    private long createUser(int idx) {
+        User user = new User();
+        user.setEmail("user" + idx + "@example.com");
+        user.setLogin("user" + idx + "login");
+        user.setName("User " + idx);
+        user.setBirthday(LocalDate.of(2000, 1, idx));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(int idx) {
+        Film film = new Film();
+        film.setName("Test Film " + idx);
+        film.setDescription("Test Description " + idx);
+        film.setReleaseDate(LocalDate.of(2000, 1, idx));
+        film.setDuration(100 + idx);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        mpaRating.setName("G");
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+}
@@ -0,0 +1,208 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrixBuilder;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
+import ru.yandex.practicum.filmorate.repository.DbAdjacencyDiffFreqStorage;
+
+@JdbcTest(properties = "filmorate.recommendations.storage.format=adjacency")
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+@Import(DbAdjacencyDiffFreqStorage.class)
+public class DbAdjacencyDiffFreqStorageTest {
+
+    private static final String DELETE_ADJACENCY_QUERY = "DELETE FROM item_adjacency";
+    private static final String DELETE_ITEM_DIFF_QUERY = "DELETE FROM item_diff";
+    private static final String DELETE_ITEM_FREQ_QUERY = "DELETE FROM item_freq";
+    private static final String COUNT_ROWS_QUERY = "SELECT COUNT(*) FROM item_adjacency";
+    private static final String BLOB_BYTES_QUERY =
+        "SELECT SUM(OCTET_LENGTH(neighbours)) FROM item_adjacency";
+
+    private final DbAdjacencyDiffFreqStorage diffFreqStorage;
+    private final JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void testSaveMatrixKeepsOneRowPerFilm() {
+        SlopeOneMatrix half = SlopeOneMatrix.halfMatrix(4);
+        half.put(1, 2, 1.5, 3);
+        half.put(1, 3, -2.0, 1);
+        half.put(2, 3, 4.0, 2);
+
+        diffFreqStorage.saveMatrix(half);
+
+        assertThat(jdbc.queryForObject(COUNT_ROWS_QUERY, Integer.class)).isEqualTo(3);
+        assertSameMatrix(diffFreqStorage.loadMatrix(), half.toFull());
+        assertThat(diffFreqStorage.loadFreq()).isEqualTo(half.toFreqMap());
+        assertThat(diffFreqStorage.loadDiff().get(2L).get(1L)).isEqualTo(-0.5);
+    }
+
+    @Test
+    void testBlobsAreFarSmallerThanPairRows() {
+        List<Map<Long, Double>> users = randomUsers(new Random(3), 300, 60);
+        SlopeOneMatrix matrix = SlopeOneMatrixBuilder.build(toUserRatings(users));
+
+        diffFreqStorage.saveMatrix(matrix);
+
+        // A row of item_diff plus one of item_freq hold at least 2 * 16 bytes of ids alone
+        long bytes = jdbc.queryForObject(BLOB_BYTES_QUERY, Long.class);
+        assertThat((double) bytes / matrix.size()).isLessThan(7.0);
+    }
+
+    @Test
+    void testApplyDeltaMatchesInMemoryMatrix() {
+        Random random = new Random(11);
+        List<Map<Long, Double>> users = randomUsers(random, 60, 20);
+        SlopeOneMatrix expected = SlopeOneMatrixBuilder.build(toUserRatings(users));
+        diffFreqStorage.saveMatrix(expected);
+
+        for (int step = 0; step < 200; step++) {
+            Map<Long, Double> ratings = users.get(random.nextInt(users.size()));
+            Map<Long, Double> before = new HashMap<>(ratings);
+            long filmId = 1 + random.nextInt(20);
+            if (ratings.containsKey(filmId) && random.nextBoolean()) {
+                ratings.remove(filmId);
+            } else {
+                ratings.put(filmId, 1.0 + random.nextInt(10));
+            }
+            SlopeOneMatrix delta = step % 2 == 0 ? SlopeOneMatrix.forDeltas()
+                : SlopeOneMatrix.forHalfDeltas();
+            SlopeOneMatrixBuilder.accumulateChange(delta, before, ratings);
+            diffFreqStorage.applyDelta(delta);
+        }
+
+        assertSameMatrix(diffFreqStorage.loadMatrix(),
+            SlopeOneMatrixBuilder.build(toUserRatings(users)));
+    }
+
+    @Test
+    void testLoadNeighbourhoodsReadsRequestedRowsOnly() {
+        SlopeOneMatrix half = SlopeOneMatrix.halfMatrix(4);
+        half.put(1, 2, 1.5, 3);
+        half.put(1, 3, -2.0, 1);
+        half.put(2, 3, 4.0, 2);
+        diffFreqStorage.saveMatrix(half);
+        List<Long> filmIds = new ArrayList<>(List.of(3L));
+        for (long filmId = 1000; filmId < 1700; filmId++) {
+            filmIds.add(filmId);
+        }
+
+        SlopeOneMatrix loaded = diffFreqStorage.loadNeighbourhoods(filmIds);
+
+        assertThat(loaded.sortedFilmIds()).containsExactly(3L);
+        assertThat(loaded.getFreq(3, 1)).isEqualTo(1);
+        assertThat(loaded.getAverageDiff(3, 2)).isEqualTo(-2.0);
+    }
+
+    @Test
+    void testRetainAndRankTopNeighbours() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.put(1, 2, 1.0, 2);
+        matrix.put(1, 3, 1.0, 5);
+        matrix.put(1, 4, 1.0, 2);
+        matrix.put(2, 1, -1.0, 2);
+        diffFreqStorage.saveMatrix(matrix);
+
+        assertThat(diffFreqStorage.getTopNeighbours(1, 2)).containsExactly(3L, 2L);
+        assertThat(diffFreqStorage.getTopNeighbours(9, 2)).isEmpty();
+
+        diffFreqStorage.retainTopNeighbours(List.of(1L), 1);
+
+        assertThat(diffFreqStorage.getTopNeighbours(1, 5)).containsExactly(3L);
+        assertThat(diffFreqStorage.getTopNeighbours(2, 5)).containsExactly(1L);
+    }
+
+    @Test
+    void testSaveDiffAndFreqSeparately() {
+        diffFreqStorage.saveDiff(Map.of(1L, Map.of(2L, 0.5, 3L, 1.0)));
+        diffFreqStorage.saveFreq(Map.of(1L, Map.of(2L, 4)));
+
+        assertThat(diffFreqStorage.loadDiff()).isEqualTo(Map.of(1L, Map.of(2L, 0.5, 3L, 1.0)));
+        assertThat(diffFreqStorage.loadFreq()).isEqualTo(Map.of(1L, Map.of(2L, 4)));
+        assertThat(diffFreqStorage.loadMatrix().size()).isEqualTo(1);
+    }
+
+    @Test
+    void testMigrateMovesHalfLayoutRows() {
+        jdbc.update("INSERT INTO item_diff (film_id1, film_id2, diff_value) VALUES (1, 2, 1.5)");
+        jdbc.update("INSERT INTO item_freq (film_id1, film_id2, freq_value) VALUES (1, 2, 2)");
+
+        diffFreqStorage.migrateLayout();
+
+        SlopeOneMatrix expected = new SlopeOneMatrix();
+        expected.put(1, 2, 3.0, 2);
+        expected.put(2, 1, -3.0, 2);
+        assertSameMatrix(diffFreqStorage.loadMatrix(), expected);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM item_freq", Integer.class)).isZero();
+
+        // Once the blobs exist the row tables are left alone
+        jdbc.update("INSERT INTO item_freq (film_id1, film_id2, freq_value) VALUES (1, 2, 2)");
+        diffFreqStorage.migrateLayout();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM item_freq", Integer.class))
+            .isEqualTo(1);
+    }
+
+    private static List<Map<Long, Double>> randomUsers(Random random, int users, int films) {
+        List<Map<Long, Double>> ratings = new ArrayList<>();
+        for (int user = 0; user < users; user++) {
+            Map<Long, Double> userRatings = new HashMap<>();
+            int count = 2 + random.nextInt(Math.min(films, 15));
+            for (int i = 0; i < count; i++) {
+                userRatings.put(1L + random.nextInt(films), 1.0 + random.nextInt(10));
+            }
+            ratings.add(userRatings);
+        }
+        return ratings;
+    }
+
+    private static List<UserRatings> toUserRatings(List<Map<Long, Double>> users) {
+        List<UserRatings> result = new ArrayList<>();
+        for (int user = 0; user < users.size(); user++) {
+            Map<Long, Double> ratings = new TreeMap<>(users.get(user));
+            result.add(new UserRatings(user + 1,
+                ratings.keySet().stream().mapToLong(Long::longValue).toArray(),
+                ratings.values().stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+        return result;
+    }
+
+    // Diffs are stored as float averages, so sums only match up to float precision
+    private static void assertSameMatrix(SlopeOneMatrix actual, SlopeOneMatrix expected) {
+        assertThat(actual.toFreqMap()).isEqualTo(expected.toFreqMap());
+        expected.forEach((filmId1, filmId2, diffSum, freq) ->
+            assertThat(actual.getAverageDiff(filmId1, filmId2))
+                .isCloseTo(diffSum / freq, within(1e-5)));
+    }
+
+    private void clear() {
+        jdbc.execute(DELETE_ADJACENCY_QUERY);
+        jdbc.execute(DELETE_ITEM_DIFF_QUERY);
+        jdbc.execute(DELETE_ITEM_FREQ_QUERY);
+    }
+}
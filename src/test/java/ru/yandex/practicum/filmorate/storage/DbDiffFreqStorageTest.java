@@ -1,7 +1,10 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import lombok.RequiredArgsConstructor;
 import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.jupiter.api.AfterEach;
@@ -12,6 +15,8 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.config.RecommendationProperties;
+import ru.yandex.practicum.filmorate.recommendation.SlopeOneMatrix;
 import ru.yandex.practicum.filmorate.repository.DbDiffFreqStorage;
 import ru.yandex.practicum.filmorate.repository.mappers.DiffRowMapper;
 import ru.yandex.practicum.filmorate.repository.mappers.FreqRowMapper;
@@ -20,7 +25,8 @@ import ru.yandex.practicum.filmorate.repository.mappers.FreqRowMapper;
 @JdbcTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
-@Import({DbDiffFreqStorage.class, DiffRowMapper.class, FreqRowMapper.class})
+@Import({DbDiffFreqStorage.class, DiffRowMapper.class, FreqRowMapper.class,
+    RecommendationProperties.class})
 public class DbDiffFreqStorageTest {
 
     private static final String DELETE_ITEM_DIFF_QUERY = "DELETE FROM item_diff";
@@ -34,6 +40,7 @@ public class DbDiffFreqStorageTest {
 
     private final DbDiffFreqStorage diffFreqStorage;
     private final JdbcTemplate jdbc;
+    private final RecommendationProperties properties;
 
     @BeforeEach
     void setUp() {
@@ -43,6 +50,7 @@ public class DbDiffFreqStorageTest {
 
     @AfterEach
     void tearDown() {
+        properties.getStorage().setHalfMatrix(false);
         jdbc.execute(DELETE_ITEM_DIFF_QUERY);
         jdbc.execute(DELETE_ITEM_FREQ_QUERY);
     }
@@ -121,4 +129,257 @@ public class DbDiffFreqStorageTest {
 
         assertThat(loadedFreq).isEqualTo(freq);
     }
+
+    @Test
+    void testSaveMatrixReplacesStoredPairs() {
+        diffFreqStorage.saveDiff(Map.of(5L, Map.of(6L, 2.0)));
+        diffFreqStorage.saveFreq(Map.of(5L, Map.of(6L, 1)));
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1L, 2L, 1.0, 1);
+        matrix.add(1L, 2L, 2.0, 1);
+        matrix.add(2L, 1L, -3.0, 2);
+
+        diffFreqStorage.saveMatrix(matrix);
+
+        assertThat(jdbc.queryForList(SELECT_ALL_DIFF_QUERY)).hasSize(2);
+        assertThat(jdbc.queryForList(SELECT_ALL_FREQ_QUERY)).hasSize(2);
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 2)).containsEntry("diff_value",
+            1.5);
+        assertThat(jdbc.queryForMap(SELECT_FREQ_BY_ID_QUERY, 2, 1)).containsEntry("freq_value", 2);
+    }
+
+    @Test
+    void testLoadMatrix() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (long filmId = 2; filmId <= 1500; filmId++) {
+            matrix.add(1L, filmId, filmId % 7 - 3.0, 1 + (int) (filmId % 3));
+            matrix.add(filmId, 1L, 3.0 - filmId % 7, 1 + (int) (filmId % 3));
+        }
+        diffFreqStorage.saveMatrix(matrix);
+
+        SlopeOneMatrix loaded = diffFreqStorage.loadMatrix();
+
+        assertThat(loaded.size()).isEqualTo(matrix.size());
+        assertThat(loaded.toFreqMap()).isEqualTo(matrix.toFreqMap());
+        assertThat(loaded.toDiffMap()).isEqualTo(matrix.toDiffMap());
+    }
+
+    @Test
+    void testApplyDeltaInsertsNewPairs() {
+        SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+        delta.add(1L, 2L, 3.0, 1);
+        delta.add(2L, 1L, -3.0, 1);
+
+        diffFreqStorage.applyDelta(delta);
+
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 2)).containsEntry("diff_value",
+            3.0);
+        assertThat(jdbc.queryForMap(SELECT_FREQ_BY_ID_QUERY, 2, 1)).containsEntry("freq_value", 1);
+    }
+
+    @Test
+    void testApplyDeltaMergesWithStoredAverages() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1L, 2L, 2.0, 1);
+        matrix.add(1L, 2L, 4.0, 1);
+        matrix.add(1L, 3L, 1.0, 1);
+        diffFreqStorage.saveMatrix(matrix);
+        SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+        delta.add(1L, 2L, 6.0, 1);
+        delta.add(1L, 3L, 2.0, 0);
+
+        diffFreqStorage.applyDelta(delta);
+
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 2)).containsEntry("diff_value",
+            4.0);
+        assertThat(jdbc.queryForMap(SELECT_FREQ_BY_ID_QUERY, 1, 2)).containsEntry("freq_value", 3);
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 3)).containsEntry("diff_value",
+            3.0);
+        assertThat(jdbc.queryForMap(SELECT_FREQ_BY_ID_QUERY, 1, 3)).containsEntry("freq_value", 1);
+    }
+
+    @Test
+    void testApplyDeltaSubtractsAndDropsEmptyPairs() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1L, 2L, 2.0, 1);
+        matrix.add(1L, 2L, 4.0, 1);
+        matrix.add(1L, 3L, 1.0, 1);
+        diffFreqStorage.saveMatrix(matrix);
+        SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+        delta.add(1L, 2L, -4.0, -1);
+        delta.add(1L, 3L, -1.0, -1);
+
+        diffFreqStorage.applyDelta(delta);
+
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 2)).containsEntry("diff_value",
+            2.0);
+        assertThat(jdbc.queryForMap(SELECT_FREQ_BY_ID_QUERY, 1, 2)).containsEntry("freq_value", 1);
+        assertThat(jdbc.queryForList(SELECT_DIFF_BY_DI_QUERY, 1, 3)).isEmpty();
+        assertThat(jdbc.queryForList(SELECT_FREQ_BY_ID_QUERY, 1, 3)).isEmpty();
+    }
+
+    @Test
+    void testApplyDeltaKeepsDiffSumsOfTheInMemoryMatrix() {
+        Random random = new Random(42);
+        SlopeOneMatrix expected = new SlopeOneMatrix();
+        List<double[]> coRatings = new ArrayList<>();
+        diffFreqStorage.saveMatrix(expected);
+        for (int i = 0; i < 500; i++) {
+            SlopeOneMatrix delta = SlopeOneMatrix.forDeltas();
+            if (coRatings.isEmpty() || random.nextInt(3) > 0) {
+                long filmId1 = 1 + random.nextInt(4);
+                long filmId2 = filmId1 + 1 + random.nextInt(3);
+                double diff = (random.nextInt(19) - 9) / 3.0;
+                coRatings.add(new double[]{filmId1, filmId2, diff});
+                delta.add(filmId1, filmId2, diff, 1);
+                delta.add(filmId2, filmId1, -diff, 1);
+            } else {
+                double[] coRating = coRatings.remove(random.nextInt(coRatings.size()));
+                delta.add((long) coRating[0], (long) coRating[1], -coRating[2], -1);
+                delta.add((long) coRating[1], (long) coRating[0], coRating[2], -1);
+            }
+            delta.forEach(expected::add);
+
+            diffFreqStorage.applyDelta(delta);
+        }
+
+        assertThat(diffFreqStorage.loadMatrix().contentEquals(expected)).isTrue();
+        assertThat(diffFreqStorage.loadNeighbourhoods(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L))
+            .contentEquals(expected)).isTrue();
+    }
+
+    @Test
+    void testRetainTopNeighbours() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1L, 2L, 1.0, 5);
+        matrix.add(1L, 3L, 1.0, 1);
+        matrix.add(1L, 4L, 1.0, 3);
+        matrix.add(1L, 5L, 1.0, 3);
+        matrix.add(1L, 6L, 1.0, 3);
+        matrix.add(2L, 1L, -1.0, 5);
+        matrix.add(2L, 3L, 1.0, 1);
+        diffFreqStorage.saveMatrix(matrix);
+
+        diffFreqStorage.retainTopNeighbours(List.of(1L), 3);
+
+        assertThat(jdbc.queryForList("SELECT film_id2 FROM item_freq WHERE film_id1 = 1 "
+            + "ORDER BY film_id2", Long.class)).containsExactly(2L, 4L, 5L);
+        assertThat(jdbc.queryForList("SELECT film_id2 FROM item_diff WHERE film_id1 = 1 "
+            + "ORDER BY film_id2", Long.class)).containsExactly(2L, 4L, 5L);
+        assertThat(jdbc.queryForList("SELECT film_id2 FROM item_freq WHERE film_id1 = 2 "
+            + "ORDER BY film_id2", Long.class)).containsExactly(1L, 3L);
+    }
+
+    @Test
+    void testHalfLayoutStoresEachPairOnce() {
+        properties.getStorage().setHalfMatrix(true);
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1L, 2L, 3.0, 2);
+        matrix.add(2L, 1L, -3.0, 2);
+        matrix.add(3L, 1L, 1.0, 1);
+        matrix.add(1L, 3L, -1.0, 1);
+
+        diffFreqStorage.saveMatrix(matrix);
+
+        assertThat(jdbc.queryForList(SELECT_ALL_DIFF_QUERY)).hasSize(2);
+        assertThat(jdbc.queryForList(SELECT_ALL_FREQ_QUERY)).hasSize(2);
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 3)).containsEntry("diff_value",
+            -1.0);
+        assertThat(diffFreqStorage.loadMatrix().contentEquals(matrix)).isTrue();
+        assertThat(diffFreqStorage.loadDiff()).isEqualTo(matrix.toDiffMap());
+        assertThat(diffFreqStorage.loadFreq()).isEqualTo(matrix.toFreqMap());
+    }
+
+    @Test
+    void testHalfLayoutAppliesDeltaToStoredDirection() {
+        properties.getStorage().setHalfMatrix(true);
+        SlopeOneMatrix matrix = SlopeOneMatrix.halfMatrix(4);
+        matrix.add(1L, 2L, 2.0, 1);
+        diffFreqStorage.saveMatrix(matrix);
+        SlopeOneMatrix delta = SlopeOneMatrix.forHalfDeltas();
+        delta.add(2L, 1L, -4.0, 1);
+        delta.add(3L, 2L, 1.0, 1);
+
+        diffFreqStorage.applyDelta(delta);
+
+        assertThat(jdbc.queryForList(SELECT_ALL_FREQ_QUERY)).hasSize(2);
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 1, 2)).containsEntry("diff_value",
+            3.0);
+        assertThat(jdbc.queryForMap(SELECT_FREQ_BY_ID_QUERY, 1, 2)).containsEntry("freq_value", 2);
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 2, 3)).containsEntry("diff_value",
+            -1.0);
+    }
+
+    @Test
+    void testMigrateLayoutConvertsBothWays() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        matrix.add(1L, 2L, 3.0, 2);
+        matrix.add(2L, 1L, -3.0, 2);
+        matrix.add(2L, 3L, 0.5, 1);
+        matrix.add(3L, 2L, -0.5, 1);
+        diffFreqStorage.saveMatrix(matrix);
+
+        properties.getStorage().setHalfMatrix(true);
+        diffFreqStorage.migrateLayout();
+
+        assertThat(jdbc.queryForList(SELECT_ALL_DIFF_QUERY)).hasSize(2);
+        assertThat(jdbc.queryForList("SELECT * FROM item_freq WHERE film_id1 > film_id2"))
+            .isEmpty();
+        assertThat(diffFreqStorage.loadMatrix().contentEquals(matrix)).isTrue();
+
+        properties.getStorage().setHalfMatrix(false);
+        diffFreqStorage.migrateLayout();
+
+        assertThat(jdbc.queryForList(SELECT_ALL_DIFF_QUERY)).hasSize(4);
+        assertThat(jdbc.queryForMap(SELECT_DIFF_BY_DI_QUERY, 3, 2)).containsEntry("diff_value",
+            -0.5);
+        assertThat(diffFreqStorage.loadMatrix().contentEquals(matrix)).isTrue();
+    }
+
+    @Test
+    void testGetTopNeighboursInBothLayouts() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (long[] pair : new long[][]{{1, 2, 2}, {1, 3, 3}, {1, 4, 2}, {2, 4, 1}}) {
+            matrix.add(pair[0], pair[1], 1.0, (int) pair[2]);
+            matrix.add(pair[1], pair[0], -1.0, (int) pair[2]);
+        }
+
+        for (boolean half : new boolean[]{false, true}) {
+            properties.getStorage().setHalfMatrix(half);
+            diffFreqStorage.saveMatrix(half ? matrix.toHalf() : matrix);
+
+            assertThat(diffFreqStorage.getTopNeighbours(1L, 2)).containsExactly(3L, 2L);
+            assertThat(diffFreqStorage.getTopNeighbours(4L, 5)).containsExactly(1L, 2L);
+            assertThat(diffFreqStorage.getTopNeighbours(3L, 5)).containsExactly(1L);
+            assertThat(diffFreqStorage.getTopNeighbours(5L, 5)).isEmpty();
+        }
+    }
+
+    @Test
+    void testLoadNeighbourhoodsInBothLayouts() {
+        SlopeOneMatrix matrix = new SlopeOneMatrix();
+        for (long[] pair : new long[][]{{1, 2, 2}, {1, 3, 3}, {1, 4, 2}, {2, 4, 1}}) {
+            matrix.add(pair[0], pair[1], 3.0, (int) pair[2]);
+            matrix.add(pair[1], pair[0], -3.0, (int) pair[2]);
+        }
+        SlopeOneMatrix expected = new SlopeOneMatrix();
+        for (long filmId : new long[]{2, 4}) {
+            matrix.forEachNeighbour(filmId, (otherFilmId, diffSum, freq) ->
+                expected.put(filmId, otherFilmId, diffSum, freq));
+        }
+        // More ids than fit into one IN list
+        List<Long> filmIds = new ArrayList<>(List.of(2L, 4L));
+        for (long filmId = 1000; filmId < 1700; filmId++) {
+            filmIds.add(filmId);
+        }
+
+        for (boolean half : new boolean[]{false, true}) {
+            properties.getStorage().setHalfMatrix(half);
+            diffFreqStorage.saveMatrix(half ? matrix.toHalf() : matrix);
+
+            assertThat(diffFreqStorage.loadNeighbourhoods(filmIds).contentEquals(expected))
+                .isTrue();
+            assertThat(diffFreqStorage.loadNeighbourhoods(List.of()).size()).isZero();
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.repository.DbFilmStatsStorage;
+import ru.yandex.practicum.filmorate.repository.DbFilmStorage;
+import ru.yandex.practicum.filmorate.repository.DbLikesStorage;
+import ru.yandex.practicum.filmorate.repository.DbUserStorage;
+import ru.yandex.practicum.filmorate.repository.mappers.FilmWithRatingRowMapper;
+import ru.yandex.practicum.filmorate.repository.mappers.RatingRowMapper;
+import ru.yandex.practicum.filmorate.repository.mappers.UserRowMapper;
+
+@JdbcTest
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+@Import({DbFilmStatsStorage.class, DbLikesStorage.class, DbUserStorage.class, DbFilmStorage.class,
+    UserRowMapper.class, FilmWithRatingRowMapper.class, RatingRowMapper.class})
+public class DbFilmStatsStorageTest {
+
+    private static final String DELETE_LIKES_QUERY = "DELETE FROM ratings";
+    private static final String DELETE_FILMS_QUERY = "DELETE FROM films";
+    private static final String DELETE_USERS_QUERY = "DELETE FROM users";
+    private static final String GET_STATS_QUERY =
+        "SELECT rating_count FROM film_stats WHERE film_id = ?";
+    private final DbFilmStatsStorage filmStatsStorage;
+    private final DbLikesStorage likesStorage;
+    private final DbUserStorage userStorage;
+    private final DbFilmStorage filmStorage;
+    private final JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        clear();
+    }
+
+    @Test
+    void testRatingWritesKeepStatsInLine() {
+        long user1 = createUser(1);
+        long user2 = createUser(2);
+        long film = createFilm("Film");
+
+        assertThat(jdbc.queryForObject(GET_STATS_QUERY, Integer.class, film)).isZero();
+        likesStorage.addRating(user1, film, 4);
+        likesStorage.addRating(user2, film, 9);
+        likesStorage.addRating(user2, film, 1);
+        assertThat(avgRating(film)).isEqualTo(6.5);
+
+        likesStorage.removeRating(user1, film);
+        likesStorage.removeRating(user1, film);
+        assertThat(avgRating(film)).isEqualTo(9.0);
+        assertThat(jdbc.queryForObject(GET_STATS_QUERY, Integer.class, film)).isEqualTo(1);
+
+        likesStorage.removeRating(user2, film);
+        assertThat(avgRating(film)).isZero();
+        assertThat(filmStatsStorage.findInconsistentFilms()).isEmpty();
+    }
+
+    @Test
+    void testDeletingUserTakesTheirRatingsOut() {
+        long user1 = createUser(1);
+        long user2 = createUser(2);
+        long film1 = createFilm("Film 1");
+        long film2 = createFilm("Film 2");
+        likesStorage.addRating(user1, film1, 2);
+        likesStorage.addRating(user2, film1, 6);
+        likesStorage.addRating(user1, film2, 5);
+
+        userStorage.deleteUser(user1);
+
+        assertThat(avgRating(film1)).isEqualTo(6.0);
+        assertThat(avgRating(film2)).isZero();
+        assertThat(filmStatsStorage.findInconsistentFilms()).isEmpty();
+    }
+
+    @Test
+    void testRebuildRepairsRatingsWrittenAroundTheStorage() {
+        long user = createUser(1);
+        long film1 = createFilm("Film 1");
+        long film2 = createFilm("Film 2");
+        long film3 = createFilm("Film 3");
+        likesStorage.addRating(user, film1, 3);
+        jdbc.update("INSERT INTO ratings (user_id, film_id, rating_value) VALUES (?, ?, 8)", user,
+            film2);
+        jdbc.update("DELETE FROM film_stats WHERE film_id = ?", film3);
+
+        assertThat(filmStatsStorage.findInconsistentFilms()).containsExactly(film2, film3);
+        assertThat(avgRating(film2)).isZero();
+
+        assertThat(filmStatsStorage.rebuild()).isEqualTo(3);
+
+        assertThat(filmStatsStorage.findInconsistentFilms()).isEmpty();
+        assertThat(avgRating(film1)).isEqualTo(3.0);
+        assertThat(avgRating(film2)).isEqualTo(8.0);
+        assertThat(jdbc.queryForObject(GET_STATS_QUERY, Integer.class, film3)).isZero();
+    }
+
+    @Test
+    void testFilmReadsCarryTheAverageOfTheRatings() {
+        long user1 = createUser(1);
+        long user2 = createUser(2);
+        long film1 = createFilm("Film 1");
+        long film2 = createFilm("Film 2");
+        long film3 = createFilm("Film 3");
+        likesStorage.addRating(user1, film1, 3);
+        likesStorage.addRating(user2, film1, 8);
+        likesStorage.addRating(user1, film2, 7);
+
+        Map<Long, Double> expected = Map.of(film1, 5.5, film2, 7.0, film3, 0.0);
+        assertThat(filmStorage.getFilmsByIds(List.of(film3, film2, film1)))
+            .allSatisfy(film -> assertThat(film.getAvgRating())
+                .isEqualTo(expected.get(film.getFilm().getId())));
+        assertThat(filmStorage.getAllFilms()).hasSize(3)
+            .allSatisfy(film -> assertThat(film.getAvgRating())
+                .isEqualTo(expected.get(film.getFilm().getId())));
+    }
+
+    private long createUser(int n) {
+        User user = new User();
+        user.setEmail("user" + n + "@example.com");
+        user.setLogin("user" + n + "login");
+        user.setName("User " + n);
+        user.setBirthday(LocalDate.of(2000, 1, 1));
+        return userStorage.addUser(user);
+    }
+
+    private long createFilm(String name) {
+        Film film = new Film();
+        film.setName(name);
+        film.setDescription("Description");
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setDuration(120);
+        MpaRating mpaRating = new MpaRating();
+        mpaRating.setId(1);
+        film.setMpa(mpaRating);
+        film.setGenres(new HashSet<>());
+        film.setDirectors(new HashSet<>());
+        return filmStorage.addFilm(film);
+    }
+
+    private double avgRating(long filmId) {
+        return filmStorage.getFilmById(filmId).orElseThrow().getAvgRating();
+    }
+
+    private void clear() {
+        jdbc.execute(DELETE_LIKES_QUERY);
+        jdbc.execute(DELETE_FILMS_QUERY);
+        jdbc.execute(DELETE_USERS_QUERY);
+    }
+}
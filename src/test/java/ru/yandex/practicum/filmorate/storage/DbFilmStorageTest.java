@@ -1,9 +1,12 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import lombok.RequiredArgsConstructor;
 import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.jupiter.api.AfterEach;
@@ -14,17 +17,19 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.FilmWithRating;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.SearchType;
 import ru.yandex.practicum.filmorate.repository.DbFilmStorage;
-import ru.yandex.practicum.filmorate.repository.mappers.FilmWithAvgRatingDataMapper;
+import ru.yandex.practicum.filmorate.repository.mappers.FilmWithRatingRowMapper;
 
 @JdbcTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
-@Import({DbFilmStorage.class, FilmWithAvgRatingDataMapper.class})
+@Import({DbFilmStorage.class, FilmWithRatingRowMapper.class})
 class DbFilmStorageTest {
 
     private static final String DELETE_FILMS_QUERY = "DELETE FROM films";
@@ -101,6 +106,94 @@ class DbFilmStorageTest {
         });
     }
 
+    @Test
+    void testGetFilmsAfterPagesById() {
+        Film film1 = createFilm("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120,
+            1, "G");
+        Film film2 = createFilm("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150,
+            2, "PG");
+        Film film3 = createFilm("Test Film 3", "Test Description 3", LocalDate.of(2002, 3, 3), 90,
+            3, "PG-13");
+
+        assertThat(filmStorage.getFilmsAfter(0, 2)).map(FilmWithRating::getFilm)
+            .containsExactly(film1, film2);
+        assertThat(filmStorage.getFilmsAfter(film2.getId(), 2)).map(FilmWithRating::getFilm)
+            .containsExactly(film3);
+        assertThat(filmStorage.getFilmsAfter(film3.getId(), 2)).isEmpty();
+    }
+
+    @Test
+    void testGetFilmsByIdsKeepsRequestedOrder() {
+        Film film1 = createFilm("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120,
+            1, "G");
+        Film film2 = createFilm("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150,
+            2, "PG");
+        Film film3 = createFilm("Test Film 3", "Test Description 3", LocalDate.of(2002, 3, 3), 90,
+            3, "PG-13");
+        Genre genre = new Genre(1, "Комедия");
+        film2.getGenres().add(genre);
+        jdbc.update(ADD_GENRE_QUERY, film2.getId(), genre.getId());
+
+        List<FilmWithRating> films = filmStorage.getFilmsByIds(
+            List.of(film3.getId(), film3.getId() + 42L, film1.getId(), film2.getId()));
+
+        assertThat(films).map(FilmWithRating::getFilm).containsExactly(film3, film1, film2);
+        assertThat(filmStorage.getFilmsByIds(List.of())).isEmpty();
+    }
+
+    @Test
+    void testGetFilmsByIdsReadsLongIdListsInChunks() {
+        Film film1 = createFilm("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120,
+            1, "G");
+        Film film2 = createFilm("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150,
+            2, "PG");
+        List<Long> filmIds = new ArrayList<>();
+        filmIds.add(film2.getId());
+        for (long i = 1; i <= 1200; i++) {
+            filmIds.add(film2.getId() + i);
+        }
+        filmIds.add(film1.getId());
+
+        assertThat(filmStorage.getFilmsByIds(filmIds)).map(FilmWithRating::getFilm)
+            .containsExactly(film2, film1);
+    }
+
+    @Test
+    void testFilmReadsCarryAllGenresAndDirectors() {
+        Film film = createFilm("Test Film", "Test Description", LocalDate.of(2000, 1, 1), 120, 1,
+            "G");
+        Film other = createFilm("Other Film", "Other Description", LocalDate.of(2001, 2, 2), 90,
+            2, "PG");
+        for (int genreId = 1; genreId <= 3; genreId++) {
+            film.getGenres().add(new Genre(genreId, null));
+        }
+        for (String name : List.of("First Director", "Second Director")) {
+            jdbc.update("INSERT INTO directors (name) VALUES (?)", name);
+            Director director = new Director();
+            director.setId(jdbc.queryForObject("SELECT director_id FROM directors WHERE name = ?",
+                Long.class, name));
+            director.setName(name);
+            film.getDirectors().add(director);
+        }
+        filmStorage.updateFilm(film);
+        film.setGenres(new HashSet<>(jdbc.query("SELECT * FROM genres WHERE genre_id <= 3",
+            (rs, rowNum) -> new Genre(rs.getInt("genre_id"), rs.getString("name")))));
+        long directorId = film.getDirectors().iterator().next().getId();
+
+        assertThat(filmStorage.getFilmById(film.getId())).map(FilmWithRating::getFilm)
+            .hasValue(film);
+        assertThat(filmStorage.getAllFilms()).map(FilmWithRating::getFilm)
+            .containsExactly(film, other);
+        assertThat(filmStorage.getFilmsByIds(List.of(other.getId(), film.getId())))
+            .map(FilmWithRating::getFilm).containsExactly(other, film);
+        assertThat(filmStorage.getDirectorFilmsBylikes(directorId, "year"))
+            .map(FilmWithRating::getFilm).containsExactly(film);
+        assertThat(filmStorage.searchFilms("second", Set.of(SearchType.DIRECTOR)))
+            .map(FilmWithRating::getFilm).containsExactly(film);
+        jdbc.execute("DELETE FROM film_directors");
+        jdbc.execute("DELETE FROM directors");
+    }
+
     @Test
     void testUpdateFilm() {
         Film film = createFilm("Test Film", "Test Description", LocalDate.of(2000, 1, 1), 120, 1,
@@ -1,6 +1,8 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -22,10 +24,12 @@ import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 import ru.yandex.practicum.filmorate.model.Rating;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.recommendation.FilmRatingTotals;
+import ru.yandex.practicum.filmorate.recommendation.UserRatings;
 import ru.yandex.practicum.filmorate.repository.DbFilmStorage;
 import ru.yandex.practicum.filmorate.repository.DbLikesStorage;
 import ru.yandex.practicum.filmorate.repository.DbUserStorage;
-import ru.yandex.practicum.filmorate.repository.mappers.FilmWithAvgRatingDataMapper;
+import ru.yandex.practicum.filmorate.repository.mappers.FilmWithRatingRowMapper;
 import ru.yandex.practicum.filmorate.repository.mappers.RatingRowMapper;
 import ru.yandex.practicum.filmorate.repository.mappers.UserRowMapper;
 
@@ -33,7 +37,7 @@ import ru.yandex.practicum.filmorate.repository.mappers.UserRowMapper;
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 @Import({DbLikesStorage.class, DbUserStorage.class, DbFilmStorage.class, UserRowMapper.class,
-    FilmWithAvgRatingDataMapper.class, RatingRowMapper.class})
+    FilmWithRatingRowMapper.class, RatingRowMapper.class})
 public class DbLikesStorageTest {
 
     private static final String DELETE_LIKES_QUERY = "DELETE FROM ratings";
@@ -96,11 +100,36 @@ public class DbLikesStorageTest {
         Film film = createFilm("Test Film", "Test Description", LocalDate.of(2000, 1, 1), 120, 1,
             "G", new HashSet<>(), new HashSet<>());
 
-        likesStorage.addRating(user.getId(), film.getId(), 1);
+        assertThat(likesStorage.addRating(user.getId(), film.getId(), 1)).isTrue();
         assertThat(jdbc.queryForList("SELECT user_id FROM ratings WHERE film_id = ?", Long.class,
             film.getId())).containsExactly(user.getId());
     }
 
+    @Test
+    void testAddDuplicateRatingReportsNothingInserted() {
+        User user = createUser("user1@example.com", "user1login", "User 1",
+            LocalDate.of(2000, 1, 1));
+        Film film = createFilm("Test Film", "Test Description", LocalDate.of(2000, 1, 1), 120, 1,
+            "G", new HashSet<>(), new HashSet<>());
+        likesStorage.addRating(user.getId(), film.getId(), 7);
+
+        assertThat(likesStorage.addRating(user.getId(), film.getId(), 3)).isFalse();
+        assertThat(likesStorage.getRatingsOfFilm(film.getId())).hasSize(1);
+    }
+
+    @Test
+    void testGetRating() {
+        User user = createUser("user1@example.com", "user1login", "User 1",
+            LocalDate.of(2000, 1, 1));
+        Film film = createFilm("Test Film", "Test Description", LocalDate.of(2000, 1, 1), 120, 1,
+            "G", new HashSet<>(), new HashSet<>());
+        likesStorage.addRating(user.getId(), film.getId(), 7);
+
+        assertThat(likesStorage.getRating(user.getId(), film.getId())).hasValueSatisfying(
+            rating -> assertThat(rating.getRatingValue()).isEqualTo(7));
+        assertThat(likesStorage.getRating(user.getId(), film.getId() + 1)).isEmpty();
+    }
+
     @Test
     void testRemoveRating() {
         User user = createUser("user1@example.com", "user1login", "User 1",
@@ -164,6 +193,98 @@ public class DbLikesStorageTest {
         assertThat(ratings.get(1).getRatingValue()).isEqualTo(5);
     }
 
+    @Test
+    void testForEachUserRatingsGroupsByUserInOrder() {
+        User user1 = createUser("user1@example.com", "user1login", "User 1",
+            LocalDate.of(2000, 1, 1));
+        User user2 = createUser("user2@example.com", "user2login", "User 2",
+            LocalDate.of(2001, 2, 2));
+        Film film1 = createFilm("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120,
+            1, "G", new HashSet<>(), new HashSet<>());
+        Film film2 = createFilm("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150,
+            2, "PG", new HashSet<>(), new HashSet<>());
+        likesStorage.addRating(user2.getId(), film2.getId(), 3);
+        likesStorage.addRating(user1.getId(), film2.getId(), 10);
+        likesStorage.addRating(user2.getId(), film1.getId(), 7);
+        likesStorage.addRating(user1.getId(), film1.getId(), 5);
+
+        List<UserRatings> users = new ArrayList<>();
+        likesStorage.forEachUserRatings(users::add);
+
+        assertThat(users).hasSize(2);
+        assertThat(users.get(0).userId()).isEqualTo(user1.getId());
+        assertThat(users.get(0).filmIds()).containsExactly(film1.getId(), film2.getId());
+        assertThat(users.get(0).ratings()).containsExactly(5.0, 10.0);
+        assertThat(users.get(1).userId()).isEqualTo(user2.getId());
+        assertThat(users.get(1).filmIds()).containsExactly(film1.getId(), film2.getId());
+        assertThat(users.get(1).ratings()).containsExactly(7.0, 3.0);
+    }
+
+    @Test
+    void testForEachUserRatingsWithoutRatings() {
+        List<UserRatings> users = new ArrayList<>();
+        likesStorage.forEachUserRatings(users::add);
+
+        assertThat(users).isEmpty();
+    }
+
+    @Test
+    void testStreamRatingsByUserIdRange() {
+        List<User> users = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            users.add(createUser("user" + i + "@example.com", "user" + i + "login", "User " + i,
+                LocalDate.of(2000, 1, i)));
+        }
+        Film film1 = createFilm("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120,
+            1, "G", new HashSet<>(), new HashSet<>());
+        Film film2 = createFilm("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150,
+            2, "PG", new HashSet<>(), new HashSet<>());
+        for (User user : users) {
+            likesStorage.addRating(user.getId(), film1.getId(), 5);
+        }
+        likesStorage.addRating(users.get(1).getId(), film2.getId(), 7);
+        Timestamp ratedUpTo = likesStorage.getLastRatedAt().orElseThrow();
+
+        assertThat(likesStorage.findRaterIdRangeEnd(ratedUpTo, 0, 2))
+            .contains(users.get(1).getId());
+        assertThat(likesStorage.findRaterIdRangeEnd(ratedUpTo, users.get(1).getId(), 2))
+            .contains(users.get(2).getId());
+        assertThat(likesStorage.findRaterIdRangeEnd(ratedUpTo, users.get(2).getId(), 2)).isEmpty();
+
+        List<UserRatings> chunk = new ArrayList<>();
+        likesStorage.forEachUserRatings(ratedUpTo, users.get(0).getId(), users.get(2).getId(),
+            chunk::add);
+        assertThat(chunk).extracting(UserRatings::userId)
+            .containsExactly(users.get(1).getId(), users.get(2).getId());
+        assertThat(chunk.getFirst().filmIds()).containsExactly(film1.getId(), film2.getId());
+    }
+
+    @Test
+    void testGetFilmRatingTotalsMatchesAverageRating() {
+        User user1 = createUser("user1@example.com", "user1login", "User 1",
+            LocalDate.of(2000, 1, 1));
+        User user2 = createUser("user2@example.com", "user2login", "User 2",
+            LocalDate.of(2001, 2, 2));
+        Film film1 = createFilm("Test Film 1", "Test Description 1", LocalDate.of(2000, 1, 1), 120,
+            1, "G", new HashSet<>(), new HashSet<>());
+        Film film2 = createFilm("Test Film 2", "Test Description 2", LocalDate.of(2001, 2, 2), 150,
+            2, "PG", new HashSet<>(), new HashSet<>());
+        Film film3 = createFilm("Test Film 3", "Test Description 3", LocalDate.of(2002, 3, 3), 180,
+            3, "PG-13", new HashSet<>(), new HashSet<>());
+        likesStorage.addRating(user1.getId(), film1.getId(), 4);
+        likesStorage.addRating(user2.getId(), film1.getId(), 9);
+        likesStorage.addRating(user1.getId(), film2.getId(), 3);
+
+        FilmRatingTotals totals = likesStorage.getFilmRatingTotals();
+
+        assertThat(totals.filmCount()).isEqualTo(2);
+        for (Film film : List.of(film1, film2, film3)) {
+            assertThat(totals.average(film.getId())).isEqualTo(
+                filmStorage.getFilmById(film.getId()).orElseThrow().getAvgRating());
+        }
+        assertThat(totals.average(film1.getId())).isEqualTo(6.5);
+    }
+
     @Test
     void testGetRatedFilms() {
         User user = createUser("user1@example.com", "user1login", "User 1",
@@ -113,6 +113,20 @@ class DbUserStorageTest {
         assertThat(users).contains(user1, user2);
     }
 
+    @Test
+    void testGetUsersAfterPagesById() {
+        User user1 = createUser("test1@example.com", "testlogin1", "Test User 1",
+            LocalDate.of(2001, 1, 1));
+        User user2 = createUser("test2@example.com", "testlogin2", "Test User 2",
+            LocalDate.of(2002, 2, 2));
+        User user3 = createUser("test3@example.com", "testlogin3", "Test User 3",
+            LocalDate.of(2003, 3, 3));
+
+        assertThat(userStorage.getUsersAfter(0, 2)).containsExactly(user1, user2);
+        assertThat(userStorage.getUsersAfter(user2.getId(), 2)).containsExactly(user3);
+        assertThat(userStorage.getUsersAfter(user3.getId(), 2)).isEmpty();
+    }
+
     @Test
     void testCheckUserExists() {
         User user = createUser("test@example.com", "testlogin", "Test User",
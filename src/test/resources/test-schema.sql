@@ -62,10 +62,20 @@ CREATE TABLE IF NOT EXISTS ratings (
     FOREIGN KEY (film_id) REFERENCES films(film_id) ON DELETE CASCADE
 );
 
+CREATE TABLE IF NOT EXISTS film_stats (
+    film_id BIGINT PRIMARY KEY,
+    rating_sum DOUBLE PRECISION NOT NULL DEFAULT 0.0,
+    rating_count INTEGER NOT NULL DEFAULT 0,
+    avg_rating DOUBLE PRECISION GENERATED ALWAYS AS (
+        CASE WHEN rating_count > 0 THEN rating_sum / rating_count ELSE 0.0 END),
+    FOREIGN KEY (film_id) REFERENCES films(film_id) ON DELETE CASCADE
+);
+
 CREATE TABLE IF NOT EXISTS item_diff (
     film_id1 BIGINT NOT NULL,
     film_id2 BIGINT NOT NULL,
     diff_value DOUBLE PRECISION NOT NULL,
+    diff_sum DOUBLE PRECISION,
     PRIMARY KEY (film_id1, film_id2)
 );
 
@@ -76,6 +86,30 @@ CREATE TABLE IF NOT EXISTS item_freq (
     PRIMARY KEY (film_id1, film_id2)
 );
 
+CREATE TABLE IF NOT EXISTS item_adjacency (
+    film_id BIGINT PRIMARY KEY,
+    neighbour_count INTEGER NOT NULL,
+    neighbours BLOB NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS item_pair_rebuild (
+    film_id1 BIGINT NOT NULL,
+    film_id2 BIGINT NOT NULL,
+    diff_sum DOUBLE PRECISION NOT NULL,
+    freq_value INTEGER NOT NULL,
+    PRIMARY KEY (film_id1, film_id2)
+);
+
+CREATE TABLE IF NOT EXISTS rebuild_checkpoint (
+    checkpoint_id INTEGER PRIMARY KEY,
+    rated_up_to TIMESTAMP NOT NULL,
+    rating_count BIGINT NOT NULL,
+    half_matrix BOOLEAN NOT NULL,
+    last_user_id BIGINT NOT NULL,
+    ratings_scanned BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
 CREATE TABLE IF NOT EXISTS directors (
     director_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     name VARCHAR(100) NOT NULL UNIQUE